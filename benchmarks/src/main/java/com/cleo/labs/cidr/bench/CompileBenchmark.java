@@ -0,0 +1,62 @@
+package com.cleo.labs.cidr.bench;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cleo.labs.cidr.CidrPattern;
+
+/**
+ * Measures the time to compile lists of 1 to 100k entries with each engine.
+ * The pattern cache is disabled so that every invocation really compiles.
+ * The length of the generated regex is printed at the end of each trial.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompileBenchmark {
+    @Param({"1", "10", "100", "1000", "10000", "100000"})
+    public int size;
+
+    @Param
+    public Engine engine;
+
+    private String cidrs;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        CidrPattern.cache().setMaximumSize(0);
+        cidrs = Datasets.cidrs(size);
+    }
+
+    @TearDown(Level.Trial)
+    public void report() {
+        if (engine == Engine.REGEX) {
+            System.out.println("\nregex length for "+size+" entries: "+CidrPattern.compile(cidrs).pattern().length());
+        } else if (engine == Engine.FACTORED) {
+            System.out.println("\nregex length for "+size+" entries: "+CidrPattern.compileFactored(cidrs).pattern().length());
+        }
+    }
+
+    @Benchmark
+    public Predicate<String> compile() {
+        return engine.compile(cidrs);
+    }
+}
@@ -0,0 +1,98 @@
+package com.cleo.labs.cidr.bench;
+
+
+import java.util.Random;
+
+import com.cleo.labs.cidr.AddressParser;
+import com.cleo.labs.cidr.CidrPattern;
+import com.cleo.labs.cidr.IntervalMatcher;
+
+/**
+ * Deterministic CIDR lists and inputs shared by all benchmarks, so that every
+ * engine is measured on exactly the same data.
+ */
+public final class Datasets {
+    /**
+     * The kinds of input matched against a list.
+     */
+    public enum Input {
+        /** addresses inside the list */
+        HIT,
+        /** well-formed addresses outside the list */
+        MISS,
+        /** strings that are not dotted-quad addresses */
+        MALFORMED
+    }
+
+    private static final String[] MALFORMED = {
+        "1.2.3", "1.2.3.4.5", "256.1.2.3", "01.2.3.4", "1.2.3.04", "a.b.c.d",
+        "10.0.0.1 ", "", "1..2.3", "999.999.999.999", "10.0.0.-1", "1.2.3.4/8",
+    };
+
+    private Datasets() {}
+
+    /**
+     * Returns a list of {@code size} entries: random blocks from /8 to single
+     * addresses, with every tenth entry an address range.
+     * @param size the number of entries.
+     * @return the comma-separated list.
+     */
+    public static String cidrs(int size) {
+        Random random = new Random(size);
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<size; i++) {
+            int address = random.nextInt();
+            if (i > 0) {
+                sb.append(',');
+            }
+            if (i%10 == 9) {
+                int to = address + random.nextInt(1 << 12);
+                if (Integer.compareUnsigned(to, address) < 0) {
+                    to = -1;
+                }
+                sb.append(AddressParser.format(address)).append('-').append(AddressParser.format(to));
+            } else {
+                int bits = 8 + random.nextInt(25);
+                int mask = (int) (0xFFFFFFFFL << (32-bits));
+                sb.append(AddressParser.format(address & mask));
+                if (bits < 32) {
+                    sb.append('/').append(bits);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns {@code count} inputs of the given kind for list {@code cidrs}.
+     * @param cidrs the list.
+     * @param input the kind of input.
+     * @param count the number of inputs.
+     * @return the inputs.
+     */
+    public static String[] inputs(String cidrs, Input input, int count) {
+        Random random = new Random(cidrs.hashCode() ^ input.ordinal());
+        IntervalMatcher matcher = CidrPattern.compileMatcher(cidrs);
+        String[] inputs = new String[count];
+        for (int i=0; i<count; i++) {
+            switch (input) {
+            case HIT:
+            case MISS:
+                int address;
+                do {
+                    address = random.nextInt();
+                    if (input == Input.HIT) {
+                        // land near an entry so hits are not all in the big blocks
+                        address = (int) AddressParser.parse(matcher.entry(random.nextInt(matcher.entries()))
+                                .replaceAll("[/-].*", "").replace("*", "0")) + (address & 0xFF);
+                    }
+                } while (matcher.matches(address) != (input == Input.HIT));
+                inputs[i] = AddressParser.format(address);
+                break;
+            default:
+                inputs[i] = MALFORMED[i % MALFORMED.length];
+            }
+        }
+        return inputs;
+    }
+}
@@ -0,0 +1,97 @@
+package com.cleo.labs.cidr.bench;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+import com.cleo.labs.cidr.BytecodeMatcher;
+import com.cleo.labs.cidr.CidrAutomaton;
+import com.cleo.labs.cidr.CidrFile;
+import com.cleo.labs.cidr.CidrMatcher;
+import com.cleo.labs.cidr.CidrPattern;
+import com.cleo.labs.cidr.DirectTable;
+import com.cleo.labs.cidr.InstrumentedMatcher;
+
+/**
+ * The matching engines offered by the library, each compiling a CIDR list
+ * into a predicate on dotted-quad strings so they can be run on the same inputs.
+ */
+public enum Engine {
+    /** {@link CidrPattern#compile(String)} */
+    REGEX {
+        @Override
+        public Predicate<String> compile(String cidrs) {
+            Pattern pattern = CidrPattern.compile(cidrs);
+            return s -> pattern.matcher(s).matches();
+        }
+    },
+    /** {@link CidrPattern#compileFactored(String)} */
+    FACTORED {
+        @Override
+        public Predicate<String> compile(String cidrs) {
+            Pattern pattern = CidrPattern.compileFactored(cidrs);
+            return s -> pattern.matcher(s).matches();
+        }
+    },
+    /** {@link CidrPattern#compileMatcher(String)} */
+    INTERVAL {
+        @Override
+        public Predicate<String> compile(String cidrs) {
+            CidrMatcher matcher = CidrPattern.compileMatcher(cidrs);
+            return matcher::matches;
+        }
+    },
+    /** {@link CidrAutomaton#compile(String)} */
+    AUTOMATON {
+        @Override
+        public Predicate<String> compile(String cidrs) {
+            CidrMatcher matcher = CidrAutomaton.compile(cidrs);
+            return matcher::matches;
+        }
+    },
+    /** {@link BytecodeMatcher#compile(String)} */
+    BYTECODE {
+        @Override
+        public Predicate<String> compile(String cidrs) {
+            CidrMatcher matcher = BytecodeMatcher.compile(cidrs);
+            return matcher::matches;
+        }
+    },
+    /** {@link DirectTable#compile(String)} */
+    DIRECT {
+        @Override
+        public Predicate<String> compile(String cidrs) {
+            CidrMatcher matcher = DirectTable.compile(cidrs);
+            return matcher::matches;
+        }
+    },
+    /** {@link InstrumentedMatcher}, to measure the cost of instrumentation over {@link #INTERVAL} */
+    INSTRUMENTED {
+        @Override
+        public Predicate<String> compile(String cidrs) {
+            CidrMatcher matcher = InstrumentedMatcher.compile(cidrs);
+            return matcher::matches;
+        }
+    },
+    /** {@link CidrFile}, queried in place in its binary form */
+    FILE {
+        @Override
+        public Predicate<String> compile(String cidrs) {
+            try {
+                CidrMatcher matcher = CidrFile.wrap(CidrFile.compile(cidrs, new int[0]), false);
+                return matcher::matches;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    };
+
+    /**
+     * Compiles {@code cidrs} with this engine.
+     * @param cidrs a comma-separated list of CIDR expressions.
+     * @return a predicate testing whether a string matches the list.
+     */
+    public abstract Predicate<String> compile(String cidrs);
+}
@@ -0,0 +1,58 @@
+package com.cleo.labs.cidr.bench;
+
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures matching throughput of each engine on hits, misses and malformed inputs.
+ * Each invocation matches the next of 1024 pregenerated inputs.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MatchBenchmark {
+    private static final int INPUTS = 1024;
+
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    @Param
+    public Engine engine;
+
+    @Param
+    public Datasets.Input input;
+
+    private Predicate<String> matcher;
+    private String[] inputs;
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        String cidrs = Datasets.cidrs(size);
+        matcher = engine.compile(cidrs);
+        inputs = Datasets.inputs(cidrs, input, INPUTS);
+    }
+
+    @Benchmark
+    public boolean matches() {
+        String s = inputs[next];
+        next = (next+1) & (INPUTS-1);
+        return matcher.test(s);
+    }
+}
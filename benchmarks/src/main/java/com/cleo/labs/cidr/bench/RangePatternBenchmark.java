@@ -0,0 +1,47 @@
+package com.cleo.labs.cidr.bench;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.cleo.labs.cidr.RangePattern;
+
+/**
+ * Measures the time to generate the regex for a numeric range.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RangePatternBenchmark {
+    @Param({"0-255", "7-7", "123-98765", "1-1000000", "1000-99999999"})
+    public String range;
+
+    private int min;
+    private int max;
+
+    @Setup
+    public void setup() {
+        String[] bounds = range.split("-");
+        min = Integer.parseInt(bounds[0]);
+        max = Integer.parseInt(bounds[1]);
+    }
+
+    @Benchmark
+    public String pattern() {
+        return RangePattern.pattern(min, max);
+    }
+}
@@ -0,0 +1,12 @@
+package com.example.net;
+
+/**
+ * Uses the generated class, so the build fails unless it is on the compile source path.
+ */
+public final class Gate {
+    public static boolean internal(int address) {
+        return InternalNetworks.matcher().matches(address);
+    }
+
+    private Gate() {}
+}
@@ -0,0 +1,14 @@
+File generated = new File(basedir, 'target/generated-sources/cidr/com/example/net/InternalNetworks.java')
+assert generated.isFile()
+assert new File(basedir, 'target/generated-test-sources/cidr/com/example/net/InternalNetworksTest.java').isFile()
+assert new File(basedir, 'target/classes/com/example/net/InternalNetworks.class').isFile()
+assert new File(basedir, 'target/classes/com/example/net/Gate.class').isFile()
+
+// the generated test ran and passed
+File report = new File(basedir, 'target/surefire-reports/TEST-com.example.net.InternalNetworksTest.xml')
+assert report.isFile()
+assert report.text.contains('tests="1"')
+assert report.text.contains('failures="0"')
+
+File log = new File(basedir, 'build.log')
+assert log.text.contains('Precompiled 3 entries from internal-networks.cidr into com.example.net.InternalNetworks')
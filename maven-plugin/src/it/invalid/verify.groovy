@@ -0,0 +1,5 @@
+String log = new File(basedir, 'build.log').text
+assert log.contains('broken.cidr: line 2, column ')
+assert log.contains('broken.cidr: line 4, column ')
+assert log.contains('broken.cidr has 2 invalid entries')
+assert !new File(basedir, 'target/generated-sources/cidr/com/example/net/Broken.java').exists()
@@ -0,0 +1,136 @@
+package com.cleo.labs.cidr.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.MavenProject;
+
+import com.cleo.labs.cidr.CidrLoader;
+import com.cleo.labs.cidr.CidrSource;
+
+/**
+ * Precompiles every {@code *.cidr} list file in {@link #sourceDirectory} into a
+ * Java class with {@link CidrSource}, and adds the generated sources to the build.
+ * A file {@code cloud-providers.cidr} becomes the class {@code CloudProviders} in
+ * {@link #packageName}.  Unless {@link #generateTests} is turned off, a JUnit 4 test
+ * for each class is added to the test sources, checking the class against
+ * {@code CidrPattern.compile} for the list file.
+ */
+@Mojo(name = "generate", defaultPhase = LifecyclePhase.GENERATE_SOURCES, threadSafe = true)
+public class GenerateMojo extends AbstractMojo {
+    /**
+     * The directory holding the {@code *.cidr} list files.
+     */
+    @Parameter(defaultValue = "${basedir}/src/main/cidr", required = true)
+    private File sourceDirectory;
+
+    /**
+     * The package of the generated classes.
+     */
+    @Parameter(required = true)
+    private String packageName;
+
+    /**
+     * The directory for the generated classes.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/generated-sources/cidr", required = true)
+    private File outputDirectory;
+
+    /**
+     * The directory for the generated tests.
+     */
+    @Parameter(defaultValue = "${project.build.directory}/generated-test-sources/cidr", required = true)
+    private File testOutputDirectory;
+
+    /**
+     * Whether to generate a test for each class, which needs JUnit 4 on the test classpath.
+     */
+    @Parameter(defaultValue = "true")
+    private boolean generateTests;
+
+    @Parameter(defaultValue = "${project}", readonly = true, required = true)
+    private MavenProject project;
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        if (!sourceDirectory.isDirectory()) {
+            getLog().info("No CIDR lists in "+sourceDirectory);
+            return;
+        }
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(sourceDirectory.toPath(), "*.cidr")) {
+            stream.forEach(files::add);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Can not list "+sourceDirectory, e);
+        }
+        for (Path file : files) {
+            String className = packageName.isEmpty() ? className(file) : packageName+"."+className(file);
+            try {
+                generate(file, className);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Can not precompile "+file, e);
+            }
+        }
+        project.addCompileSourceRoot(outputDirectory.getPath());
+        if (generateTests) {
+            project.addTestCompileSourceRoot(testOutputDirectory.getPath());
+        }
+    }
+
+    /**
+     * Generates the class (and test) for one list file.  The source is always
+     * generated, since it is cheap next to compiling it, and {@link CidrSource#write}
+     * leaves files whose content has not changed untouched.  Comparing content
+     * rather than timestamps also catches a new version of this plugin, or of
+     * the library, generating different code from the same list.
+     */
+    private void generate(Path file, String className) throws IOException, MojoExecutionException {
+        CidrLoader.Result result = CidrLoader.load(file);
+        if (result.hasErrors()) {
+            for (CidrLoader.LoadError error : result.errors()) {
+                getLog().error(file.getFileName()+": "+error);
+            }
+            throw new MojoExecutionException(file+" has "+result.errors().size()+" invalid entries");
+        }
+        CidrSource.write(outputDirectory.toPath(), className,
+                CidrSource.generate(result.list(), className, file.getFileName().toString()));
+        getLog().info("Precompiled "+result.list().size()+" entries from "+file.getFileName()+" into "+className);
+        if (generateTests) {
+            CidrSource.write(testOutputDirectory.toPath(), className+"Test",
+                    CidrSource.generateTest(className, file.toAbsolutePath().toString()));
+        }
+    }
+
+    /**
+     * Returns the class name for a list file, e.g. {@code CloudProviders} for
+     * {@code cloud-providers.cidr}.
+     */
+    static String className(Path file) {
+        String name = file.getFileName().toString();
+        name = name.substring(0, name.length()-".cidr".length());
+        StringBuilder sb = new StringBuilder();
+        boolean upper = true;
+        for (char c : name.toCharArray()) {
+            if (!Character.isJavaIdentifierPart(c) || c == '_' || c == '$') {
+                upper = true;
+            } else {
+                sb.append(upper ? Character.toUpperCase(c) : c);
+                upper = false;
+            }
+        }
+        if (sb.length() == 0 || !Character.isJavaIdentifierStart(sb.charAt(0))) {
+            sb.insert(0, "Cidr");
+        }
+        return sb.toString();
+    }
+}
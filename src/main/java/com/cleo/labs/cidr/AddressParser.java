@@ -0,0 +1,371 @@
+package com.cleo.labs.cidr;
+
+
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * Parses dotted-quad IPv4 addresses without a regular expression and
+ * without allocating.  Octets are validated with the same rules as the
+ * patterns generated by {@link CidrPattern}: each is a decimal number
+ * 0-255 with no leading zeroes.
+ * <p>
+ * Addresses are returned as an unsigned 32-bit value in a {@code long},
+ * or {@link #INVALID} if the input is not a well-formed address, so that
+ * no exception needs to be thrown (or caught) for bad input.  Bytes are
+ * interpreted as US-ASCII.
+ * <p>
+ * IPv6 addresses are parsed by the {@code parse6} methods into two {@code long}s,
+ * the high and low 64 bits of the address, which are stored into an array
+ * supplied by the caller so that a parser loop can reuse it.
+ */
+public final class AddressParser {
+    /**
+     * The value returned for inputs that are not well-formed addresses.
+     */
+    public static final long INVALID = -1L;
+
+    private static final int MIN_LENGTH = 7;  // 0.0.0.0
+    private static final int MAX_LENGTH = 15; // 255.255.255.255
+    private static final int MAX_LENGTH6 = 45; // ffff:ffff:ffff:ffff:ffff:ffff:255.255.255.255
+
+    // per-thread result array for the parse6 calls made by CidrMatcher6
+    private static final ThreadLocal<long[]> SCRATCH6 = ThreadLocal.withInitial(() -> new long[2]);
+
+    /**
+     * Parses {@code input} as a dotted-quad IPv4 address.
+     * @param input the input to parse.
+     * @return the address as an unsigned 32-bit value, or {@link #INVALID}.
+     */
+    public static long parse(CharSequence input) {
+        return parse(input, 0, input.length());
+    }
+
+    /**
+     * Parses {@code length} characters of {@code input} starting at {@code offset}
+     * as a dotted-quad IPv4 address.
+     * @param input the input to parse.
+     * @param offset the index of the first character to parse.
+     * @param length the number of characters to parse.
+     * @return the address as an unsigned 32-bit value, or {@link #INVALID}.
+     */
+    public static long parse(CharSequence input, int offset, int length) {
+        return parse(input, null, null, offset, length);
+    }
+
+    /**
+     * Parses {@code input} as a dotted-quad IPv4 address.
+     * @param input the ASCII bytes to parse.
+     * @return the address as an unsigned 32-bit value, or {@link #INVALID}.
+     */
+    public static long parse(byte[] input) {
+        return parse(input, 0, input.length);
+    }
+
+    /**
+     * Parses {@code length} bytes of {@code input} starting at {@code offset}
+     * as a dotted-quad IPv4 address.
+     * @param input the ASCII bytes to parse.
+     * @param offset the index of the first byte to parse.
+     * @param length the number of bytes to parse.
+     * @return the address as an unsigned 32-bit value, or {@link #INVALID}.
+     */
+    public static long parse(byte[] input, int offset, int length) {
+        return parse(null, input, null, offset, length);
+    }
+
+    /**
+     * Parses the remaining bytes of {@code input}, from its position to its limit,
+     * as a dotted-quad IPv4 address.  The buffer's position is not changed.
+     * @param input the ASCII bytes to parse.
+     * @return the address as an unsigned 32-bit value, or {@link #INVALID}.
+     */
+    public static long parse(ByteBuffer input) {
+        return parse(input, input.position(), input.remaining());
+    }
+
+    /**
+     * Parses {@code length} bytes of {@code input} starting at absolute index
+     * {@code offset} as a dotted-quad IPv4 address.  The buffer's position is
+     * not used or changed.
+     * @param input the ASCII bytes to parse.
+     * @param offset the absolute index of the first byte to parse.
+     * @param length the number of bytes to parse.
+     * @return the address as an unsigned 32-bit value, or {@link #INVALID}.
+     */
+    public static long parse(ByteBuffer input, int offset, int length) {
+        return parse(null, null, input, offset, length);
+    }
+
+    /**
+     * Parses {@code length} characters starting at {@code offset} of whichever
+     * of {@code chars}, {@code bytes} or {@code buffer} is not {@code null}.
+     * The source does not change inside the loop, so the JIT hoists the
+     * choice out of it.
+     */
+    private static long parse(CharSequence chars, byte[] bytes, ByteBuffer buffer, int offset, int length) {
+        if (length < MIN_LENGTH || length > MAX_LENGTH) {
+            return INVALID;
+        }
+        long address = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        for (int i=offset; i<offset+length; i++) {
+            int c = chars != null ? chars.charAt(i) : bytes != null ? bytes[i] : buffer.get(i);
+            if (c >= '0' && c <= '9') {
+                if (digits > 0 && value == 0) {
+                    return INVALID; // leading zero
+                }
+                value = value*10 + (c-'0');
+                if (value > 255) {
+                    return INVALID;
+                }
+                digits++;
+            } else if (c == '.' && digits > 0 && octets < 3) {
+                address = address << 8 | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else {
+                return INVALID;
+            }
+        }
+        if (digits == 0 || octets != 3) {
+            return INVALID;
+        }
+        return address << 8 | value;
+    }
+
+    /**
+     * Returns the address held by {@code address}.
+     * @param address an {@code InetAddress}.
+     * @return the address as an unsigned 32-bit value, or {@link #INVALID}
+     *         if {@code address} is not an IPv4 address.
+     */
+    public static long parse(InetAddress address) {
+        if (!(address instanceof Inet4Address)) {
+            return INVALID;
+        }
+        byte[] bytes = address.getAddress();
+        return (bytes[0] & 0xFFL) << 24 | (bytes[1] & 0xFF) << 16 | (bytes[2] & 0xFF) << 8 | bytes[3] & 0xFF;
+    }
+
+    /**
+     * Returns an array of two {@code long}s owned by the calling thread, for
+     * {@code parse6} results that are read back before the next call.
+     * @return the array.
+     */
+    static long[] scratch6() {
+        return SCRATCH6.get();
+    }
+
+    /**
+     * Parses {@code input} as an IPv6 address.
+     * @param input the input to parse.
+     * @param address receives the high 64 bits of the address in {@code address[0]}
+     *                and the low 64 bits in {@code address[1]}, if the input is valid.
+     * @return {@code true} if the input is a well-formed address.
+     */
+    public static boolean parse6(CharSequence input, long[] address) {
+        return parse6(input, 0, input.length(), address);
+    }
+
+    /**
+     * Parses {@code length} characters of {@code input} starting at {@code offset}
+     * as an IPv6 address: eight groups of one to four hexadecimal digits separated
+     * by {@code :}, where one run of groups may be compressed to {@code ::} and the
+     * last two groups may be written as a dotted-quad IPv4 address, as in
+     * {@code ::ffff:10.1.2.3}.  Zone ids ({@code %eth0}) are not accepted.
+     * @param input the input to parse.
+     * @param offset the index of the first character to parse.
+     * @param length the number of characters to parse.
+     * @param address receives the high 64 bits of the address in {@code address[0]}
+     *                and the low 64 bits in {@code address[1]}, if the input is valid.
+     * @return {@code true} if the input is a well-formed address.
+     */
+    public static boolean parse6(CharSequence input, int offset, int length, long[] address) {
+        if (length < 2 || length > MAX_LENGTH6) {
+            return false;
+        }
+        int end = offset+length;
+        int i = offset;
+        // groups before the :: go in head, groups after it in tail
+        long headHigh = 0;
+        long headLow = 0;
+        long tailHigh = 0;
+        long tailLow = 0;
+        int groups = 0;
+        int headGroups = -1;
+        if (input.charAt(i) == ':') {
+            if (input.charAt(i+1) != ':') {
+                return false;
+            }
+            headGroups = 0;
+            i += 2;
+        }
+        while (i < end) {
+            int start = i;
+            int value = 0;
+            int digit;
+            while (i < end && i-start < 4 && (digit = hex(input.charAt(i))) >= 0) {
+                value = value << 4 | digit;
+                i++;
+            }
+            if (i == start) {
+                return false;
+            }
+            int width = 1;
+            if (i < end && input.charAt(i) == '.') {
+                // an IPv4 address in the last two groups
+                long v4 = parse(input, start, end-start);
+                if (v4 == INVALID) {
+                    return false;
+                }
+                value = (int) v4;
+                width = 2;
+                i = end;
+            } else if (i < end && hex(input.charAt(i)) >= 0) {
+                return false;
+            }
+            groups += width;
+            if (groups > 8) {
+                return false;
+            }
+            for (int w=width-1; w>=0; w--) {
+                long group = value >>> 16*w & 0xFFFF;
+                if (headGroups < 0) {
+                    headHigh = headHigh << 16 | headLow >>> 48;
+                    headLow  = headLow << 16 | group;
+                } else {
+                    tailHigh = tailHigh << 16 | tailLow >>> 48;
+                    tailLow  = tailLow << 16 | group;
+                }
+            }
+            if (i == end) {
+                break;
+            } else if (input.charAt(i) != ':' || ++i == end) {
+                return false;
+            } else if (input.charAt(i) == ':') {
+                if (headGroups >= 0) {
+                    return false;
+                }
+                headGroups = groups;
+                i++;
+            }
+        }
+        if (headGroups < 0 ? groups != 8 : groups > 7) {
+            return false;
+        }
+        if (headGroups >= 0) {
+            // move the head groups above the compressed zeroes
+            for (int g=headGroups; g<8; g++) {
+                headHigh = headHigh << 16 | headLow >>> 48;
+                headLow  = headLow << 16;
+            }
+        }
+        address[0] = headHigh | tailHigh;
+        address[1] = headLow | tailLow;
+        return true;
+    }
+
+    /**
+     * Returns the value of hexadecimal digit {@code c}, or -1.
+     */
+    private static int hex(char c) {
+        if (c >= '0' && c <= '9') {
+            return c-'0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c-'a'+10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c-'A'+10;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the IPv6 address held by {@code address}.
+     * @param address an {@code InetAddress}.
+     * @param result receives the high 64 bits of the address in {@code result[0]}
+     *               and the low 64 bits in {@code result[1]}, if it is an IPv6 address.
+     * @return {@code true} if {@code address} is an IPv6 address.
+     */
+    public static boolean parse6(InetAddress address, long[] result) {
+        if (!(address instanceof Inet6Address)) {
+            return false;
+        }
+        byte[] bytes = address.getAddress();
+        long high = 0;
+        long low = 0;
+        for (int i=0; i<8; i++) {
+            high = high << 8 | bytes[i] & 0xFF;
+            low  = low << 8 | bytes[i+8] & 0xFF;
+        }
+        result[0] = high;
+        result[1] = low;
+        return true;
+    }
+
+    /**
+     * Formats an IPv6 address in the canonical form of RFC 5952: lowercase
+     * hexadecimal groups without leading zeroes, with the longest run of two
+     * or more zero groups (the first, if there is a tie) compressed to {@code ::}.
+     * @param high the high 64 bits of the address.
+     * @param low the low 64 bits of the address.
+     * @return the formatted address.
+     */
+    public static String format6(long high, long low) {
+        int[] groups = new int[8];
+        for (int i=0; i<4; i++) {
+            groups[i]   = (int) (high >>> 48-16*i & 0xFFFF);
+            groups[i+4] = (int) (low >>> 48-16*i & 0xFFFF);
+        }
+        int best = -1;
+        int bestLength = 1;
+        for (int i=0; i<8; ) {
+            int j = i;
+            while (j < 8 && groups[j] == 0) {
+                j++;
+            }
+            if (j-i > bestLength) {
+                best = i;
+                bestLength = j-i;
+            }
+            i = Math.max(j, i+1);
+        }
+        StringBuilder sb = new StringBuilder(39);
+        for (int i=0; i<8; i++) {
+            if (i == best) {
+                sb.append("::");
+                i += bestLength-1;
+            } else {
+                if (i > 0 && i != best+bestLength) {
+                    sb.append(':');
+                }
+                sb.append(Integer.toHexString(groups[i]));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Formats {@code address} in dotted-quad notation.
+     * @param address an IPv4 address as an unsigned 32-bit int.
+     * @return the dotted-quad string.
+     */
+    public static String format(int address) {
+        return new StringBuilder(MAX_LENGTH)
+                .append(address >>> 24).append('.')
+                .append(address >> 16 & 0xFF).append('.')
+                .append(address >> 8 & 0xFF).append('.')
+                .append(address & 0xFF)
+                .toString();
+    }
+
+    /**
+     * Private constructor.
+     */
+    private AddressParser() {}
+}
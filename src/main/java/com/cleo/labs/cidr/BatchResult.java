@@ -0,0 +1,56 @@
+package com.cleo.labs.cidr;
+
+
+/**
+ * The outcome of matching a batch of addresses, see
+ * {@link IntervalMatcher#matchAll(int[], java.util.BitSet)}.
+ */
+public final class BatchResult {
+    private final long addresses;
+    private final long matches;
+    private final long nanos;
+
+    BatchResult(long addresses, long matches, long nanos) {
+        this.addresses = addresses;
+        this.matches   = matches;
+        this.nanos     = nanos;
+    }
+
+    /**
+     * Returns the number of addresses checked.
+     * @return the number of addresses.
+     */
+    public long addresses() {
+        return addresses;
+    }
+
+    /**
+     * Returns the number of addresses that matched.
+     * @return the number of matches.
+     */
+    public long matches() {
+        return matches;
+    }
+
+    /**
+     * Returns the elapsed time of the batch.
+     * @return the elapsed time in nanoseconds.
+     */
+    public long nanos() {
+        return nanos;
+    }
+
+    /**
+     * Returns the throughput of the batch.
+     * @return the number of addresses checked per second.
+     */
+    public double addressesPerSecond() {
+        return nanos==0 ? 0.0 : addresses * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return matches+"/"+addresses+" matched in "+nanos/1000000+"ms ("+
+               String.format("%.0f", addressesPerSecond())+" addresses/s)";
+    }
+}
@@ -0,0 +1,397 @@
+package com.cleo.labs.cidr;
+
+
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Array;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles a CIDR list into a class generated at runtime, whose {@code matches}
+ * method is a balanced binary decision tree of {@code int} comparisons against
+ * constants.  The tree is split into static methods of eight levels each, one
+ * per subtree, so the interval bounds are constants in the code rather than
+ * array elements.  In the match benchmarks it was 25-35% faster than
+ * {@link IntervalMatcher} on lists of 10 and 1000 entries; it was not compared
+ * with the other engines.
+ * <p>
+ * The generated class implements {@link CidrMatcher}, including its own copy of
+ * the {@code String} and {@code byte[]} front ends, so that the call from the
+ * address parser to the decision tree is never shared with other matchers.
+ * Lists with more than {@link #MAX_INTERVALS} intervals compile to an
+ * {@link IntervalMatcher} instead.
+ * <p>
+ * On Java 15 and later the class is defined as a hidden class, which is unloaded
+ * as soon as the matcher is no longer referenced.  On older versions it is
+ * defined by a class loader of its own, which has the same effect.
+ */
+public final class BytecodeMatcher {
+    /**
+     * The largest number of disjoint intervals compiled to bytecode.
+     */
+    public static final int MAX_INTERVALS = 4096;
+
+    // tree levels per method: 255 nodes stay well under the JIT's 8000 byte limit
+    private static final int DEPTH = 8;
+    private static final String NAME = "com/cleo/labs/cidr/BytecodeMatcher$Tree";
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final Method DEFINE_HIDDEN;
+    private static final Object NO_OPTIONS;
+    static {
+        Method method = null;
+        Object options = null;
+        try {
+            Class<?> option = Class.forName("java.lang.invoke.MethodHandles$Lookup$ClassOption");
+            options = Array.newInstance(option, 0);
+            method = MethodHandles.Lookup.class.getMethod("defineHiddenClass", byte[].class, boolean.class, options.getClass());
+        } catch (ReflectiveOperationException e) {
+            // before Java 15: use a class loader
+        }
+        DEFINE_HIDDEN = method;
+        NO_OPTIONS    = options;
+    }
+
+    private BytecodeMatcher() {}
+
+    /**
+     * Returns a matcher for CIDR pattern list {@code cidrs}, as generated bytecode
+     * when the list has at most {@link #MAX_INTERVALS} intervals.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the compiled matcher.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static CidrMatcher compile(String cidrs) throws PatternSyntaxException {
+        return compile(CidrList.parse(cidrs));
+    }
+
+    /**
+     * Returns a matcher for the parsed CIDR list {@code list}, as generated bytecode
+     * when the list has at most {@link #MAX_INTERVALS} intervals.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the compiled matcher.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static CidrMatcher compile(CidrList list) throws PatternSyntaxException {
+        long[] bounds = list.merged();
+        if (bounds.length/2 > MAX_INTERVALS) {
+            return new IntervalMatcher(list);
+        }
+        return compile(bounds, DEFINE_HIDDEN != null);
+    }
+
+    /**
+     * Generates, defines and instantiates the matcher class for {@code bounds}.
+     * @param bounds sorted, disjoint {@code from}/{@code to} pairs.
+     * @param hidden {@code true} to define a hidden class, {@code false} to use a class loader.
+     * @return the generated matcher.
+     */
+    static CidrMatcher compile(long[] bounds, boolean hidden) {
+        String name = NAME+COUNTER.incrementAndGet();
+        byte[] bytes = new Generator(name, bounds).generate();
+        try {
+            Class<?> c;
+            if (hidden) {
+                c = ((MethodHandles.Lookup) DEFINE_HIDDEN.invoke(LOOKUP, bytes, true, NO_OPTIONS)).lookupClass();
+            } else {
+                c = new Loader().define(name.replace('/', '.'), bytes);
+            }
+            return (CidrMatcher) c.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("can not define generated matcher", e);
+        }
+    }
+
+    /**
+     * Returns {@code true} if {@code matcher} is a generated decision tree.
+     * @param matcher a matcher returned by {@link #compile(String)}.
+     * @return {@code true} if the matcher is generated bytecode.
+     */
+    public static boolean isGenerated(CidrMatcher matcher) {
+        return matcher.getClass().getName().startsWith(NAME.replace('/', '.'));
+    }
+
+    private static final class Loader extends ClassLoader {
+        private Loader() {
+            super(BytecodeMatcher.class.getClassLoader());
+        }
+
+        private Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * A growable byte array in class file (big-endian) order.
+     */
+    private static final class Bytes {
+        private byte[] data = new byte[256];
+        private int size = 0;
+
+        private Bytes u1(int b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, 2*data.length);
+            }
+            data[size++] = (byte) b;
+            return this;
+        }
+
+        private Bytes u2(int s) {
+            return u1(s >>> 8).u1(s);
+        }
+
+        private Bytes u4(int i) {
+            return u2(i >>> 16).u2(i);
+        }
+
+        private Bytes bytes(Bytes b) {
+            for (int i=0; i<b.size; i++) {
+                u1(b.data[i]);
+            }
+            return this;
+        }
+
+        /**
+         * Emits a branch to a label placed later by {@link #label(int)}.
+         * @return the position of the branch.
+         */
+        private int branch(int opcode) {
+            int at = size;
+            u1(opcode).u2(0);
+            return at;
+        }
+
+        /**
+         * Points the branch at {@code at} to the current position.
+         */
+        private void label(int at) {
+            int offset = size-at;
+            data[at+1] = (byte) (offset >>> 8);
+            data[at+2] = (byte) offset;
+        }
+    }
+
+    /**
+     * Writes the class file for a decision tree over a set of intervals.
+     */
+    private static final class Generator {
+        private static final int ICONST_0     = 0x03;
+        private static final int ICONST_1     = 0x04;
+        private static final int LCONST_0     = 0x09;
+        private static final int BIPUSH       = 0x10;
+        private static final int SIPUSH       = 0x11;
+        private static final int LDC_W        = 0x13;
+        private static final int ILOAD_0      = 0x1a;
+        private static final int ILOAD_1      = 0x1b;
+        private static final int ILOAD_2      = 0x1c;
+        private static final int ILOAD_3      = 0x1d;
+        private static final int ALOAD_0      = 0x2a;
+        private static final int ALOAD_1      = 0x2b;
+        private static final int DUP2         = 0x5c;
+        private static final int IXOR         = 0x82;
+        private static final int L2I          = 0x88;
+        private static final int LCMP         = 0x94;
+        private static final int IFLT         = 0x9b;
+        private static final int IF_ICMPLT    = 0xa1;
+        private static final int IF_ICMPGT    = 0xa3;
+        private static final int IRETURN      = 0xac;
+        private static final int RETURN       = 0xb1;
+        private static final int INVOKESPECIAL = 0xb7;
+        private static final int INVOKESTATIC = 0xb8;
+
+        private static final int PUBLIC  = 0x0001;
+        private static final int PRIVATE = 0x0002;
+        private static final int STATIC  = 0x0008;
+        private static final int FINAL   = 0x0010;
+        private static final int SUPER   = 0x0020;
+
+        private static final String PARSER = "com/cleo/labs/cidr/AddressParser";
+
+        private final String name;
+        private final int[] from;
+        private final int[] to;
+        private final Bytes pool = new Bytes();
+        private final Map<String, Integer> constants = new HashMap<>();
+        private int count = 1;
+        private final Bytes methods = new Bytes();
+        private int methodCount = 0;
+        // subtrees waiting for a method of their own: lo, hi
+        private final List<int[]> trees = new ArrayList<>();
+
+        private Generator(String name, long[] bounds) {
+            this.name = name;
+            int n = bounds.length/2;
+            from = new int[n];
+            to   = new int[n];
+            for (int i=0; i<n; i++) {
+                from[i] = (int) bounds[2*i]   ^ Integer.MIN_VALUE;
+                to[i]   = (int) bounds[2*i+1] ^ Integer.MIN_VALUE;
+            }
+        }
+
+        private int constant(String key, Bytes entry) {
+            Integer index = constants.get(key);
+            if (index == null) {
+                pool.bytes(entry);
+                index = count++;
+                constants.put(key, index);
+            }
+            return index;
+        }
+
+        private int utf8(String s) {
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            Bytes entry = new Bytes().u1(1).u2(b.length);
+            for (byte x : b) {
+                entry.u1(x);
+            }
+            return constant("U"+s, entry);
+        }
+
+        private int integer(int i) {
+            return constant("I"+i, new Bytes().u1(3).u4(i));
+        }
+
+        private int type(String internalName) {
+            return constant("C"+internalName, new Bytes().u1(7).u2(utf8(internalName)));
+        }
+
+        private int method(String owner, String method, String descriptor) {
+            int nameAndType = constant("N"+method+descriptor, new Bytes().u1(12).u2(utf8(method)).u2(utf8(descriptor)));
+            return constant("M"+owner+"."+method+descriptor, new Bytes().u1(10).u2(type(owner)).u2(nameAndType));
+        }
+
+        private void push(Bytes code, int value) {
+            if (value >= -1 && value <= 5) {
+                code.u1(ICONST_0+value);
+            } else if (value == (byte) value) {
+                code.u1(BIPUSH).u1(value);
+            } else if (value == (short) value) {
+                code.u1(SIPUSH).u2(value);
+            } else {
+                code.u1(LDC_W).u2(integer(value));
+            }
+        }
+
+        /**
+         * Returns the constant pool index of the method for subtree {@code lo}-{@code hi},
+         * queueing it for generation.
+         */
+        private int tree(int lo, int hi) {
+            trees.add(new int[] {lo, hi});
+            return method(name, "t"+(trees.size()-1), "(I)Z");
+        }
+
+        private void addMethod(int access, String method, String descriptor, int maxStack, int maxLocals, Bytes code) {
+            methods.u2(access).u2(utf8(method)).u2(utf8(descriptor)).u2(1);
+            methods.u2(utf8("Code")).u4(12+code.size).u2(maxStack).u2(maxLocals)
+                   .u4(code.size).bytes(code).u2(0).u2(0);
+            methodCount++;
+        }
+
+        /**
+         * Emits the decision tree for intervals {@code lo}-{@code hi} with the
+         * (sign-flipped) address in local 0.
+         */
+        private void tree(Bytes code, int lo, int hi, int depth) {
+            if (lo > hi) {
+                code.u1(ICONST_0).u1(IRETURN);
+                return;
+            } else if (depth == DEPTH) {
+                int method = tree(lo, hi);
+                code.u1(ILOAD_0).u1(INVOKESTATIC).u2(method).u1(IRETURN);
+                return;
+            }
+            int mid = (lo+hi) >>> 1;
+            int left = -1;
+            if (from[mid] != Integer.MIN_VALUE) {
+                code.u1(ILOAD_0);
+                push(code, from[mid]);
+                left = code.branch(IF_ICMPLT);
+            }
+            int right = -1;
+            if (to[mid] != Integer.MAX_VALUE) {
+                code.u1(ILOAD_0);
+                push(code, to[mid]);
+                right = code.branch(IF_ICMPGT);
+            }
+            code.u1(ICONST_1).u1(IRETURN);
+            if (left >= 0) {
+                code.label(left);
+                tree(code, lo, mid-1, depth+1);
+            }
+            if (right >= 0) {
+                code.label(right);
+                tree(code, mid+1, hi, depth+1);
+            }
+        }
+
+        /**
+         * Emits the tail of a front end: the parsed address (or -1) is on the stack.
+         */
+        private void front(Bytes code, int root) {
+            code.u1(DUP2).u1(LCONST_0).u1(LCMP);
+            int invalid = code.branch(IFLT);
+            code.u1(L2I);
+            push(code, Integer.MIN_VALUE);
+            code.u1(IXOR).u1(INVOKESTATIC).u2(root).u1(IRETURN);
+            code.label(invalid);
+            code.u1(ICONST_0).u1(IRETURN);
+        }
+
+        private byte[] generate() {
+            int root = tree(0, from.length-1);
+
+            Bytes init = new Bytes().u1(ALOAD_0).u1(INVOKESPECIAL).u2(method("java/lang/Object", "<init>", "()V")).u1(RETURN);
+            addMethod(PUBLIC, "<init>", "()V", 1, 1, init);
+
+            Bytes matches = new Bytes().u1(ILOAD_1);
+            push(matches, Integer.MIN_VALUE);
+            matches.u1(IXOR).u1(INVOKESTATIC).u2(root).u1(IRETURN);
+            addMethod(PUBLIC, "matches", "(I)Z", 2, 2, matches);
+
+            Bytes string = new Bytes().u1(ALOAD_1)
+                    .u1(INVOKESTATIC).u2(method(PARSER, "parse", "(Ljava/lang/CharSequence;)J"));
+            front(string, root);
+            addMethod(PUBLIC, "matches", "(Ljava/lang/CharSequence;)Z", 6, 2, string);
+
+            Bytes substring = new Bytes().u1(ALOAD_1).u1(ILOAD_2).u1(ILOAD_3)
+                    .u1(INVOKESTATIC).u2(method(PARSER, "parse", "(Ljava/lang/CharSequence;II)J"));
+            front(substring, root);
+            addMethod(PUBLIC, "matches", "(Ljava/lang/CharSequence;II)Z", 6, 4, substring);
+
+            Bytes bytes = new Bytes().u1(ALOAD_1).u1(ILOAD_2).u1(ILOAD_3)
+                    .u1(INVOKESTATIC).u2(method(PARSER, "parse", "([BII)J"));
+            front(bytes, root);
+            addMethod(PUBLIC, "matches", "([BII)Z", 6, 4, bytes);
+
+            // generating a tree method may queue more of them
+            for (int i=0; i<trees.size(); i++) {
+                Bytes code = new Bytes();
+                tree(code, trees.get(i)[0], trees.get(i)[1], 0);
+                addMethod(PRIVATE|STATIC, "t"+i, "(I)Z", 2, 1, code);
+            }
+
+            int thisClass = type(name);
+            int superClass = type("java/lang/Object");
+            int matcher = type("com/cleo/labs/cidr/CidrMatcher");
+            Bytes file = new Bytes().u4(0xCAFEBABE).u2(0).u2(49); // Java 5: no stack maps needed
+            file.u2(count).bytes(pool);
+            file.u2(PUBLIC|FINAL|SUPER).u2(thisClass).u2(superClass);
+            file.u2(1).u2(matcher);
+            file.u2(0); // fields
+            file.u2(methodCount).bytes(methods);
+            file.u2(0); // attributes
+            return Arrays.copyOf(file.data, file.size);
+        }
+    }
+}
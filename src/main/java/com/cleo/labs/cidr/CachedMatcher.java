@@ -0,0 +1,284 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+
+/**
+ * A {@link CidrMatcher} that remembers recent decisions of another matcher, for
+ * skewed traffic where a few thousand addresses make up most lookups and the
+ * matcher behind the cache, e.g. a regex, is expensive.
+ * <p>
+ * The cache is a fixed-size, set-associative table of {@code int}s with one
+ * or two ways per set.  Addresses are scrambled by an invertible hash whose
+ * top bits select the set; the remaining bits are the tag, stored in a single
+ * {@code int} slot together with the decision.  Since a slot is written and
+ * read as one {@code int}, lookups and updates need no locks: threads may race
+ * to fill a slot, but no thread can ever read a torn entry, and the worst a race
+ * does is lose an entry.  In a two-way set a new entry moves the older one to
+ * the second way and evicts the entry there; hits do not write to the table.
+ * <p>
+ * A cache in front of a {@link DynamicCidrSet} is invalidated when the set
+ * changes: each lookup compares the version of the set's current snapshot with
+ * the version the table was filled from, and starts a new, empty table if they
+ * differ.  Decisions always come from the snapshot of the table's version.
+ */
+public final class CachedMatcher implements CidrMatcher {
+    /**
+     * The default number of cached addresses.
+     */
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    // slot bits below the tag: slot 0 is empty
+    private static final int PRESENT = 1;
+    private static final int MATCH = 2;
+
+    /**
+     * A point-in-time snapshot of cache statistics.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long invalidations;
+
+        private Stats(long hits, long misses, long invalidations) {
+            this.hits          = hits;
+            this.misses        = misses;
+            this.invalidations = invalidations;
+        }
+
+        /**
+         * Returns the number of lookups answered from the cache.
+         * @return the hit count.
+         */
+        public long hits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of lookups passed to the underlying matcher.
+         * @return the miss count.
+         */
+        public long misses() {
+            return misses;
+        }
+
+        /**
+         * Returns the number of times the cache was emptied because the set changed.
+         * @return the invalidation count.
+         */
+        public long invalidations() {
+            return invalidations;
+        }
+
+        /**
+         * Returns the fraction of lookups that were hits.
+         * @return the hit rate, or 0 if there have been no lookups.
+         */
+        public double hitRate() {
+            long total = hits+misses;
+            return total==0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "hits="+hits+" misses="+misses+" invalidations="+invalidations;
+        }
+    }
+
+    /**
+     * The slots holding the decisions of one version of the set.
+     */
+    private static final class Table {
+        private final long version;
+        private final int[] slots;
+
+        private Table(long version, int size) {
+            this.version = version;
+            this.slots   = new int[size];
+        }
+    }
+
+    private final CidrMatcher matcher;
+    private final DynamicCidrSet dynamic;
+    private final int ways;
+    private final int capacity;
+    // the hash bits that select the set are shifted out of the tag
+    private final int setBits;
+    private volatile Table table;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+    private volatile boolean recordStats = false;
+
+    private CachedMatcher(CidrMatcher matcher, DynamicCidrSet dynamic, int capacity, int ways) {
+        if (ways != 1 && ways != 2) {
+            throw new IllegalArgumentException("ways must be 1 or 2: "+ways);
+        } else if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be 1 to 2^30: "+capacity);
+        }
+        // at least 4 sets, so that the tag leaves room for the PRESENT and MATCH bits
+        int size = Math.max(4*ways, capacity==1 ? 1 : Integer.highestOneBit(capacity-1)*2);
+        this.matcher  = matcher;
+        this.dynamic  = dynamic;
+        this.ways     = ways;
+        this.capacity = size;
+        this.setBits  = Integer.numberOfTrailingZeros(size/ways);
+        this.table    = new Table(dynamic==null ? 0 : dynamic.version(), this.capacity);
+    }
+
+    /**
+     * Returns a two-way cache of {@link #DEFAULT_CAPACITY} decisions of {@code matcher}.
+     * @param matcher the matcher to cache, which must not change.
+     * @return the cached matcher.
+     */
+    public static CachedMatcher of(CidrMatcher matcher) {
+        return of(matcher, DEFAULT_CAPACITY, 2);
+    }
+
+    /**
+     * Returns a cache of decisions of {@code matcher}.  If {@code matcher} is a
+     * {@link DynamicCidrSet}, the cache is invalidated when the set changes.
+     * Other matchers must not change.
+     * @param matcher the matcher to cache.
+     * @param capacity the number of decisions to hold, rounded up to a power of two.
+     * @param ways 1 for a direct-mapped cache, 2 for a two-way set-associative one.
+     * @return the cached matcher.
+     */
+    public static CachedMatcher of(CidrMatcher matcher, int capacity, int ways) {
+        if (matcher instanceof DynamicCidrSet) {
+            return new CachedMatcher(null, (DynamicCidrSet) matcher, capacity, ways);
+        }
+        return new CachedMatcher(matcher, null, capacity, ways);
+    }
+
+    /**
+     * Returns a two-way cache of {@link #DEFAULT_CAPACITY} decisions of the
+     * compiled CIDR pattern {@code pattern}, e.g. from {@link CidrPattern#compile(String)}.
+     * Each miss formats the address and matches it against the pattern.
+     * @param pattern the pattern to cache.
+     * @return the cached matcher.
+     */
+    public static CachedMatcher of(Pattern pattern) {
+        return of(pattern, DEFAULT_CAPACITY, 2);
+    }
+
+    /**
+     * Returns a cache of decisions of the compiled CIDR pattern {@code pattern}.
+     * @param pattern the pattern to cache.
+     * @param capacity the number of decisions to hold, rounded up to a power of two.
+     * @param ways 1 for a direct-mapped cache, 2 for a two-way set-associative one.
+     * @return the cached matcher.
+     */
+    public static CachedMatcher of(Pattern pattern, int capacity, int ways) {
+        return of((int address) -> pattern.matcher(AddressParser.format(address)).matches(), capacity, ways);
+    }
+
+    /**
+     * Scrambles an address with the finalizer of MurmurHash3, which is a bijection,
+     * so an address is identified by its set and the hash bits kept in the tag.
+     */
+    private static int mix(int address) {
+        int h = address;
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Override
+    public boolean matches(int address) {
+        Table t = table;
+        CidrMatcher source = matcher;
+        if (dynamic != null) {
+            DynamicCidrSet.Snapshot snapshot = dynamic.snapshot();
+            if (snapshot.version() != t.version) {
+                t = invalidate(t, snapshot.version());
+            }
+            source = snapshot;
+        }
+        int h = mix(address);
+        int tag = h << setBits | PRESENT;
+        int base = (h >>> (32-setBits)) * ways;
+        int[] slots = t.slots;
+        int slot = slots[base];
+        if ((slot & ~MATCH) != tag && (ways == 1 || ((slot = slots[base+1]) & ~MATCH) != tag)) {
+            boolean match = source.matches(address);
+            if (ways == 2) {
+                slots[base+1] = slots[base];
+            }
+            slots[base] = match ? tag | MATCH : tag;
+            if (recordStats) {
+                misses.increment();
+            }
+            return match;
+        }
+        if (recordStats) {
+            hits.increment();
+        }
+        return (slot & MATCH) != 0;
+    }
+
+    /**
+     * Replaces {@code stale} with an empty table for {@code version}, unless
+     * another thread has already moved on to a newer version.
+     * @return the table to use for {@code version}.
+     */
+    private Table invalidate(Table stale, long version) {
+        Table fresh = new Table(version, capacity);
+        // racy: a slower thread may briefly install an older version, which the
+        // next lookup replaces again, since every lookup checks the version
+        if (table.version < version) {
+            table = fresh;
+            if (recordStats) {
+                invalidations.increment();
+            }
+        }
+        return fresh;
+    }
+
+    /**
+     * Returns the number of decisions the cache holds.
+     * @return the capacity, a power of two.
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns the number of ways per set.
+     * @return 1 or 2.
+     */
+    public int ways() {
+        return ways;
+    }
+
+    /**
+     * Empties the cache and resets the statistics.
+     */
+    public void clear() {
+        table = new Table(table.version, capacity);
+        hits.reset();
+        misses.reset();
+        invalidations.reset();
+    }
+
+    /**
+     * Turns the collection of hit, miss and invalidation counts on or off.
+     * Statistics are off by default.
+     * @param recordStats {@code true} to collect statistics.
+     */
+    public void setRecordStats(boolean recordStats) {
+        this.recordStats = recordStats;
+    }
+
+    /**
+     * Returns the statistics collected so far.
+     * @return a snapshot of the statistics.
+     */
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), invalidations.sum());
+    }
+}
@@ -0,0 +1,405 @@
+package com.cleo.labs.cidr;
+
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A {@link CidrMatcher} compiled into a minimal deterministic finite automaton
+ * over the characters {@code 0-9} and {@code .}.  Matching takes constant time
+ * per character with no backtracking and no regular expression engine: each
+ * character is one lookup in a transition table.
+ * <p>
+ * The automaton accepts the same inputs as the {@code Pattern} that
+ * {@link CidrPattern#compile(String)} returns for the same list.  It is built
+ * from the list's intervals, so unlike the regex it can not be compiled from a
+ * wildcard entry that expands into more than {@link CidrList#MAX_EXPANSION}
+ * intervals, like {@code *.*.*.5}.  Besides matching a complete input,
+ * a {@link Cursor} can be fed an input in chunks, e.g. as it arrives in
+ * successive network buffers.
+ */
+public final class CidrAutomaton implements CidrMatcher {
+    private static final int SYMBOLS = 11; // 0-9 and .
+    private static final int DOT = 10;
+    private static final int DEAD = 0;
+    private static final byte[] CLASSES = new byte[128];
+    static {
+        Arrays.fill(CLASSES, (byte) -1);
+        for (int c='0'; c<='9'; c++) {
+            CLASSES[c] = (byte) (c-'0');
+        }
+        CLASSES['.'] = DOT;
+    }
+
+    private final int[] table;
+    private final boolean[] accept;
+    private final int start;
+
+    private CidrAutomaton(int[] table, boolean[] accept, int start) {
+        this.table  = table;
+        this.accept = accept;
+        this.start  = start;
+    }
+
+    /**
+     * Returns a compiled {@code CidrAutomaton} matching CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the compiled automaton.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static CidrAutomaton compile(String cidrs) throws PatternSyntaxException {
+        return compile(CidrList.parse(cidrs));
+    }
+
+    /**
+     * Returns a compiled {@code CidrAutomaton} matching the parsed CIDR list {@code list}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the compiled automaton.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static CidrAutomaton compile(CidrList list) throws PatternSyntaxException {
+        return new Builder(new OctetTrie(list.merged())).build();
+    }
+
+    /**
+     * Returns the number of states in the automaton, including the dead state.
+     * @return the number of states.
+     */
+    public int states() {
+        return accept.length;
+    }
+
+    /**
+     * Returns the transition from {@code state} on character {@code c}.
+     * @param state the current state.
+     * @param c the next character.
+     * @return the next state, or {@link #DEAD}.
+     */
+    private int next(int state, int c) {
+        int symbol = c >= 0 && c < 128 ? CLASSES[c] : -1;
+        return symbol < 0 ? DEAD : table[state*SYMBOLS+symbol];
+    }
+
+    @Override
+    public boolean matches(CharSequence input) {
+        int state = start;
+        for (int i=0; i<input.length() && state!=DEAD; i++) {
+            state = next(state, input.charAt(i));
+        }
+        return accept[state];
+    }
+
+    @Override
+    public boolean matches(CharSequence input, int offset, int length) {
+        int state = start;
+        for (int i=offset; i<offset+length && state!=DEAD; i++) {
+            state = next(state, input.charAt(i));
+        }
+        return accept[state];
+    }
+
+    @Override
+    public boolean matches(byte[] input, int offset, int length) {
+        int state = start;
+        for (int i=offset; i<offset+length && state!=DEAD; i++) {
+            state = next(state, input[i]);
+        }
+        return accept[state];
+    }
+
+    @Override
+    public boolean matches(ByteBuffer input) {
+        int state = start;
+        for (int i=input.position(); i<input.limit() && state!=DEAD; i++) {
+            state = next(state, input.get(i));
+        }
+        return accept[state];
+    }
+
+    @Override
+    public boolean matches(int address) {
+        int state = start;
+        for (int shift=24; shift>=0; shift-=8) {
+            int octet = address >>> shift & 0xFF;
+            if (octet >= 100) {
+                state = table[state*SYMBOLS+octet/100];
+            }
+            if (octet >= 10) {
+                state = table[state*SYMBOLS+octet/10%10];
+            }
+            state = table[state*SYMBOLS+octet%10];
+            if (shift > 0) {
+                state = table[state*SYMBOLS+DOT];
+            }
+        }
+        return accept[state];
+    }
+
+    /**
+     * Returns a new {@link Cursor} positioned at the start of the input.
+     * @return a new cursor.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Runs the automaton over an input supplied in chunks.  A cursor keeps only
+     * the current state, so it may be fed any number of chunks split at any
+     * character.  Cursors are not safe for use by multiple concurrent threads,
+     * but any number of cursors may share one {@code CidrAutomaton}.
+     */
+    public final class Cursor {
+        private int state = start;
+
+        private Cursor() {}
+
+        /**
+         * Returns the cursor to the start of the input.
+         * @return this cursor.
+         */
+        public Cursor reset() {
+            state = start;
+            return this;
+        }
+
+        /**
+         * Advances the cursor over {@code chunk}.
+         * @param chunk the next part of the input.
+         * @return this cursor.
+         */
+        public Cursor feed(CharSequence chunk) {
+            return feed(chunk, 0, chunk.length());
+        }
+
+        /**
+         * Advances the cursor over {@code length} characters of {@code chunk}
+         * starting at {@code offset}.
+         * @param chunk the next part of the input.
+         * @param offset the index of the first character.
+         * @param length the number of characters.
+         * @return this cursor.
+         */
+        public Cursor feed(CharSequence chunk, int offset, int length) {
+            int s = state;
+            for (int i=offset; i<offset+length && s!=DEAD; i++) {
+                s = next(s, chunk.charAt(i));
+            }
+            state = s;
+            return this;
+        }
+
+        /**
+         * Advances the cursor over {@code length} ASCII bytes of {@code chunk}
+         * starting at {@code offset}.
+         * @param chunk the next part of the input.
+         * @param offset the index of the first byte.
+         * @param length the number of bytes.
+         * @return this cursor.
+         */
+        public Cursor feed(byte[] chunk, int offset, int length) {
+            int s = state;
+            for (int i=offset; i<offset+length && s!=DEAD; i++) {
+                s = next(s, chunk[i]);
+            }
+            state = s;
+            return this;
+        }
+
+        /**
+         * Advances the cursor over the remaining ASCII bytes of {@code chunk}.
+         * The buffer's position is not changed.
+         * @param chunk the next part of the input.
+         * @return this cursor.
+         */
+        public Cursor feed(ByteBuffer chunk) {
+            int s = state;
+            for (int i=chunk.position(); i<chunk.limit() && s!=DEAD; i++) {
+                s = next(s, chunk.get(i));
+            }
+            state = s;
+            return this;
+        }
+
+        /**
+         * Returns {@code true} if the input fed so far is a matching address.
+         * @return {@code true} if the input matches.
+         */
+        public boolean matches() {
+            return accept[state];
+        }
+
+        /**
+         * Returns {@code true} if no further input can make the input match.
+         * @return {@code true} if the input has already failed.
+         */
+        public boolean failed() {
+            return state == DEAD;
+        }
+    }
+
+    /**
+     * Builds a minimal automaton from an {@link OctetTrie}.  The language is finite,
+     * so the automaton is acyclic and can be built bottom-up: each state is created
+     * only after all of its successors, and a state identical to one already created
+     * (same acceptance, same successors) is replaced by the existing one.
+     */
+    private static final class Builder {
+        private static final OctetTrie.Node ANY = new OctetTrie.Node();
+        static {
+            ANY.branches.add(new OctetTrie.Branch(0, 255, null));
+        }
+
+        private static final class Key {
+            private final boolean accept;
+            private final int[] next;
+
+            private Key(boolean accept, int[] next) {
+                this.accept = accept;
+                this.next   = next;
+            }
+
+            @Override
+            public int hashCode() {
+                return Arrays.hashCode(next)*31 + (accept ? 1 : 0);
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                return o instanceof Key && ((Key) o).accept == accept && Arrays.equals(((Key) o).next, next);
+            }
+        }
+
+        private final OctetTrie trie;
+        private final Map<Key, Integer> registry = new HashMap<>();
+        private final Map<OctetTrie.Node, int[]> octets = new IdentityHashMap<>();
+        private int[] table = new int[SYMBOLS*64];
+        private boolean[] accept = new boolean[64];
+        private int size = 0;
+
+        private Builder(OctetTrie trie) {
+            this.trie = trie;
+            state(false, new int[SYMBOLS]); // DEAD
+        }
+
+        private CidrAutomaton build() {
+            int start = octet(trie.root(), 0);
+            return new CidrAutomaton(Arrays.copyOf(table, size*SYMBOLS), Arrays.copyOf(accept, size), start);
+        }
+
+        /**
+         * Returns the state with the given acceptance and successors, creating it if needed.
+         */
+        private int state(boolean accepting, int[] next) {
+            Key key = new Key(accepting, next);
+            Integer id = registry.get(key);
+            if (id == null) {
+                if (size == accept.length) {
+                    table  = Arrays.copyOf(table, 2*table.length);
+                    accept = Arrays.copyOf(accept, 2*accept.length);
+                }
+                System.arraycopy(next, 0, table, size*SYMBOLS, SYMBOLS);
+                accept[size] = accepting;
+                id = size++;
+                registry.put(key, id);
+            }
+            return id;
+        }
+
+        /**
+         * Returns the state at the start of octet {@code index} with {@code node}
+         * describing the octets allowed from here on.
+         */
+        private int octet(OctetTrie.Node node, int index) {
+            int[] byIndex = octets.get(node);
+            if (byIndex == null) {
+                byIndex = new int[] {-1, -1, -1, -1};
+                octets.put(node, byIndex);
+            }
+            if (byIndex[index] < 0) {
+                byIndex[index] = digits(node, index, 0, 0);
+            }
+            return byIndex[index];
+        }
+
+        /**
+         * Returns the index of the last branch of {@code node} starting at or
+         * before {@code value}, or -1.  Branches are sorted and disjoint.
+         */
+        private static int floor(OctetTrie.Node node, int value) {
+            int lo = 0;
+            int hi = node.branches.size()-1;
+            while (lo <= hi) {
+                int mid = (lo+hi) >>> 1;
+                if (node.branches.get(mid).min <= value) {
+                    lo = mid+1;
+                } else {
+                    hi = mid-1;
+                }
+            }
+            return hi;
+        }
+
+        /**
+         * Returns the branch of {@code node} containing octet {@code value}, or {@code null}.
+         */
+        private static OctetTrie.Branch branch(OctetTrie.Node node, int value) {
+            int i = floor(node, value);
+            return i >= 0 && value <= node.branches.get(i).max ? node.branches.get(i) : null;
+        }
+
+        /**
+         * Returns {@code true} if some branch of {@code node} intersects {@code min}-{@code max}.
+         */
+        private static boolean overlaps(OctetTrie.Node node, int min, int max) {
+            int i = floor(node, max);
+            return i >= 0 && min <= node.branches.get(i).max;
+        }
+
+        /**
+         * Returns {@code true} if an octet starting with the {@code count} digits
+         * of {@code value} can still end up in one of the branches of {@code node}.
+         */
+        private static boolean viable(OctetTrie.Node node, int value, int count) {
+            if (overlaps(node, value, value)) {
+                return true;
+            } else if (value == 0) {
+                return false; // no leading zeroes
+            }
+            for (int scale=10; count<3; count++, scale*=10) {
+                if (value*scale > 255) {
+                    break;
+                } else if (overlaps(node, value*scale, Math.min(255, value*scale+scale-1))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Returns the state after reading {@code count} digits of octet {@code index}
+         * with value {@code value}.
+         */
+        private int digits(OctetTrie.Node node, int index, int value, int count) {
+            int[] next = new int[SYMBOLS];
+            if (count == 0 || value > 0) {
+                for (int d=0; d<=9; d++) {
+                    int v = value*10 + d;
+                    if (count < 3 && v <= 255 && viable(node, v, count+1)) {
+                        next[d] = digits(node, index, v, count+1);
+                    }
+                }
+            }
+            OctetTrie.Branch branch = count > 0 ? branch(node, value) : null;
+            if (branch != null && index < 3) {
+                next[DOT] = octet(branch.next == null ? ANY : branch.next, index+1);
+            }
+            return state(branch != null && index == 3, next);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.cleo.labs.cidr;
+
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.CRC32;
+
+/**
+ * A compiled CIDR set in a compact binary form that is queried in place, e.g.
+ * straight from a memory-mapped file, without being parsed or deserialized.
+ * Use {@link #write(Path, String, int[])} to compile a list into a file ahead
+ * of time and {@link #map(Path)} to load it.
+ * <p>
+ * The format is a 16 byte header followed by the sorted, disjoint intervals
+ * of the set, all big-endian:
+ * <pre>
+ * magic     4 bytes  "CIDR"
+ * version   2 bytes  1
+ * flags     2 bytes  1 if the file has values
+ * count     4 bytes  the number of intervals
+ * checksum  4 bytes  CRC-32 of everything after the header
+ * from, to  count &times; 2 &times; 4 bytes
+ * value     count &times; 4 bytes, if the file has values
+ * </pre>
+ * Without values the intervals are the merged intervals of the set.  With values,
+ * each interval carries the value of the first entry in the list that matches it,
+ * so a lookup can tell which entry (or what data attached to it) an address hit.
+ */
+public final class CidrFile implements CidrMatcher {
+    /**
+     * The version of the format written by this class.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x43494452; // "CIDR"
+    private static final int HEADER = 16;
+    private static final int VALUES = 1;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final boolean values;
+
+    private CidrFile(ByteBuffer buffer, int count, boolean values) {
+        this.buffer = buffer;
+        this.count  = count;
+        this.values = values;
+    }
+
+    /**
+     * Compiles CIDR pattern list {@code cidrs} into binary form.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param entryValues the value of each entry in the list, {@code null} to use
+     *                    the entry index as the value, or an empty array to store no values.
+     * @return a buffer holding the compiled set, positioned at 0.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static ByteBuffer compile(String cidrs, int[] entryValues) throws PatternSyntaxException {
+        return compile(CidrList.parse(cidrs), entryValues);
+    }
+
+    /**
+     * Compiles the parsed CIDR list {@code list} into binary form.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @param entryValues the value of each entry in the list, {@code null} to use
+     *                    the entry index as the value, or an empty array to store no values.
+     * @return a buffer holding the compiled set, positioned at 0.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static ByteBuffer compile(CidrList list, int[] entryValues) throws PatternSyntaxException {
+        if (entryValues != null && entryValues.length == 0) {
+            return encode(list.merged(), null);
+        }
+        if (entryValues != null && entryValues.length != list.size()) {
+            throw new IllegalArgumentException("expected "+list.size()+" values, not "+entryValues.length);
+        }
+        // coalesce neighbours that belong to different entries with the same value
+        long[] owners = list.owners();
+        long[] bounds = new long[2*(owners.length/3)];
+        int[] values = new int[owners.length/3];
+        int n = 0;
+        for (int i=0; i<owners.length; i+=3) {
+            int value = entryValues==null ? (int) owners[i+2] : entryValues[(int) owners[i+2]];
+            if (n > 0 && values[n-1] == value && bounds[2*n-1]+1 == owners[i]) {
+                bounds[2*n-1] = owners[i+1];
+            } else {
+                bounds[2*n]   = owners[i];
+                bounds[2*n+1] = owners[i+1];
+                values[n++]   = value;
+            }
+        }
+        return encode(Arrays.copyOf(bounds, 2*n), Arrays.copyOf(values, n));
+    }
+
+    private static ByteBuffer encode(long[] bounds, int[] values) {
+        int count = bounds.length/2;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER + count*(values==null ? 8 : 12));
+        buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) (values==null ? 0 : VALUES))
+              .putInt(count).putInt(0);
+        for (long bound : bounds) {
+            buffer.putInt((int) bound);
+        }
+        for (int i=0; values!=null && i<count; i++) {
+            buffer.putInt(values[i]);
+        }
+        buffer.putInt(12, checksum(buffer));
+        // through Buffer, whose methods exist on Java 8: built on a later JDK,
+        // ByteBuffer.position(int) links to an override Java 8 does not have
+        ((Buffer) buffer).position(0);
+        return buffer;
+    }
+
+    private static int checksum(ByteBuffer buffer) {
+        ByteBuffer payload = buffer.duplicate();
+        ((Buffer) payload).position(HEADER).limit(buffer.capacity());
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Compiles CIDR pattern list {@code cidrs} into file {@code file}, replacing it if it exists.
+     * @param file the file to write.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param entryValues the value of each entry in the list, {@code null} to use
+     *                    the entry index as the value, or an empty array to store no values.
+     * @return the number of bytes written.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     * @throws IOException if the file can not be written.
+     */
+    public static long write(Path file, String cidrs, int[] entryValues) throws PatternSyntaxException, IOException {
+        return write(file, CidrList.parse(cidrs), entryValues);
+    }
+
+    /**
+     * Compiles the parsed CIDR list {@code list} into file {@code file}, replacing it if it exists.
+     * @param file the file to write.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @param entryValues the value of each entry in the list, {@code null} to use
+     *                    the entry index as the value, or an empty array to store no values.
+     * @return the number of bytes written.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     * @throws IOException if the file can not be written.
+     */
+    public static long write(Path file, CidrList list, int[] entryValues) throws PatternSyntaxException, IOException {
+        ByteBuffer buffer = compile(list, entryValues);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return buffer.capacity();
+    }
+
+    /**
+     * Memory-maps and verifies a compiled file.
+     * See {@link #map(Path, boolean)}.
+     * @param file the file to map.
+     * @return the compiled set.
+     * @throws IOException if the file can not be read or is not a valid compiled file.
+     */
+    public static CidrFile map(Path file) throws IOException {
+        return map(file, true);
+    }
+
+    /**
+     * Memory-maps a compiled file.  The file is not read into memory: lookups
+     * read the pages they need.  The mapping stays valid after the file is closed.
+     * @param file the file to map.
+     * @param verify {@code true} to verify the checksum, which reads the whole file.
+     * @return the compiled set.
+     * @throws IOException if the file can not be read or is not a valid compiled file.
+     */
+    public static CidrFile map(Path file, boolean verify) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("not a compiled CIDR file: too large");
+            }
+            return wrap(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), verify);
+        }
+    }
+
+    /**
+     * Returns the compiled set held in {@code buffer} from position 0 to its capacity.
+     * @param buffer the compiled set, as returned by {@link #compile(String, int[])}.
+     * @param verify {@code true} to verify the checksum.
+     * @return the compiled set.
+     * @throws IOException if the buffer does not hold a valid compiled set.
+     */
+    public static CidrFile wrap(ByteBuffer buffer, boolean verify) throws IOException {
+        buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        if (buffer.capacity() < HEADER || buffer.getInt(0) != MAGIC) {
+            throw new IOException("not a compiled CIDR file");
+        }
+        int version = buffer.getShort(4) & 0xFFFF;
+        if (version != VERSION) {
+            throw new IOException("unsupported compiled CIDR file version "+version);
+        }
+        boolean values = (buffer.getShort(6) & VALUES) != 0;
+        int count = buffer.getInt(8);
+        if (count < 0 || HEADER + (long) count*(values ? 12 : 8) != buffer.capacity()) {
+            throw new IOException("compiled CIDR file is truncated or corrupt");
+        }
+        if (verify && checksum(buffer) != buffer.getInt(12)) {
+            throw new IOException("compiled CIDR file checksum mismatch");
+        }
+        return new CidrFile(buffer, count, values);
+    }
+
+    /**
+     * Returns the number of intervals in the set.
+     * @return the number of intervals.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns {@code true} if the intervals carry values.
+     * @return {@code true} if the set has values.
+     */
+    public boolean hasValues() {
+        return values;
+    }
+
+    /**
+     * Returns the index of the interval containing {@code address}, or -1.
+     */
+    private int find(int address) {
+        int key = address ^ Integer.MIN_VALUE;
+        int lo = 0;
+        int hi = count-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if ((buffer.getInt(HEADER + 8*mid) ^ Integer.MIN_VALUE) <= key) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return hi >= 0 && key <= (buffer.getInt(HEADER + 8*hi + 4) ^ Integer.MIN_VALUE) ? hi : -1;
+    }
+
+    @Override
+    public boolean matches(int address) {
+        return find(address) >= 0;
+    }
+
+    /**
+     * Returns the value of the interval containing {@code address}.
+     * @param address an IPv4 address as an unsigned 32-bit int.
+     * @param missing the value to return if the address does not match.
+     * @return the value, or {@code missing}.
+     * @throws IllegalStateException if the set has no values.
+     */
+    public int value(int address, int missing) {
+        if (!values) {
+            throw new IllegalStateException("compiled CIDR file has no values");
+        }
+        int i = find(address);
+        return i < 0 ? missing : buffer.getInt(HEADER + 8*count + 4*i);
+    }
+}
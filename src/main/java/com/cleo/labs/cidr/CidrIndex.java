@@ -0,0 +1,258 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An index over many named CIDR lists, e.g. the allowlists of thousands of
+ * tenants, answering which of the lists contain an address with a single
+ * binary search instead of one match per list.
+ * <p>
+ * The address space is split into elementary intervals at every boundary of
+ * every list, so that each interval lies entirely inside or outside each list.
+ * Each interval points to a posting list: the sorted ids of the lists that contain
+ * it.  Neighboring intervals with the same lists are merged, and equal posting
+ * lists are stored once, so lists that share blocks share storage.
+ * <p>
+ * Lists are identified by their position in the map the index was built from,
+ * starting at 0.
+ */
+public final class CidrIndex {
+    private static final int[] NONE = new int[0];
+
+    private final String[] names;
+    private final Map<String, Integer> ids;
+    // elementary interval starting points (sign bit flipped), the first at address 0
+    private final int[] starts;
+    // the posting list of each interval
+    private final int[] postings;
+    // posting list p is ids[offsets[p]] to ids[offsets[p+1]-1]
+    private final int[] offsets;
+    private final int[] members;
+
+    private CidrIndex(String[] names, int[] starts, int[] postings, int[] offsets, int[] members) {
+        this.names    = names;
+        this.ids      = new HashMap<>();
+        for (int i=0; i<names.length; i++) {
+            ids.put(names[i], i);
+        }
+        this.starts   = starts;
+        this.postings = postings;
+        this.offsets  = offsets;
+        this.members  = members;
+    }
+
+    /**
+     * Returns an index of named CIDR pattern lists.
+     * @param lists the lists by name, each a comma-separated list of CIDR expressions
+     *              like 192.168/16,10/8, in the order that assigns their ids.
+     * @return the index.
+     * @throws PatternSyntaxException if any list is not a list of CIDR patterns.
+     */
+    public static CidrIndex compile(Map<String, String> lists) throws PatternSyntaxException {
+        Map<String, CidrSet> sets = new LinkedHashMap<>();
+        for (Map.Entry<String, String> list : lists.entrySet()) {
+            sets.put(list.getKey(), CidrSet.of(list.getValue()));
+        }
+        return of(sets);
+    }
+
+    /**
+     * Returns an index of named address sets.
+     * @param sets the sets by name, in the order that assigns their ids.
+     * @return the index.
+     */
+    public static CidrIndex of(Map<String, CidrSet> sets) {
+        String[] names = new String[sets.size()];
+        long[][] bounds = new long[sets.size()][];
+        int events = 0;
+        int n = 0;
+        for (Map.Entry<String, CidrSet> set : sets.entrySet()) {
+            names[n] = set.getKey();
+            bounds[n] = set.getValue().bounds();
+            events += bounds[n].length;
+            n++;
+        }
+        if (events >= 1 << 30) {
+            throw new IllegalArgumentException("too many intervals to index: "+events/2);
+        }
+        // each list enters at from and leaves at to+1; sort the events by address,
+        // packing the address (up to 2^32) above the event number
+        long[] order = new long[events];
+        int[] list = new int[events];
+        int e = 0;
+        for (int i=0; i<n; i++) {
+            for (int j=0; j<bounds[i].length; j+=2) {
+                order[e] = bounds[i][j] << 30 | e;
+                list[e++] = i;
+                order[e] = bounds[i][j+1]+1 << 30 | e;
+                list[e++] = ~i;
+            }
+        }
+        Arrays.sort(order);
+        // sweep, interning the set of lists active in each elementary interval
+        Map<BitSet, Integer> interned = new HashMap<>();
+        List<int[]> postingLists = new ArrayList<>();
+        BitSet active = new BitSet(n);
+        interned.put((BitSet) active.clone(), 0);
+        postingLists.add(NONE);
+        int[] starts = new int[16];
+        int[] postings = new int[16];
+        int intervals = 1;
+        starts[0] = Integer.MIN_VALUE;
+        for (int k=0; k<order.length; ) {
+            long address = order[k] >>> 30;
+            while (k < order.length && order[k] >>> 30 == address) {
+                int l = list[(int) (order[k] & (1 << 30)-1)];
+                active.set(l < 0 ? ~l : l, l >= 0);
+                k++;
+            }
+            if (address > 0xFFFFFFFFL) {
+                break;
+            }
+            Integer posting = interned.get(active);
+            if (posting == null) {
+                posting = postingLists.size();
+                interned.put((BitSet) active.clone(), posting);
+                postingLists.add(active.stream().toArray());
+            }
+            if (posting == postings[intervals-1]) {
+                continue;
+            }
+            if (address == 0) {
+                postings[0] = posting;
+                continue;
+            }
+            if (intervals == starts.length) {
+                starts = Arrays.copyOf(starts, 2*intervals);
+                postings = Arrays.copyOf(postings, 2*intervals);
+            }
+            starts[intervals] = (int) address ^ Integer.MIN_VALUE;
+            postings[intervals++] = posting;
+        }
+        int[] offsets = new int[postingLists.size()+1];
+        for (int p=0; p<postingLists.size(); p++) {
+            offsets[p+1] = offsets[p] + postingLists.get(p).length;
+        }
+        int[] members = new int[offsets[postingLists.size()]];
+        for (int p=0; p<postingLists.size(); p++) {
+            System.arraycopy(postingLists.get(p), 0, members, offsets[p], postingLists.get(p).length);
+        }
+        return new CidrIndex(names, Arrays.copyOf(starts, intervals), Arrays.copyOf(postings, intervals),
+                             offsets, members);
+    }
+
+    /**
+     * Returns the posting list of the elementary interval containing {@code address}.
+     */
+    private int posting(int address) {
+        int key = address ^ Integer.MIN_VALUE;
+        int lo = 0;
+        int hi = starts.length-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if (starts[mid] <= key) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return postings[hi];
+    }
+
+    /**
+     * Returns the ids of the lists that contain {@code address}.
+     * @param address an IPv4 address as an unsigned 32-bit int.
+     * @return the list ids in increasing order, empty if no list contains the address.
+     */
+    public int[] lookup(int address) {
+        int p = posting(address);
+        return offsets[p]==offsets[p+1] ? NONE : Arrays.copyOfRange(members, offsets[p], offsets[p+1]);
+    }
+
+    /**
+     * Returns the ids of the lists that contain the dotted-quad address {@code input}.
+     * @param input the address, e.g. {@code 10.1.2.3}.
+     * @return the list ids in increasing order, empty if no list contains the address
+     *         or the input is not an address.
+     */
+    public int[] lookup(CharSequence input) {
+        long address = AddressParser.parse(input);
+        return address==AddressParser.INVALID ? NONE : lookup((int) address);
+    }
+
+    /**
+     * Returns the names of the lists that contain {@code address}.
+     * @param address an IPv4 address as an unsigned 32-bit int.
+     * @return the names in id order.
+     */
+    public List<String> names(int address) {
+        int p = posting(address);
+        List<String> result = new ArrayList<>(offsets[p+1]-offsets[p]);
+        for (int i=offsets[p]; i<offsets[p+1]; i++) {
+            result.add(names[members[i]]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns {@code true} if list {@code id} contains {@code address}.
+     * @param address an IPv4 address as an unsigned 32-bit int.
+     * @param id the list id.
+     * @return {@code true} if the list contains the address.
+     */
+    public boolean contains(int address, int id) {
+        int p = posting(address);
+        return Arrays.binarySearch(members, offsets[p], offsets[p+1], id) >= 0;
+    }
+
+    /**
+     * Returns the number of lists in the index.
+     * @return the number of lists.
+     */
+    public int lists() {
+        return names.length;
+    }
+
+    /**
+     * Returns the name of list {@code id}.
+     * @param id the list id.
+     * @return the name.
+     */
+    public String name(int id) {
+        return names[id];
+    }
+
+    /**
+     * Returns the id of the list named {@code name}.
+     * @param name the name.
+     * @return the id, or -1 if there is no such list.
+     */
+    public int id(String name) {
+        Integer id = ids.get(name);
+        return id==null ? -1 : id;
+    }
+
+    /**
+     * Returns the number of elementary intervals the address space is split into.
+     * @return the number of intervals.
+     */
+    public int intervals() {
+        return starts.length;
+    }
+
+    /**
+     * Returns the number of distinct posting lists, including the empty one.
+     * @return the number of posting lists.
+     */
+    public int postings() {
+        return offsets.length-1;
+    }
+}
@@ -0,0 +1,412 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A parsed list of CIDR expressions.  Each entry in the list is kept
+ * in its original textual form along with the addresses it describes.
+ * Most entries describe a single interval, but wildcards that are followed
+ * by fixed octets, like {@code *.18.23/24}, describe a set of intervals:
+ * up to 2^24 of them for {@code *.*.*.5}.  These are kept as the range of
+ * each octet, so a regex for them is generated without ever listing the
+ * intervals.  Engines that work on intervals expand them when they are
+ * compiled, and reject an entry that would expand into more than
+ * {@link #MAX_EXPANSION} intervals.
+ * <p>
+ * Every engine can be compiled from a parsed list as well as from a string,
+ * so a list parsed once, e.g. by {@link CidrLoader}, can feed several of them.
+ */
+public final class CidrList {
+    /**
+     * The largest number of intervals a single wildcard entry may expand into
+     * when the list is compiled into an interval-based engine, e.g. 65536 for
+     * {@code *.*.5.*}.  Regex generation has no such limit.
+     */
+    public static final int MAX_EXPANSION = 1 << 16;
+
+    private final String[] entries;
+    private final int[] lines;
+    private final BitSet wildcards;
+    private final long[] bounds;
+    // the result of contiguous(), computed on first use; volatile so that
+    // a racing thread never sees the array before its contents
+    private volatile long[] contiguous = null;
+
+    /**
+     * Creates a list.
+     * @param entries the entry text.
+     * @param lines the line each entry was read from, or {@code null}.
+     * @param wildcards the entries whose pair in {@code bounds} holds octet ranges.
+     * @param bounds a pair for each entry: its {@code from}/{@code to} interval, or for
+     *               {@code wildcards}, the low and high end of each octet as an address.
+     */
+    CidrList(String[] entries, int[] lines, BitSet wildcards, long[] bounds) {
+        this.entries   = entries;
+        this.lines     = lines;
+        this.wildcards = wildcards;
+        this.bounds    = bounds;
+    }
+
+    /**
+     * Parses a comma-separated list of CIDR expressions.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the parsed list.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public static CidrList parse(String cidrs) throws PatternSyntaxException {
+        String[] entries = CidrPattern.split(cidrs);
+        if (entries.length==0) {
+            throw new PatternSyntaxException("Empty CIDR Pattern", cidrs, 0);
+        }
+        Intervals intervals = new Intervals();
+        BitSet wildcards = new BitSet();
+        for (int i=0; i<entries.length; i++) {
+            wildcards.set(i, CidrPattern.intervals(entries[i], intervals));
+        }
+        return new CidrList(entries, null, wildcards, intervals.toArray());
+    }
+
+    /**
+     * Returns a list with one entry for each interval in {@code bounds}, each
+     * written as a single address, a CIDR block, or an address range.
+     * @param bounds sorted, disjoint {@code from}/{@code to} pairs.
+     * @return the list.
+     */
+    static CidrList of(long[] bounds) {
+        int n = bounds.length/2;
+        String[] entries = new String[n];
+        for (int i=0; i<n; i++) {
+            entries[i] = CidrPattern.entry(bounds[2*i], bounds[2*i+1]);
+        }
+        return new CidrList(entries, null, new BitSet(), bounds);
+    }
+
+    /**
+     * Returns the number of entries in the list.
+     * @return the number of entries.
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Returns entry {@code index} as it appeared in the original list.
+     * @param index the entry index.
+     * @return the entry text.
+     */
+    public String entry(int index) {
+        return entries[index];
+    }
+
+    /**
+     * Returns the line entry {@code index} was read from, for lists read by {@link CidrLoader}.
+     * @param index the entry index.
+     * @return the line number, starting at 1, or 0 if the list was not read from lines.
+     */
+    public int line(int index) {
+        return lines==null ? 0 : lines[index];
+    }
+
+    /**
+     * Returns the merged intervals covered by all entries in the list.
+     * @return sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link #MAX_EXPANSION} intervals.
+     */
+    long[] merged() throws PatternSyntaxException {
+        if (wildcards.isEmpty()) {
+            return Intervals.merge(bounds);
+        }
+        Intervals intervals = new Intervals();
+        for (int i=0; i<entries.length; i++) {
+            expand(i, intervals);
+        }
+        return Intervals.merge(intervals.toArray());
+    }
+
+    /**
+     * Returns the first address of entry {@code index}, or for a wildcard entry
+     * the low end of each octet range.
+     * @param index the entry index.
+     * @return the address (0 to 2^32-1).
+     */
+    long low(int index) {
+        return bounds[2*index];
+    }
+
+    /**
+     * Returns the last address of entry {@code index}, or for a wildcard entry
+     * the high end of each octet range.
+     * @param index the entry index.
+     * @return the address (0 to 2^32-1).
+     */
+    long high(int index) {
+        return bounds[2*index+1];
+    }
+
+    /**
+     * Returns {@code true} if entry {@code index} describes a single interval.
+     * @param index the entry index.
+     * @return {@code true} unless the entry is split by a wildcard.
+     */
+    boolean contiguous(int index) {
+        return !wildcards.get(index);
+    }
+
+    /**
+     * Returns the merged intervals covered by all entries that describe a single interval.
+     * The intervals are merged once per list, so the array is shared and must not be changed.
+     * @return sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     */
+    long[] contiguous() {
+        long[] merged = contiguous;
+        if (merged != null) {
+            return merged;
+        }
+        if (wildcards.isEmpty()) {
+            merged = Intervals.merge(bounds);
+        } else {
+            Intervals intervals = new Intervals();
+            for (int i=0; i<entries.length; i++) {
+                if (contiguous(i)) {
+                    intervals.add(bounds[2*i], bounds[2*i+1]);
+                }
+            }
+            merged = Intervals.merge(intervals.toArray());
+        }
+        contiguous = merged;
+        return merged;
+    }
+
+    /**
+     * Returns the merged intervals covered by entry {@code index}.
+     * @param index the entry index.
+     * @return sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @throws PatternSyntaxException if the entry expands into more than {@link #MAX_EXPANSION} intervals.
+     */
+    long[] merged(int index) throws PatternSyntaxException {
+        Intervals intervals = new Intervals();
+        expand(index, intervals);
+        return intervals.toArray();
+    }
+
+    /**
+     * Adds the intervals of entry {@code index} to {@code intervals}, in order.
+     * @param index the entry index.
+     * @param intervals the list to add to.
+     * @throws PatternSyntaxException if the entry expands into more than {@link #MAX_EXPANSION} intervals.
+     */
+    private void expand(int index, Intervals intervals) throws PatternSyntaxException {
+        long low = bounds[2*index];
+        long high = bounds[2*index+1];
+        if (contiguous(index)) {
+            intervals.add(low, high);
+            return;
+        }
+        // octets after last match 0-255 and join the interval of octet last
+        int last = 3;
+        while (last > 0 && octet(low, last)==0 && octet(high, last)==255) {
+            last--;
+        }
+        long count = 1;
+        for (int i=0; i<last; i++) {
+            count *= octet(high, i)-octet(low, i)+1;
+        }
+        if (count > MAX_EXPANSION) {
+            throw new PatternSyntaxException("Wildcard expands to "+count+" intervals, more than "+MAX_EXPANSION,
+                    entries[index], Math.max(0, entries[index].indexOf('*')));
+        }
+        product(low, high, 0, last, 0, intervals);
+    }
+
+    /**
+     * Returns octet {@code index} of an address.
+     * @param address the address (0 to 2^32-1).
+     * @param index the octet, 0 for the most significant.
+     * @return the octet (0-255).
+     */
+    private static int octet(long address, int index) {
+        return (int) (address >>> 8*(3-index)) & 0xFF;
+    }
+
+    /**
+     * Adds the intervals described by a product of octet ranges. Octets after
+     * {@code last} match 0-255 and octet {@code last} contributes a range, so
+     * each combination of the octets before {@code last} is a single interval.
+     * @param low the low end of each octet range
+     * @param high the high end of each octet range
+     * @param index the octet being expanded
+     * @param last the last octet not matching 0-255
+     * @param prefix the address formed by the octets before {@code index}
+     * @param intervals the list to add the intervals to
+     */
+    private static void product(long low, long high, int index, int last, long prefix, Intervals intervals) {
+        if (index==last) {
+            int shift = 8*(3-index);
+            long from = (prefix << 8 | octet(low, index)) << shift;
+            long to   = (prefix << 8 | octet(high, index)) << shift | ((1L << shift)-1);
+            intervals.add(from, to);
+        } else {
+            for (int octet=octet(low, index); octet<=octet(high, index); octet++) {
+                product(low, high, index+1, last, prefix << 8 | octet, intervals);
+            }
+        }
+    }
+
+    /**
+     * Returns the wildcard entries that add addresses to {@code covered} and to each other:
+     * an entry is left out if all its addresses are in {@code covered}, or if it is contained
+     * in another wildcard entry (the first of identical entries is kept).  Entries are
+     * compared by their octet ranges, without expanding them.
+     * @param covered sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @return the indexes of the remaining wildcard entries, in order.
+     */
+    int[] wildcards(long[] covered) {
+        int[] kept = new int[wildcards.cardinality()];
+        int n = 0;
+        for (int i=wildcards.nextSetBit(0); i>=0; i=wildcards.nextSetBit(i+1)) {
+            if (!covered(bounds[2*i], bounds[2*i+1], 0, 0, covered)) {
+                kept[n++] = i;
+            }
+        }
+        int m = 0;
+        for (int k=0; k<n; k++) {
+            int i = kept[k];
+            boolean redundant = false;
+            for (int l=0; l<n && !redundant; l++) {
+                int j = kept[l];
+                redundant = j != i && contains(j, i) && (j < i || !contains(i, j));
+            }
+            if (!redundant) {
+                kept[m++] = i;
+            }
+        }
+        return Arrays.copyOf(kept, m);
+    }
+
+    /**
+     * Returns {@code true} if every address of wildcard entry {@code inner} is in wildcard entry
+     * {@code outer}, which is the case if each octet range of one is in the octet range of the other.
+     */
+    private boolean contains(int outer, int inner) {
+        for (int i=0; i<4; i++) {
+            if (octet(bounds[2*inner], i) < octet(bounds[2*outer], i) || octet(bounds[2*inner+1], i) > octet(bounds[2*outer+1], i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns {@code true} if every address in the product of octet ranges {@code low}-{@code high}
+     * with the octets before {@code index} replaced by {@code prefix} is in {@code covered}.
+     * Each level first checks the span from its lowest to its highest address, so only the parts
+     * of the product that partly overlap {@code covered} are split further.
+     * @param low the low end of each octet range
+     * @param high the high end of each octet range
+     * @param index the octet being split
+     * @param prefix the address formed by the octets before {@code index}
+     * @param covered sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @return {@code true} if the addresses are covered.
+     */
+    private static boolean covered(long low, long high, int index, long prefix, long[] covered) {
+        int shift = 8*(4-index);
+        long mask = shift==32 ? 0xFFFFFFFFL : (1L << shift)-1;
+        long from = (shift==32 ? 0 : prefix << shift) | low & mask;
+        long to   = (shift==32 ? 0 : prefix << shift) | high & mask;
+        // the last covered interval starting at or before from
+        int lo = 0;
+        int hi = covered.length/2-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if (covered[2*mid] <= from) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        if (hi >= 0 && covered[2*hi+1] >= to) {
+            return true;
+        }
+        boolean overlaps = hi >= 0 && covered[2*hi+1] >= from || hi+1 < covered.length/2 && covered[2*hi+2] <= to;
+        boolean single = true;
+        for (int i=index+1; i<4; i++) {
+            single &= octet(low, i)==0 && octet(high, i)==255;
+        }
+        if (!overlaps || single) {
+            // covered intervals are not adjacent, so a single interval is covered only by one of them
+            return false;
+        }
+        for (int octet=octet(low, index); octet<=octet(high, index); octet++) {
+            if (!covered(low, high, index+1, prefix << 8 | octet, covered)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Partitions the addresses matched by the list by the first entry that
+     * matches them, as an alternation of the entries would.  Neighboring
+     * intervals owned by the same entry are coalesced.
+     * @return sorted, disjoint {@code from}/{@code to}/{@code entry} triples.
+     */
+    long[] owners() {
+        // addresses claimed so far, keyed by from with value to
+        TreeMap<Long, Long> claimed = new TreeMap<>();
+        Intervals owned = new Intervals();
+        int[] owner = new int[16];
+        for (int i=0; i<this.entries.length; i++) {
+            long[] intervals = merged(i);
+            for (int j=0; j<intervals.length; j+=2) {
+                long from = intervals[j];
+                long to = intervals[j+1];
+                Map.Entry<Long, Long> before = claimed.floorEntry(from);
+                if (before != null && before.getValue() >= from) {
+                    from = before.getValue()+1;
+                }
+                while (from <= to) {
+                    Map.Entry<Long, Long> next = claimed.ceilingEntry(from);
+                    long gap = next == null ? to : Math.min(to, next.getKey()-1);
+                    if (from <= gap) {
+                        if (owned.size() == owner.length) {
+                            owner = Arrays.copyOf(owner, 2*owner.length);
+                        }
+                        owner[owned.size()] = i;
+                        owned.add(from, gap);
+                        claimed.put(from, gap);
+                    }
+                    from = next == null ? to+1 : next.getValue()+1;
+                }
+            }
+        }
+        // sort by from, carrying the entry along in the low bits
+        long[] spans = owned.toArray();
+        long[] order = new long[spans.length/2];
+        for (int i=0; i<order.length; i++) {
+            order[i] = (spans[2*i] << 32 | i) ^ Long.MIN_VALUE;
+        }
+        Arrays.sort(order);
+        long[] result = new long[3*order.length];
+        int n = 0;
+        for (long o : order) {
+            int i = (int) (o ^ Long.MIN_VALUE);
+            long from = spans[2*i];
+            long to = spans[2*i+1];
+            long entry = owner[i];
+            if (n > 0 && result[3*n-1] == entry && result[3*n-2]+1 == from) {
+                result[3*n-2] = to;
+            } else {
+                result[3*n]   = from;
+                result[3*n+1] = to;
+                result[3*n+2] = entry;
+                n++;
+            }
+        }
+        return Arrays.copyOf(result, 3*n);
+    }
+}
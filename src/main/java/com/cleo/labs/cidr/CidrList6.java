@@ -0,0 +1,222 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A parsed list of IPv6 CIDR expressions, the IPv6 counterpart of {@link CidrList}.
+ * Each entry in the list is kept in its original textual form along with the
+ * address interval it describes.  An entry is one of
+ * <ul>
+ * <li><i>address</i>{@code /}<i>bits</i>, e.g. {@code 2001:db8::/32}, where bits is 0-128,</li>
+ * <li><i>address</i>{@code -}<i>address</i>, e.g. {@code 2001:db8::1-2001:db8::ff}, or</li>
+ * <li><i>address</i>, a single address,</li>
+ * </ul>
+ * where addresses are written as accepted by {@link AddressParser#parse6(CharSequence, long[])},
+ * including {@code ::} compression.  Host bits set in the address of a block are ignored.
+ * IPv6 entries have no wildcards, and are not accepted by the regex generating
+ * {@link CidrPattern}: use {@link IntervalMatcher6} or {@link CidrMap6} to match them.
+ */
+public final class CidrList6 {
+    // orders {high, low} pairs as unsigned 128-bit addresses
+    private static final Comparator<long[]> ADDRESS_ORDER = (a, b) -> Intervals6.compare(a[0], a[1], b[0], b[1]);
+
+    private final String[] entries;
+    private final long[] bounds;
+
+    private CidrList6(String[] entries, long[] bounds) {
+        this.entries = entries;
+        this.bounds  = bounds;
+    }
+
+    /**
+     * Parses a comma-separated list of IPv6 CIDR expressions.
+     * @param cidrs a comma-separated list of CIDR expressions like 2001:db8::/32,fc00::/7.
+     * @return the parsed list.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of IPv6 CIDR patterns.
+     */
+    public static CidrList6 parse(String cidrs) throws PatternSyntaxException {
+        String[] entries = CidrPattern.split(cidrs);
+        if (entries.length==0) {
+            throw new PatternSyntaxException("Empty CIDR Pattern", cidrs, 0);
+        }
+        Intervals6 intervals = new Intervals6();
+        long[] from = new long[2];
+        long[] to = new long[2];
+        for (String entry : entries) {
+            interval(entry, from, to);
+            intervals.add(from[0], from[1], to[0], to[1]);
+        }
+        return new CidrList6(entries, intervals.toArray());
+    }
+
+    /**
+     * Parses IPv6 CIDR pattern {@code cidr} into the interval it describes.
+     * @param cidr a CIDR expression like 2001:db8::/32.
+     * @param from receives the first address of the interval.
+     * @param to receives the last address of the interval.
+     * @throws PatternSyntaxException if {@code cidr} is not an IPv6 CIDR pattern.
+     */
+    private static void interval(String cidr, long[] from, long[] to) throws PatternSyntaxException {
+        int length = cidr.length();
+        int dash = cidr.indexOf('-');
+        int slash = cidr.indexOf('/');
+        int end = dash >= 0 ? dash : slash >= 0 ? slash : length;
+        if (!AddressParser.parse6(cidr, 0, end, from)) {
+            throw new PatternSyntaxException("Not a CIDR Pattern", cidr, 0);
+        }
+        if (dash >= 0) {
+            if (!AddressParser.parse6(cidr, dash+1, length-dash-1, to)) {
+                throw new PatternSyntaxException("Not a CIDR Pattern", cidr, dash+1);
+            }
+            if (Intervals6.compare(from[0], from[1], to[0], to[1]) > 0) {
+                throw new PatternSyntaxException("Range must be in order", cidr, dash);
+            }
+            return;
+        }
+        int bits = 128;
+        if (slash >= 0) {
+            bits = 0;
+            int digits = length-slash-1;
+            if (digits < 1 || digits > 3 || digits > 1 && cidr.charAt(slash+1)=='0') {
+                throw new PatternSyntaxException("Not a CIDR Pattern", cidr, slash+1);
+            }
+            for (int i=slash+1; i<length; i++) {
+                char c = cidr.charAt(i);
+                if (c < '0' || c > '9') {
+                    throw new PatternSyntaxException("Not a CIDR Pattern", cidr, i);
+                }
+                bits = bits*10 + c-'0';
+            }
+            if (bits > 128) {
+                throw new PatternSyntaxException("Not a CIDR Pattern", cidr, slash+1);
+            }
+        }
+        long highMask = bits >= 64 ? -1L : bits == 0 ? 0 : -1L << (64-bits);
+        long lowMask  = bits <= 64 ? 0 : -1L << (128-bits);
+        from[0] &= highMask;
+        from[1] &= lowMask;
+        to[0] = from[0] | ~highMask;
+        to[1] = from[1] | ~lowMask;
+    }
+
+    /**
+     * Returns the number of entries in the list.
+     * @return the number of entries.
+     */
+    public int size() {
+        return entries.length;
+    }
+
+    /**
+     * Returns entry {@code index} as it appeared in the original list.
+     * @param index the entry index.
+     * @return the entry text.
+     */
+    public String entry(int index) {
+        return entries[index];
+    }
+
+    /**
+     * Returns the merged intervals covered by all entries in the list.
+     * @return sorted, disjoint, non-adjacent {@code from}/{@code to} quadruples.
+     */
+    long[] merged() {
+        return Intervals6.merge(bounds);
+    }
+
+    /**
+     * Returns the interval covered by entry {@code index}.
+     * @param index the entry index.
+     * @return a {@code from}/{@code to} quadruple.
+     */
+    long[] merged(int index) {
+        return Intervals6.merge(bounds, index, index+1);
+    }
+
+    /**
+     * Returns the address after {@code address}, which must not be the last address.
+     */
+    private static long[] next(long[] address) {
+        return new long[] {address[1]==-1L ? address[0]+1 : address[0], address[1]+1};
+    }
+
+    /**
+     * Returns the address before {@code address}, which must not be {@code ::}.
+     */
+    private static long[] previous(long[] address) {
+        return new long[] {address[1]==0 ? address[0]-1 : address[0], address[1]-1};
+    }
+
+    private static boolean last(long[] address) {
+        return address[0] == -1L && address[1] == -1L;
+    }
+
+    /**
+     * Partitions the addresses matched by the list by the first entry that
+     * matches them, as {@link CidrList#owners()} does for IPv4.  Neighboring
+     * intervals owned by the same entry are coalesced.
+     * @return sorted, disjoint {@code from}/{@code to}/{@code entry} quintuples.
+     */
+    long[] owners() {
+        // addresses claimed so far, keyed by from with value to
+        TreeMap<long[], long[]> claimed = new TreeMap<>(ADDRESS_ORDER);
+        Intervals6 owned = new Intervals6();
+        int[] owner = new int[16];
+        for (int i=0; i<entries.length; i++) {
+            long[] interval = merged(i);
+            long[] from = {interval[0], interval[1]};
+            long[] to = {interval[2], interval[3]};
+            Map.Entry<long[], long[]> before = claimed.floorEntry(from);
+            if (before != null && ADDRESS_ORDER.compare(before.getValue(), from) >= 0) {
+                if (last(before.getValue())) {
+                    continue;
+                }
+                from = next(before.getValue());
+            }
+            while (ADDRESS_ORDER.compare(from, to) <= 0) {
+                Map.Entry<long[], long[]> after = claimed.ceilingEntry(from);
+                boolean open = after == null || ADDRESS_ORDER.compare(after.getKey(), to) > 0;
+                if (open || ADDRESS_ORDER.compare(after.getKey(), from) > 0) {
+                    long[] gap = open ? to : previous(after.getKey());
+                    if (owned.size() == owner.length) {
+                        owner = Arrays.copyOf(owner, 2*owner.length);
+                    }
+                    owner[owned.size()] = i;
+                    owned.add(from[0], from[1], gap[0], gap[1]);
+                    claimed.put(from, gap);
+                }
+                if (open || last(after.getValue())) {
+                    break;
+                }
+                from = next(after.getValue());
+            }
+        }
+        // sort by from, carrying the entry along
+        long[] spans = owned.toArray();
+        Integer[] order = new Integer[spans.length/4];
+        for (int i=0; i<order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Intervals6.compare(spans[4*a], spans[4*a+1], spans[4*b], spans[4*b+1]));
+        long[] result = new long[5*order.length];
+        int n = 0;
+        for (int i : order) {
+            long entry = owner[i];
+            if (n > 0 && result[5*n-1] == entry && Arrays.equals(next(new long[] {result[5*n-3], result[5*n-2]}),
+                                                               new long[] {spans[4*i], spans[4*i+1]})) {
+                result[5*n-3] = spans[4*i+2];
+                result[5*n-2] = spans[4*i+3];
+            } else {
+                System.arraycopy(spans, 4*i, result, 5*n, 4);
+                result[5*n+4] = entry;
+                n++;
+            }
+        }
+        return Arrays.copyOf(result, 5*n);
+    }
+}
@@ -0,0 +1,328 @@
+package com.cleo.labs.cidr;
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Reads large CIDR lists, e.g. allowlists of hundreds of thousands of lines, into
+ * a {@link CidrList}.  Each line holds one or more comma-separated entries; blank
+ * lines and anything after a {@code #} are ignored.
+ * <p>
+ * Lines are read in chunks of {@link #CHUNK_LINES}, and each chunk is parsed in a
+ * {@code ForkJoinPool} while the next one is read.  Parsing does not stop at the
+ * first bad entry: every error is collected with its line and column, and the
+ * entries that did parse are still returned, in file order.
+ */
+public final class CidrLoader {
+    /**
+     * The number of lines parsed as one task.
+     */
+    static final int CHUNK_LINES = 4096;
+
+    /**
+     * An entry that could not be parsed.
+     */
+    public static final class LoadError {
+        private final int line;
+        private final int column;
+        private final String text;
+        private final String description;
+
+        private LoadError(int line, int column, String text, String description) {
+            this.line        = line;
+            this.column      = column;
+            this.text        = text;
+            this.description = description;
+        }
+
+        /**
+         * Returns the line of the entry.
+         * @return the line number, starting at 1.
+         */
+        public int line() {
+            return line;
+        }
+
+        /**
+         * Returns the column of the error within the line.
+         * @return the column number, starting at 1.
+         */
+        public int column() {
+            return column;
+        }
+
+        /**
+         * Returns the text of the entry.
+         * @return the entry text.
+         */
+        public String text() {
+            return text;
+        }
+
+        /**
+         * Returns what is wrong, as in {@code PatternSyntaxException.getDescription()}.
+         * @return the description.
+         */
+        public String description() {
+            return description;
+        }
+
+        @Override
+        public String toString() {
+            return "line "+line+", column "+column+": "+description+" ["+text+"]";
+        }
+    }
+
+    /**
+     * The outcome of a load: the entries that parsed and the errors.
+     */
+    public static final class Result {
+        private final CidrList list;
+        private final List<LoadError> errors;
+
+        private Result(CidrList list, List<LoadError> errors) {
+            this.list   = list;
+            this.errors = errors;
+        }
+
+        /**
+         * Returns the entries that parsed, in the order they were read.
+         * The list is empty if no entry parsed.
+         * @return the list.
+         */
+        public CidrList list() {
+            return list;
+        }
+
+        /**
+         * Returns the entries that did not parse, in the order they were read.
+         * @return an unmodifiable list of errors, empty if there were none.
+         */
+        public List<LoadError> errors() {
+            return errors;
+        }
+
+        /**
+         * Returns {@code true} if any entry did not parse.
+         * @return {@code true} if there are errors.
+         */
+        public boolean hasErrors() {
+            return !errors.isEmpty();
+        }
+    }
+
+    /**
+     * Parses a run of lines into entries, intervals and errors.
+     */
+    private static final class Chunk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] text;
+        private final int first;
+        private final List<String> entries = new ArrayList<>();
+        private int[] lines = new int[16];
+        private final BitSet wildcards = new BitSet();
+        private final Intervals intervals = new Intervals();
+        private final List<LoadError> errors = new ArrayList<>();
+
+        Chunk(String[] text, int first) {
+            this.text  = text;
+            this.first = first;
+        }
+
+        @Override
+        protected void compute() {
+            for (int i=0; i<text.length; i++) {
+                parse(text[i], first+i);
+            }
+        }
+
+        private void parse(String line, int number) {
+            int end = line.indexOf('#');
+            if (end < 0) {
+                end = line.length();
+            }
+            int start = skip(line, 0, end);
+            if (start == end) {
+                return;
+            }
+            while (start <= end) {
+                int comma = line.indexOf(',', start);
+                if (comma < 0 || comma > end) {
+                    comma = end;
+                }
+                int last = comma;
+                while (last > start && line.charAt(last-1) <= ' ') {
+                    last--;
+                }
+                String entry = line.substring(start, last);
+                if (entry.isEmpty() && trailing(line, comma, end)) {
+                    // like CidrPattern.split, empty entries at the end of the line are dropped
+                    return;
+                } else if (entry.isEmpty()) {
+                    errors.add(new LoadError(number, start+1, entry, "Empty CIDR Pattern"));
+                } else {
+                    try {
+                        boolean wildcard = CidrPattern.intervals(entry, intervals);
+                        wildcards.set(entries.size(), wildcard);
+                        add(entry, number);
+                    } catch (PatternSyntaxException e) {
+                        errors.add(new LoadError(number, start+Math.max(0, e.getIndex())+1, entry, e.getDescription()));
+                    }
+                }
+                start = skip(line, comma+1, end);
+            }
+        }
+
+        private void add(String entry, int number) {
+            int n = entries.size();
+            if (n == lines.length) {
+                lines = Arrays.copyOf(lines, 2*n);
+            }
+            entries.add(entry);
+            lines[n] = number;
+        }
+    }
+
+    /**
+     * Returns {@code true} if {@code s} holds only commas and whitespace from
+     * {@code pos} up to {@code end}.
+     */
+    private static boolean trailing(String s, int pos, int end) {
+        while (pos < end && (s.charAt(pos) == ',' || s.charAt(pos) <= ' ')) {
+            pos++;
+        }
+        return pos == end;
+    }
+
+    /**
+     * Returns the index of the first non-whitespace character in {@code s}
+     * from {@code pos}, or {@code end} if there is none before it.
+     */
+    private static int skip(String s, int pos, int end) {
+        while (pos < end && s.charAt(pos) <= ' ') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Reads CIDR list file {@code file}, which is encoded in UTF-8.
+     * @param file the file to read.
+     * @return the entries and errors.
+     * @throws IOException if the file can not be read.
+     */
+    public static Result load(Path file) throws IOException {
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            return load(reader);
+        }
+    }
+
+    /**
+     * Reads a CIDR list from {@code in}, which is encoded in UTF-8.
+     * The stream is read to the end but not closed.
+     * @param in the stream to read.
+     * @return the entries and errors.
+     * @throws IOException if the stream can not be read.
+     */
+    public static Result load(InputStream in) throws IOException {
+        return load(new InputStreamReader(in, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads a CIDR list from {@code reader}, parsing in the common {@code ForkJoinPool}.
+     * The reader is read to the end but not closed.
+     * @param reader the reader to read.
+     * @return the entries and errors.
+     * @throws IOException if the reader can not be read.
+     */
+    public static Result load(Reader reader) throws IOException {
+        return load(reader, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Reads a CIDR list from {@code reader}, parsing in {@code pool}.
+     * The reader is read to the end but not closed.
+     * @param reader the reader to read.
+     * @param pool the pool to parse in.
+     * @return the entries and errors.
+     * @throws IOException if the reader can not be read.
+     */
+    public static Result load(Reader reader, ForkJoinPool pool) throws IOException {
+        BufferedReader input = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        List<Chunk> chunks = new ArrayList<>();
+        String[] text = new String[CHUNK_LINES];
+        int n = 0;
+        int number = 1;
+        String line;
+        while ((line = input.readLine()) != null) {
+            text[n++] = line;
+            if (n == CHUNK_LINES) {
+                chunks.add(submit(pool, text, n, number));
+                number += n;
+                n = 0;
+            }
+        }
+        if (n > 0) {
+            chunks.add(submit(pool, text, n, number));
+        }
+        return collect(chunks);
+    }
+
+    private static Chunk submit(ForkJoinPool pool, String[] text, int n, int first) {
+        Chunk chunk = new Chunk(Arrays.copyOf(text, n), first);
+        pool.execute(chunk);
+        return chunk;
+    }
+
+    /**
+     * Joins the chunks and concatenates their results in order.
+     */
+    private static Result collect(List<Chunk> chunks) {
+        int entries = 0;
+        for (Chunk chunk : chunks) {
+            chunk.join();
+            entries += chunk.entries.size();
+        }
+        String[] text = new String[entries];
+        int[] lines = new int[entries];
+        BitSet wildcards = new BitSet();
+        long[] bounds = new long[2*entries];
+        List<LoadError> errors = new ArrayList<>();
+        int e = 0;
+        for (Chunk chunk : chunks) {
+            int size = chunk.entries.size();
+            for (int i=0; i<size; i++) {
+                text[e+i] = chunk.entries.get(i);
+                lines[e+i] = chunk.lines[i];
+                wildcards.set(e+i, chunk.wildcards.get(i));
+            }
+            // each entry adds a single pair
+            long[] chunkBounds = chunk.intervals.toArray();
+            System.arraycopy(chunkBounds, 0, bounds, 2*e, chunkBounds.length);
+            e += size;
+            errors.addAll(chunk.errors);
+        }
+        return new Result(new CidrList(text, lines, wildcards, bounds), Collections.unmodifiableList(errors));
+    }
+
+    /**
+     * Private constructor.
+     */
+    private CidrLoader() {}
+}
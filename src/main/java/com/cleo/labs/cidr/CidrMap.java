@@ -0,0 +1,327 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A map from CIDR blocks to values supporting longest-prefix-match lookup.
+ * The blocks are kept in a path-compressed binary (Patricia) trie, so a
+ * lookup visits at most 33 nodes regardless of the size of the map, and
+ * the trie has at most two nodes per block stored.
+ * <p>
+ * Blocks are added with the same textual CIDR expressions accepted by
+ * {@link CidrPattern}. Address ranges and wildcards that do not describe a
+ * single block are decomposed into the smallest set of blocks covering
+ * them, all mapping to the same value.
+ * <p>
+ * Like {@code HashMap}, a {@code CidrMap} is not synchronized: concurrent
+ * lookups are safe only if the map is not being modified.
+ * @param <V> the type of mapped values.
+ */
+public class CidrMap<V> implements Iterable<CidrMap.Entry<V>> {
+
+    /**
+     * A CIDR block and its value.
+     * @param <V> the type of the value.
+     */
+    public static final class Entry<V> {
+        private final int address;
+        private final int bits;
+        private final V value;
+
+        private Entry(int address, int bits, V value) {
+            this.address = address;
+            this.bits    = bits;
+            this.value   = value;
+        }
+
+        /**
+         * Returns the first address in the block.
+         * @return the address as an unsigned 32-bit int.
+         */
+        public int address() {
+            return address;
+        }
+
+        /**
+         * Returns the prefix length of the block.
+         * @return the prefix length (0-32).
+         */
+        public int bits() {
+            return bits;
+        }
+
+        /**
+         * Returns the value mapped to the block.
+         * @return the value.
+         */
+        public V value() {
+            return value;
+        }
+
+        /**
+         * Returns the block in address/bits notation.
+         */
+        @Override
+        public String toString() {
+            return AddressParser.format(address)+"/"+bits;
+        }
+    }
+
+    private static final class Node<V> {
+        private final int prefix;
+        private final int bits;
+        private V value;
+        private Node<V> left;
+        private Node<V> right;
+
+        private Node(int prefix, int bits, V value) {
+            this.prefix = prefix;
+            this.bits   = bits;
+            this.value  = value;
+        }
+    }
+
+    private Node<V> root = null;
+    private int size = 0;
+
+    /**
+     * Returns the network mask for a prefix length.
+     * @param bits the prefix length (0-32).
+     * @return the mask.
+     */
+    private static int mask(int bits) {
+        return bits==0 ? 0 : -1 << (32-bits);
+    }
+
+    /**
+     * Returns bit {@code index} of {@code address}, counting from the most significant bit.
+     * @param address the address.
+     * @param index the bit index (0-31).
+     * @return 0 or 1.
+     */
+    private static int bit(int address, int index) {
+        return address >>> (31-index) & 1;
+    }
+
+    /**
+     * Maps every address matched by CIDR pattern list {@code cidrs} to {@code value}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param value the value (may not be {@code null}).
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public void put(String cidrs, V value) throws PatternSyntaxException {
+        if (value==null) {
+            throw new NullPointerException();
+        }
+        CidrList list = CidrList.parse(cidrs);
+        for (int i=0; i<list.size(); i++) {
+            long[] bounds = list.merged(i);
+            for (int j=0; j<bounds.length; j+=2) {
+                Intervals.prefixes(bounds[j], bounds[j+1], (address, bits) -> put(address, bits, value));
+            }
+        }
+    }
+
+    /**
+     * Maps the block {@code address}/{@code bits} to {@code value}. Any host bits
+     * set in {@code address} are ignored.
+     * @param address an address in the block as an unsigned 32-bit int.
+     * @param bits the prefix length (0-32).
+     * @param value the value (may not be {@code null}).
+     * @return the value previously mapped to the block, or {@code null}.
+     */
+    public V put(int address, int bits, V value) {
+        if (value==null) {
+            throw new NullPointerException();
+        } else if (bits < 0 || bits > 32) {
+            throw new IllegalArgumentException("bits must be 0-32: "+bits);
+        }
+        address &= mask(bits);
+        Node<V> parent = null;
+        Node<V> node = root;
+        while (node != null) {
+            int common = Math.min(Integer.numberOfLeadingZeros(address ^ node.prefix), Math.min(bits, node.bits));
+            if (common == node.bits && common == bits) {
+                // exact block: replace (or fill in a branch node)
+                V previous = node.value;
+                node.value = value;
+                if (previous==null) {
+                    size++;
+                }
+                return previous;
+            } else if (common == node.bits) {
+                // node is a prefix of the new block: descend
+                parent = node;
+                node = bit(address, node.bits)==0 ? node.left : node.right;
+            } else {
+                Node<V> replacement;
+                if (common == bits) {
+                    // new block is a prefix of node: insert above it
+                    replacement = new Node<>(address, bits, value);
+                    attach(replacement, node);
+                } else {
+                    // diverge at common: add a branch node above both
+                    replacement = new Node<>(address & mask(common), common, null);
+                    attach(replacement, node);
+                    attach(replacement, new Node<>(address, bits, value));
+                }
+                replace(parent, node, replacement);
+                size++;
+                return null;
+            }
+        }
+        replace(parent, null, new Node<>(address, bits, value));
+        size++;
+        return null;
+    }
+
+    /**
+     * Attaches {@code child} under {@code parent} on the side selected by
+     * the first bit of {@code child} beyond the parent prefix.
+     * @param parent the parent node.
+     * @param child the child node.
+     */
+    private static <V> void attach(Node<V> parent, Node<V> child) {
+        if (bit(child.prefix, parent.bits)==0) {
+            parent.left = child;
+        } else {
+            parent.right = child;
+        }
+    }
+
+    /**
+     * Replaces {@code node} (which may be {@code null}) with {@code replacement}
+     * in {@code parent} (or at the root if {@code parent} is {@code null}).
+     * @param parent the parent node or {@code null}.
+     * @param node the node to replace.
+     * @param replacement the new node.
+     */
+    private void replace(Node<V> parent, Node<V> node, Node<V> replacement) {
+        if (parent==null) {
+            root = replacement;
+        } else if (node!=null ? parent.left==node : bit(replacement.prefix, parent.bits)==0) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+    }
+
+    /**
+     * Returns the value of the longest block containing {@code address}.
+     * @param address an address as an unsigned 32-bit int.
+     * @return the value, or {@code null} if no block contains the address.
+     */
+    public V get(int address) {
+        V best = null;
+        Node<V> node = root;
+        while (node != null && ((address ^ node.prefix) & mask(node.bits)) == 0) {
+            if (node.value != null) {
+                best = node.value;
+            }
+            if (node.bits == 32) {
+                break;
+            }
+            node = bit(address, node.bits)==0 ? node.left : node.right;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the value of the longest block containing {@code address}.
+     * @param address a dotted-quad IPv4 address.
+     * @return the value, or {@code null} if no block contains the address
+     *         or {@code address} is not a well-formed address.
+     */
+    public V get(CharSequence address) {
+        long value = AddressParser.parse(address);
+        return value < 0 ? null : get((int) value);
+    }
+
+    /**
+     * Returns {@code true} if any block contains {@code address}.
+     * @param address an address as an unsigned 32-bit int.
+     * @return {@code true} if the address is in the map.
+     */
+    public boolean containsKey(int address) {
+        return get(address) != null;
+    }
+
+    /**
+     * Returns {@code true} if any block contains {@code address}.
+     * @param address a dotted-quad IPv4 address.
+     * @return {@code true} if the address is in the map.
+     */
+    public boolean containsKey(CharSequence address) {
+        return get(address) != null;
+    }
+
+    /**
+     * Returns the number of blocks in the map.
+     * @return the number of blocks.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if the map holds no blocks.
+     * @return {@code true} if the map is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns an iterator over the blocks in the map in address order,
+     * with shorter blocks before the longer blocks they contain.
+     */
+    @Override
+    public Iterator<Entry<V>> iterator() {
+        return new Iterator<Entry<V>>() {
+            private final Deque<Node<V>> stack = new ArrayDeque<>();
+            private Node<V> next = null;
+            {
+                if (root != null) {
+                    stack.push(root);
+                }
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (next == null && !stack.isEmpty()) {
+                    Node<V> node = stack.pop();
+                    if (node.right != null) {
+                        stack.push(node.right);
+                    }
+                    if (node.left != null) {
+                        stack.push(node.left);
+                    }
+                    if (node.value != null) {
+                        next = node;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry<V> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry<V> entry = new Entry<>(next.prefix, next.bits, next.value);
+                advance();
+                return entry;
+            }
+        };
+    }
+}
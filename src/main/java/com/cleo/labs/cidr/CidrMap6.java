@@ -0,0 +1,361 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A map from IPv6 CIDR blocks to values supporting longest-prefix-match lookup,
+ * the IPv6 counterpart of {@link CidrMap}.  Addresses are passed as two
+ * {@code long}s, the high and low 64 bits of the address, and the blocks are
+ * kept in a path-compressed binary (Patricia) trie, so a lookup visits at most
+ * 129 nodes, and in practice as many as there are nested blocks.
+ * <p>
+ * Blocks are added with the textual expressions accepted by {@link CidrList6}.
+ * Address ranges are decomposed into the smallest set of blocks covering them,
+ * all mapping to the same value.
+ * <p>
+ * Like {@code HashMap}, a {@code CidrMap6} is not synchronized: concurrent
+ * lookups are safe only if the map is not being modified.
+ * @param <V> the type of mapped values.
+ */
+public class CidrMap6<V> implements Iterable<CidrMap6.Entry<V>> {
+
+    /**
+     * An IPv6 CIDR block and its value.
+     * @param <V> the type of the value.
+     */
+    public static final class Entry<V> {
+        private final long high;
+        private final long low;
+        private final int bits;
+        private final V value;
+
+        private Entry(long high, long low, int bits, V value) {
+            this.high  = high;
+            this.low   = low;
+            this.bits  = bits;
+            this.value = value;
+        }
+
+        /**
+         * Returns the high 64 bits of the first address in the block.
+         * @return the high 64 bits.
+         */
+        public long high() {
+            return high;
+        }
+
+        /**
+         * Returns the low 64 bits of the first address in the block.
+         * @return the low 64 bits.
+         */
+        public long low() {
+            return low;
+        }
+
+        /**
+         * Returns the prefix length of the block.
+         * @return the prefix length (0-128).
+         */
+        public int bits() {
+            return bits;
+        }
+
+        /**
+         * Returns the value mapped to the block.
+         * @return the value.
+         */
+        public V value() {
+            return value;
+        }
+
+        /**
+         * Returns the block in address/bits notation.
+         */
+        @Override
+        public String toString() {
+            return AddressParser.format6(high, low)+"/"+bits;
+        }
+    }
+
+    private static final class Node<V> {
+        private final long high;
+        private final long low;
+        private final int bits;
+        private V value;
+        private Node<V> left;
+        private Node<V> right;
+
+        private Node(long high, long low, int bits, V value) {
+            this.high  = high;
+            this.low   = low;
+            this.bits  = bits;
+            this.value = value;
+        }
+    }
+
+    private Node<V> root = null;
+    private int size = 0;
+
+    /**
+     * Returns the high 64 bits of the network mask for a prefix length.
+     * @param bits the prefix length (0-128).
+     * @return the mask.
+     */
+    private static long highMask(int bits) {
+        return bits >= 64 ? -1L : bits==0 ? 0 : -1L << (64-bits);
+    }
+
+    /**
+     * Returns the low 64 bits of the network mask for a prefix length.
+     * @param bits the prefix length (0-128).
+     * @return the mask.
+     */
+    private static long lowMask(int bits) {
+        return bits <= 64 ? 0 : -1L << (128-bits);
+    }
+
+    /**
+     * Returns bit {@code index} of an address, counting from the most significant bit.
+     * @param high the high 64 bits of the address.
+     * @param low the low 64 bits of the address.
+     * @param index the bit index (0-127).
+     * @return 0 or 1.
+     */
+    private static int bit(long high, long low, int index) {
+        return (int) (index < 64 ? high >>> (63-index) : low >>> (127-index)) & 1;
+    }
+
+    /**
+     * Returns {@code true} if the address is in the block of {@code node}.
+     */
+    private static boolean contains(Node<?> node, long high, long low) {
+        return ((high ^ node.high) & highMask(node.bits)) == 0 && ((low ^ node.low) & lowMask(node.bits)) == 0;
+    }
+
+    /**
+     * Maps every address matched by IPv6 CIDR pattern list {@code cidrs} to {@code value}.
+     * @param cidrs a comma-separated list of IPv6 CIDR expressions like 2001:db8::/32,fc00::/7.
+     * @param value the value (may not be {@code null}).
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of IPv6 CIDR patterns.
+     */
+    public void put(String cidrs, V value) throws PatternSyntaxException {
+        if (value==null) {
+            throw new NullPointerException();
+        }
+        CidrList6 list = CidrList6.parse(cidrs);
+        for (int i=0; i<list.size(); i++) {
+            long[] bounds = list.merged(i);
+            Intervals6.prefixes(bounds[0], bounds[1], bounds[2], bounds[3],
+                    (high, low, bits) -> put(high, low, bits, value));
+        }
+    }
+
+    /**
+     * Maps the block {@code high}:{@code low}/{@code bits} to {@code value}. Any host
+     * bits set in the address are ignored.
+     * @param high the high 64 bits of an address in the block.
+     * @param low the low 64 bits of an address in the block.
+     * @param bits the prefix length (0-128).
+     * @param value the value (may not be {@code null}).
+     * @return the value previously mapped to the block, or {@code null}.
+     */
+    public V put(long high, long low, int bits, V value) {
+        if (value==null) {
+            throw new NullPointerException();
+        } else if (bits < 0 || bits > 128) {
+            throw new IllegalArgumentException("bits must be 0-128: "+bits);
+        }
+        high &= highMask(bits);
+        low &= lowMask(bits);
+        Node<V> parent = null;
+        Node<V> node = root;
+        while (node != null) {
+            long diff = high ^ node.high;
+            int differ = diff != 0 ? Long.numberOfLeadingZeros(diff) : 64+Long.numberOfLeadingZeros(low ^ node.low);
+            int common = Math.min(differ, Math.min(bits, node.bits));
+            if (common == node.bits && common == bits) {
+                // exact block: replace (or fill in a branch node)
+                V previous = node.value;
+                node.value = value;
+                if (previous==null) {
+                    size++;
+                }
+                return previous;
+            } else if (common == node.bits) {
+                // node is a prefix of the new block: descend
+                parent = node;
+                node = bit(high, low, node.bits)==0 ? node.left : node.right;
+            } else {
+                Node<V> replacement;
+                if (common == bits) {
+                    // new block is a prefix of node: insert above it
+                    replacement = new Node<>(high, low, bits, value);
+                    attach(replacement, node);
+                } else {
+                    // diverge at common: add a branch node above both
+                    replacement = new Node<>(high & highMask(common), low & lowMask(common), common, null);
+                    attach(replacement, node);
+                    attach(replacement, new Node<>(high, low, bits, value));
+                }
+                replace(parent, node, replacement);
+                size++;
+                return null;
+            }
+        }
+        replace(parent, null, new Node<>(high, low, bits, value));
+        size++;
+        return null;
+    }
+
+    /**
+     * Attaches {@code child} under {@code parent} on the side selected by
+     * the first bit of {@code child} beyond the parent prefix.
+     * @param parent the parent node.
+     * @param child the child node.
+     */
+    private static <V> void attach(Node<V> parent, Node<V> child) {
+        if (bit(child.high, child.low, parent.bits)==0) {
+            parent.left = child;
+        } else {
+            parent.right = child;
+        }
+    }
+
+    /**
+     * Replaces {@code node} (which may be {@code null}) with {@code replacement}
+     * in {@code parent} (or at the root if {@code parent} is {@code null}).
+     * @param parent the parent node or {@code null}.
+     * @param node the node to replace.
+     * @param replacement the new node.
+     */
+    private void replace(Node<V> parent, Node<V> node, Node<V> replacement) {
+        if (parent==null) {
+            root = replacement;
+        } else if (node!=null ? parent.left==node : bit(replacement.high, replacement.low, parent.bits)==0) {
+            parent.left = replacement;
+        } else {
+            parent.right = replacement;
+        }
+    }
+
+    /**
+     * Returns the value of the longest block containing an address.
+     * @param high the high 64 bits of the address.
+     * @param low the low 64 bits of the address.
+     * @return the value, or {@code null} if no block contains the address.
+     */
+    public V get(long high, long low) {
+        V best = null;
+        Node<V> node = root;
+        while (node != null && contains(node, high, low)) {
+            if (node.value != null) {
+                best = node.value;
+            }
+            if (node.bits == 128) {
+                break;
+            }
+            node = bit(high, low, node.bits)==0 ? node.left : node.right;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the value of the longest block containing {@code address}.
+     * @param address an IPv6 address.
+     * @return the value, or {@code null} if no block contains the address
+     *         or {@code address} is not a well-formed address.
+     */
+    public V get(CharSequence address) {
+        long[] value = AddressParser.scratch6();
+        return AddressParser.parse6(address, value) ? get(value[0], value[1]) : null;
+    }
+
+    /**
+     * Returns {@code true} if any block contains an address.
+     * @param high the high 64 bits of the address.
+     * @param low the low 64 bits of the address.
+     * @return {@code true} if the address is in the map.
+     */
+    public boolean containsKey(long high, long low) {
+        return get(high, low) != null;
+    }
+
+    /**
+     * Returns {@code true} if any block contains {@code address}.
+     * @param address an IPv6 address.
+     * @return {@code true} if the address is in the map.
+     */
+    public boolean containsKey(CharSequence address) {
+        return get(address) != null;
+    }
+
+    /**
+     * Returns the number of blocks in the map.
+     * @return the number of blocks.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns {@code true} if the map holds no blocks.
+     * @return {@code true} if the map is empty.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Returns an iterator over the blocks in the map in address order,
+     * with shorter blocks before the longer blocks they contain.
+     */
+    @Override
+    public Iterator<Entry<V>> iterator() {
+        return new Iterator<Entry<V>>() {
+            private final Deque<Node<V>> stack = new ArrayDeque<>();
+            private Node<V> next = null;
+            {
+                if (root != null) {
+                    stack.push(root);
+                }
+                advance();
+            }
+
+            private void advance() {
+                next = null;
+                while (next == null && !stack.isEmpty()) {
+                    Node<V> node = stack.pop();
+                    if (node.right != null) {
+                        stack.push(node.right);
+                    }
+                    if (node.left != null) {
+                        stack.push(node.left);
+                    }
+                    if (node.value != null) {
+                        next = node;
+                    }
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Entry<V> next() {
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                Entry<V> entry = new Entry<>(next.high, next.low, next.bits, next.value);
+                advance();
+                return entry;
+            }
+        };
+    }
+}
@@ -0,0 +1,80 @@
+package com.cleo.labs.cidr;
+
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+/**
+ * A compiled set of IPv4 addresses that can be tested without a
+ * regular expression engine.  Implementations are immutable and
+ * safe for use by multiple concurrent threads.
+ */
+public interface CidrMatcher {
+    /**
+     * Returns {@code true} if {@code address} is in the set.
+     * @param address an IPv4 address as an unsigned 32-bit int,
+     *                e.g. {@code 0x0A000001} for 10.0.0.1.
+     * @return {@code true} if the address matches.
+     */
+    boolean matches(int address);
+
+    /**
+     * Returns {@code true} if {@code input} is a dotted-quad IPv4 address in the set.
+     * Inputs that are not well-formed addresses never match, so this method accepts the
+     * same inputs as the {@code Pattern} that {@link CidrPattern#compile(String)} returns
+     * for the list the matcher was built from.
+     * @param input the input to match.
+     * @return {@code true} if the input matches.
+     */
+    default boolean matches(CharSequence input) {
+        long address = AddressParser.parse(input);
+        return address >= 0 && matches((int) address);
+    }
+
+    /**
+     * Returns {@code true} if {@code length} characters of {@code input} starting at
+     * {@code offset} are a dotted-quad IPv4 address in the set.
+     * @param input the input to match.
+     * @param offset the index of the first character to match.
+     * @param length the number of characters to match.
+     * @return {@code true} if the input matches.
+     */
+    default boolean matches(CharSequence input, int offset, int length) {
+        long address = AddressParser.parse(input, offset, length);
+        return address >= 0 && matches((int) address);
+    }
+
+    /**
+     * Returns {@code true} if {@code length} ASCII bytes of {@code input} starting at
+     * {@code offset} are a dotted-quad IPv4 address in the set.
+     * @param input the input to match.
+     * @param offset the index of the first byte to match.
+     * @param length the number of bytes to match.
+     * @return {@code true} if the input matches.
+     */
+    default boolean matches(byte[] input, int offset, int length) {
+        long address = AddressParser.parse(input, offset, length);
+        return address >= 0 && matches((int) address);
+    }
+
+    /**
+     * Returns {@code true} if the remaining ASCII bytes of {@code input} are a
+     * dotted-quad IPv4 address in the set.  The buffer's position is not changed.
+     * @param input the input to match.
+     * @return {@code true} if the input matches.
+     */
+    default boolean matches(ByteBuffer input) {
+        long address = AddressParser.parse(input);
+        return address >= 0 && matches((int) address);
+    }
+
+    /**
+     * Returns {@code true} if {@code address} is an IPv4 address in the set.
+     * @param address the address to match.
+     * @return {@code true} if the address matches.
+     */
+    default boolean matches(InetAddress address) {
+        long value = AddressParser.parse(address);
+        return value >= 0 && matches((int) value);
+    }
+}
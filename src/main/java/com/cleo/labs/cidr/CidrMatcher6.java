@@ -0,0 +1,54 @@
+package com.cleo.labs.cidr;
+
+
+import java.net.InetAddress;
+
+/**
+ * A compiled set of IPv6 addresses, the IPv6 counterpart of {@link CidrMatcher}.
+ * Addresses are passed as two {@code long}s, the high and low 64 bits of the
+ * address.  Implementations are immutable and safe for use by multiple
+ * concurrent threads.
+ */
+public interface CidrMatcher6 {
+    /**
+     * Returns {@code true} if the address is in the set.
+     * @param high the high 64 bits of an IPv6 address, e.g. {@code 0x20010db800000000L} for 2001:db8::.
+     * @param low the low 64 bits of the address.
+     * @return {@code true} if the address matches.
+     */
+    boolean matches(long high, long low);
+
+    /**
+     * Returns {@code true} if {@code input} is an IPv6 address in the set.
+     * Inputs that are not well-formed addresses never match.  The address is
+     * parsed into a per-thread array, so matching allocates nothing.
+     * @param input the input to match.
+     * @return {@code true} if the input matches.
+     */
+    default boolean matches(CharSequence input) {
+        return matches(input, 0, input.length());
+    }
+
+    /**
+     * Returns {@code true} if {@code length} characters of {@code input} starting at
+     * {@code offset} are an IPv6 address in the set.
+     * @param input the input to match.
+     * @param offset the index of the first character to match.
+     * @param length the number of characters to match.
+     * @return {@code true} if the input matches.
+     */
+    default boolean matches(CharSequence input, int offset, int length) {
+        long[] address = AddressParser.scratch6();
+        return AddressParser.parse6(input, offset, length, address) && matches(address[0], address[1]);
+    }
+
+    /**
+     * Returns {@code true} if {@code address} is an IPv6 address in the set.
+     * @param address the address to match.
+     * @return {@code true} if the address matches.
+     */
+    default boolean matches(InetAddress address) {
+        long[] value = AddressParser.scratch6();
+        return AddressParser.parse6(address, value) && matches(value[0], value[1]);
+    }
+}
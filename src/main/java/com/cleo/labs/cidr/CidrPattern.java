@@ -1,184 +1,865 @@
-package com.cleo.labs.cidr;
-
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
-import java.util.stream.Collectors;
-
-public class CidrPattern {
-    private static final String MATCH_255     = "(?:\\d|[1-9]\\d|1\\d{2}|2(?:[0-4]\\d|5[0-5]))";
-    private static final String CAPTURE_255   = "(\\d|[1-9]\\d|1\\d{2}|2(?:[0-4]\\d|5[0-5])|\\*)";
-    private static final String CAPTURE_32    = "([1-9]|[12]\\d|3[0-2])";
-    private static final String CAPTURE_IP    = "("+MATCH_255+"\\."+MATCH_255+"\\."+MATCH_255+"\\."+MATCH_255+")";
-    private static final Pattern CIDR_PATTERN = Pattern.compile(CAPTURE_255+
-                                                                "(?:\\."+CAPTURE_255+
-                                                                "(?:\\."+CAPTURE_255+
-                                                                "(?:\\."+CAPTURE_255+
-                                                                ")?)?)?(?:/"+CAPTURE_32+"|-"+CAPTURE_IP+")?");
-
-    /**
-     * Returns a compiled {@code Pattern} matching CIDR pattern list {@code cidrs}.
-     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
-     * @return the compiled pattern.
-     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
-     */
-    public static Pattern compile(String cidrs) throws PatternSyntaxException {
-        return Pattern.compile(patterns(cidrs));
-    }
-
-    /**
-     * Returns a compiled {@code Pattern} matching CIDR pattern list {@code cidrs}.
-     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
-     * @param flags match flags as in {@code Pattern.compile}.
-     * @return the compiled pattern.
-     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
-     */
-    public static Pattern compile(String cidrs, int flags) throws PatternSyntaxException {
-        return Pattern.compile(patterns(cidrs), flags);
-    }
-
-    /**
-     * Convenience method that compiles a CIDR pattern list and matches it against an input.
-     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
-     * @param input the input to match against the CIDR pattern list
-     * @return {@code true} if the input matches the pattern list
-     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
-     */
-    public static boolean matches(String cidrs, CharSequence input) throws PatternSyntaxException {
-        return compile(cidrs).matcher(input).matches();
-    }
-
-    /**
-     * Returns a string representing a regex matching CIDR pattern {@code cidr}.
-     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
-     * @return the pattern string.
-     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
-     */
-    private static String patterns(String cidrs) throws PatternSyntaxException {
-        List<String> results = new ArrayList<>();
-        for (String cidr : cidrs.split("\\s*,\\s*")) {
-            results.add(pattern(cidr));
-        }
-        if (results.size()==0) {
-            throw new PatternSyntaxException("Empty CIDR Pattern", cidrs, 0);
-        } else if (results.size()==1) {
-            return results.get(0);
-        } else {
-            return results.stream().collect(Collectors.joining("|", "(?:", ")"));
-        }
-    }
-
-    /**
-     * Converts a string of the form number{.number} into an
-     * array of ints. Does no error checking.
-     * @param strings number.number...
-     * @return int.int...
-     */
-    private static int[] ints(String[] strings) {
-        int[] ints = new int[strings.length];
-        for (int i=0; i<strings.length; i++) {
-            ints[i] = Integer.valueOf(strings[i]);
-        }
-        return ints;
-    }
-
-    private static int[] ZEROS = new int[] {0, 0, 0, 0};
-    private static int[] STARS = new int[] {255, 255, 255, 255};
-
-    /**
-     * Returns a regex {@code String} that matches the range described
-     * by {@code from} and {@code to} starting at {@code index}.
-     * If {@code index} is at the end of the arrays, this is just
-     * a simple {@link RangePattern}. Otherwise a pattern (or set
-     * of patterns) describing the range is assembled, including
-     * recursive subrange patterns.
-     * @param from starting point of the range
-     * @param to ending point of the range
-     * @param index where in the from/to arrays to start
-     * @return a regex {@code String}
-     */
-    private static String subrange(int[] from, int[] to, int index) {
-        if (index==from.length-1) {
-            return RangePattern.pattern(from[index], to[index]);
-        } else if (from[index] > to[index]) {
-            throw new IllegalArgumentException();
-        } else if (from[index] == to[index]) {
-            return from[index]+"\\."+subrange(from, to, index+1);
-        } else {
-            StringBuffer sb = new StringBuffer();
-            sb.append("(?:").append(from[index]).append("\\.").append(subrange(from, STARS, index+1));
-            if (to[index]-from[index] > 1) {
-                sb.append('|').append(RangePattern.pattern(from[index]+1, to[index]-1));
-                for (int i=index; i<from.length-1; i++) {
-                    sb.append("\\.").append(MATCH_255);
-                }
-            }
-            sb.append('|').append(to[index]).append("\\.").append(subrange(ZEROS, to, index+1)).append(')');
-            return sb.toString();
-        }
-    }
-
-    private static String range(String cidr, String[] from, String[] to) throws PatternSyntaxException {
-        try {
-            return subrange(ints(from), ints(to), 0);
-        } catch (IllegalArgumentException e) {
-            throw new PatternSyntaxException("Range must be in order", cidr, cidr.indexOf("-"));
-        }
-    }
-
-    /**
-     * Returns a string representing a regex matching CIDR pattern {@code cidr}.
-     * @param cidr a CIDR expression like 192.168/16.
-     * @return the pattern string.
-     * @throws PatternSyntaxException if {@code cidr} is not a CIDR pattern.
-     */
-    private static String pattern(String cidr) throws PatternSyntaxException {
-        Matcher m = CIDR_PATTERN.matcher(cidr);
-        if (!m.matches()) {
-            throw new PatternSyntaxException("Not a CIDR Pattern", cidr, 0);
-        }
-        StringBuilder result = new StringBuilder();
-        String bitsString = m.group(5);
-        String rangeString = m.group(6);
-        if (rangeString!=null) {
-            if (m.group(4)==null) {
-                throw new PatternSyntaxException("full start address required for address range", cidr, cidr.indexOf("-"));
-            }
-            return range(cidr, new String[]{m.group(1), m.group(2), m.group(3), m.group(4)},
-                    rangeString.split("\\."));
-        } else {
-            if (bitsString==null) {
-                if (m.group(4)==null) {
-                    throw new PatternSyntaxException("/bits required unless full address provided", cidr, cidr.length()-1);
-                }
-                bitsString = "32";
-            }
-            int bits  = Integer.valueOf(bitsString);
-            for (int i = 0; i<4; i++) {
-                if (i>0) {
-                    result.append("\\.");
-                }
-                String capture = m.group(i+1)==null ? "0" : m.group(i+1);
-                if (bits==0 || capture.equals("*")) {
-                    result.append(MATCH_255);
-                } else if (bits >= 8) {
-                    result.append(capture);
-                } else if (bits > 0) {
-                    int mask = (1 << (8-bits))-1;
-                    int base = Integer.valueOf(capture) & ~mask;
-                    result.append(RangePattern.pattern(base, base+mask));
-                }
-                bits = Math.max(0, bits-8);
-            }
-        }
-        return result.toString();
-    }
-
-    /**
-     * Private constructor.
-     */
-    private CidrPattern() {}
-}
+package com.cleo.labs.cidr;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+public class CidrPattern {
+    private static final String MATCH_255     = "(?:\\d|[1-9]\\d|1\\d{2}|2(?:[0-4]\\d|5[0-5]))";
+    private static final String CAPTURE_255   = "(\\d|[1-9]\\d|1\\d{2}|2(?:[0-4]\\d|5[0-5])|\\*)";
+    private static final String CAPTURE_32    = "([1-9]|[12]\\d|3[0-2])";
+    private static final String CAPTURE_IP    = "("+MATCH_255+"\\."+MATCH_255+"\\."+MATCH_255+"\\."+MATCH_255+")";
+    private static final String ATOMIC_255    = "(?>1\\d{2}|2(?:[0-4]\\d|5[0-5])|[1-9]\\d|\\d)";
+    private static final Pattern CIDR_PATTERN = Pattern.compile(CAPTURE_255+
+                                                                "(?:\\."+CAPTURE_255+
+                                                                "(?:\\."+CAPTURE_255+
+                                                                "(?:\\."+CAPTURE_255+
+                                                                ")?)?)?(?:/"+CAPTURE_32+"|-"+CAPTURE_IP+")?");
+
+    // each octet value followed by an escaped dot, the prefix of most alternatives
+    private static final String[] DOTTED = new String[256];
+    // the suffix matching any 0 to 3 more octets
+    private static final String[] ANY_OCTETS = new String[4];
+    static {
+        for (int i=0; i<DOTTED.length; i++) {
+            DOTTED[i] = i+"\\.";
+        }
+        ANY_OCTETS[0] = "";
+        for (int i=1; i<ANY_OCTETS.length; i++) {
+            ANY_OCTETS[i] = ANY_OCTETS[i-1]+"\\."+MATCH_255;
+        }
+    }
+
+    private static final PatternCache CACHE = new PatternCache(PatternCache.DEFAULT_SIZE);
+
+    /**
+     * Returns the cache used by {@link #compile(String)}, {@link #compile(String, int)}
+     * and {@link #matches(String, CharSequence)}, e.g. to resize or disable it or to
+     * collect statistics.
+     * @return the pattern cache.
+     */
+    public static PatternCache cache() {
+        return CACHE;
+    }
+
+    /**
+     * Returns a compiled {@code Pattern} matching CIDR pattern list {@code cidrs}.
+     * Patterns are cached, see {@link #cache()}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the compiled pattern.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public static Pattern compile(String cidrs) throws PatternSyntaxException {
+        return CACHE.get(cidrs, 0);
+    }
+
+    /**
+     * Returns a compiled {@code Pattern} matching CIDR pattern list {@code cidrs}.
+     * Patterns are cached, see {@link #cache()}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param flags match flags as in {@code Pattern.compile}.
+     * @return the compiled pattern.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public static Pattern compile(String cidrs, int flags) throws PatternSyntaxException {
+        return CACHE.get(cidrs, flags);
+    }
+
+    /**
+     * Generates and compiles the pattern for {@code cidrs} without consulting the cache.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param flags match flags as in {@code Pattern.compile}.
+     * @return the compiled pattern.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    static Pattern generate(String cidrs, int flags) throws PatternSyntaxException {
+        return generate(CidrList.parse(cidrs), flags);
+    }
+
+    /**
+     * Generates and compiles the pattern for the parsed CIDR list {@code list}
+     * without consulting the cache.
+     * @param list the parsed CIDR list.
+     * @param flags match flags as in {@code Pattern.compile}.
+     * @return the compiled pattern.
+     */
+    static Pattern generate(CidrList list, int flags) {
+        return diagnose(list, flags, Integer.MAX_VALUE, false).pattern();
+    }
+
+    /**
+     * Returns a compiled {@code Pattern} matching the parsed CIDR list {@code list}.
+     * Patterns compiled from a parsed list are not cached.  An empty list matches nothing.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the compiled pattern.
+     */
+    public static Pattern compile(CidrList list) {
+        return diagnose(list, 0, Integer.MAX_VALUE, false).pattern();
+    }
+
+    /**
+     * Generates and compiles the regex for CIDR pattern list {@code cidrs}, without
+     * consulting the cache, and reports its size, shape and timing.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the compiled pattern and its diagnostics.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public static PatternDiagnostics diagnose(String cidrs) throws PatternSyntaxException {
+        return diagnose(CidrList.parse(cidrs));
+    }
+
+    /**
+     * Generates and compiles the regex for the parsed CIDR list {@code list} and
+     * reports its size, shape and timing.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the compiled pattern and its diagnostics.
+     */
+    public static PatternDiagnostics diagnose(CidrList list) {
+        return diagnose(list, 0, Integer.MAX_VALUE, false);
+    }
+
+    /**
+     * Generates and compiles the regex for the parsed CIDR list {@code list} within a
+     * size budget, and reports its size, shape and timing.  Generation stops as soon
+     * as the regex grows past {@code budget} characters, before any of it is compiled.
+     * Then, if {@code fallback} is {@code true}, the list is matched by an
+     * {@link IntervalMatcher} instead (see {@link PatternDiagnostics#matcher()});
+     * otherwise compilation fails.  The matcher holds the list as intervals, so
+     * it can not stand in for a list with a wildcard entry that expands into more
+     * than {@link CidrList#MAX_EXPANSION} intervals, like {@code *.*.*.5}: such a
+     * list fails even with {@code fallback}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @param flags match flags as in {@code Pattern.compile}.
+     * @param budget the longest regex to compile, in characters.
+     * @param fallback {@code true} to fall back to an {@link IntervalMatcher} rather than fail.
+     * @return the compiled pattern, or the fallback matcher, and the diagnostics.
+     * @throws PatternSyntaxException if the regex exceeds the budget and {@code fallback} is {@code false},
+     *         or if the regex exceeds the budget and a wildcard entry expands into more than
+     *         {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static PatternDiagnostics diagnose(CidrList list, int flags, int budget, boolean fallback) throws PatternSyntaxException {
+        long start = System.nanoTime();
+        StringBuilder regex = patterns(list, budget);
+        long generated = System.nanoTime();
+        if (regex.length() > budget) {
+            if (!fallback) {
+                throw new PatternSyntaxException("Regex exceeds budget of "+budget+" characters", "", -1);
+            }
+            return PatternDiagnostics.abandoned(list.size(), regex, generated-start, compileMatcher(list));
+        }
+        String pattern = regex.toString();
+        Pattern compiled = Pattern.compile(pattern, flags);
+        return PatternDiagnostics.compiled(list.size(), pattern, generated-start, System.nanoTime()-generated, compiled);
+    }
+
+    /**
+     * Convenience method that compiles a CIDR pattern list and matches it against an input.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param input the input to match against the CIDR pattern list
+     * @return {@code true} if the input matches the pattern list
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public static boolean matches(String cidrs, CharSequence input) throws PatternSyntaxException {
+        return compile(cidrs).matcher(input).matches();
+    }
+
+    /**
+     * Returns a compiled {@code Pattern} matching CIDR pattern list {@code cidrs}, with
+     * common octet prefixes factored out into a trie-shaped regex.
+     * See {@link #compileFactored(String, int, boolean)}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the compiled pattern.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public static Pattern compileFactored(String cidrs) throws PatternSyntaxException {
+        return Pattern.compile(factored(CidrList.parse(cidrs), false));
+    }
+
+    /**
+     * Returns a compiled {@code Pattern} matching the parsed CIDR list {@code list}, with
+     * common octet prefixes factored out into a trie-shaped regex.
+     * See {@link #compileFactored(String, int, boolean)}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the compiled pattern.
+     */
+    public static Pattern compileFactored(CidrList list) {
+        return Pattern.compile(factored(list, false));
+    }
+
+    /**
+     * Returns a compiled {@code Pattern} matching CIDR pattern list {@code cidrs}, with
+     * common octet prefixes factored out into a trie-shaped regex like
+     * {@code 10\.(?>1\.(?>...)|2\....)}. This matches the same addresses as
+     * {@link #compile(String, int)}, but is designed for scanning text with
+     * {@code Matcher.find()}: each octet is tested once per starting position and
+     * alternatives are wrapped in atomic groups, longest octets first, so a failed
+     * match never backtracks into alternatives already tried.
+     * <p>
+     * If {@code bounded} is {@code true} the pattern is also wrapped in digit-boundary
+     * lookarounds, so that {@code find()} will not match {@code 10.1.2.3} inside
+     * {@code 110.1.2.3} or {@code 10.1.2.34}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param flags match flags as in {@code Pattern.compile}.
+     * @param bounded {@code true} to only match addresses not adjacent to other digits.
+     * @return the compiled pattern.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public static Pattern compileFactored(String cidrs, int flags, boolean bounded) throws PatternSyntaxException {
+        return Pattern.compile(factored(CidrList.parse(cidrs), bounded), flags);
+    }
+
+    /**
+     * Returns a compiled {@link IntervalMatcher} matching CIDR pattern list {@code cidrs}.
+     * The matcher accepts the same inputs as the {@code Pattern} that {@link #compile(String)}
+     * returns for the same list, but tests addresses by binary search over the merged
+     * address intervals instead of with a regular expression.  Unlike the regex, it can
+     * not be built from a wildcard entry that expands into more than
+     * {@link CidrList#MAX_EXPANSION} intervals, like {@code *.*.*.5}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the compiled matcher.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static IntervalMatcher compileMatcher(String cidrs) throws PatternSyntaxException {
+        return new IntervalMatcher(CidrList.parse(cidrs));
+    }
+
+    /**
+     * Returns a compiled {@link IntervalMatcher} matching the parsed CIDR list {@code list}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the compiled matcher.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static IntervalMatcher compileMatcher(CidrList list) throws PatternSyntaxException {
+        return new IntervalMatcher(list);
+    }
+
+    /**
+     * Returns a normalized version of CIDR pattern list {@code cidrs} that matches the
+     * same addresses. Overlapping and adjacent entries are merged and the resulting
+     * address intervals are listed in order, each as a single address, a CIDR block,
+     * or an address range, e.g. {@code 10.0.0.0/25,10.0.0.128/25} becomes {@code 10.0.0.0/24}.
+     * Wildcard entries that do not describe a single interval, like {@code *.18.23/24},
+     * are retained as-is after the merged intervals, unless the merged intervals or
+     * another wildcard entry already cover them, e.g. {@code 10/8,10.*.1.*} becomes {@code 10.0.0.0/8}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the normalized list.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public static String normalize(String cidrs) throws PatternSyntaxException {
+        return normalize(CidrList.parse(cidrs));
+    }
+
+    /**
+     * Returns the parsed CIDR list {@code list} in normalized form.
+     * See {@link #normalize(String)}.
+     * @param list the parsed CIDR list.
+     * @return the normalized list.
+     */
+    static String normalize(CidrList list) {
+        List<String> results = new ArrayList<>();
+        long[] bounds = list.contiguous();
+        for (int i=0; i<bounds.length; i+=2) {
+            results.add(entry(bounds[i], bounds[i+1]));
+        }
+        for (int i : list.wildcards(bounds)) {
+            results.add(list.entry(i));
+        }
+        return String.join(",", results);
+    }
+
+    /**
+     * Returns a string representing a regex matching CIDR list {@code list}.
+     * The list is normalized first (see {@link #normalize(String)}) so that
+     * overlapping and adjacent entries do not produce redundant alternatives.
+     * Generation stops once the regex is longer than {@code budget}.
+     * @param list the parsed CIDR list.
+     * @param budget the longest regex wanted, in characters.
+     * @return the pattern, {@code (?!)} if the list is empty, or the part generated
+     *         before it grew longer than {@code budget}.
+     */
+    private static StringBuilder patterns(CidrList list, int budget) {
+        long[] bounds = list.contiguous();
+        int[] wildcards = list.wildcards(bounds);
+        int count = bounds.length/2 + wildcards.length;
+        if (count == 0) {
+            return new StringBuilder("(?!)");
+        }
+        // the whole regex is written into one builder, sized so that it rarely has to
+        // grow: the alternative for a random /16 to /32 block averages 53 characters
+        StringBuilder sb = new StringBuilder((int) Math.min(Math.min(count*64L, budget+1L), Integer.MAX_VALUE-8));
+        if (count > 1) {
+            sb.append("(?:");
+        }
+        int[] from = new int[4];
+        int[] to = new int[4];
+        int written = 0;
+        for (int i=0; i<bounds.length; i+=2) {
+            separate(sb, written++);
+            subrange(sb, octets(bounds[i], from), octets(bounds[i+1], to), 0);
+            if (sb.length() > budget) {
+                return sb;
+            }
+        }
+        for (int i : wildcards) {
+            separate(sb, written++);
+            pattern(sb, list.entry(i));
+            if (sb.length() > budget) {
+                return sb;
+            }
+        }
+        if (count > 1) {
+            sb.append(')');
+        }
+        return sb;
+    }
+
+    /**
+     * Appends the "|" that separates an alternative from the ones before it.
+     * @param sb the builder to append to
+     * @param written the number of alternatives already appended
+     */
+    private static void separate(StringBuilder sb, int written) {
+        if (written > 0) {
+            sb.append('|');
+        }
+    }
+
+    /**
+     * Returns a string representing a prefix-factored regex matching CIDR list {@code list}.
+     * @param list the parsed CIDR list.
+     * @param bounded {@code true} to add digit-boundary lookarounds.
+     * @return the pattern string, {@code (?!)} if the list is empty.
+     */
+    private static String factored(CidrList list, boolean bounded) {
+        OctetTrie trie = new OctetTrie(list);
+        String pattern = trie.root().branches.isEmpty() ? "(?!)" : factored(trie.root(), 0);
+        return bounded ? "(?<!\\d)"+pattern+"(?!\\d)" : pattern;
+    }
+
+    /**
+     * Returns a regex {@code String} matching the octets allowed by {@code node}
+     * and everything that may follow them.  Neighboring octet ranges followed by
+     * the same suffix are merged into a single range.
+     * @param node the trie node
+     * @param index the octet {@code node} describes
+     * @return a regex {@code String}
+     */
+    private static String factored(OctetTrie.Node node, int index) {
+        List<int[]> ranges = new ArrayList<>();
+        List<String> suffixes = new ArrayList<>();
+        for (OctetTrie.Branch branch : node.branches) {
+            String suffix;
+            if (index==3) {
+                suffix = "";
+            } else if (branch.next==null) {
+                StringBuilder sb = new StringBuilder();
+                for (int i=index; i<3; i++) {
+                    sb.append("\\.").append(ATOMIC_255);
+                }
+                suffix = sb.toString();
+            } else {
+                suffix = "\\."+factored(branch.next, index+1);
+            }
+            int last = ranges.size()-1;
+            if (last >= 0 && ranges.get(last)[1]+1==branch.min && suffixes.get(last).equals(suffix)) {
+                ranges.get(last)[1] = branch.max;
+            } else {
+                ranges.add(new int[] {branch.min, branch.max});
+                suffixes.add(suffix);
+            }
+        }
+        if (index==3) {
+            return longest(ranges);
+        }
+        List<String> alternatives = new ArrayList<>();
+        for (int i=0; i<ranges.size(); i++) {
+            alternatives.add(longest(ranges.subList(i, i+1))+suffixes.get(i));
+        }
+        if (alternatives.size()==1) {
+            return alternatives.get(0);
+        }
+        return alternatives.stream().collect(Collectors.joining("|", "(?>", ")"));
+    }
+
+    /**
+     * Returns an atomic regex {@code String} matching octets in any of {@code ranges}.
+     * Alternatives are ordered longest first so that committing to the first
+     * alternative that matches never cuts an octet short.
+     * @param ranges a list of disjoint {@code [min,max]} octet ranges
+     * @return a regex {@code String}
+     */
+    private static String longest(List<int[]> ranges) {
+        int count = 0;
+        for (int digits=3, low=100, high=999; digits>0; digits--, high=low-1, low/=10) {
+            for (int[] range : ranges) {
+                count += RangePattern.count(Math.max(range[0], digits==1 ? 0 : low), Math.min(range[1], high));
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        if (count > 1) {
+            sb.append("(?>");
+        }
+        int written = 0;
+        for (int digits=3, low=100, high=999; digits>0; digits--, high=low-1, low/=10) {
+            for (int[] range : ranges) {
+                int min = Math.max(range[0], digits==1 ? 0 : low);
+                int max = Math.min(range[1], high);
+                written = RangePattern.alternatives(sb, written, min, max);
+            }
+        }
+        if (count > 1) {
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the shortest CIDR expression for the interval {@code from}-{@code to}:
+     * a single address, a CIDR block, or an address range.
+     * @param from the first address in the interval (0 to 2^32-1).
+     * @param to the last address in the interval (0 to 2^32-1).
+     * @return a CIDR expression.
+     */
+    static String entry(long from, long to) {
+        long size = to-from+1;
+        int bits = 32-Long.numberOfTrailingZeros(size);
+        if ((size & (size-1))==0 && (from & (size-1))==0 && bits > 0) {
+            String address = AddressParser.format((int) from);
+            return bits==32 ? address : address+"/"+bits;
+        }
+        return AddressParser.format((int) from)+"-"+AddressParser.format((int) to);
+    }
+
+    /**
+     * Splits an address into its four octets.
+     * @param address an address (0 to 2^32-1).
+     * @param octets the array to fill, most significant octet first.
+     * @return {@code octets}.
+     */
+    static int[] octets(long address, int[] octets) {
+        for (int i=3; i>=0; i--, address >>= 8) {
+            octets[i] = (int) (address & 0xFF);
+        }
+        return octets;
+    }
+
+    /**
+     * Splits a comma-separated list of CIDR expressions into its entries, exactly as
+     * {@code cidrs.split("\\s*,\\s*")} would: whitespace around the commas is dropped,
+     * and so are empty entries at the end.  This is a hand-written scanner since it
+     * runs on every list, and the regex split took as long as parsing the entries.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the entries (which may be empty).
+     */
+    static String[] split(String cidrs) {
+        int length = cidrs.length();
+        List<String> entries = new ArrayList<>();
+        int start = 0;
+        int comma;
+        while ((comma = cidrs.indexOf(',', start)) >= 0) {
+            int end = comma;
+            while (end > start && space(cidrs.charAt(end-1))) {
+                end--;
+            }
+            entries.add(cidrs.substring(start, end));
+            start = comma+1;
+            while (start < length && space(cidrs.charAt(start))) {
+                start++;
+            }
+        }
+        if (entries.isEmpty()) {
+            return new String[] {cidrs};
+        }
+        entries.add(cidrs.substring(start));
+        int n = entries.size();
+        while (n > 0 && entries.get(n-1).isEmpty()) {
+            n--;
+        }
+        return entries.subList(0, n).toArray(new String[n]);
+    }
+
+    /**
+     * Returns {@code true} if {@code c} is whitespace as matched by {@code \\s}.
+     * @param c the character.
+     * @return {@code true} for space, tab, newline, vertical tab, form feed and carriage return.
+     */
+    private static boolean space(char c) {
+        return c == ' ' || c >= '\t' && c <= '\r';
+    }
+
+    /**
+     * Converts a string of the form number{.number} into an
+     * array of ints. Does no error checking.
+     * @param strings number.number...
+     * @return int.int...
+     */
+    private static int[] ints(String[] strings) {
+        int[] ints = new int[strings.length];
+        for (int i=0; i<strings.length; i++) {
+            ints[i] = Integer.valueOf(strings[i]);
+        }
+        return ints;
+    }
+
+    // the lowest and highest octets, the edges of a subrange
+    static final int[] ZEROS = new int[] {0, 0, 0, 0};
+    static final int[] STARS = new int[] {255, 255, 255, 255};
+
+    /**
+     * Appends a regex that matches the range described by {@code from}
+     * and {@code to} starting at {@code index} to {@code sb}.
+     * If {@code index} is at the end of the arrays, this is just
+     * a simple {@link RangePattern}. Otherwise a pattern (or set
+     * of patterns) describing the range is assembled, including
+     * recursive subrange patterns.
+     * @param sb the builder to append to
+     * @param from starting point of the range
+     * @param to ending point of the range
+     * @param index where in the from/to arrays to start
+     */
+    private static void subrange(StringBuilder sb, int[] from, int[] to, int index) {
+        if (from[index] > to[index]) {
+            throw new IllegalArgumentException();
+        } else if (index==from.length-1) {
+            sb.append(RangePattern.octet(from[index], to[index]));
+        } else if (from[index] == to[index]) {
+            sb.append(DOTTED[from[index]]);
+            subrange(sb, from, to, index+1);
+        } else {
+            // an end of the range that falls on an octet boundary needs
+            // no alternative of its own: it joins the middle of the range
+            boolean fromEdge = same(from, ZEROS, index+1);
+            boolean toEdge = same(to, STARS, index+1);
+            int min = fromEdge ? from[index] : from[index]+1;
+            int max = toEdge ? to[index] : to[index]-1;
+            int count = (fromEdge ? 0 : 1) + (min <= max ? 1 : 0) + (toEdge ? 0 : 1);
+            if (count > 1) {
+                sb.append("(?:");
+            }
+            int written = 0;
+            if (!fromEdge) {
+                separate(sb, written++);
+                sb.append(DOTTED[from[index]]);
+                subrange(sb, from, STARS, index+1);
+            }
+            if (min <= max) {
+                separate(sb, written++);
+                sb.append(RangePattern.octet(min, max));
+                sb.append(ANY_OCTETS[from.length-1-index]);
+            }
+            if (!toEdge) {
+                separate(sb, written++);
+                sb.append(DOTTED[to[index]]);
+                subrange(sb, ZEROS, to, index+1);
+            }
+            if (count > 1) {
+                sb.append(')');
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if {@code octets} matches {@code edge} from {@code index} on.
+     * @param octets the octets to test
+     * @param edge {@link #ZEROS} or {@link #STARS}
+     * @param index where in the arrays to start
+     * @return {@code true} if the trailing octets are the same
+     */
+    static boolean same(int[] octets, int[] edge, int index) {
+        for (int i=index; i<octets.length; i++) {
+            if (octets[i]!=edge[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void range(StringBuilder sb, String cidr, String[] from, String[] to) throws PatternSyntaxException {
+        try {
+            subrange(sb, ints(from), ints(to), 0);
+        } catch (IllegalArgumentException e) {
+            throw new PatternSyntaxException("Range must be in order", cidr, cidr.indexOf("-"));
+        }
+    }
+
+    /**
+     * Appends a regex matching CIDR pattern {@code cidr} to {@code result}.
+     * @param result the builder to append to.
+     * @param cidr a CIDR expression like 192.168/16.
+     * @throws PatternSyntaxException if {@code cidr} is not a CIDR pattern.
+     */
+    private static void pattern(StringBuilder result, String cidr) throws PatternSyntaxException {
+        Matcher m = CIDR_PATTERN.matcher(cidr);
+        if (!m.matches()) {
+            throw new PatternSyntaxException("Not a CIDR Pattern", cidr, 0);
+        }
+        String bitsString = m.group(5);
+        String rangeString = m.group(6);
+        if (rangeString!=null) {
+            if (m.group(4)==null) {
+                throw new PatternSyntaxException("full start address required for address range", cidr, cidr.indexOf("-"));
+            }
+            range(result, cidr, new String[]{m.group(1), m.group(2), m.group(3), m.group(4)},
+                    rangeString.split("\\."));
+        } else {
+            if (bitsString==null) {
+                if (m.group(4)==null) {
+                    throw new PatternSyntaxException("/bits required unless full address provided", cidr, cidr.length()-1);
+                }
+                bitsString = "32";
+            }
+            int bits  = Integer.valueOf(bitsString);
+            for (int i = 0; i<4; i++) {
+                if (i>0) {
+                    result.append("\\.");
+                }
+                String capture = m.group(i+1)==null ? "0" : m.group(i+1);
+                if (bits==0 || capture.equals("*")) {
+                    result.append(MATCH_255);
+                } else if (bits >= 8) {
+                    result.append(capture);
+                } else if (bits > 0) {
+                    int mask = (1 << (8-bits))-1;
+                    int base = Integer.valueOf(capture) & ~mask;
+                    result.append(RangePattern.octet(base, base+mask));
+                }
+                bits = Math.max(0, bits-8);
+            }
+        }
+    }
+
+    /**
+     * Adds the addresses described by CIDR pattern {@code cidr} to {@code intervals} as a
+     * single pair.  This accepts exactly the same expressions as {@link #pattern(StringBuilder, String)}
+     * and describes exactly the same addresses as the regex it would return.  It is a hand-written
+     * scanner rather than a match against {@code CIDR_PATTERN}, since every entry of every
+     * list is parsed here, and the index of a syntax error is the position of the offending
+     * character.  Nothing is added if {@code cidr} is invalid.  IPv6 expressions are
+     * rejected with their own description, since they are handled by {@link CidrList6}.
+     * <p>
+     * Most expressions describe a single interval, which is added as its {@code from}/{@code to}
+     * pair.  A wildcard before a fixed octet, like {@code *.18.23/24}, describes up to 2^24
+     * intervals, so rather than expanding them, the octet ranges are added as a pair of
+     * addresses holding the low and the high end of each octet (see {@link CidrList}).
+     * @param cidr a CIDR expression like 192.168/16.
+     * @param intervals the list to add the pair to.
+     * @return {@code true} if the pair holds octet ranges rather than an interval.
+     * @throws PatternSyntaxException if {@code cidr} is not a CIDR pattern.
+     */
+    static boolean intervals(String cidr, Intervals intervals) throws PatternSyntaxException {
+        long block = block(cidr);
+        if (block >= 0) {
+            long host = (1L << (32 - (block & 0xFF))) - 1;
+            intervals.add(block >>> 8 & ~host, block >>> 8 | host);
+            return false;
+        }
+        int length = cidr.length();
+        int colon = cidr.indexOf(':');
+        if (colon >= 0) {
+            throw new PatternSyntaxException("IPv6 address in IPv4 CIDR Pattern (see CidrList6)", cidr, colon);
+        }
+        int[] min = new int[4];
+        int[] max = new int[4];
+        int count = 0;
+        boolean wildcard = false;
+        int pos = 0;
+        // up to four octets, each 0-255 or *
+        while (true) {
+            if (pos < length && cidr.charAt(pos)=='*') {
+                min[count] = 0;
+                max[count] = 255;
+                wildcard = true;
+                pos++;
+            } else {
+                int number = number(cidr, pos, 255);
+                min[count] = number & 0xFF;
+                max[count] = min[count];
+                pos = number >>> 8;
+            }
+            count++;
+            if (count < 4 && pos < length && cidr.charAt(pos)=='.') {
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (pos < length && cidr.charAt(pos)=='-') {
+            // an address range
+            int dash = pos++;
+            long end = 0;
+            for (int i=0; i<4; i++) {
+                if (i > 0) {
+                    if (pos >= length || cidr.charAt(pos)!='.') {
+                        throw new PatternSyntaxException("Not a CIDR Pattern", cidr, pos);
+                    }
+                    pos++;
+                }
+                int number = number(cidr, pos, 255);
+                end = end << 8 | number & 0xFF;
+                pos = number >>> 8;
+            }
+            if (pos < length) {
+                throw new PatternSyntaxException("Not a CIDR Pattern", cidr, pos);
+            }
+            if (count < 4) {
+                throw new PatternSyntaxException("full start address required for address range", cidr, dash);
+            }
+            if (wildcard) {
+                throw new PatternSyntaxException("wildcard not allowed in address range", cidr, cidr.indexOf('*'));
+            }
+            long start = 0;
+            for (int i=0; i<4; i++) {
+                start = start << 8 | min[i];
+            }
+            if (start > end) {
+                throw new PatternSyntaxException("Range must be in order", cidr, dash);
+            }
+            intervals.add(start, end);
+            return false;
+        } else {
+            int bits;
+            if (pos < length && cidr.charAt(pos)=='/') {
+                pos++;
+                int number = number(cidr, pos, 32);
+                bits = number & 0xFF;
+                if (bits == 0) {
+                    throw new PatternSyntaxException("Not a CIDR Pattern", cidr, pos);
+                }
+                pos = number >>> 8;
+            } else if (count < 4 && pos == length) {
+                throw new PatternSyntaxException("/bits required unless full address provided", cidr, length-1);
+            } else {
+                bits = 32;
+            }
+            if (pos < length) {
+                throw new PatternSyntaxException("Not a CIDR Pattern", cidr, pos);
+            }
+            for (int i = 0; i<4; i++) {
+                if (i >= count) {
+                    min[i] = 0;
+                    max[i] = 0;
+                }
+                if (bits==0 || min[i]!=max[i]) {
+                    min[i] = 0;
+                    max[i] = 255;
+                } else {
+                    int mask = bits >= 8 ? 0 : (1 << (8-bits))-1;
+                    min[i] = min[i] & ~mask;
+                    max[i] = min[i]+mask;
+                }
+                bits = Math.max(0, bits-8);
+            }
+            // the ranges describe a single interval unless an octet with a range
+            // is followed by one that does not match 0-255
+            long from = 0;
+            long to = 0;
+            boolean split = false;
+            boolean ranged = false;
+            for (int i=0; i<4; i++) {
+                split |= ranged && !(min[i]==0 && max[i]==255);
+                ranged |= min[i]!=max[i];
+                from = from << 8 | min[i];
+                to   = to << 8 | max[i];
+            }
+            intervals.add(from, to);
+            return split;
+        }
+    }
+
+    /**
+     * Parses the most common kind of entry, a full address with an optional
+     * {@code /bits}, like {@code 10.1.2.3} or {@code 10.1.2.0/24}, in a single
+     * pass over its characters.  Anything else, valid or not, is left to the
+     * general scanner in {@link #intervals(String, Intervals)}, which also
+     * produces the error messages.
+     * @param cidr a CIDR expression.
+     * @return the address shifted left 8 bits, or'ed with the prefix length,
+     *         or -1 if {@code cidr} is not a well-formed address with optional bits.
+     */
+    private static long block(String cidr) {
+        int length = cidr.length();
+        long address = 0;
+        int octets = 0;
+        int value = 0;
+        int digits = 0;
+        int pos = 0;
+        for (; pos<length; pos++) {
+            char c = cidr.charAt(pos);
+            if (c >= '0' && c <= '9') {
+                if (digits > 0 && value == 0) {
+                    return -1; // leading zero
+                }
+                value = value*10 + (c-'0');
+                if (value > 255) {
+                    return -1;
+                }
+                digits++;
+            } else if (c == '.' && digits > 0 && octets < 3) {
+                address = address << 8 | value;
+                octets++;
+                value = 0;
+                digits = 0;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0 || octets != 3) {
+            return -1;
+        }
+        address = address << 8 | value;
+        if (pos == length) {
+            return address << 8 | 32;
+        } else if (cidr.charAt(pos) != '/' || length-pos < 2 || length-pos > 3 || cidr.charAt(pos+1) == '0') {
+            return -1;
+        }
+        int bits = 0;
+        for (pos++; pos<length; pos++) {
+            char c = cidr.charAt(pos);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            bits = bits*10 + (c-'0');
+        }
+        return bits > 32 ? -1 : address << 8 | bits;
+    }
+
+    /**
+     * Reads the decimal number in {@code s} at {@code start}, which must be 1 to 3
+     * digits without leading zeroes and at most {@code max} (255 or less).  Each
+     * character is read once, and both results come back in one {@code int}, since
+     * this runs for every octet of every entry.
+     * @param s the string
+     * @param start the first digit
+     * @param max the largest value allowed
+     * @return the index after the last digit, shifted left 8 bits, or'ed with the value
+     * @throws PatternSyntaxException if there is no such number at {@code start}.
+     */
+    private static int number(String s, int start, int max) throws PatternSyntaxException {
+        int length = s.length();
+        int pos = start;
+        int value = 0;
+        while (pos < length) {
+            char c = s.charAt(pos);
+            if (c < '0' || c > '9' || pos-start == 3) {
+                break;
+            }
+            value = value*10 + c-'0';
+            pos++;
+        }
+        if (pos==start || pos < length && pos-start == 3 && s.charAt(pos) >= '0' && s.charAt(pos) <= '9'
+                || pos-start > 1 && s.charAt(start)=='0' || value > max) {
+            throw new PatternSyntaxException("Not a CIDR Pattern", s, start);
+        }
+        return pos << 8 | value;
+    }
+
+    /**
+     * Private constructor.
+     */
+    private CidrPattern() {}
+}
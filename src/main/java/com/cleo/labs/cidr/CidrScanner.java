@@ -0,0 +1,342 @@
+package com.cleo.labs.cidr;
+
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+/**
+ * Scans text for dotted-quad IPv4 addresses matching a CIDR list, working
+ * directly on bytes instead of decoding lines into {@code String}s.  Files
+ * are memory-mapped and split into chunks that are scanned in parallel.
+ * <p>
+ * A token is a maximal run of digits and dots, with any leading or trailing
+ * dots removed (so an address at the end of a sentence is still found).
+ * Tokens that are not well-formed addresses, such as {@code 1.2.3} or
+ * {@code 1.2.3.4.5}, are skipped.  Each matching token is reported with its
+ * byte offset, its address, and the index of the first CIDR list entry that
+ * matches it (see {@link IntervalMatcher#indexOf(int)}).
+ */
+public final class CidrScanner {
+    /**
+     * Receives the matching addresses found by a scan.
+     */
+    public interface Listener {
+        /**
+         * Accepts a matching address.
+         * @param offset the byte offset of the address in the input.
+         * @param address the address as an unsigned 32-bit int.
+         * @param entry the index of the CIDR list entry that matched.
+         */
+        void match(long offset, int address, int entry);
+    }
+
+    /**
+     * A matching address found by a scan.
+     */
+    public static final class Match {
+        private final long offset;
+        private final int address;
+        private final int entry;
+
+        private Match(long offset, int address, int entry) {
+            this.offset  = offset;
+            this.address = address;
+            this.entry   = entry;
+        }
+
+        /**
+         * Returns the byte offset of the address in the input.
+         * @return the offset.
+         */
+        public long offset() {
+            return offset;
+        }
+
+        /**
+         * Returns the address.
+         * @return the address as an unsigned 32-bit int.
+         */
+        public int address() {
+            return address;
+        }
+
+        /**
+         * Returns the index of the CIDR list entry that matched.
+         * @return the entry index.
+         */
+        public int entry() {
+            return entry;
+        }
+
+        /**
+         * Returns the match as {@code offset address entry}.
+         */
+        @Override
+        public String toString() {
+            return offset+" "+AddressParser.format(address)+" "+entry;
+        }
+    }
+
+    static final int CHUNK_SIZE = 32 << 20;
+    // bytes mapped past the end of each chunk; a token running further maps more
+    private static final int OVERLAP = 64;
+
+    private final IntervalMatcher matcher;
+    private final int chunkSize;
+
+    /**
+     * Creates a scanner for the addresses matched by {@code matcher}.
+     * @param matcher the compiled CIDR list.
+     */
+    public CidrScanner(IntervalMatcher matcher) {
+        this(matcher, CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a scanner splitting files into chunks of {@code chunkSize} bytes.
+     * @param matcher the compiled CIDR list.
+     * @param chunkSize the chunk size.
+     */
+    CidrScanner(IntervalMatcher matcher, int chunkSize) {
+        this.matcher   = matcher;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns a scanner for the addresses matched by CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the scanner.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static CidrScanner compile(String cidrs) throws PatternSyntaxException {
+        return new CidrScanner(CidrPattern.compileMatcher(cidrs));
+    }
+
+    /**
+     * Returns a scanner for the addresses matched by the parsed CIDR list {@code list}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the scanner.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static CidrScanner compile(CidrList list) throws PatternSyntaxException {
+        return new CidrScanner(CidrPattern.compileMatcher(list));
+    }
+
+    /**
+     * Returns the compiled CIDR list, e.g. to look up the text of matched entries.
+     * @return the matcher.
+     */
+    public IntervalMatcher matcher() {
+        return matcher;
+    }
+
+    private static boolean token(byte b) {
+        return b >= '0' && b <= '9' || b == '.';
+    }
+
+    /**
+     * Scans the bytes of {@code buffer} between its position and its limit.
+     * Offsets are reported relative to the buffer's position, which is not changed.
+     * @param buffer the bytes to scan.
+     * @param listener the listener for matching addresses.
+     * @return the number of matching addresses.
+     */
+    public long scan(ByteBuffer buffer, Listener listener) {
+        ByteBuffer slice = buffer.slice();
+        return scan(slice, 0, 0, slice.limit(), false, listener);
+    }
+
+    /**
+     * Scans the tokens starting in {@code start}-{@code end} of a chunk.
+     * @param buffer the chunk, which may extend before {@code start} and after {@code end}.
+     * @param base the offset of the start of {@code buffer} in the input.
+     * @param start the offset of the first byte of the chunk in the input.
+     * @param end the offset after the last byte of the chunk in the input.
+     * @param more {@code true} if the input continues after the end of {@code buffer}.
+     * @param listener the listener for matching addresses.
+     * @return the number of matching addresses.
+     */
+    private long scan(ByteBuffer buffer, long base, long start, long end, boolean more, Listener listener) {
+        int limit = buffer.limit();
+        int stop = (int) (end-base);
+        int i = (int) (start-base);
+        if (i > 0 && token(buffer.get(i-1))) {
+            // this token started in the previous chunk
+            while (i < limit && token(buffer.get(i))) {
+                i++;
+            }
+        }
+        long count = 0;
+        while (i < stop) {
+            if (!token(buffer.get(i))) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < limit && token(buffer.get(j))) {
+                j++;
+            }
+            if (j < limit || !more) {
+                int a = i;
+                int b = j;
+                while (a < b && buffer.get(a) == '.') {
+                    a++;
+                }
+                while (b > a && buffer.get(b-1) == '.') {
+                    b--;
+                }
+                long address = AddressParser.parse(buffer, a, b-a);
+                if (address >= 0) {
+                    int entry = matcher.indexOf((int) address);
+                    if (entry >= 0) {
+                        listener.match(base+a, (int) address, entry);
+                        count++;
+                    }
+                }
+            }
+            i = j;
+        }
+        return count;
+    }
+
+    /**
+     * Returns {@code true} if the token at the end of {@code buffer} starts in the chunk,
+     * so that scanning the chunk needs the rest of it.
+     * @param buffer the mapped chunk.
+     * @param first the index of the first byte of the chunk in {@code buffer}.
+     * @param stop the index after the last byte of the chunk in {@code buffer}.
+     * @return {@code true} if the token must be read further.
+     */
+    private static boolean crosses(ByteBuffer buffer, int first, int stop) {
+        int i = buffer.limit();
+        while (i > 0 && token(buffer.get(i-1))) {
+            i--;
+        }
+        // a token reaching back to before the chunk belongs to the previous chunk
+        return i < buffer.limit() && i >= first && i < stop;
+    }
+
+    /**
+     * Maps and scans chunk {@code index} of {@code channel}.
+     * @param channel the open file.
+     * @param size the size of the file.
+     * @param index the chunk index.
+     * @param listener the listener for matching addresses.
+     * @return the number of matching addresses.
+     */
+    private long scan(FileChannel channel, long size, long index, Listener listener) {
+        long start = index*chunkSize;
+        long end = Math.min(size, start+chunkSize);
+        long base = Math.max(0, start-1);
+        long limit = Math.min(size, end+OVERLAP);
+        try {
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, limit-base);
+            // a token starting in this chunk, e.g. an address followed by a long run of
+            // dots, can run past the overlap: map more of the file until it ends
+            while (limit < size && crosses(buffer, (int) (start-base), (int) (end-base))) {
+                limit = Math.min(size, limit+(limit-base));
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, base, limit-base);
+            }
+            return scan(buffer, base, start, end, limit < size, listener);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Scans {@code file} in parallel using the common {@code ForkJoinPool}.
+     * See {@link #scan(Path, ForkJoinPool, Listener)}.
+     * @param file the file to scan.
+     * @param listener the listener for matching addresses.
+     * @return the number of matching addresses.
+     * @throws IOException if the file cannot be read.
+     */
+    public long scan(Path file, Listener listener) throws IOException {
+        return scan(file, ForkJoinPool.commonPool(), listener);
+    }
+
+    /**
+     * Scans {@code file} in parallel, one task per chunk.  The listener is
+     * called from the pool's threads, possibly concurrently and not in
+     * offset order, so it must be thread-safe.  Use {@link #stream(Path)}
+     * to receive matches in order.
+     * @param file the file to scan.
+     * @param pool the pool to run the scan in.
+     * @param listener the listener for matching addresses.
+     * @return the number of matching addresses.
+     * @throws IOException if the file cannot be read.
+     */
+    public long scan(Path file, ForkJoinPool pool, Listener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunks = (size+chunkSize-1)/chunkSize;
+            return pool.invoke(new RecursiveTask<Long>() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected Long compute() {
+                    List<RecursiveTask<Long>> tasks = new ArrayList<>();
+                    for (long i=0; i<chunks; i++) {
+                        long index = i;
+                        tasks.add(new RecursiveTask<Long>() {
+                            private static final long serialVersionUID = 1L;
+
+                            @Override
+                            protected Long compute() {
+                                return scan(channel, size, index, listener);
+                            }
+                        });
+                    }
+                    long count = 0;
+                    for (RecursiveTask<Long> task : invokeAll(tasks)) {
+                        count += task.join();
+                    }
+                    return count;
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns a stream of the matching addresses in {@code file}, in offset order.
+     * The stream is sequential, but may be made parallel, in which case chunks of
+     * the file are scanned in parallel while the encounter order is kept.  The
+     * stream holds the file open and should be closed, e.g. with try-with-resources.
+     * @param file the file to scan.
+     * @return a stream of matches.
+     * @throws IOException if the file cannot be opened.
+     */
+    public Stream<Match> stream(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = channel.size();
+        long chunks = (size+chunkSize-1)/chunkSize;
+        return LongStream.range(0, chunks)
+                .mapToObj(index -> {
+                    List<Match> matches = new ArrayList<>();
+                    scan(channel, size, index, (offset, address, entry) -> matches.add(new Match(offset, address, entry)));
+                    return matches;
+                })
+                .flatMap(List::stream)
+                .onClose(() -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+    }
+}
@@ -0,0 +1,212 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.Arrays;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * An immutable set of addresses with set algebra, e.g. to combine several lists
+ * into one policy when configuration is loaded:
+ * <pre>
+ * CidrSet policy = CidrSet.of(allow).subtract(CidrSet.of(deny)).intersect(CidrSet.of(region));
+ * CidrMatcher matcher = BytecodeMatcher.compile(policy.toList());
+ * </pre>
+ * The set is held as sorted, disjoint intervals, so every operation takes time
+ * linear in the number of intervals of its operands.  Like {@link DynamicCidrSet}
+ * the set holds addresses, not entries: which entry of a list matched is lost.
+ */
+public final class CidrSet implements CidrMatcher {
+    /**
+     * The set of no addresses.
+     */
+    public static final CidrSet EMPTY = new CidrSet(new long[0]);
+
+    /**
+     * The set of all addresses.
+     */
+    public static final CidrSet ALL = new CidrSet(new long[] {0, 0xFFFFFFFFL});
+
+    private final long[] bounds;
+    private final IntervalMatcher matcher;
+
+    private CidrSet(long[] bounds) {
+        this.bounds  = bounds;
+        this.matcher = new IntervalMatcher(bounds);
+    }
+
+    /**
+     * Returns the set of addresses matched by CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the set.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static CidrSet of(String cidrs) throws PatternSyntaxException {
+        return of(CidrList.parse(cidrs));
+    }
+
+    /**
+     * Returns the set of addresses matched by the parsed CIDR list {@code list}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the set.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static CidrSet of(CidrList list) throws PatternSyntaxException {
+        return new CidrSet(list.merged());
+    }
+
+    /**
+     * Returns the addresses in this set or in {@code other}.
+     * @param other the other set.
+     * @return the union.
+     */
+    public CidrSet union(CidrSet other) {
+        return new CidrSet(Intervals.union(bounds, other.bounds));
+    }
+
+    /**
+     * Returns the addresses in both this set and {@code other}.
+     * @param other the other set.
+     * @return the intersection.
+     */
+    public CidrSet intersect(CidrSet other) {
+        return new CidrSet(Intervals.intersect(bounds, other.bounds));
+    }
+
+    /**
+     * Returns the addresses in this set that are not in {@code other}.
+     * @param other the other set.
+     * @return the difference.
+     */
+    public CidrSet subtract(CidrSet other) {
+        return new CidrSet(Intervals.subtract(bounds, other.bounds));
+    }
+
+    /**
+     * Returns the addresses not in this set.
+     * @return the complement.
+     */
+    public CidrSet complement() {
+        return new CidrSet(Intervals.complement(bounds));
+    }
+
+    /**
+     * Returns the intervals of the set.
+     * @return sorted, disjoint, non-adjacent {@code from}/{@code to} pairs, not to be modified.
+     */
+    long[] bounds() {
+        return bounds;
+    }
+
+    /**
+     * Returns {@code true} if the set has no addresses.
+     * @return {@code true} if the set is empty.
+     */
+    public boolean isEmpty() {
+        return bounds.length == 0;
+    }
+
+    /**
+     * Returns {@code true} if every address in {@code other} is in this set.
+     * @param other the other set.
+     * @return {@code true} if {@code other} is a subset of this set.
+     */
+    public boolean contains(CidrSet other) {
+        return Intervals.subtract(other.bounds, bounds).length == 0;
+    }
+
+    /**
+     * Returns the number of disjoint intervals in the set.
+     * @return the number of intervals.
+     */
+    public int size() {
+        return bounds.length/2;
+    }
+
+    /**
+     * Returns the number of addresses in the set.
+     * @return the number of addresses (0 to 2^32).
+     */
+    public long addresses() {
+        long total = 0;
+        for (int i=0; i<bounds.length; i+=2) {
+            total += bounds[i+1]-bounds[i]+1;
+        }
+        return total;
+    }
+
+    @Override
+    public boolean matches(int address) {
+        return matcher.matches(address);
+    }
+
+    /**
+     * Returns a matcher for the set, e.g. for batch matching.
+     * @return the matcher.
+     */
+    public IntervalMatcher matcher() {
+        return matcher;
+    }
+
+    /**
+     * Returns the set as a parsed CIDR list with one entry for each interval,
+     * to compile with any engine, e.g. {@link BytecodeMatcher#compile(CidrList)}.
+     * @return the list.
+     */
+    public CidrList toList() {
+        return CidrList.of(bounds);
+    }
+
+    /**
+     * Returns a compiled {@code Pattern} matching the set, as generated by {@link CidrPattern}.
+     * @return the compiled pattern.
+     */
+    public Pattern toPattern() {
+        return CidrPattern.compile(toList());
+    }
+
+    /**
+     * Returns the set as a list of CIDR blocks only, without address ranges, for
+     * consumers that do not accept ranges.  Each interval is split into the fewest
+     * blocks that cover it exactly.
+     * @return a comma-separated list of CIDR blocks, or "" if the set is empty.
+     */
+    public String toPrefixString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<bounds.length; i+=2) {
+            Intervals.prefixes(bounds[i], bounds[i+1], (address, bits) -> {
+                if (bits == 0) {
+                    // there is no /0 in the syntax
+                    sb.append("0.0.0.0/1,128.0.0.0/1");
+                    return;
+                }
+                sb.append(sb.length()==0 ? "" : ",").append(AddressParser.format(address));
+                if (bits < 32) {
+                    sb.append('/').append(bits);
+                }
+            });
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the set as the shortest CIDR list: one entry for each interval, written as
+     * a single address, a CIDR block, or an address range (see {@link CidrPattern#normalize(String)}).
+     * @return a comma-separated list of CIDR expressions, or "" if the set is empty.
+     */
+    @Override
+    public String toString() {
+        return isEmpty() ? "" : matcher.entry(0);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CidrSet && Arrays.equals(bounds, ((CidrSet) o).bounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bounds);
+    }
+}
@@ -0,0 +1,259 @@
+package com.cleo.labs.cidr;
+
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Generates Java source for a CIDR list known at build time, so that a service
+ * shipping fixed lists pays nothing for them at startup: no parsing, no regex
+ * generation.  The generated class holds the regex {@link CidrPattern} would
+ * generate for the list, as a {@code REGEX} constant, and the merged intervals
+ * as a sorted table behind {@code matcher()}:
+ * <pre>
+ * Files.write(path, CidrSource.generate(list, "com.acme.net.InternalNetworks", "internal.cidr").getBytes(UTF_8));
+ * // later, at runtime
+ * InternalNetworks.matcher().matches(address);
+ * InternalNetworks.pattern().matcher(input).matches(); // compiled on first use
+ * </pre>
+ * A class file limits string constants to 65535 bytes and methods to 64KB of
+ * code, so neither a large regex nor a large {@code int[]} initializer can be
+ * written as a single constant.  The regex is written as string chunks appended
+ * into one builder, and the table as chunks of characters, two for each
+ * address, decoded into an {@code int[]} when the class is initialized.
+ * <p>
+ * {@link #generateTest(String, String)} writes a matching JUnit test that
+ * checks the generated class against {@link CidrPattern} for the original list.
+ * The {@code maven-plugin} directory holds a Maven plugin that runs both at build time.
+ */
+public final class CidrSource {
+    /**
+     * The number of characters in each string literal, which keeps every literal under
+     * the 65535 byte limit even when each character takes three bytes in the class file.
+     */
+    static final int CHUNK = 16384;
+
+    /**
+     * Returns the source of a class holding the precompiled list {@code list}.
+     * @param list the parsed CIDR list.
+     * @param className the fully qualified name of the class to generate, e.g. {@code com.acme.net.InternalNetworks}.
+     * @param origin where the list came from, e.g. its file name, for the class comment.
+     * @return the Java source.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static String generate(CidrList list, String className, String origin) throws PatternSyntaxException {
+        int dot = className.lastIndexOf('.');
+        String simpleName = className.substring(dot+1);
+        String regex = CidrPattern.diagnose(list).pattern().pattern();
+        long[] bounds = list.merged();
+        StringBuilder table = new StringBuilder(2*bounds.length);
+        for (long bound : bounds) {
+            table.append((char) (bound >>> 16)).append((char) bound);
+        }
+        StringBuilder sb = new StringBuilder(regex.length() + 4*table.length() + 4096);
+        sb.append("// Generated by ").append(CidrSource.class.getName()).append(" from ").append(origin)
+          .append(". Do not edit.\n");
+        if (dot > 0) {
+            sb.append("package ").append(className, 0, dot).append(";\n");
+        }
+        sb.append("\n")
+          .append("import java.util.regex.Pattern;\n")
+          .append("\n")
+          .append("import com.cleo.labs.cidr.IntervalMatcher;\n")
+          .append("\n")
+          .append("/**\n")
+          .append(" * The CIDR list ").append(javadoc(origin)).append(", precompiled: ").append(list.size())
+          .append(" entries in ").append(bounds.length/2).append(" intervals.\n")
+          .append(" */\n")
+          .append("public final class ").append(simpleName).append(" {\n")
+          .append("    /**\n")
+          .append("     * The number of entries in the list.\n")
+          .append("     */\n")
+          .append("    public static final int ENTRIES = ").append(list.size()).append(";\n")
+          .append("\n")
+          .append("    /**\n")
+          .append("     * The regex generated by {@code CidrPattern.compile} for the list.\n")
+          .append("     */\n")
+          .append("    public static final String REGEX = regex();\n")
+          .append("\n")
+          .append("    // the merged intervals as from/to pairs of unsigned 32-bit addresses\n")
+          .append("    private static final int[] BOUNDS = decode(table());\n")
+          .append("    private static final IntervalMatcher MATCHER = IntervalMatcher.of(BOUNDS);\n")
+          .append("\n")
+          .append("    private static final class Compiled {\n")
+          .append("        private static final Pattern PATTERN = Pattern.compile(REGEX);\n")
+          .append("    }\n")
+          .append("\n")
+          .append("    /**\n")
+          .append("     * Returns the compiled regex, compiling it on first use.\n")
+          .append("     * @return the pattern.\n")
+          .append("     */\n")
+          .append("    public static Pattern pattern() {\n")
+          .append("        return Compiled.PATTERN;\n")
+          .append("    }\n")
+          .append("\n")
+          .append("    /**\n")
+          .append("     * Returns a matcher for the list, built from the precompiled interval table.\n")
+          .append("     * @return the matcher.\n")
+          .append("     */\n")
+          .append("    public static IntervalMatcher matcher() {\n")
+          .append("        return MATCHER;\n")
+          .append("    }\n")
+          .append("\n")
+          .append("    /**\n")
+          .append("     * Returns the merged intervals of the list.\n")
+          .append("     * @return a copy of the sorted from/to pairs of unsigned 32-bit addresses.\n")
+          .append("     */\n")
+          .append("    public static int[] bounds() {\n")
+          .append("        return BOUNDS.clone();\n")
+          .append("    }\n")
+          .append("\n");
+        chunks(sb, "regex", regex);
+        sb.append("\n");
+        chunks(sb, "table", table);
+        sb.append("\n")
+          .append("    private static int[] decode(String table) {\n")
+          .append("        int[] ints = new int[table.length()/2];\n")
+          .append("        for (int i=0; i<ints.length; i++) {\n")
+          .append("            ints[i] = table.charAt(2*i) << 16 | table.charAt(2*i+1);\n")
+          .append("        }\n")
+          .append("        return ints;\n")
+          .append("    }\n")
+          .append("\n")
+          .append("    private ").append(simpleName).append("() {}\n")
+          .append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Returns the source of a JUnit 4 test checking the class generated by
+     * {@link #generate(CidrList, String, String)} against the list in {@code listFile}:
+     * its regex must be the one {@link CidrPattern#compile(CidrList)} generates now,
+     * and its matcher must agree with that pattern around every interval bound.
+     * @param className the fully qualified name of the generated class.
+     * @param listFile the path of the list file, as the test will see it when it runs.
+     * @return the Java source of a class named {@code className} + {@code Test}.
+     */
+    public static String generateTest(String className, String listFile) {
+        int dot = className.lastIndexOf('.');
+        String simpleName = className.substring(dot+1);
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("// Generated by ").append(CidrSource.class.getName()).append(". Do not edit.\n");
+        if (dot > 0) {
+            sb.append("package ").append(className, 0, dot).append(";\n");
+        }
+        sb.append("\n")
+          .append("import static org.junit.Assert.*;\n")
+          .append("\n")
+          .append("import java.io.IOException;\n")
+          .append("import java.nio.file.Paths;\n")
+          .append("import java.util.regex.Pattern;\n")
+          .append("\n")
+          .append("import org.junit.Test;\n")
+          .append("\n")
+          .append("import com.cleo.labs.cidr.AddressParser;\n")
+          .append("import com.cleo.labs.cidr.CidrList;\n")
+          .append("import com.cleo.labs.cidr.CidrLoader;\n")
+          .append("import com.cleo.labs.cidr.CidrPattern;\n")
+          .append("\n")
+          .append("public class ").append(simpleName).append("Test {\n")
+          .append("\n")
+          .append("    @Test\n")
+          .append("    public void testPrecompiled() throws IOException {\n")
+          .append("        CidrLoader.Result result = CidrLoader.load(Paths.get(\"").append(literal(listFile)).append("\"));\n")
+          .append("        assertFalse(result.errors().toString(), result.hasErrors());\n")
+          .append("        CidrList list = result.list();\n")
+          .append("        Pattern expected = CidrPattern.compile(list);\n")
+          .append("        assertEquals(list.size(), ").append(simpleName).append(".ENTRIES);\n")
+          .append("        assertEquals(expected.pattern(), ").append(simpleName).append(".REGEX);\n")
+          .append("        int[] bounds = ").append(simpleName).append(".bounds();\n")
+          .append("        for (int bound : bounds) {\n")
+          .append("            for (int address = bound-1; address != bound+2; address++) {\n")
+          .append("                String ip = AddressParser.format(address);\n")
+          .append("                boolean matches = expected.matcher(ip).matches();\n")
+          .append("                assertEquals(ip, matches, ").append(simpleName).append(".matcher().matches(address));\n")
+          .append("                assertEquals(ip, matches, ").append(simpleName).append(".pattern().matcher(ip).matches());\n")
+          .append("            }\n")
+          .append("        }\n")
+          .append("    }\n")
+          .append("}\n");
+        return sb.toString();
+    }
+
+    /**
+     * Writes {@code source} for class {@code className} into the package
+     * directories under {@code root}, e.g. {@code root/com/acme/net/InternalNetworks.java}.
+     * A file that already holds exactly {@code source} is left alone, so that its
+     * timestamp stays put and an incremental build does not recompile it.
+     * @param root the source root.
+     * @param className the fully qualified class name.
+     * @param source the Java source.
+     * @return the file.
+     * @throws IOException if the file can not be read or written.
+     */
+    public static Path write(Path root, String className, String source) throws IOException {
+        Path file = root.resolve(className.replace('.', '/')+".java");
+        byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
+        if (Files.isRegularFile(file) && Files.size(file) == bytes.length && Arrays.equals(Files.readAllBytes(file), bytes)) {
+            return file;
+        }
+        Files.createDirectories(file.getParent());
+        Files.write(file, bytes);
+        return file;
+    }
+
+    /**
+     * Appends a method returning {@code value} assembled from string literals of
+     * at most {@link #CHUNK} characters.
+     */
+    private static void chunks(StringBuilder sb, String name, CharSequence value) {
+        sb.append("    private static String ").append(name).append("() {\n")
+          .append("        return new StringBuilder(").append(value.length()).append(")");
+        for (int i=0; i<value.length(); i+=CHUNK) {
+            sb.append("\n            .append(\"").append(literal(value.subSequence(i, Math.min(value.length(), i+CHUNK))))
+              .append("\")");
+        }
+        sb.append("\n            .toString();\n")
+          .append("    }\n");
+    }
+
+    /**
+     * Returns {@code s} escaped for a Java string literal.  Line terminators,
+     * quotes and backslashes can not be written as unicode escapes, which are
+     * translated before the source is tokenized, so they get their own escapes.
+     */
+    private static String literal(CharSequence s) {
+        StringBuilder sb = new StringBuilder(s.length()+16);
+        for (int i=0; i<s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\\' || c == '"') {
+                sb.append('\\').append(c);
+            } else if (c == '\n') {
+                sb.append("\\n");
+            } else if (c == '\r') {
+                sb.append("\\r");
+            } else if (c >= ' ' && c < 0x7F) {
+                sb.append(c);
+            } else {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns {@code s} safe to place in a javadoc comment.
+     */
+    private static String javadoc(String s) {
+        return s.replace("*/", "*&#47;").replace("<", "&lt;").replace(">", "&gt;").replace("@", "&#64;");
+    }
+
+    /**
+     * Private constructor.
+     */
+    private CidrSource() {}
+}
@@ -0,0 +1,232 @@
+package com.cleo.labs.cidr;
+
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A {@link CidrMatcher} that looks addresses up in a two-level direct-indexed
+ * table, in the style of the DIR-24-8 routing lookup: every lookup takes at most
+ * two memory accesses and no comparisons.
+ * <p>
+ * The first level has an {@code int} for every prefix of {@code stride} bits
+ * (16 to 24), telling whether all, none, or some of the addresses with that
+ * prefix match.  Only the prefixes that partly match have a block in the second
+ * level: a bitmap of their {@code 2^(32-stride)} addresses.  A larger stride
+ * makes the first level bigger (4 bytes &times; 2^stride) and the blocks smaller;
+ * {@link #footprint(String, int)} reports the size of both levels before building
+ * a table.
+ * <p>
+ * Both levels are held in {@code ByteBuffer}s, which may be direct, so that even
+ * very large tables live outside the Java heap and add nothing to GC work.
+ */
+public final class DirectTable implements CidrMatcher {
+    /**
+     * The default stride.
+     */
+    public static final int DEFAULT_STRIDE = 16;
+
+    private static final int MISS = 0;
+    private static final int HIT = -1;
+
+    private final int stride;
+    private final int blocks;
+    private final ByteBuffer first;
+    private final ByteBuffer second;
+    private final int shift;
+    private final int mask;
+    private final int blockBytes;
+
+    private DirectTable(int stride, int blocks, ByteBuffer first, ByteBuffer second) {
+        this.stride     = stride;
+        this.blocks     = blocks;
+        this.first      = first;
+        this.second     = second;
+        this.shift      = 32-stride;
+        this.mask       = (1 << shift) - 1;
+        this.blockBytes = blockBytes(stride);
+    }
+
+    /**
+     * Returns a heap table with the default stride matching CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the table.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static DirectTable compile(String cidrs) throws PatternSyntaxException {
+        return compile(cidrs, DEFAULT_STRIDE, false);
+    }
+
+    /**
+     * Returns a table matching CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param stride the number of address bits indexing the first level (16 to 24).
+     * @param direct {@code true} to store the table in direct (off-heap) buffers.
+     * @return the table.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static DirectTable compile(String cidrs, int stride, boolean direct) throws PatternSyntaxException {
+        return compile(CidrList.parse(cidrs), stride, direct);
+    }
+
+    /**
+     * Returns a table matching the parsed CIDR list {@code list}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @param stride the number of address bits indexing the first level (16 to 24).
+     * @param direct {@code true} to store the table in direct (off-heap) buffers.
+     * @return the table.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static DirectTable compile(CidrList list, int stride, boolean direct) throws PatternSyntaxException {
+        return build(list.merged(), stride, direct);
+    }
+
+    /**
+     * Returns the number of bytes a table for {@code cidrs} with {@code stride} would use,
+     * without building it.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param stride the number of address bits indexing the first level (16 to 24).
+     * @return the size of both levels in bytes.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static long footprint(String cidrs, int stride) throws PatternSyntaxException {
+        check(stride);
+        return footprint(stride, partial(CidrList.parse(cidrs).merged(), stride));
+    }
+
+    private static void check(int stride) {
+        if (stride < 16 || stride > 24) {
+            throw new IllegalArgumentException("stride must be 16 to 24: "+stride);
+        }
+    }
+
+    private static long footprint(int stride, int blocks) {
+        return (4L << stride) + (long) blocks * blockBytes(stride);
+    }
+
+    private static int blockBytes(int stride) {
+        return 1 << (32-stride-3);
+    }
+
+    /**
+     * Counts the prefixes only partly covered by the intervals.
+     * @param bounds sorted, disjoint {@code from}/{@code to} pairs.
+     * @param stride the prefix length.
+     * @return the number of second-level blocks needed.
+     */
+    private static int partial(long[] bounds, int stride) {
+        int shift = 32-stride;
+        long mask = (1L << shift) - 1;
+        int count = 0;
+        long last = -1;
+        for (int i=0; i<bounds.length; i+=2) {
+            long from = bounds[i];
+            long to = bounds[i+1];
+            if ((from & mask) != 0 && from >>> shift != last) {
+                last = from >>> shift;
+                count++;
+            }
+            if ((to & mask) != mask && to >>> shift != last) {
+                last = to >>> shift;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static DirectTable build(long[] bounds, int stride, boolean direct) {
+        check(stride);
+        int shift = 32-stride;
+        long mask = (1L << shift) - 1;
+        int blocks = partial(bounds, stride);
+        int blockBytes = blockBytes(stride);
+        ByteBuffer first = allocate(4 << stride, direct);
+        ByteBuffer second = allocate(blocks * blockBytes, direct);
+        int used = 0;
+        for (int i=0; i<bounds.length; i+=2) {
+            long from = bounds[i];
+            long to = bounds[i+1];
+            for (long prefix = from >>> shift; prefix <= to >>> shift; prefix++) {
+                long low = Math.max(from, prefix << shift);
+                long high = Math.min(to, prefix << shift | mask);
+                int index = (int) prefix << 2;
+                if (low == prefix << shift && high == (prefix << shift | mask)) {
+                    first.putInt(index, HIT);
+                    continue;
+                }
+                int block = first.getInt(index);
+                if (block == MISS) {
+                    block = ++used;
+                    first.putInt(index, block);
+                }
+                int base = (block-1) * blockBytes;
+                long a = low & mask;
+                long b = high & mask;
+                for (long w = a >>> 6; w <= b >>> 6; w++) {
+                    long bits = -1L;
+                    if (w == a >>> 6) {
+                        bits &= -1L << a;
+                    }
+                    if (w == b >>> 6) {
+                        bits &= -1L >>> (63 - (b & 63));
+                    }
+                    int at = base + (int) (w << 3);
+                    second.putLong(at, second.getLong(at) | bits);
+                }
+            }
+        }
+        return new DirectTable(stride, blocks, first, second);
+    }
+
+    private static ByteBuffer allocate(int capacity, boolean direct) {
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Returns the number of address bits indexing the first level.
+     * @return the stride.
+     */
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * Returns the number of second-level blocks.
+     * @return the number of blocks.
+     */
+    public int blocks() {
+        return blocks;
+    }
+
+    /**
+     * Returns {@code true} if the table is stored off-heap.
+     * @return {@code true} if the buffers are direct.
+     */
+    public boolean isDirect() {
+        return first.isDirect();
+    }
+
+    /**
+     * Returns the memory used by the table.
+     * @return the size of both levels in bytes.
+     */
+    public long memoryFootprint() {
+        return footprint(stride, blocks);
+    }
+
+    @Override
+    public boolean matches(int address) {
+        int entry = first.getInt(address >>> shift << 2);
+        if (entry == MISS || entry == HIT) {
+            return entry == HIT;
+        }
+        int bit = address & mask;
+        long word = second.getLong((entry-1) * blockBytes + (bit >>> 6 << 3));
+        return (word & 1L << bit) != 0;
+    }
+}
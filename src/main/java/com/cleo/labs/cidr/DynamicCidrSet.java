@@ -0,0 +1,193 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A set of addresses that can be changed while it is being matched against,
+ * e.g. an allowlist updated at runtime.  Readers never lock: each change builds
+ * a new immutable {@link Snapshot} and publishes it atomically, so a match sees
+ * either the set before a change or after it, never a mix.
+ * <p>
+ * The set holds addresses, not entries: {@link #remove(String)} removes the
+ * addresses of its argument even if they were added as part of a larger block,
+ * and adding addresses already in the set changes nothing but the version.
+ * <p>
+ * Every snapshot carries a version, starting at 0 and increasing by one with
+ * each change.  To learn which version answered a query, match against a
+ * snapshot rather than the set itself:
+ * <pre>
+ * DynamicCidrSet.Snapshot snapshot = allowlist.snapshot();
+ * boolean allowed = snapshot.matches(address);
+ * log(address, allowed, snapshot.version());
+ * </pre>
+ */
+public final class DynamicCidrSet implements CidrMatcher {
+    /**
+     * An immutable version of the set.
+     */
+    public static final class Snapshot implements CidrMatcher {
+        private final long version;
+        private final IntervalMatcher matcher;
+
+        private Snapshot(long version, IntervalMatcher matcher) {
+            this.version = version;
+            this.matcher = matcher;
+        }
+
+        /**
+         * Returns the version of the set this snapshot was taken from.
+         * @return the version.
+         */
+        public long version() {
+            return version;
+        }
+
+        /**
+         * Returns the number of disjoint intervals in the set.
+         * @return the number of intervals.
+         */
+        public int size() {
+            return matcher.size();
+        }
+
+        /**
+         * Returns the matcher for this snapshot, e.g. for batch matching.
+         * @return the matcher.
+         */
+        public IntervalMatcher matcher() {
+            return matcher;
+        }
+
+        @Override
+        public boolean matches(int address) {
+            return matcher.matches(address);
+        }
+
+        /**
+         * Returns the set as a normalized CIDR list (see {@link CidrPattern#normalize(String)}).
+         */
+        @Override
+        public String toString() {
+            return matcher.entry(0);
+        }
+    }
+
+    private final AtomicReference<Snapshot> current;
+
+    /**
+     * Creates an empty set.
+     */
+    public DynamicCidrSet() {
+        current = new AtomicReference<>(new Snapshot(0, new IntervalMatcher(new long[0])));
+    }
+
+    /**
+     * Creates a set holding the addresses matched by CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public DynamicCidrSet(String cidrs) throws PatternSyntaxException {
+        this(CidrList.parse(cidrs));
+    }
+
+    /**
+     * Creates a set holding the addresses matched by the parsed CIDR list {@code list}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public DynamicCidrSet(CidrList list) throws PatternSyntaxException {
+        current = new AtomicReference<>(new Snapshot(0, new IntervalMatcher(list.merged())));
+    }
+
+    /**
+     * Returns the current version of the set.
+     * @return the current snapshot.
+     */
+    public Snapshot snapshot() {
+        return current.get();
+    }
+
+    /**
+     * Returns the current version number.
+     * @return the version.
+     */
+    public long version() {
+        return current.get().version;
+    }
+
+    /**
+     * Parses an optional CIDR list into merged intervals.
+     */
+    private static long[] intervals(String cidrs) throws PatternSyntaxException {
+        return cidrs==null || cidrs.trim().isEmpty() ? new long[0] : CidrList.parse(cidrs).merged();
+    }
+
+    /**
+     * Publishes the snapshot derived from the current one by {@code change},
+     * retrying if another change is published first.  A change copies the
+     * intervals it does not touch and merges only those it does.
+     */
+    private Snapshot update(UnaryOperator<IntervalMatcher> change) {
+        while (true) {
+            Snapshot previous = current.get();
+            Snapshot next = new Snapshot(previous.version+1, change.apply(previous.matcher));
+            if (current.compareAndSet(previous, next)) {
+                return next;
+            }
+        }
+    }
+
+    /**
+     * Adds the addresses matched by CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the new snapshot.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public Snapshot add(String cidrs) throws PatternSyntaxException {
+        long[] added = CidrList.parse(cidrs).merged();
+        return update(matcher -> matcher.union(added));
+    }
+
+    /**
+     * Removes the addresses matched by CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the new snapshot.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public Snapshot remove(String cidrs) throws PatternSyntaxException {
+        long[] removed = CidrList.parse(cidrs).merged();
+        return update(matcher -> matcher.subtract(removed));
+    }
+
+    /**
+     * Removes and adds addresses in a single change, so that no snapshot shows
+     * the set with only part of the change applied.  Removals are applied first,
+     * so a block can be replaced by removing it and adding the new one.
+     * @param adds a CIDR pattern list of addresses to add, or {@code null} or empty.
+     * @param removes a CIDR pattern list of addresses to remove, or {@code null} or empty.
+     * @return the new snapshot.
+     * @throws PatternSyntaxException if either list is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public Snapshot applyDelta(String adds, String removes) throws PatternSyntaxException {
+        long[] added = intervals(adds);
+        long[] removed = intervals(removes);
+        return update(matcher -> matcher.subtract(removed).union(added));
+    }
+
+    @Override
+    public boolean matches(int address) {
+        return current.get().matches(address);
+    }
+
+    @Override
+    public String toString() {
+        return current.get().toString();
+    }
+}
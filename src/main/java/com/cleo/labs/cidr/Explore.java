@@ -1,94 +1,334 @@
-package com.cleo.labs.cidr;
-
-
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintStream;
-import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
-
-public class Explore {
-    private static Pattern pattern = null;
-    
-    private static void usage(PrintStream out) {
-        out.println("usage: range number number - print regex for range\n"+
-                "       cidr pattern        - parse pattern and print regex\n"+
-                "       pattern pattern     - parse pattern as a Java Pattern\n"+
-                "       match test          - after cidr, range or pattern command, test against an input\n"+
-                "       .                   - exit"); 
-    }
-
-    private static void test (String command) {
-        String[] argv       = command.split("\\s+", 2);
-        String verb         = argv[0];
-        String arg          = argv.length>1 ? argv[1] : "";
-        if (verb.equalsIgnoreCase("range")) {
-            try {
-                String[] args = arg.split("[-\\.\\s]+", 2);
-                int min = Integer.parseInt(args[0]);
-                int max = Integer.parseInt(args[1]);
-                pattern = RangePattern.compile(min, max);
-                System.out.println("range ["+min+" "+max+"] = "+pattern);
-            } catch (ArrayIndexOutOfBoundsException e) {
-                System.out.println("usage: range min max");
-            }
-        } else if (verb.equalsIgnoreCase("cidr")) {
-            try {
-                pattern = CidrPattern.compile(arg);
-                System.out.println("cidr ["+arg+"] = "+pattern);
-            } catch (PatternSyntaxException e) {
-                System.out.println("error: ["+arg+"] is not a cidr pattern");
-            }
-        } else if (verb.equalsIgnoreCase("match")) {
-            if (pattern==null) {
-                System.out.println("set a pattern first");
-            } else if (pattern.matcher(arg).matches()) {
-                System.out.println("match ["+arg+"] success");
-            } else {
-                System.out.println("match ["+arg+"] failed");
-            }
-        } else if (verb.equalsIgnoreCase("pattern")) {
-            try {
-                pattern = Pattern.compile(arg);
-            } catch (PatternSyntaxException e) {
-                System.out.println("error: ["+arg+"] is not a valid pattern: "+e.getDescription());
-            }
-        } else if (verb.length()>0 && pattern!=null) {
-            if (pattern.matcher(command).matches()) {
-                System.out.println("match ["+command+"] success");
-            } else {
-                System.out.println("match ["+command+"] failed");
-            }
-        } else if (verb.length()>0) {
-            usage(System.out);
-        }
-    }
-
-    /**
-     * Test driver.
-     */
-    public static void main(String[] argv) throws IOException {
-        if (argv.length > 0) {
-            for (String arg : argv) {
-                test(arg);
-            }
-        } else {
-            BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
-            String line;
-            usage(System.out);
-            try {
-                while ((line = input.readLine()) != null && !line.equals(".")) {
-                    try {
-                        test(line);
-                    } catch (Exception e) {
-                        System.out.println(e.getMessage());
-                        e.printStackTrace(System.out);
-                    }
-                }
-            } catch (Exception e) {
-                // done
-            }
-        }
-    }
-}
+package com.cleo.labs.cidr;
+
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
+
+public class Explore {
+    private static Pattern pattern = null;
+    private static CidrList list = null;
+    private static long compileNanos = 0;
+    private static final BufferedReader stdin = new BufferedReader(new InputStreamReader(System.in));
+
+    // timed passes over the input for each engine in bench, after one warm-up pass
+    private static final int PASSES = 5;
+    
+    private static void usage(PrintStream out) {
+        out.println("usage: range number number - print regex for range\n"+
+                "       cidr pattern        - parse pattern and print regex\n"+
+                "       pattern pattern     - parse pattern as a Java Pattern\n"+
+                "       match test          - after cidr, range or pattern command, test against an input\n"+
+                "       scan pattern file   - print addresses in file matching pattern\n"+
+                "       compile in out      - compile a file of cidrs (one or more per line, # comments)\n"+
+                "                             to binary file out, with line numbers as values\n"+
+                "       batch [file]        - after cidr, range or pattern command, match every address\n"+
+                "                             in file (or stdin, up to a . line) and print a summary\n"+
+                "       bench [file]        - after cidr command, time every engine on the addresses in file\n"+
+                "       .                   - exit"); 
+    }
+
+    private static void test (String command) {
+        String[] argv       = command.split("\\s+", 2);
+        String verb         = argv[0];
+        String arg          = argv.length>1 ? argv[1] : "";
+        if (verb.equalsIgnoreCase("range")) {
+            try {
+                String[] args = arg.split("[-\\.\\s]+", 2);
+                int min = Integer.parseInt(args[0]);
+                int max = Integer.parseInt(args[1]);
+                pattern = RangePattern.compile(min, max);
+                list = null;
+                System.out.println("range ["+min+" "+max+"] = "+pattern);
+            } catch (ArrayIndexOutOfBoundsException e) {
+                System.out.println("usage: range min max");
+            }
+        } else if (verb.equalsIgnoreCase("cidr")) {
+            try {
+                list = CidrList.parse(arg);
+                PatternDiagnostics diagnostics = CidrPattern.diagnose(list);
+                pattern = diagnostics.pattern();
+                compileNanos = diagnostics.generateNanos() + diagnostics.compileNanos();
+                System.out.println("cidr ["+arg+"] = "+pattern);
+                System.out.println("cidr ["+arg+"] "+diagnostics);
+            } catch (PatternSyntaxException e) {
+                System.out.println("error: ["+arg+"] is not a cidr pattern");
+            }
+        } else if (verb.equalsIgnoreCase("match")) {
+            if (pattern==null) {
+                System.out.println("set a pattern first");
+            } else if (pattern.matcher(arg).matches()) {
+                System.out.println("match ["+arg+"] success");
+            } else {
+                System.out.println("match ["+arg+"] failed");
+            }
+        } else if (verb.equalsIgnoreCase("scan")) {
+            int space = arg.lastIndexOf(' ');
+            if (space < 0) {
+                System.out.println("usage: scan pattern file");
+                return;
+            }
+            String cidrs = arg.substring(0, space).trim();
+            String file = arg.substring(space+1);
+            try {
+                CidrScanner scanner = CidrScanner.compile(cidrs);
+                try (Stream<CidrScanner.Match> matches = scanner.stream(Paths.get(file))) {
+                    long[] count = new long[1];
+                    matches.parallel().forEachOrdered(m -> {
+                        System.out.println(m.offset()+" "+AddressParser.format(m.address())+" "+scanner.matcher().entry(m.entry()));
+                        count[0]++;
+                    });
+                    System.out.println("scan ["+file+"] found "+count[0]+" matches");
+                }
+            } catch (PatternSyntaxException e) {
+                System.out.println("error: ["+cidrs+"] is not a cidr pattern");
+            } catch (IOException e) {
+                System.out.println("error: can not read ["+file+"]: "+e.getMessage());
+            }
+        } else if (verb.equalsIgnoreCase("compile")) {
+            String[] files = arg.split("\\s+");
+            if (files.length != 2) {
+                System.out.println("usage: compile in out");
+                return;
+            }
+            try {
+                CidrLoader.Result result = CidrLoader.load(Paths.get(files[0]));
+                if (result.hasErrors()) {
+                    for (CidrLoader.LoadError error : result.errors()) {
+                        System.out.println("error: ["+files[0]+"] "+error);
+                    }
+                    return;
+                }
+                CidrList loaded = result.list();
+                int[] values = new int[loaded.size()];
+                for (int i=0; i<values.length; i++) {
+                    values[i] = loaded.line(i);
+                }
+                long size = CidrFile.write(Paths.get(files[1]), loaded, values);
+                System.out.println("compile ["+files[0]+"] wrote "+values.length+" entries in "+
+                        CidrFile.map(Paths.get(files[1])).size()+" intervals ("+size+" bytes) to ["+files[1]+"]");
+            } catch (PatternSyntaxException e) {
+                System.out.println("error: ["+files[0]+"] "+e.getDescription());
+            } catch (IOException e) {
+                System.out.println("error: "+e.getMessage());
+            }
+        } else if (verb.equalsIgnoreCase("batch")) {
+            if (pattern==null) {
+                System.out.println("set a pattern first");
+                return;
+            }
+            try {
+                batch(arg);
+            } catch (IOException e) {
+                System.out.println("error: can not read ["+arg+"]: "+e.getMessage());
+            }
+        } else if (verb.equalsIgnoreCase("bench")) {
+            if (list==null) {
+                System.out.println("set a cidr pattern first");
+                return;
+            }
+            try {
+                bench(arg);
+            } catch (IOException e) {
+                System.out.println("error: can not read ["+arg+"]: "+e.getMessage());
+            }
+        } else if (verb.equalsIgnoreCase("pattern")) {
+            try {
+                pattern = Pattern.compile(arg);
+                list = null;
+            } catch (PatternSyntaxException e) {
+                System.out.println("error: ["+arg+"] is not a valid pattern: "+e.getDescription());
+            }
+        } else if (verb.length()>0 && pattern!=null) {
+            if (pattern.matcher(command).matches()) {
+                System.out.println("match ["+command+"] success");
+            } else {
+                System.out.println("match ["+command+"] failed");
+            }
+        } else if (verb.length()>0) {
+            usage(System.out);
+        }
+    }
+
+    /**
+     * Opens {@code file}, or standard input if it is empty.
+     */
+    private static BufferedReader open(String file) throws IOException {
+        return file.isEmpty() ? stdin : Files.newBufferedReader(Paths.get(file));
+    }
+
+    /**
+     * Matches every address in {@code file} (or standard input, up to a line
+     * holding only ".") against the current pattern, printing each result and
+     * then a summary.  When the pattern came from a cidr command the addresses
+     * are matched by an {@link IntervalMatcher}, which also reports the entry
+     * that matched, unless the list is too large for one.
+     */
+    private static void batch(String file) throws IOException {
+        IntervalMatcher matcher = null;
+        if (list != null) {
+            try {
+                matcher = CidrPattern.compileMatcher(list);
+            } catch (PatternSyntaxException e) {
+                System.out.println("interval matcher skipped: "+e.getDescription()+", matching with the regex");
+            }
+        }
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        BufferedReader reader = open(file);
+        long addresses = 0;
+        long matches = 0;
+        long invalid = 0;
+        long start = System.nanoTime();
+        try {
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals(".")) {
+                String address = line.trim();
+                if (address.isEmpty()) {
+                    continue;
+                }
+                addresses++;
+                if (matcher==null) {
+                    boolean match = pattern.matcher(address).matches();
+                    matches += match ? 1 : 0;
+                    out.append(address).println(match ? " match" : " no-match");
+                    continue;
+                }
+                long parsed = AddressParser.parse(address);
+                int entry = parsed==AddressParser.INVALID ? -1 : matcher.indexOf((int) parsed);
+                if (parsed==AddressParser.INVALID) {
+                    invalid++;
+                    out.append(address).println(" invalid");
+                } else if (entry >= 0) {
+                    matches++;
+                    out.append(address).append(" match ").println(matcher.entry(entry));
+                } else {
+                    out.append(address).println(" no-match");
+                }
+            }
+        } finally {
+            if (reader != stdin) {
+                reader.close();
+            }
+        }
+        BatchResult result = new BatchResult(addresses, matches, System.nanoTime()-start);
+        out.flush();
+        System.out.println("batch "+result+(invalid > 0 ? ", "+invalid+" invalid" : "")+
+                "; regex "+pattern.pattern().length()+" chars"+
+                (list==null ? "" : " compiled in "+String.format("%.3f", compileNanos/1e6)+"ms"));
+    }
+
+    /**
+     * Times the engines the library offers on the addresses in {@code file}
+     * (or standard input), compiled from the current cidr list.  An engine
+     * that can not be compiled from the list is skipped.
+     */
+    private static void bench(String file) throws IOException {
+        List<String> input = new ArrayList<>();
+        BufferedReader reader = open(file);
+        try {
+            String line;
+            while ((line = reader.readLine()) != null && !line.equals(".")) {
+                if (!line.trim().isEmpty()) {
+                    input.add(line.trim());
+                }
+            }
+        } finally {
+            if (reader != stdin) {
+                reader.close();
+            }
+        }
+        String[] addresses = input.toArray(new String[0]);
+        CidrList cidrs = list;
+        Map<String, Supplier<Predicate<String>>> engines = new LinkedHashMap<>();
+        engines.put("regex", () -> {
+            Pattern p = CidrPattern.compile(cidrs);
+            return s -> p.matcher(s).matches();
+        });
+        engines.put("factored", () -> {
+            Pattern p = CidrPattern.compileFactored(cidrs);
+            return s -> p.matcher(s).matches();
+        });
+        engines.put("cached", () -> CachedMatcher.of(CidrPattern.compile(cidrs))::matches);
+        engines.put("interval", () -> CidrPattern.compileMatcher(cidrs)::matches);
+        engines.put("automaton", () -> CidrAutomaton.compile(cidrs)::matches);
+        engines.put("bytecode", () -> BytecodeMatcher.compile(cidrs)::matches);
+        engines.put("direct", () -> DirectTable.compile(cidrs, DirectTable.DEFAULT_STRIDE, false)::matches);
+        engines.put("file", () -> {
+            try {
+                return CidrFile.wrap(CidrFile.compile(cidrs, new int[0]), false)::matches;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        System.out.println("bench "+addresses.length+" addresses, best of "+PASSES+" passes");
+        long expected = -1;
+        for (Map.Entry<String, Supplier<Predicate<String>>> engine : engines.entrySet()) {
+            long start = System.nanoTime();
+            Predicate<String> predicate;
+            try {
+                predicate = engine.getValue().get();
+            } catch (PatternSyntaxException e) {
+                System.out.println(String.format("%-10s skipped: %s", engine.getKey(), e.getDescription()));
+                continue;
+            }
+            long compile = System.nanoTime() - start;
+            BatchResult best = null;
+            for (int pass=0; pass<=PASSES; pass++) {
+                long matches = 0;
+                start = System.nanoTime();
+                for (String address : addresses) {
+                    if (predicate.test(address)) {
+                        matches++;
+                    }
+                }
+                BatchResult result = new BatchResult(addresses.length, matches, System.nanoTime()-start);
+                if (pass > 0 && (best==null || result.nanos() < best.nanos())) {
+                    best = result;
+                }
+            }
+            System.out.println(String.format("%-10s compiled in %8.3fms, ", engine.getKey(), compile/1e6)+best+
+                    (expected >= 0 && best.matches() != expected ? " MISMATCH" : ""));
+            expected = expected >= 0 ? expected : best.matches();
+        }
+    }
+
+    /**
+     * Test driver.
+     */
+    public static void main(String[] argv) throws IOException {
+        if (argv.length > 0) {
+            for (String arg : argv) {
+                test(arg);
+            }
+        } else {
+            String line;
+            usage(System.out);
+            try {
+                while ((line = stdin.readLine()) != null && !line.equals(".")) {
+                    try {
+                        test(line);
+                    } catch (Exception e) {
+                        System.out.println(e.getMessage());
+                        e.printStackTrace(System.out);
+                    }
+                }
+            } catch (Exception e) {
+                // done
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A {@link CidrMatcher} that counts how often each entry of a CIDR list matches,
+ * how often nothing matches, and how long a sample of the lookups take.
+ * <p>
+ * Instrumentation is opt-in: it lives entirely in this wrapper, so the other
+ * matchers carry no counters and no checks.  The counters are {@code LongAdder}s,
+ * which spread contended updates across cells instead of making threads fight over
+ * one cache line.  Only one in {@code sampleRate} lookups is timed, so the cost of
+ * reading the clock is paid rarely.
+ * <p>
+ * As with {@link IntervalMatcher#indexOf(int)}, when entries overlap an address is
+ * counted for the earliest entry in the list that matches it.
+ */
+public final class InstrumentedMatcher implements CidrMatcher {
+    /**
+     * Receives every match, e.g. to log which rule allowed a request.
+     */
+    public interface MatchListener {
+        /**
+         * Accepts a match.  Called on the matching thread, so it should be quick.
+         * @param address the address as an unsigned 32-bit int.
+         * @param entry the index of the CIDR list entry that matched.
+         */
+        void matched(int address, int entry);
+    }
+
+    /**
+     * The default sample rate: one lookup in 1024 is timed.
+     */
+    public static final int DEFAULT_SAMPLE_RATE = 1024;
+
+    // latency buckets: bucket i counts lookups taking 2^i to 2^(i+1)-1 ns
+    private static final int BUCKETS = 40;
+
+    /**
+     * A point-in-time copy of the counters.
+     */
+    public static final class Snapshot {
+        private final long[] hits;
+        private final long misses;
+        private final long[] latencies;
+
+        private Snapshot(long[] hits, long misses, long[] latencies) {
+            this.hits      = hits;
+            this.misses    = misses;
+            this.latencies = latencies;
+        }
+
+        /**
+         * Returns the number of entries in the CIDR list.
+         * @return the number of entries.
+         */
+        public int entries() {
+            return hits.length;
+        }
+
+        /**
+         * Returns the number of addresses matched by entry {@code entry}.
+         * @param entry the entry index.
+         * @return the hit count.
+         */
+        public long hits(int entry) {
+            return hits[entry];
+        }
+
+        /**
+         * Returns the number of addresses matched by any entry.
+         * @return the total hit count.
+         */
+        public long hits() {
+            long total = 0;
+            for (long h : hits) {
+                total += h;
+            }
+            return total;
+        }
+
+        /**
+         * Returns the number of addresses that matched no entry.
+         * @return the miss count.
+         */
+        public long misses() {
+            return misses;
+        }
+
+        /**
+         * Returns the number of timed lookups.
+         * @return the number of samples.
+         */
+        public long samples() {
+            long total = 0;
+            for (long l : latencies) {
+                total += l;
+            }
+            return total;
+        }
+
+        /**
+         * Returns the latency histogram: element {@code i} is the number of timed
+         * lookups that took from {@code 2^i} to {@code 2^(i+1)-1} nanoseconds
+         * (element 0 includes lookups timed at 0).
+         * @return a copy of the histogram.
+         */
+        public long[] latencies() {
+            return latencies.clone();
+        }
+
+        /**
+         * Returns an upper bound on the latency of fraction {@code q} of the timed lookups.
+         * @param q the quantile, e.g. 0.99.
+         * @return the latency in nanoseconds, or 0 if there are no samples.
+         */
+        public long percentile(double q) {
+            long samples = samples();
+            long seen = 0;
+            for (int i=0; i<latencies.length && samples>0; i++) {
+                seen += latencies[i];
+                if (seen >= q*samples) {
+                    return (1L << (i+1)) - 1;
+                }
+            }
+            return 0;
+        }
+
+        /**
+         * Returns the entries that have never matched, e.g. to prune dead rules.
+         * @return the indexes of the unused entries, in order.
+         */
+        public int[] unused() {
+            int n = 0;
+            int[] unused = new int[hits.length];
+            for (int i=0; i<hits.length; i++) {
+                if (hits[i] == 0) {
+                    unused[n++] = i;
+                }
+            }
+            return Arrays.copyOf(unused, n);
+        }
+
+        @Override
+        public String toString() {
+            return "hits="+hits()+" misses="+misses+" samples="+samples()+" p50="+percentile(0.5)+"ns p99="+percentile(0.99)+"ns";
+        }
+    }
+
+    private final IntervalMatcher matcher;
+    private final LongAdder[] hits;
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder[] latencies = new LongAdder[BUCKETS];
+    private final int sampleMask;
+    private volatile MatchListener listener = null;
+
+    /**
+     * Creates an instrumented matcher timing one lookup in {@link #DEFAULT_SAMPLE_RATE}.
+     * @param matcher the matcher to instrument.
+     */
+    public InstrumentedMatcher(IntervalMatcher matcher) {
+        this(matcher, DEFAULT_SAMPLE_RATE);
+    }
+
+    /**
+     * Creates an instrumented matcher.
+     * @param matcher the matcher to instrument.
+     * @param sampleRate time one lookup in {@code sampleRate}, a power of two, or 0 to time none.
+     */
+    public InstrumentedMatcher(IntervalMatcher matcher, int sampleRate) {
+        if (sampleRate < 0 || Integer.bitCount(sampleRate) > 1) {
+            throw new IllegalArgumentException("sampleRate must be 0 or a power of two: "+sampleRate);
+        }
+        this.matcher    = matcher;
+        this.sampleMask = sampleRate - 1;
+        this.hits       = new LongAdder[matcher.entries()];
+        for (int i=0; i<hits.length; i++) {
+            hits[i] = new LongAdder();
+        }
+        for (int i=0; i<BUCKETS; i++) {
+            latencies[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Returns an instrumented matcher for CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @return the instrumented matcher.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns,
+     *         or if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static InstrumentedMatcher compile(String cidrs) throws PatternSyntaxException {
+        return new InstrumentedMatcher(CidrPattern.compileMatcher(cidrs));
+    }
+
+    /**
+     * Returns an instrumented matcher for the parsed CIDR list {@code list}.
+     * @param list the parsed CIDR list, e.g. from {@link CidrLoader}.
+     * @return the instrumented matcher.
+     * @throws PatternSyntaxException if a wildcard entry expands into more than {@link CidrList#MAX_EXPANSION} intervals.
+     */
+    public static InstrumentedMatcher compile(CidrList list) throws PatternSyntaxException {
+        return new InstrumentedMatcher(CidrPattern.compileMatcher(list));
+    }
+
+    /**
+     * Returns the instrumented matcher, e.g. to look up the text of an entry.
+     * @return the matcher.
+     */
+    public IntervalMatcher matcher() {
+        return matcher;
+    }
+
+    /**
+     * Sets the listener called for every match.
+     * @param listener the listener, or {@code null} for none.
+     */
+    public void setListener(MatchListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Returns the index of the first entry in the CIDR list that matches
+     * {@code address}, counting the lookup.
+     * @param address an IPv4 address as an unsigned 32-bit int.
+     * @return the entry index, or -1 if the address does not match.
+     */
+    public int indexOf(int address) {
+        int entry;
+        if (sampleMask >= 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) == 0) {
+            long start = System.nanoTime();
+            entry = matcher.indexOf(address);
+            long nanos = System.nanoTime() - start;
+            latencies[Math.min(BUCKETS-1, 63-Long.numberOfLeadingZeros(nanos | 1))].increment();
+        } else {
+            entry = matcher.indexOf(address);
+        }
+        if (entry < 0) {
+            misses.increment();
+        } else {
+            hits[entry].increment();
+            MatchListener l = listener;
+            if (l != null) {
+                l.matched(address, entry);
+            }
+        }
+        return entry;
+    }
+
+    @Override
+    public boolean matches(int address) {
+        return indexOf(address) >= 0;
+    }
+
+    /**
+     * Returns a copy of the counters.  Counts updated while the snapshot
+     * is being taken may or may not be included.
+     * @return the snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] h = new long[hits.length];
+        for (int i=0; i<h.length; i++) {
+            h[i] = hits[i].sum();
+        }
+        long[] l = new long[BUCKETS];
+        for (int i=0; i<BUCKETS; i++) {
+            l[i] = latencies[i].sum();
+        }
+        return new Snapshot(h, misses.sum(), l);
+    }
+
+    /**
+     * Returns a copy of the counters and resets them to zero, e.g. to report
+     * counts per interval.  A lookup counted while the reset is in progress
+     * may be left out of both the snapshot and the new counts.
+     * @return the snapshot.
+     */
+    public Snapshot reset() {
+        long[] h = new long[hits.length];
+        for (int i=0; i<h.length; i++) {
+            h[i] = hits[i].sumThenReset();
+        }
+        long[] l = new long[BUCKETS];
+        for (int i=0; i<BUCKETS; i++) {
+            l[i] = latencies[i].sumThenReset();
+        }
+        return new Snapshot(h, misses.sumThenReset(), l);
+    }
+}
@@ -0,0 +1,451 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.IntStream;
+
+/**
+ * A {@link CidrMatcher} that holds a CIDR list as a sorted array of
+ * disjoint address intervals and tests addresses by binary search.
+ * Use {@link CidrPattern#compileMatcher(String)} to create one.
+ * <p>
+ * Besides single addresses, a matcher can check whole arrays of addresses at once
+ * with {@link #matchAll(int[], BitSet)} and {@link #count(int[])}.  These sort each
+ * block of the input and merge it against the sorted intervals, and large arrays
+ * are split into blocks that are matched in parallel.
+ */
+public final class IntervalMatcher implements CidrMatcher {
+    /**
+     * Intervals tagged with the index of the entry that matches them.
+     */
+    private static final class Owners {
+        private final int[] from;
+        private final int[] to;
+        private final int[] entry;
+
+        private Owners(long[] triples) {
+            int n = triples.length/3;
+            from  = new int[n];
+            to    = new int[n];
+            entry = new int[n];
+            for (int i=0; i<n; i++) {
+                from[i]  = (int) triples[3*i]   ^ Integer.MIN_VALUE;
+                to[i]    = (int) triples[3*i+1] ^ Integer.MIN_VALUE;
+                entry[i] = (int) triples[3*i+2];
+            }
+        }
+    }
+
+    // addresses per fork-join task, a multiple of 64 so that
+    // tasks never share a word of the result bitmap
+    static final int BATCH_SIZE = 1 << 16;
+
+    // interval bounds with the sign bit flipped so that a signed
+    // comparison orders them as unsigned addresses
+    private final int[] from;
+    private final int[] to;
+    private final CidrList list;
+    private Owners owners = null;
+
+    /**
+     * Creates a matcher from sorted, disjoint {@code from}/{@code to} pairs.
+     * @param bounds the interval bounds as unsigned 32-bit values.
+     */
+    IntervalMatcher(long[] bounds) {
+        this(bounds, null);
+    }
+
+    /**
+     * Creates a matcher for the addresses matched by {@code list}.
+     * @param list the parsed CIDR list.
+     */
+    IntervalMatcher(CidrList list) {
+        this(list.merged(), list);
+    }
+
+    /**
+     * Returns a matcher for sorted, disjoint intervals, e.g. the table of a class
+     * generated by {@link CidrSource}.  Nothing is parsed, so this is the fastest
+     * way to build a matcher for a list known ahead of time.
+     * @param bounds {@code from}/{@code to} pairs of IPv4 addresses as unsigned 32-bit ints,
+     *               both inclusive, in increasing order and not overlapping.
+     * @return the matcher.
+     * @throws IllegalArgumentException if the intervals are not sorted and disjoint.
+     */
+    public static IntervalMatcher of(int[] bounds) {
+        if (bounds.length % 2 != 0) {
+            throw new IllegalArgumentException("bounds must be from/to pairs: "+bounds.length);
+        }
+        long[] intervals = new long[bounds.length];
+        for (int i=0; i<bounds.length; i++) {
+            intervals[i] = bounds[i] & 0xFFFFFFFFL;
+            if (i > 0 && intervals[i] < intervals[i-1] + (i%2==0 ? 1 : 0)) {
+                throw new IllegalArgumentException("intervals must be sorted and disjoint at "+i/2);
+            }
+        }
+        return new IntervalMatcher(intervals);
+    }
+
+    private IntervalMatcher(long[] bounds, CidrList list) {
+        int n = bounds.length/2;
+        this.from = new int[n];
+        this.to   = new int[n];
+        for (int i=0; i<n; i++) {
+            from[i] = (int) bounds[2*i]   ^ Integer.MIN_VALUE;
+            to[i]   = (int) bounds[2*i+1] ^ Integer.MIN_VALUE;
+        }
+        this.list = list;
+    }
+
+    private IntervalMatcher(int[] from, int[] to) {
+        this.from = from;
+        this.to   = to;
+        this.list = null;
+    }
+
+    /**
+     * Returns a matcher for the addresses matched by this one or in {@code bounds}.
+     * Only the intervals between the first and last interval of {@code bounds},
+     * or adjacent to them, are merged; the rest are copied as they are.
+     * @param bounds sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @return the new matcher, or this one if {@code bounds} is empty.
+     */
+    IntervalMatcher union(long[] bounds) {
+        if (bounds.length == 0) {
+            return this;
+        }
+        int start = first(bounds[0]-1);
+        int end = last(bounds[bounds.length-1]+1);
+        return splice(start, end, Intervals.union(span(start, end), bounds));
+    }
+
+    /**
+     * Returns a matcher for the addresses matched by this one but not in {@code bounds}.
+     * Only the intervals between the first and last interval of {@code bounds} are
+     * split; the rest are copied as they are.
+     * @param bounds sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @return the new matcher, or this one if {@code bounds} is empty.
+     */
+    IntervalMatcher subtract(long[] bounds) {
+        if (bounds.length == 0) {
+            return this;
+        }
+        int start = first(bounds[0]);
+        int end = last(bounds[bounds.length-1]);
+        return splice(start, end, Intervals.subtract(span(start, end), bounds));
+    }
+
+    /**
+     * Returns the index of the first interval ending at or after {@code address},
+     * or {@link #size()}.
+     * @param address an unsigned 32-bit address, or one past either end of the range.
+     */
+    private int first(long address) {
+        int lo = 0;
+        int hi = to.length-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if (((to[mid] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL) < address) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns the index after the last interval starting at or before {@code address}.
+     * @param address an unsigned 32-bit address, or one past either end of the range.
+     */
+    private int last(long address) {
+        int lo = 0;
+        int hi = from.length-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if (((from[mid] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL) <= address) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Returns intervals {@code start} to {@code end-1} as unsigned {@code from}/{@code to} pairs.
+     */
+    private long[] span(int start, int end) {
+        long[] bounds = new long[2*(end-start)];
+        for (int i=start; i<end; i++) {
+            bounds[2*(i-start)]   = (from[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+            bounds[2*(i-start)+1] = (to[i]   ^ Integer.MIN_VALUE) & 0xFFFFFFFFL;
+        }
+        return bounds;
+    }
+
+    /**
+     * Returns a matcher with intervals {@code start} to {@code end-1} replaced by {@code bounds}.
+     */
+    private IntervalMatcher splice(int start, int end, long[] bounds) {
+        int n = bounds.length/2;
+        int size = start + n + from.length-end;
+        int[] f = new int[size];
+        int[] t = new int[size];
+        System.arraycopy(from, 0, f, 0, start);
+        System.arraycopy(to, 0, t, 0, start);
+        for (int i=0; i<n; i++) {
+            f[start+i] = (int) bounds[2*i]   ^ Integer.MIN_VALUE;
+            t[start+i] = (int) bounds[2*i+1] ^ Integer.MIN_VALUE;
+        }
+        System.arraycopy(from, end, f, start+n, from.length-end);
+        System.arraycopy(to, end, t, start+n, to.length-end);
+        return new IntervalMatcher(f, t);
+    }
+
+    /**
+     * Returns the index of the last interval in {@code bounds} starting
+     * at or before {@code key}, or -1.
+     * @param bounds sorted interval starting points (sign bit flipped).
+     * @param key the address to find (sign bit flipped).
+     * @return the interval index or -1.
+     */
+    private static int floor(int[] bounds, int key) {
+        int lo = 0;
+        int hi = bounds.length-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if (bounds[mid] <= key) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return hi;
+    }
+
+    /**
+     * Returns the number of disjoint intervals in the set.
+     * @return the number of intervals.
+     */
+    public int size() {
+        return from.length;
+    }
+
+    /**
+     * Returns the number of entries in the CIDR list the matcher was compiled from.
+     * A matcher not compiled from a list has a single entry.
+     * @return the number of entries.
+     */
+    public int entries() {
+        return list==null ? 1 : list.size();
+    }
+
+    /**
+     * Returns entry {@code index} of the CIDR list the matcher was compiled from,
+     * as it appeared in the list.  A matcher not compiled from a list has a single
+     * entry describing the whole set.
+     * @param index the entry index.
+     * @return the entry text.
+     */
+    public String entry(int index) {
+        if (list != null) {
+            return list.entry(index);
+        } else if (index != 0) {
+            throw new IndexOutOfBoundsException(String.valueOf(index));
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<from.length; i++) {
+            sb.append(i==0 ? "" : ",").append(CidrPattern.entry((from[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL,
+                                                                  (to[i] ^ Integer.MIN_VALUE) & 0xFFFFFFFFL));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns the index of the first entry in the CIDR list that matches
+     * {@code address}.  When entries overlap, the earliest entry in the
+     * list wins.
+     * @param address an IPv4 address as an unsigned 32-bit int.
+     * @return the entry index, or -1 if the address does not match.
+     */
+    public int indexOf(int address) {
+        if (list == null) {
+            return matches(address) ? 0 : -1;
+        }
+        Owners o = owners;
+        if (o == null) {
+            // racy single-check: the table is immutable, so building it
+            // twice is harmless and the final fields publish it safely
+            o = new Owners(list.owners());
+            owners = o;
+        }
+        int key = address ^ Integer.MIN_VALUE;
+        int i = floor(o.from, key);
+        return i >= 0 && key <= o.to[i] ? o.entry[i] : -1;
+    }
+
+    @Override
+    public boolean matches(int address) {
+        int key = address ^ Integer.MIN_VALUE;
+        int i = floor(from, key);
+        return i >= 0 && key <= to[i];
+    }
+
+    /**
+     * Returns the index of the first interval at or after {@code lo} ending
+     * at or after {@code key}, or {@code to.length}.
+     * @param key the address to find (sign bit flipped).
+     * @param lo the first interval to consider.
+     * @return the interval index.
+     */
+    private int ceiling(int key, int lo) {
+        int hi = to.length-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if (to[mid] < key) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Matches {@code addresses[start]} to {@code addresses[end-1]} by sorting
+     * them (unless they are already in order) and merging them with the intervals.
+     * @param addresses the addresses.
+     * @param start the index of the first address.
+     * @param end the index after the last address.
+     * @param words the result bitmap, or {@code null} to only count.
+     * @return the number of matching addresses.
+     */
+    private long merge(int[] addresses, int start, int end, long[] words) {
+        // address (sign bit flipped) in the high half, offset in the low half
+        long[] keys = new long[end-start];
+        boolean sorted = true;
+        int previous = Integer.MIN_VALUE;
+        for (int i=0; i<keys.length; i++) {
+            int key = addresses[start+i] ^ Integer.MIN_VALUE;
+            keys[i] = (long) key << 32 | i;
+            sorted &= previous <= key;
+            previous = key;
+        }
+        if (!sorted) {
+            Arrays.sort(keys);
+        }
+        long count = 0;
+        int j = 0;
+        for (long k : keys) {
+            int key = (int) (k >> 32);
+            if (to[j] < key) {
+                j = ceiling(key, j+1);
+                if (j == to.length) {
+                    break;
+                }
+            }
+            if (from[j] <= key) {
+                count++;
+                if (words != null) {
+                    int index = start + (int) k;
+                    words[index >>> 6] |= 1L << index;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Matches a range of addresses, splitting it across the pool when it is large.
+     */
+    private final class Batch extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] addresses;
+        private final int start;
+        private final int end;
+        private final long[] words;
+
+        private Batch(int[] addresses, int start, int end, long[] words) {
+            this.addresses = addresses;
+            this.start     = start;
+            this.end       = end;
+            this.words     = words;
+        }
+
+        @Override
+        protected Long compute() {
+            if (end-start <= BATCH_SIZE) {
+                return merge(addresses, start, end, words);
+            }
+            int mid = (start + (end-start)/2) & ~63;
+            Batch left = new Batch(addresses, start, mid, words);
+            left.fork();
+            long right = new Batch(addresses, mid, end, words).compute();
+            return left.join() + right;
+        }
+    }
+
+    private long batch(int[] addresses, long[] words, ForkJoinPool pool) {
+        if (to.length == 0) {
+            return 0;
+        } else if (addresses.length <= BATCH_SIZE) {
+            return merge(addresses, 0, addresses.length, words);
+        }
+        return pool.invoke(new Batch(addresses, 0, addresses.length, words));
+    }
+
+    /**
+     * Matches an array of addresses in parallel using the common {@code ForkJoinPool}.
+     * See {@link #matchAll(int[], BitSet, ForkJoinPool)}.
+     * @param addresses IPv4 addresses as unsigned 32-bit ints.
+     * @param out the set of indexes of matching addresses.
+     * @return the number of matches and the throughput.
+     */
+    public BatchResult matchAll(int[] addresses, BitSet out) {
+        return matchAll(addresses, out, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Matches an array of addresses, setting bit {@code i} of {@code out} if
+     * {@code addresses[i]} matches.  Other bits of {@code out} are left unchanged.
+     * Arrays larger than {@code 65536} addresses are split into blocks matched in
+     * parallel in {@code pool}.  Addresses that are already sorted (as unsigned
+     * values) are matched without sorting them.
+     * @param addresses IPv4 addresses as unsigned 32-bit ints.
+     * @param out the set of indexes of matching addresses.
+     * @param pool the pool to match large arrays in.
+     * @return the number of matches and the throughput.
+     */
+    public BatchResult matchAll(int[] addresses, BitSet out, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        long[] words = new long[(addresses.length+63) >>> 6];
+        long matches = batch(addresses, words, pool);
+        out.or(BitSet.valueOf(words));
+        return new BatchResult(addresses.length, matches, System.nanoTime()-start);
+    }
+
+    /**
+     * Returns the number of matching addresses in an array, matching large arrays
+     * in parallel using the common {@code ForkJoinPool}.
+     * @param addresses IPv4 addresses as unsigned 32-bit ints.
+     * @return the number of matching addresses.
+     */
+    public long count(int[] addresses) {
+        return batch(addresses, null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a stream of the matching addresses in {@code addresses}.  The stream
+     * is parallel if {@code addresses} is.
+     * @param addresses IPv4 addresses as unsigned 32-bit ints.
+     * @return the matching addresses.
+     */
+    public IntStream filter(IntStream addresses) {
+        return addresses.filter(this::matches);
+    }
+}
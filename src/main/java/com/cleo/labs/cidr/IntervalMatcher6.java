@@ -0,0 +1,340 @@
+package com.cleo.labs.cidr;
+
+
+import java.net.InetAddress;
+import java.util.BitSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Stream;
+
+/**
+ * A {@link CidrMatcher6} that holds an IPv6 CIDR list as a sorted array of
+ * disjoint address intervals and tests addresses by binary search, like
+ * {@link IntervalMatcher} does for IPv4.  A lookup is one binary search
+ * over the interval starting points, comparing the low 64 bits of an
+ * address only when the high 64 bits are equal.
+ * <p>
+ * As with {@link IntervalMatcher}, whole arrays of addresses can be checked at
+ * once with {@link #matchAll(long[], BitSet)} and {@link #count(long[])}, and large
+ * arrays are split into blocks that are matched in parallel.
+ */
+public final class IntervalMatcher6 implements CidrMatcher6 {
+    /**
+     * Intervals tagged with the index of the entry that matches them.
+     */
+    private static final class Owners {
+        private final long[] fromHigh;
+        private final long[] fromLow;
+        private final long[] toHigh;
+        private final long[] toLow;
+        private final int[] entry;
+
+        private Owners(long[] quintuples) {
+            int n = quintuples.length/5;
+            fromHigh = new long[n];
+            fromLow  = new long[n];
+            toHigh   = new long[n];
+            toLow    = new long[n];
+            entry    = new int[n];
+            for (int i=0; i<n; i++) {
+                fromHigh[i] = quintuples[5*i]   ^ Long.MIN_VALUE;
+                fromLow[i]  = quintuples[5*i+1] ^ Long.MIN_VALUE;
+                toHigh[i]   = quintuples[5*i+2] ^ Long.MIN_VALUE;
+                toLow[i]    = quintuples[5*i+3] ^ Long.MIN_VALUE;
+                entry[i]    = (int) quintuples[5*i+4];
+            }
+        }
+    }
+
+    // addresses per fork-join task, a multiple of 64 so that
+    // tasks never share a word of the result bitmap
+    static final int BATCH_SIZE = IntervalMatcher.BATCH_SIZE;
+
+    // interval bounds with the sign bit flipped so that a signed
+    // comparison orders them as unsigned values
+    private final long[] fromHigh;
+    private final long[] fromLow;
+    private final long[] toHigh;
+    private final long[] toLow;
+    private final CidrList6 list;
+    private Owners owners = null;
+
+    private IntervalMatcher6(CidrList6 list) {
+        long[] bounds = list.merged();
+        int n = bounds.length/4;
+        this.fromHigh = new long[n];
+        this.fromLow  = new long[n];
+        this.toHigh   = new long[n];
+        this.toLow    = new long[n];
+        for (int i=0; i<n; i++) {
+            fromHigh[i] = bounds[4*i]   ^ Long.MIN_VALUE;
+            fromLow[i]  = bounds[4*i+1] ^ Long.MIN_VALUE;
+            toHigh[i]   = bounds[4*i+2] ^ Long.MIN_VALUE;
+            toLow[i]    = bounds[4*i+3] ^ Long.MIN_VALUE;
+        }
+        this.list = list;
+    }
+
+    /**
+     * Returns a matcher for IPv6 CIDR pattern list {@code cidrs}.
+     * @param cidrs a comma-separated list of IPv6 CIDR expressions like 2001:db8::/32,fc00::/7.
+     * @return the matcher.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of IPv6 CIDR patterns.
+     */
+    public static IntervalMatcher6 compile(String cidrs) throws PatternSyntaxException {
+        return compile(CidrList6.parse(cidrs));
+    }
+
+    /**
+     * Returns a matcher for the parsed IPv6 CIDR list {@code list}.
+     * @param list the parsed list.
+     * @return the matcher.
+     */
+    public static IntervalMatcher6 compile(CidrList6 list) {
+        return new IntervalMatcher6(list);
+    }
+
+    /**
+     * Returns the number of disjoint intervals in the set.
+     * @return the number of intervals.
+     */
+    public int size() {
+        return fromHigh.length;
+    }
+
+    /**
+     * Returns the number of entries in the CIDR list the matcher was compiled from.
+     * @return the number of entries.
+     */
+    public int entries() {
+        return list.size();
+    }
+
+    /**
+     * Returns entry {@code index} of the CIDR list the matcher was compiled from,
+     * as it appeared in the list.
+     * @param index the entry index.
+     * @return the entry text.
+     */
+    public String entry(int index) {
+        return list.entry(index);
+    }
+
+    /**
+     * Returns the index of the last interval starting at or before
+     * {@code h}:{@code l}, or -1.
+     * @param fromHigh the high 64 bits of the interval starting points (sign bit flipped).
+     * @param fromLow the low 64 bits of the interval starting points (sign bit flipped).
+     * @param h the high 64 bits of the address to find (sign bit flipped).
+     * @param l the low 64 bits of the address to find (sign bit flipped).
+     * @return the interval index or -1.
+     */
+    private static int floor(long[] fromHigh, long[] fromLow, long h, long l) {
+        int lo = 0;
+        int hi = fromHigh.length-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if (fromHigh[mid] < h || fromHigh[mid] == h && fromLow[mid] <= l) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return hi;
+    }
+
+    /**
+     * Returns the index of the first entry in the CIDR list that matches
+     * the address.  When entries overlap, the earliest entry in the list wins.
+     * @param high the high 64 bits of an IPv6 address.
+     * @param low the low 64 bits of the address.
+     * @return the entry index, or -1 if the address does not match.
+     */
+    public int indexOf(long high, long low) {
+        Owners o = owners;
+        if (o == null) {
+            // racy single-check: the table is immutable, so building it
+            // twice is harmless and the final fields publish it safely
+            o = new Owners(list.owners());
+            owners = o;
+        }
+        long h = high ^ Long.MIN_VALUE;
+        long l = low ^ Long.MIN_VALUE;
+        int i = floor(o.fromHigh, o.fromLow, h, l);
+        return i >= 0 && (h < o.toHigh[i] || h == o.toHigh[i] && l <= o.toLow[i]) ? o.entry[i] : -1;
+    }
+
+    @Override
+    public boolean matches(long high, long low) {
+        long h = high ^ Long.MIN_VALUE;
+        long l = low ^ Long.MIN_VALUE;
+        int i = floor(fromHigh, fromLow, h, l);
+        return i >= 0 && (h < toHigh[i] || h == toHigh[i] && l <= toLow[i]);
+    }
+
+    /**
+     * Returns the index of the first interval at or after {@code lo} ending
+     * at or after {@code h}:{@code l}, or {@code toHigh.length}.
+     * @param h the high 64 bits of the address to find (sign bit flipped).
+     * @param l the low 64 bits of the address to find (sign bit flipped).
+     * @param lo the first interval to consider.
+     * @return the interval index.
+     */
+    private int ceiling(long h, long l, int lo) {
+        int hi = toHigh.length-1;
+        while (lo <= hi) {
+            int mid = (lo+hi) >>> 1;
+            if (toHigh[mid] < h || toHigh[mid] == h && toLow[mid] < l) {
+                lo = mid+1;
+            } else {
+                hi = mid-1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Matches addresses {@code start} to {@code end-1} of {@code addresses}.
+     * Addresses already in order are merged with the intervals in a single
+     * pass.  Otherwise each is found by binary search: a 128-bit address does
+     * not pack into a {@code long} with its offset, so sorting a block would
+     * cost more than the searches it saves.
+     * @param addresses the addresses as high/low pairs.
+     * @param start the index of the first address.
+     * @param end the index after the last address.
+     * @param words the result bitmap, or {@code null} to only count.
+     * @return the number of matching addresses.
+     */
+    private long merge(long[] addresses, int start, int end, long[] words) {
+        boolean sorted = true;
+        for (int i=start+1; i<end && sorted; i++) {
+            sorted = Intervals6.compare(addresses[2*i-2], addresses[2*i-1], addresses[2*i], addresses[2*i+1]) <= 0;
+        }
+        long count = 0;
+        int j = 0;
+        for (int i=start; i<end; i++) {
+            long h = addresses[2*i] ^ Long.MIN_VALUE;
+            long l = addresses[2*i+1] ^ Long.MIN_VALUE;
+            boolean match;
+            if (sorted) {
+                if (toHigh[j] < h || toHigh[j] == h && toLow[j] < l) {
+                    j = ceiling(h, l, j+1);
+                    if (j == toHigh.length) {
+                        break;
+                    }
+                }
+                match = fromHigh[j] < h || fromHigh[j] == h && fromLow[j] <= l;
+            } else {
+                int k = floor(fromHigh, fromLow, h, l);
+                match = k >= 0 && (h < toHigh[k] || h == toHigh[k] && l <= toLow[k]);
+            }
+            if (match) {
+                count++;
+                if (words != null) {
+                    words[i >>> 6] |= 1L << i;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Matches a range of addresses, splitting it across the pool when it is large.
+     */
+    private final class Batch extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final long[] addresses;
+        private final int start;
+        private final int end;
+        private final long[] words;
+
+        private Batch(long[] addresses, int start, int end, long[] words) {
+            this.addresses = addresses;
+            this.start     = start;
+            this.end       = end;
+            this.words     = words;
+        }
+
+        @Override
+        protected Long compute() {
+            if (end-start <= BATCH_SIZE) {
+                return merge(addresses, start, end, words);
+            }
+            int mid = (start + (end-start)/2) & ~63;
+            Batch left = new Batch(addresses, start, mid, words);
+            left.fork();
+            long right = new Batch(addresses, mid, end, words).compute();
+            return left.join() + right;
+        }
+    }
+
+    private long batch(long[] addresses, long[] words, ForkJoinPool pool) {
+        if (addresses.length % 2 != 0) {
+            throw new IllegalArgumentException("addresses must be high/low pairs: "+addresses.length);
+        }
+        int n = addresses.length/2;
+        if (fromHigh.length == 0) {
+            return 0;
+        } else if (n <= BATCH_SIZE) {
+            return merge(addresses, 0, n, words);
+        }
+        return pool.invoke(new Batch(addresses, 0, n, words));
+    }
+
+    /**
+     * Matches an array of addresses in parallel using the common {@code ForkJoinPool}.
+     * See {@link #matchAll(long[], BitSet, ForkJoinPool)}.
+     * @param addresses IPv6 addresses as pairs of longs, the high 64 bits followed by the low 64 bits.
+     * @param out the set of indexes of matching addresses.
+     * @return the number of matches and the throughput.
+     */
+    public BatchResult matchAll(long[] addresses, BitSet out) {
+        return matchAll(addresses, out, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Matches an array of addresses, setting bit {@code i} of {@code out} if the
+     * address in {@code addresses[2*i]} and {@code addresses[2*i+1]} matches.  Other
+     * bits of {@code out} are left unchanged.  Arrays larger than {@code 65536}
+     * addresses are split into blocks matched in parallel in {@code pool}.
+     * Addresses that are already sorted (as unsigned values) are merged with the
+     * intervals in a single pass.
+     * @param addresses IPv6 addresses as pairs of longs, the high 64 bits followed by the low 64 bits.
+     * @param out the set of indexes of matching addresses.
+     * @param pool the pool to match large arrays in.
+     * @return the number of matches and the throughput.
+     * @throws IllegalArgumentException if {@code addresses} has an odd length.
+     */
+    public BatchResult matchAll(long[] addresses, BitSet out, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        long[] words = new long[(addresses.length/2+63) >>> 6];
+        long matches = batch(addresses, words, pool);
+        out.or(BitSet.valueOf(words));
+        return new BatchResult(addresses.length/2, matches, System.nanoTime()-start);
+    }
+
+    /**
+     * Returns the number of matching addresses in an array, matching large arrays
+     * in parallel using the common {@code ForkJoinPool}.
+     * @param addresses IPv6 addresses as pairs of longs, the high 64 bits followed by the low 64 bits.
+     * @return the number of matching addresses.
+     * @throws IllegalArgumentException if {@code addresses} has an odd length.
+     */
+    public long count(long[] addresses) {
+        return batch(addresses, null, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns a stream of the matching addresses in {@code addresses}.  The stream
+     * is parallel if {@code addresses} is.  Addresses that are not IPv6 addresses
+     * never match.
+     * @param addresses the addresses to filter.
+     * @param <T> the type of address.
+     * @return the matching addresses.
+     */
+    public <T extends InetAddress> Stream<T> filter(Stream<T> addresses) {
+        return addresses.filter(this::matches);
+    }
+}
@@ -0,0 +1,262 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.Arrays;
+
+/**
+ * A growable list of unsigned 32-bit address intervals.  Each interval
+ * is stored as a {@code from}/{@code to} pair of {@code long}s, both
+ * inclusive, so that address arithmetic never has to worry about the
+ * sign bit.
+ */
+final class Intervals {
+    /**
+     * Receives the CIDR blocks that make up an interval.
+     */
+    interface PrefixConsumer {
+        /**
+         * Accepts the block {@code address}/{@code bits}.
+         * @param address the first address in the block.
+         * @param bits the prefix length (0-32).
+         */
+        void prefix(int address, int bits);
+    }
+
+    private long[] bounds = new long[16];
+    private int size = 0;
+
+    /**
+     * Appends the interval {@code from}-{@code to} to the list.
+     * @param from the first address in the interval (0 to 2^32-1).
+     * @param to the last address in the interval (0 to 2^32-1).
+     */
+    void add(long from, long to) {
+        if (2*size+2 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, 2*bounds.length);
+        }
+        bounds[2*size]   = from;
+        bounds[2*size+1] = to;
+        size++;
+    }
+
+    /**
+     * Returns the number of intervals in the list.
+     * @return the number of intervals.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the intervals as an array of {@code from}/{@code to} pairs.
+     * @return a new array of 2*{@link #size()} bounds.
+     */
+    long[] toArray() {
+        return Arrays.copyOf(bounds, 2*size);
+    }
+
+    /**
+     * Sorts and coalesces intervals, merging intervals that overlap
+     * or are adjacent to each other.
+     * @param bounds an array of {@code from}/{@code to} pairs.
+     * @param start the index of the first pair to merge.
+     * @param end the index (exclusive) of the last pair to merge.
+     * @return a new array of sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     */
+    static long[] merge(long[] bounds, int start, int end) {
+        // pack each pair into a single long with from in the high half so a single
+        // sort orders the pairs; flipping the sign bit makes the signed sort unsigned
+        long[] packed = new long[end-start];
+        for (int i=start; i<end; i++) {
+            packed[i-start] = (bounds[2*i] << 32 | bounds[2*i+1]) ^ Long.MIN_VALUE;
+        }
+        if (packed.length < RADIX_THRESHOLD) {
+            Arrays.sort(packed);
+        } else {
+            packed = radixSort(packed);
+        }
+        long[] result = new long[2*packed.length];
+        int n = 0;
+        for (long p : packed) {
+            p ^= Long.MIN_VALUE;
+            long from = p >>> 32;
+            long to   = p & 0xFFFFFFFFL;
+            if (n > 0 && from <= result[2*n-1]+1) {
+                result[2*n-1] = Math.max(result[2*n-1], to);
+            } else {
+                result[2*n]   = from;
+                result[2*n+1] = to;
+                n++;
+            }
+        }
+        return Arrays.copyOf(result, 2*n);
+    }
+
+    // below this many intervals a comparison sort beats the radix sort's fixed cost
+    static final int RADIX_THRESHOLD = 1024;
+
+    /**
+     * Sorts packed intervals by their {@code from} half, the high 32 bits, with
+     * a least significant digit radix sort: four stable passes of one byte each,
+     * on the unflipped values so that the bytes order them as unsigned addresses.
+     * Intervals with the same {@code from} are left in their original order,
+     * which {@link #merge(long[], int, int)} does not depend on.  For the tens of
+     * thousands of intervals of a large list this is several times faster than
+     * {@code Arrays.sort}.
+     * @param packed intervals packed as by {@link #merge(long[], int, int)}.
+     * @return the sorted intervals, in {@code packed} or in a new array.
+     */
+    private static long[] radixSort(long[] packed) {
+        long[] from = packed;
+        long[] to = new long[packed.length];
+        int[] counts = new int[256];
+        for (int shift=32; shift<64; shift+=8) {
+            Arrays.fill(counts, 0);
+            for (long p : from) {
+                counts[(int) ((p ^ Long.MIN_VALUE) >>> shift) & 0xFF]++;
+            }
+            for (int i=0, sum=0; i<256; i++) {
+                int count = counts[i];
+                counts[i] = sum;
+                sum += count;
+            }
+            for (long p : from) {
+                to[counts[(int) ((p ^ Long.MIN_VALUE) >>> shift) & 0xFF]++] = p;
+            }
+            long[] swap = from;
+            from = to;
+            to = swap;
+        }
+        return from;
+    }
+
+    /**
+     * Sorts and coalesces all intervals in {@code bounds}.
+     * @param bounds an array of {@code from}/{@code to} pairs.
+     * @return a new array of sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     */
+    static long[] merge(long[] bounds) {
+        return merge(bounds, 0, bounds.length/2);
+    }
+
+    /**
+     * Returns the union of two sets of intervals.
+     * @param a sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @param b sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @return a new array of sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     */
+    static long[] union(long[] a, long[] b) {
+        long[] result = new long[a.length+b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            long from;
+            long to;
+            if (j == b.length || i < a.length && a[i] <= b[j]) {
+                from = a[i];
+                to   = a[i+1];
+                i += 2;
+            } else {
+                from = b[j];
+                to   = b[j+1];
+                j += 2;
+            }
+            if (n > 0 && from <= result[n-1]+1) {
+                result[n-1] = Math.max(result[n-1], to);
+            } else {
+                result[n++] = from;
+                result[n++] = to;
+            }
+        }
+        return n==result.length ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns the addresses in {@code a} that are not in {@code b}.
+     * @param a sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @param b sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @return a new array of sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     */
+    static long[] subtract(long[] a, long[] b) {
+        // each interval of b splits at most one interval of a in two
+        long[] result = new long[a.length+b.length];
+        int n = 0;
+        int j = 0;
+        for (int i=0; i<a.length; i+=2) {
+            long from = a[i];
+            long to   = a[i+1];
+            while (j < b.length && b[j+1] < from) {
+                j += 2;
+            }
+            for (int k=j; k<b.length && b[k]<=to && from<=to; k+=2) {
+                if (b[k] > from) {
+                    result[n++] = from;
+                    result[n++] = b[k]-1;
+                }
+                from = b[k+1]+1;
+            }
+            if (from <= to) {
+                result[n++] = from;
+                result[n++] = to;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns the addresses in both {@code a} and {@code b}.
+     * @param a sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @param b sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @return a new array of sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     */
+    static long[] intersect(long[] a, long[] b) {
+        long[] result = new long[a.length+b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            long from = Math.max(a[i], b[j]);
+            long to   = Math.min(a[i+1], b[j+1]);
+            if (from <= to) {
+                result[n++] = from;
+                result[n++] = to;
+            }
+            // the interval ending first can not overlap anything further on
+            if (a[i+1] < b[j+1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Returns the addresses not in {@code a}.
+     * @param a sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     * @return a new array of sorted, disjoint, non-adjacent {@code from}/{@code to} pairs.
+     */
+    static long[] complement(long[] a) {
+        return subtract(new long[] {0, 0xFFFFFFFFL}, a);
+    }
+
+    /**
+     * Decomposes the interval {@code from}-{@code to} into the smallest
+     * list of CIDR blocks that cover it exactly, in address order.
+     * @param from the first address in the interval (0 to 2^32-1).
+     * @param to the last address in the interval (0 to 2^32-1).
+     * @param consumer the consumer of the blocks.
+     */
+    static void prefixes(long from, long to, PrefixConsumer consumer) {
+        while (from <= to) {
+            // the block can be no larger than the alignment of from
+            // and no larger than what remains of the interval
+            int aligned = from==0 ? 32 : Long.numberOfTrailingZeros(from);
+            int fits = 63-Long.numberOfLeadingZeros(to-from+1);
+            int host = Math.min(aligned, fits);
+            consumer.prefix((int) from, 32-host);
+            from += 1L << host;
+        }
+    }
+}
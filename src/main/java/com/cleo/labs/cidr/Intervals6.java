@@ -0,0 +1,175 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.Arrays;
+
+/**
+ * A growable list of IPv6 address intervals, the 128-bit counterpart of
+ * {@link Intervals}.  Each address is held as two {@code long}s, the high
+ * and low 64 bits, compared as unsigned values, and each interval is stored
+ * as four of them: {@code fromHigh}, {@code fromLow}, {@code toHigh} and
+ * {@code toLow}, both ends inclusive.
+ */
+final class Intervals6 {
+    /**
+     * Receives the CIDR blocks that make up an interval.
+     */
+    interface PrefixConsumer {
+        /**
+         * Accepts the block {@code high}:{@code low}/{@code bits}.
+         * @param high the high 64 bits of the first address in the block.
+         * @param low the low 64 bits of the first address in the block.
+         * @param bits the prefix length (0-128).
+         */
+        void prefix(long high, long low, int bits);
+    }
+
+    private long[] bounds = new long[32];
+    private int size = 0;
+
+    /**
+     * Appends an interval to the list.
+     * @param fromHigh the high 64 bits of the first address in the interval.
+     * @param fromLow the low 64 bits of the first address in the interval.
+     * @param toHigh the high 64 bits of the last address in the interval.
+     * @param toLow the low 64 bits of the last address in the interval.
+     */
+    void add(long fromHigh, long fromLow, long toHigh, long toLow) {
+        if (4*size+4 > bounds.length) {
+            bounds = Arrays.copyOf(bounds, 2*bounds.length);
+        }
+        bounds[4*size]   = fromHigh;
+        bounds[4*size+1] = fromLow;
+        bounds[4*size+2] = toHigh;
+        bounds[4*size+3] = toLow;
+        size++;
+    }
+
+    /**
+     * Returns the number of intervals in the list.
+     * @return the number of intervals.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the intervals as an array of {@code from}/{@code to} quadruples.
+     * @return a new array of 4*{@link #size()} longs.
+     */
+    long[] toArray() {
+        return Arrays.copyOf(bounds, 4*size);
+    }
+
+    /**
+     * Compares two addresses as unsigned 128-bit values.
+     * @param aHigh the high 64 bits of the first address.
+     * @param aLow the low 64 bits of the first address.
+     * @param bHigh the high 64 bits of the second address.
+     * @param bLow the low 64 bits of the second address.
+     * @return a negative number, zero, or a positive number as the first address
+     *         is less than, equal to, or greater than the second.
+     */
+    static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        int c = Long.compareUnsigned(aHigh, bHigh);
+        return c != 0 ? c : Long.compareUnsigned(aLow, bLow);
+    }
+
+    /**
+     * Returns {@code true} if an interval starting at {@code from} overlaps or
+     * immediately follows an interval ending at {@code to}, with {@code from}
+     * not before the start of that interval.
+     */
+    private static boolean joins(long toHigh, long toLow, long fromHigh, long fromLow) {
+        if (compare(fromHigh, fromLow, toHigh, toLow) <= 0) {
+            return true;
+        }
+        return toLow == -1L ? fromHigh == toHigh+1 && fromLow == 0 : fromHigh == toHigh && fromLow == toLow+1;
+    }
+
+    /**
+     * Sorts and coalesces intervals, merging intervals that overlap
+     * or are adjacent to each other.
+     * @param bounds an array of {@code from}/{@code to} quadruples.
+     * @param start the index of the first interval to merge.
+     * @param end the index (exclusive) of the last interval to merge.
+     * @return a new array of sorted, disjoint, non-adjacent {@code from}/{@code to} quadruples.
+     */
+    static long[] merge(long[] bounds, int start, int end) {
+        // 128-bit keys do not pack into a long, so sort the interval indexes
+        Integer[] order = new Integer[end-start];
+        for (int i=0; i<order.length; i++) {
+            order[i] = 4*(start+i);
+        }
+        Arrays.sort(order, (a, b) -> compare(bounds[a], bounds[a+1], bounds[b], bounds[b+1]));
+        long[] result = new long[4*order.length];
+        int n = 0;
+        for (int i : order) {
+            if (n > 0 && joins(result[n-2], result[n-1], bounds[i], bounds[i+1])) {
+                if (compare(bounds[i+2], bounds[i+3], result[n-2], result[n-1]) > 0) {
+                    result[n-2] = bounds[i+2];
+                    result[n-1] = bounds[i+3];
+                }
+            } else {
+                System.arraycopy(bounds, i, result, n, 4);
+                n += 4;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /**
+     * Sorts and coalesces all intervals in {@code bounds}.
+     * @param bounds an array of {@code from}/{@code to} quadruples.
+     * @return a new array of sorted, disjoint, non-adjacent {@code from}/{@code to} quadruples.
+     */
+    static long[] merge(long[] bounds) {
+        return merge(bounds, 0, bounds.length/4);
+    }
+
+    /**
+     * Decomposes an interval into the smallest list of CIDR blocks that
+     * cover it exactly, in address order.
+     * @param fromHigh the high 64 bits of the first address in the interval.
+     * @param fromLow the low 64 bits of the first address in the interval.
+     * @param toHigh the high 64 bits of the last address in the interval.
+     * @param toLow the low 64 bits of the last address in the interval.
+     * @param consumer the consumer of the blocks.
+     */
+    static void prefixes(long fromHigh, long fromLow, long toHigh, long toLow, PrefixConsumer consumer) {
+        while (compare(fromHigh, fromLow, toHigh, toLow) <= 0) {
+            // the block can be no larger than the alignment of from
+            // and no larger than what remains of the interval
+            int aligned = fromLow != 0 ? Long.numberOfTrailingZeros(fromLow)
+                                       : 64 + Long.numberOfTrailingZeros(fromHigh);
+            long sizeLow = toLow - fromLow;
+            long sizeHigh = toHigh - fromHigh - (Long.compareUnsigned(toLow, fromLow) < 0 ? 1 : 0);
+            int fits;
+            if (sizeLow == -1L && sizeHigh == -1L) {
+                fits = 128;
+            } else {
+                sizeLow++;
+                if (sizeLow == 0) {
+                    sizeHigh++;
+                }
+                fits = sizeHigh != 0 ? 127-Long.numberOfLeadingZeros(sizeHigh)
+                                     : 63-Long.numberOfLeadingZeros(sizeLow);
+            }
+            int host = Math.min(aligned, fits);
+            consumer.prefix(fromHigh, fromLow, 128-host);
+            if (host >= 64) {
+                fromHigh += host==128 ? 0 : 1L << (host-64);
+            } else {
+                long next = fromLow + (1L << host);
+                if (next == 0) {
+                    fromHigh++;
+                }
+                fromLow = next;
+            }
+            if (host == 128 || fromHigh == 0 && fromLow == 0) {
+                // the block ended at the last address
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * A trie of octet ranges describing a set of addresses, built by splitting
+ * each address interval into octets the same way {@link CidrPattern} does
+ * when it generates a regex. Each node holds the octet ranges allowed at
+ * one position, in increasing order, and each range leads either to the node
+ * for the next octet or, if every remaining octet may be anything, nowhere.
+ * <p>
+ * A trie built from a {@link CidrList} adds each wildcard entry as a chain
+ * of its octet ranges, without expanding it into intervals, so nodes below
+ * a wildcard may be shared between branches.  Nodes are never changed once
+ * the trie is built.
+ */
+final class OctetTrie {
+    /**
+     * The octets allowed at one position of the address.
+     */
+    static final class Node {
+        final List<Branch> branches = new ArrayList<>();
+    }
+
+    /**
+     * An octet range and what may follow it.
+     */
+    static final class Branch {
+        final int min;
+        final int max;
+        final Node next;
+
+        Branch(int min, int max, Node next) {
+            this.min  = min;
+            this.max  = max;
+            this.next = next;
+        }
+    }
+
+    private Node root = new Node();
+
+    /**
+     * Builds a trie from sorted, disjoint intervals.
+     * @param bounds sorted, disjoint {@code from}/{@code to} pairs.
+     */
+    OctetTrie(long[] bounds) {
+        insert(bounds);
+    }
+
+    /**
+     * Builds a trie for the addresses matched by a CIDR list.  Unlike
+     * {@code new OctetTrie(list.merged())} this never expands a wildcard entry,
+     * so it accepts entries like {@code *.*.*.5}.
+     * @param list the parsed CIDR list.
+     */
+    OctetTrie(CidrList list) {
+        long[] bounds = list.contiguous();
+        insert(bounds);
+        for (int i : list.wildcards(bounds)) {
+            root = union(root, chain(list.low(i), list.high(i), 0), 0);
+        }
+    }
+
+    private void insert(long[] bounds) {
+        for (int i=0; i<bounds.length; i+=2) {
+            insert(root, CidrPattern.octets(bounds[i], new int[4]), CidrPattern.octets(bounds[i+1], new int[4]), 0);
+        }
+    }
+
+    /**
+     * Returns the node for the first octet.
+     * @return the root node.
+     */
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Returns the node following the single octet {@code octet}, creating it if
+     * needed. Intervals are inserted in order, so only the last branch can match.
+     * @param node the node holding the branch.
+     * @param octet the octet value.
+     * @return the next node.
+     */
+    private static Node child(Node node, int octet) {
+        List<Branch> branches = node.branches;
+        if (!branches.isEmpty()) {
+            Branch last = branches.get(branches.size()-1);
+            if (last.min==octet && last.max==octet && last.next!=null) {
+                return last.next;
+            }
+        }
+        Node next = new Node();
+        branches.add(new Branch(octet, octet, next));
+        return next;
+    }
+
+    /**
+     * Returns the node for octet {@code index} of a wildcard entry: a chain
+     * with one branch per octet, up to the last octet not matching 0-255.
+     * @param low the low end of each octet range.
+     * @param high the high end of each octet range.
+     * @param index the octet the node describes.
+     * @return the node.
+     */
+    private static Node chain(long low, long high, int index) {
+        int shift = 8*(3-index);
+        boolean any = index==3 || (low & (1L << shift)-1)==0 && (~high & (1L << shift)-1 & 0xFFFFFFFFL)==0;
+        Node node = new Node();
+        node.branches.add(new Branch((int) (low >>> shift) & 0xFF, (int) (high >>> shift) & 0xFF,
+                                     any ? null : chain(low, high, index+1)));
+        return node;
+    }
+
+    /**
+     * Returns a node allowing the octets of either {@code a} or {@code b} and
+     * everything that may follow them.  The octets are split where the ranges of
+     * {@code a} and {@code b} begin and end, so the branches stay disjoint, and
+     * neither node is changed.
+     * @param a a node for octet {@code index}.
+     * @param b a node for octet {@code index}.
+     * @param index the octet the nodes describe.
+     * @return the new node.
+     */
+    private static Node union(Node a, Node b, int index) {
+        TreeSet<Integer> cuts = new TreeSet<>();
+        for (Branch branch : a.branches) {
+            cuts.add(branch.min);
+            cuts.add(branch.max+1);
+        }
+        for (Branch branch : b.branches) {
+            cuts.add(branch.min);
+            cuts.add(branch.max+1);
+        }
+        Node node = new Node();
+        int i = 0;
+        int j = 0;
+        Integer min = cuts.pollFirst();
+        for (Integer end : cuts) {
+            while (i < a.branches.size() && a.branches.get(i).max < min) {
+                i++;
+            }
+            while (j < b.branches.size() && b.branches.get(j).max < min) {
+                j++;
+            }
+            Branch x = i < a.branches.size() && a.branches.get(i).min <= min ? a.branches.get(i) : null;
+            Branch y = j < b.branches.size() && b.branches.get(j).min <= min ? b.branches.get(j) : null;
+            if (x != null || y != null) {
+                Node next;
+                if (y == null) {
+                    next = x.next;
+                } else if (x == null) {
+                    next = y.next;
+                } else if (x.next == null || y.next == null) {
+                    next = null;
+                } else {
+                    next = union(x.next, y.next, index+1);
+                }
+                List<Branch> branches = node.branches;
+                Branch last = branches.isEmpty() ? null : branches.get(branches.size()-1);
+                if (last != null && last.max+1 == min && last.next == next) {
+                    branches.set(branches.size()-1, new Branch(last.min, end-1, next));
+                } else {
+                    branches.add(new Branch(min, end-1, next));
+                }
+            }
+            min = end;
+        }
+        return node;
+    }
+
+    private static void insert(Node node, int[] from, int[] to, int index) {
+        if (index==from.length-1) {
+            node.branches.add(new Branch(from[index], to[index], null));
+        } else if (from[index]==to[index]) {
+            insert(child(node, from[index]), from, to, index+1);
+        } else {
+            boolean fromEdge = CidrPattern.same(from, CidrPattern.ZEROS, index+1);
+            boolean toEdge = CidrPattern.same(to, CidrPattern.STARS, index+1);
+            int min = fromEdge ? from[index] : from[index]+1;
+            int max = toEdge ? to[index] : to[index]-1;
+            if (!fromEdge) {
+                insert(child(node, from[index]), from, CidrPattern.STARS, index+1);
+            }
+            if (min <= max) {
+                node.branches.add(new Branch(min, max, null));
+            }
+            if (!toEdge) {
+                insert(child(node, to[index]), CidrPattern.ZEROS, to, index+1);
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.cleo.labs.cidr;
+
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A bounded, thread-safe cache of compiled CIDR patterns, used by the static
+ * {@link CidrPattern#compile(String)} and {@link CidrPattern#matches(String, CharSequence)}
+ * convenience methods so that the same list is not regenerated and recompiled
+ * on every call.  See {@link CidrPattern#cache()}.
+ * <p>
+ * Lookups never block: a hit is a single concurrent map read.  Patterns are
+ * cached under the list as given, and also under its normalized form (see
+ * {@link CidrPattern#normalize(String)}) so that different spellings of the
+ * same list share one compiled {@code Pattern}.  When the cache is full, entries
+ * are evicted in approximately least-recently-used order using the "clock"
+ * (second chance) algorithm: an entry used since the eviction hand last passed
+ * it is spared once.
+ */
+public final class PatternCache {
+    /**
+     * The default maximum number of cached entries.
+     */
+    public static final int DEFAULT_SIZE = 1024;
+
+    private static final class Key {
+        private final String cidrs;
+        private final int flags;
+
+        private Key(String cidrs, int flags) {
+            this.cidrs = cidrs;
+            this.flags = flags;
+        }
+
+        @Override
+        public int hashCode() {
+            return cidrs.hashCode()*31 + flags;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).flags == flags && ((Key) o).cidrs.equals(cidrs);
+        }
+    }
+
+    private static final class Node {
+        private final Pattern pattern;
+        private volatile boolean used = false;
+
+        private Node(Pattern pattern) {
+            this.pattern = pattern;
+        }
+    }
+
+    /**
+     * A point-in-time snapshot of cache statistics.
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        private Stats(long hits, long misses, long evictions) {
+            this.hits      = hits;
+            this.misses    = misses;
+            this.evictions = evictions;
+        }
+
+        /**
+         * Returns the number of lookups that found a cached pattern.
+         * @return the hit count.
+         */
+        public long hits() {
+            return hits;
+        }
+
+        /**
+         * Returns the number of lookups that had to compile a pattern.
+         * @return the miss count.
+         */
+        public long misses() {
+            return misses;
+        }
+
+        /**
+         * Returns the number of entries evicted to make room for new ones.
+         * @return the eviction count.
+         */
+        public long evictions() {
+            return evictions;
+        }
+
+        /**
+         * Returns the fraction of lookups that were hits.
+         * @return the hit rate, or 0 if there have been no lookups.
+         */
+        public double hitRate() {
+            long total = hits+misses;
+            return total==0 ? 0.0 : (double) hits / total;
+        }
+
+        @Override
+        public String toString() {
+            return "hits="+hits+" misses="+misses+" evictions="+evictions;
+        }
+    }
+
+    private final ConcurrentHashMap<Key, Node> map = new ConcurrentHashMap<>();
+    private final Queue<Key> clock = new ConcurrentLinkedQueue<>();
+    private final ReentrantLock evicting = new ReentrantLock();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private volatile int maximumSize;
+    private volatile boolean recordStats = false;
+
+    /**
+     * Creates a cache holding up to {@code maximumSize} entries.
+     * @param maximumSize the maximum number of entries, or 0 to disable caching.
+     */
+    public PatternCache(int maximumSize) {
+        setMaximumSize(maximumSize);
+    }
+
+    /**
+     * Returns the maximum number of entries.
+     * @return the maximum size, or 0 if caching is disabled.
+     */
+    public int maximumSize() {
+        return maximumSize;
+    }
+
+    /**
+     * Changes the maximum number of entries, evicting entries if needed.
+     * @param maximumSize the maximum number of entries, or 0 to disable caching.
+     */
+    public void setMaximumSize(int maximumSize) {
+        if (maximumSize < 0) {
+            throw new IllegalArgumentException("maximumSize must be >= 0: "+maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        evict();
+    }
+
+    /**
+     * Turns the collection of hit, miss and eviction counts on or off.
+     * Statistics are off by default.
+     * @param recordStats {@code true} to collect statistics.
+     */
+    public void setRecordStats(boolean recordStats) {
+        this.recordStats = recordStats;
+    }
+
+    /**
+     * Returns the statistics collected so far.
+     * @return a snapshot of the statistics.
+     */
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    /**
+     * Returns the number of cached entries.
+     * @return the number of entries.
+     */
+    public int size() {
+        return map.size();
+    }
+
+    /**
+     * Removes all entries and resets the statistics.
+     */
+    public void clear() {
+        evicting.lock();
+        try {
+            map.clear();
+            clock.clear();
+            hits.reset();
+            misses.reset();
+            evictions.reset();
+        } finally {
+            evicting.unlock();
+        }
+    }
+
+    /**
+     * Returns the compiled pattern for CIDR pattern list {@code cidrs}, compiling
+     * and caching it if needed.
+     * @param cidrs a comma-separated list of CIDR expressions like 192.168/16,10/8.
+     * @param flags match flags as in {@code Pattern.compile}.
+     * @return the compiled pattern.
+     * @throws PatternSyntaxException if {@code cidrs} is not a list of CIDR patterns.
+     */
+    public Pattern get(String cidrs, int flags) throws PatternSyntaxException {
+        if (maximumSize == 0) {
+            return CidrPattern.generate(CidrList.parse(cidrs), flags);
+        }
+        Key key = new Key(cidrs, flags);
+        Node node = map.get(key);
+        if (node != null) {
+            if (!node.used) {
+                node.used = true;
+            }
+            if (recordStats) {
+                hits.increment();
+            }
+            return node.pattern;
+        }
+        if (recordStats) {
+            misses.increment();
+        }
+        // parsed once: the normalized key and the regex share the list and its merged intervals
+        CidrList list = CidrList.parse(cidrs);
+        Key normalized = new Key(CidrPattern.normalize(list), flags);
+        node = map.get(normalized);
+        if (node == null) {
+            node = add(normalized, new Node(CidrPattern.generate(list, flags)));
+        }
+        if (!normalized.equals(key)) {
+            node = add(key, new Node(node.pattern));
+        }
+        evict();
+        return node.pattern;
+    }
+
+    /**
+     * Adds {@code node} unless another thread got there first.
+     * @return the cached node.
+     */
+    private Node add(Key key, Node node) {
+        Node existing = map.putIfAbsent(key, node);
+        if (existing != null) {
+            return existing;
+        }
+        clock.add(key);
+        return node;
+    }
+
+    /**
+     * Sweeps the clock hand over the entries until the cache is within bounds.
+     */
+    private void evict() {
+        // if another thread holds the lock, it is already evicting and will
+        // recheck the size once it releases the lock
+        while (map.size() > maximumSize && evicting.tryLock()) {
+            try {
+                while (map.size() > maximumSize) {
+                    Key key = clock.poll();
+                    if (key == null) {
+                        break;
+                    }
+                    Node node = map.get(key);
+                    if (node != null && node.used) {
+                        node.used = false;
+                        clock.add(key);
+                    } else if (node != null) {
+                        map.remove(key);
+                        if (recordStats) {
+                            evictions.increment();
+                        }
+                    }
+                }
+            } finally {
+                evicting.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.cleo.labs.cidr;
+
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.regex.Pattern;
+
+/**
+ * What it took to turn a CIDR list into a regex, see {@link CidrPattern#diagnose(CidrList)}:
+ * the size and shape of the generated regex, and how long generating it and
+ * compiling it with {@code Pattern.compile} took.  Lists of many thousands of
+ * entries produce regexes of hundreds of kilobytes, which are slow to compile
+ * and deeply nested alternations can overflow the stack while matching, so these
+ * are the numbers to watch.
+ * <p>
+ * When a size budget was given and the regex would exceed it, generation stops
+ * early, no {@code Pattern} is compiled, and the list is matched by an
+ * {@link IntervalMatcher} instead: see {@link #fallback()}.
+ * <p>
+ * Each diagnosis is also recorded as a {@code com.cleo.labs.cidr.PatternCompile}
+ * event when running with Java Flight Recorder on a JDK that has it.
+ */
+public final class PatternDiagnostics {
+    // PatternEvent.emit, or null without Flight Recorder
+    private static final MethodHandle EMIT = emitter();
+
+    private final int entries;
+    private final int length;
+    private final int groups;
+    private final int depth;
+    private final int alternatives;
+    private final long generateNanos;
+    private final long compileNanos;
+    private final Pattern pattern;
+    private final IntervalMatcher matcher;
+
+    private PatternDiagnostics(int entries, CharSequence regex, long generateNanos, long compileNanos,
+                               Pattern pattern, IntervalMatcher matcher) {
+        int groups = 0;
+        int depth = 0;
+        int nesting = 0;
+        int alternatives = 0;
+        boolean inClass = false;
+        for (int i=0; i<regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                i++;
+            } else if (inClass) {
+                inClass = c != ']';
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                groups++;
+                depth = Math.max(depth, ++nesting);
+            } else if (c == ')') {
+                nesting--;
+            } else if (c == '|') {
+                alternatives++;
+            }
+        }
+        this.entries       = entries;
+        this.length        = regex.length();
+        this.groups        = groups;
+        this.depth         = depth;
+        this.alternatives  = alternatives;
+        this.generateNanos = generateNanos;
+        this.compileNanos  = compileNanos;
+        this.pattern       = pattern;
+        this.matcher       = matcher;
+    }
+
+    /**
+     * Returns the diagnostics of a compiled regex and records them.
+     */
+    static PatternDiagnostics compiled(int entries, String regex, long generateNanos, long compileNanos, Pattern pattern) {
+        return emit(new PatternDiagnostics(entries, regex, generateNanos, compileNanos, pattern, null));
+    }
+
+    /**
+     * Returns the diagnostics of a regex abandoned for exceeding its budget and records them.
+     */
+    static PatternDiagnostics abandoned(int entries, CharSequence partial, long generateNanos, IntervalMatcher matcher) {
+        return emit(new PatternDiagnostics(entries, partial, generateNanos, 0, null, matcher));
+    }
+
+    private static PatternDiagnostics emit(PatternDiagnostics diagnostics) {
+        if (EMIT != null) {
+            try {
+                EMIT.invokeExact(diagnostics);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return diagnostics;
+    }
+
+    /**
+     * Returns a handle on {@code PatternEvent.emit}, or {@code null} if the Flight
+     * Recorder event API is missing.  The event class is only referenced by name, so
+     * this class compiles and loads without {@code jdk.jfr}, and builds on JDKs before
+     * 11 can leave {@code PatternEvent} out (see the {@code no-jfr} profile in the pom).
+     */
+    private static MethodHandle emitter() {
+        try {
+            ClassLoader loader = PatternDiagnostics.class.getClassLoader();
+            Class.forName("jdk.jfr.Event", false, loader);
+            Class<?> event = Class.forName("com.cleo.labs.cidr.PatternEvent", true, loader);
+            return MethodHandles.lookup().findStatic(event, "emit", MethodType.methodType(void.class, PatternDiagnostics.class));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of entries in the list.
+     * @return the number of entries.
+     */
+    public int entries() {
+        return entries;
+    }
+
+    /**
+     * Returns the length of the generated regex.  If generation was abandoned
+     * for exceeding the budget, this is the length reached when it stopped.
+     * @return the length in characters.
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * Returns the number of groups in the regex, capturing or not.
+     * @return the number of groups.
+     */
+    public int groups() {
+        return groups;
+    }
+
+    /**
+     * Returns the deepest nesting of groups in the regex.
+     * @return the nesting depth, 0 if there are no groups.
+     */
+    public int depth() {
+        return depth;
+    }
+
+    /**
+     * Returns the number of {@code |} alternation operators in the regex.
+     * @return the number of alternation operators.
+     */
+    public int alternatives() {
+        return alternatives;
+    }
+
+    /**
+     * Returns the time spent generating the regex string.
+     * @return the elapsed time in nanoseconds.
+     */
+    public long generateNanos() {
+        return generateNanos;
+    }
+
+    /**
+     * Returns the time spent in {@code Pattern.compile}.
+     * @return the elapsed time in nanoseconds, 0 if the regex was not compiled.
+     */
+    public long compileNanos() {
+        return compileNanos;
+    }
+
+    /**
+     * Returns {@code true} if the regex exceeded its budget and the list is
+     * matched by {@link #matcher()} instead.
+     * @return {@code true} if there is no pattern.
+     */
+    public boolean fallback() {
+        return pattern == null;
+    }
+
+    /**
+     * Returns the compiled pattern.
+     * @return the pattern, or {@code null} if the regex exceeded its budget.
+     */
+    public Pattern pattern() {
+        return pattern;
+    }
+
+    /**
+     * Returns the matcher used in place of a regex that exceeded its budget.
+     * @return the matcher, or {@code null} if the regex was compiled.
+     */
+    public IntervalMatcher matcher() {
+        return matcher;
+    }
+
+    /**
+     * Returns {@code true} if {@code input} is an address in the list, using
+     * the compiled pattern or, if the regex exceeded its budget, the matcher.
+     * @param input the input to match.
+     * @return {@code true} if the input matches.
+     */
+    public boolean matches(CharSequence input) {
+        return pattern != null ? pattern.matcher(input).matches() : matcher.matches(input);
+    }
+
+    @Override
+    public String toString() {
+        return entries+" entries, "+(fallback() ? "fallback after " : "")+length+" chars, "+groups+" groups, depth "+
+               depth+", "+alternatives+" alternatives, generated in "+generateNanos/1000+"us, compiled in "+
+               compileNanos/1000+"us";
+    }
+}
@@ -0,0 +1,63 @@
+package com.cleo.labs.cidr;
+
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder event recording a {@link PatternDiagnostics}.  This class
+ * is only loaded by name, after {@link PatternDiagnostics} has checked that the
+ * JDK has the {@code jdk.jfr} API, so the library still runs on JDKs without it.
+ * Nothing else refers to it, so builds on JDKs without {@code jdk.jfr} leave it out.
+ */
+@Name("com.cleo.labs.cidr.PatternCompile")
+@Label("CIDR Pattern Compile")
+@Category({"CIDR Pattern"})
+@Description("Generation and compilation of a regex from a CIDR list")
+final class PatternEvent extends Event {
+    @Label("Entries")
+    int entries;
+
+    @Label("Regex Length")
+    int length;
+
+    @Label("Groups")
+    int groups;
+
+    @Label("Group Depth")
+    int depth;
+
+    @Label("Alternatives")
+    int alternatives;
+
+    @Label("Generate Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long generate;
+
+    @Label("Compile Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long compile;
+
+    @Label("Fallback")
+    @Description("The regex exceeded its budget and an interval matcher was used instead")
+    boolean fallback;
+
+    static void emit(PatternDiagnostics diagnostics) {
+        PatternEvent event = new PatternEvent();
+        if (event.isEnabled()) {
+            event.entries      = diagnostics.entries();
+            event.length       = diagnostics.length();
+            event.groups       = diagnostics.groups();
+            event.depth        = diagnostics.depth();
+            event.alternatives = diagnostics.alternatives();
+            event.generate     = diagnostics.generateNanos();
+            event.compile      = diagnostics.compileNanos();
+            event.fallback     = diagnostics.fallback();
+            event.commit();
+        }
+    }
+}
@@ -1,195 +1,329 @@
-package com.cleo.labs.cidr;
-
-
-import java.util.ArrayList;
-import java.util.List;
-import java.util.regex.Pattern;
-
-public class RangePattern {
-    /**
-     * Returns a compiled {@code Pattern} matching numbers in the range {@code min}-{@code max}.
-     * The compiled pattern matches numbers in the range {@code min}-{@code max} without
-     * accounting for leading zeroes or leading or trailing whitespace.
-     * @param min the lower end of the range.
-     * @param max the upper end of the range.
-     * @return the compiled pattern.
-     */
-    public static Pattern compile(int min, int max) {
-        String pattern = pattern(min, max);
-        return Pattern.compile(pattern);
-    }
-
-    /**
-     * Returns a compiled {@code Pattern} matching numbers in the range {@code min}-{@code max}.
-     * The compiled pattern matches numbers in the range {@code min}-{@code max} without
-     * accounting for leading zeroes or leading or trailing whitespace.
-     * @param min   the lower end of the range.
-     * @param max   the upper end of the range.
-     * @param flags match flags as in {@code Pattern.compile}.
-     * @return the compiled pattern.
-     */
-    public static Pattern compile(int min, int max, int flags) {
-        String pattern = pattern(min, max);
-        return Pattern.compile(pattern, flags);
-    }
-
-    /**
-     * Returns a string representing a regex matching numbers in the range {@code min}-{@code max}.
-     * @param min the lower end of the range.
-     * @param max the upper end of the range.
-     * @return the pattern string.
-     */
-    public static String pattern(int min, int max) {
-        return join(patterns(min, max));
-    }
-    
-    /**
-     * Returns a regex string matching single digits in the range {@code min}-{@code max}.
-     * The string will be "n" for a single digit, "mn" for adjacent digits,
-     * "m-n" for a range of digits, or "\\d" for 0-9.  If the range is empty,
-     * i.e. {@code min>max}, returns "".
-     * @param min the lower end of the range (rounded up to 0 if negative).
-     * @param max the upper end of the range (rounded down to 9 if larger).
-     * @return a regex string.
-     */
-    private static String digits(int min, int max) {
-        min = Math.max(min, 0);
-        max = Math.min(max, 9);
-        String result;
-        if (min > max) {
-            // nuthin'
-            result = "";
-        } else if (min==max) {
-            // single digit
-            result = String.valueOf(min);
-        } else if (min==0 && max==9) {
-            // any digit: \d
-            result = "\\d";
-        } else if (max-min == 1) {
-            // adjacent: [xy]
-            result = "["+min+max+"]";
-        } else {
-            // range: [x-y]
-            result = "["+min+"-"+max+"]";
-        }
-        return result;
-    }
-
-    /**
-     * Returns a list of regex patterns that together match {@code min}-{@code max}.
-     * This method is used internally and creates fixed-width matching patterns {@code digits}
-     * wide, including leading zeroes.  {@code modulus} and {@code mask} bound the range of
-     * values with {@code digits} digits: {@code modulus} is the smallest value with {@code digits}
-     * digits (i.e. {@code 10^(digits-1)}), and {@code mask} is the largest such value +1
-     * (i.e. {@code 10^digits}).  Note that the following constraints on the input values
-     * are <i>not checked</i> as this is for internal use only:
-     * <ul><li>min is >= modulus and < max</li>
-     *     <li>max is >= min and < mask</li>
-     *     <li>modulus is 10^(digits-1)</li>
-     *     <li>mask is 10^digits</li>
-     * </ul>
-     * @param min      the lower end of the range.
-     * @param max      the upper end of the range.
-     * @param digits   the number of digits to use in the matching pattern.
-     * @param modulus  ten-to-the digits-1
-     * @param mask     ten-to-the digits
-     * @return a list of regex patterns.
-     */
-    private static List<String> rr(int min, int max, int digits, int modulus, int mask) {
-        ArrayList<String> result = new ArrayList<String>();
-        if (modulus==1) {
-            result.add(digits(min, max));
-        } else {
-            int minDigit = min / modulus;
-            int maxDigit = max / modulus;
-            if (minDigit == maxDigit) {
-                result.add(minDigit+join(rr(min%modulus, max%modulus, digits-1, modulus/10, modulus)));
-            } else {
-                if (min != minDigit*modulus) {
-                    result.add(minDigit+join(rr(min%modulus, 9, digits-1, modulus/10, modulus)));
-                    minDigit++;
-                }
-                String maxSlop = null;
-                if (max+1 != (maxDigit+1)*modulus) {
-                    maxSlop = maxDigit+join(rr(0, max%modulus, digits-1, modulus/10, modulus));
-                    maxDigit--;
-                }
-                if (minDigit <= maxDigit) {
-                    if (digits <= 2) {
-                        result.add(digits(minDigit, maxDigit)+"\\d");
-                    } else {
-                        result.add(digits(minDigit, maxDigit)+"\\d{"+(digits-1)+"}");
-                    }
-                }
-                if (maxSlop != null) {
-                    result.add(maxSlop);
-                }
-            }
-        }
-        return result;
-    }
-
-    /**
-     * Returns a list of regex patterns that together match {@code min}-{@code max}.
-     * This method returns a list of regex patterns for arbitrary ranges, including
-     * empty ({@code min}>{@code max}) ranges and values < 0.
-     * @param min      the lower end of the range.
-     * @param max      the upper end of the range.
-     * @return a list of regex patterns.
-     */
-    private static List<String> patterns(int min, int max) {
-        ArrayList<String> result = new ArrayList<String>();
-        if (min <= max) {
-            // deal with negatives, splitting off min through -1 (or max, whichever is less)
-            if (min < 0) {
-                result.add("-"+pattern(Math.max(1, -max), -min));
-                min = 0;
-            }
-            // deal with 0-9, splitting off single digit patterns
-            if (min < 10 && min <= max) {
-                result.add(digits(min, max));
-                min = 10;
-            }
-            // now deal with multi-digit cases
-            int modulus = 10;
-            int digits = 2;
-            while (min <= max) {
-                int mask  = modulus*10;
-                if (min < mask) {
-                    int max9 = Math.min(max, mask-1);
-                    result.addAll(rr(min, max9, digits, modulus, mask));
-                    min = mask;
-                }
-                modulus = mask;
-                digits++;
-            }
-        }
-        return result;
-    }
-
-    /**
-     * Returns a string or'ing the patterns in a list of patterns.
-     * @param patterns the list of regular expression strings.
-     * @return a composite pattern (?:x|y|...|z)
-     */
-    private static String join(List<String> patterns) {
-        StringBuilder result = new StringBuilder();
-        if (patterns.size()==0) {
-            // empty is ok
-        } else if (patterns.size()==1) {
-            result.append(patterns.get(0));
-        } else {
-            result.append("(?:");
-            for (String pattern : patterns) {
-                result.append(pattern).append("|");
-            }
-            result.setCharAt(result.length()-1, ')');
-        }
-        return result.toString();
-    }
-
-    /**
-     * Private constructor.
-     */
-    private RangePattern() {}
-}
+package com.cleo.labs.cidr;
+
+
+import java.util.regex.Pattern;
+
+public class RangePattern {
+    /**
+     * Returns a compiled {@code Pattern} matching numbers in the range {@code min}-{@code max}.
+     * The compiled pattern matches numbers in the range {@code min}-{@code max} without
+     * accounting for leading zeroes or leading or trailing whitespace.
+     * @param min the lower end of the range.
+     * @param max the upper end of the range.
+     * @return the compiled pattern.
+     */
+    public static Pattern compile(int min, int max) {
+        String pattern = pattern(min, max);
+        return Pattern.compile(pattern);
+    }
+
+    /**
+     * Returns a compiled {@code Pattern} matching numbers in the range {@code min}-{@code max}.
+     * The compiled pattern matches numbers in the range {@code min}-{@code max} without
+     * accounting for leading zeroes or leading or trailing whitespace.
+     * @param min   the lower end of the range.
+     * @param max   the upper end of the range.
+     * @param flags match flags as in {@code Pattern.compile}.
+     * @return the compiled pattern.
+     */
+    public static Pattern compile(int min, int max, int flags) {
+        String pattern = pattern(min, max);
+        return Pattern.compile(pattern, flags);
+    }
+
+    /**
+     * Returns a string representing a regex matching numbers in the range {@code min}-{@code max}.
+     * @param min the lower end of the range.
+     * @param max the upper end of the range.
+     * @return the pattern string.
+     */
+    public static String pattern(int min, int max) {
+        if (min >= 0 && max <= 255 && min <= max) {
+            return octet(min, max);
+        }
+        StringBuilder sb = new StringBuilder();
+        append(sb, min, max);
+        return sb.toString();
+    }
+
+    /**
+     * Returns the regex matching octet values {@code min}-{@code max}, where
+     * {@code 0<=min<=max<=255}, from a table built once.  Every CIDR regex is
+     * assembled from octet ranges, so this keeps generating a large list from
+     * redoing the same small computation thousands of times.
+     * @param min the lower end of the range.
+     * @param max the upper end of the range.
+     * @return the pattern string.
+     */
+    static String octet(int min, int max) {
+        // single values, the most common by far, are looked up in a table
+        // small enough to stay in cache rather than in the large one
+        return min == max ? Octets.VALUES[min] : Octets.TABLE[min << 8 | max];
+    }
+
+    /**
+     * Holds the octet table, which is built when first used.
+     */
+    private static final class Octets {
+        private static final String[] TABLE = new String[256*256];
+        private static final String[] VALUES = new String[256];
+        static {
+            StringBuilder sb = new StringBuilder();
+            for (int min=0; min<256; min++) {
+                for (int max=min; max<256; max++) {
+                    sb.setLength(0);
+                    append(sb, min, max);
+                    TABLE[min << 8 | max] = sb.toString();
+                }
+                // the regex for a single value is the value itself; fresh strings
+                // here sit together in memory rather than spread across the table
+                VALUES[min] = String.valueOf(min);
+            }
+        }
+    }
+
+    /**
+     * Appends a regex matching numbers in the range {@code min}-{@code max} to {@code sb}:
+     * the alternatives of {@link #alternatives(StringBuilder, int, int, int)}, grouped
+     * as {@code (?:x|y|...|z)} if there is more than one.
+     * @param sb  the builder to append to.
+     * @param min the lower end of the range.
+     * @param max the upper end of the range.
+     */
+    static void append(StringBuilder sb, int min, int max) {
+        boolean group = count(min, max) > 1;
+        if (group) {
+            sb.append("(?:");
+        }
+        alternatives(sb, 0, min, max);
+        if (group) {
+            sb.append(')');
+        }
+    }
+
+    /**
+     * Appends to {@code sb} a regex matching single digits in the range {@code min}-{@code max}.
+     * The regex will be "n" for a single digit, "mn" for adjacent digits,
+     * "m-n" for a range of digits, or "\d" for 0-9.  If the range is empty,
+     * i.e. {@code min>max}, nothing is appended.
+     * @param sb  the builder to append to.
+     * @param min the lower end of the range (rounded up to 0 if negative).
+     * @param max the upper end of the range (rounded down to 9 if larger).
+     */
+    private static void digits(StringBuilder sb, int min, int max) {
+        min = Math.max(min, 0);
+        max = Math.min(max, 9);
+        if (min > max) {
+            // nuthin'
+        } else if (min==max) {
+            // single digit
+            sb.append(min);
+        } else if (min==0 && max==9) {
+            // any digit: \d
+            sb.append("\\d");
+        } else if (max-min == 1) {
+            // adjacent: [xy]
+            sb.append('[').append(min).append(max).append(']');
+        } else {
+            // range: [x-y]
+            sb.append('[').append(min).append('-').append(max).append(']');
+        }
+    }
+
+    /**
+     * Returns the number of alternatives {@link #rr(StringBuilder, int, int, int, int, int)}
+     * appends for the same arguments, without appending them.
+     * @param min      the lower end of the range.
+     * @param max      the upper end of the range.
+     * @param modulus  ten-to-the digits-1
+     * @return the number of alternatives.
+     */
+    private static int rrCount(int min, int max, int modulus) {
+        if (modulus==1) {
+            return 1;
+        }
+        int minDigit = min / modulus;
+        int maxDigit = max / modulus;
+        if (minDigit == maxDigit) {
+            return 1;
+        }
+        int count = 0;
+        if (min != minDigit*modulus) {
+            count++;
+            minDigit++;
+        }
+        if (max+1 != (maxDigit+1)*modulus) {
+            count++;
+            maxDigit--;
+        }
+        if (minDigit <= maxDigit) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Appends to {@code sb} the regex alternatives that together match {@code min}-{@code max},
+     * each preceded by "|" unless it is the first of its group.
+     * This method is used internally and creates fixed-width matching patterns {@code digits}
+     * wide, including leading zeroes.  {@code modulus} bounds the range of values with
+     * {@code digits} digits: it is the smallest value with {@code digits} digits
+     * (i.e. {@code 10^(digits-1)}).  Note that the following constraints on the input values
+     * are <i>not checked</i> as this is for internal use only:
+     * <ul><li>min is >= modulus and < max</li>
+     *     <li>max is >= min and < 10^digits</li>
+     *     <li>modulus is 10^(digits-1)</li>
+     * </ul>
+     * @param sb       the builder to append to.
+     * @param written  the number of alternatives already appended to the group.
+     * @param min      the lower end of the range.
+     * @param max      the upper end of the range.
+     * @param digits   the number of digits to use in the matching pattern.
+     * @param modulus  ten-to-the digits-1
+     * @return {@code written} plus the number of alternatives appended.
+     */
+    private static int rr(StringBuilder sb, int written, int min, int max, int digits, int modulus) {
+        if (modulus==1) {
+            separate(sb, written++);
+            digits(sb, min, max);
+        } else {
+            int minDigit = min / modulus;
+            int maxDigit = max / modulus;
+            if (minDigit == maxDigit) {
+                separate(sb, written++);
+                sb.append(minDigit);
+                group(sb, min%modulus, max%modulus, digits-1, modulus/10);
+            } else {
+                if (min != minDigit*modulus) {
+                    separate(sb, written++);
+                    sb.append(minDigit);
+                    group(sb, min%modulus, modulus-1, digits-1, modulus/10);
+                    minDigit++;
+                }
+                boolean maxSlop = max+1 != (maxDigit+1)*modulus;
+                if (maxSlop) {
+                    maxDigit--;
+                }
+                if (minDigit <= maxDigit) {
+                    separate(sb, written++);
+                    digits(sb, minDigit, maxDigit);
+                    if (digits <= 2) {
+                        sb.append("\\d");
+                    } else {
+                        sb.append("\\d{").append(digits-1).append('}');
+                    }
+                }
+                if (maxSlop) {
+                    separate(sb, written++);
+                    sb.append(maxDigit+1);
+                    group(sb, 0, max%modulus, digits-1, modulus/10);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Appends the alternatives of {@link #rr(StringBuilder, int, int, int, int, int)}
+     * as a single regex, grouped as {@code (?:x|y|...|z)} if there is more than one.
+     */
+    private static void group(StringBuilder sb, int min, int max, int digits, int modulus) {
+        boolean group = rrCount(min, max, modulus) > 1;
+        if (group) {
+            sb.append("(?:");
+        }
+        rr(sb, 0, min, max, digits, modulus);
+        if (group) {
+            sb.append(')');
+        }
+    }
+
+    /**
+     * Appends the "|" that separates an alternative from the ones before it.
+     */
+    private static void separate(StringBuilder sb, int written) {
+        if (written > 0) {
+            sb.append('|');
+        }
+    }
+
+    /**
+     * Returns the number of alternatives {@link #alternatives(StringBuilder, int, int, int)}
+     * appends for {@code min}-{@code max}, without appending them.
+     * @param min      the lower end of the range.
+     * @param max      the upper end of the range.
+     * @return the number of alternatives.
+     */
+    static int count(int min, int max) {
+        int count = 0;
+        if (min <= max) {
+            if (min < 0) {
+                count++;
+                min = 0;
+            }
+            if (min < 10 && min <= max) {
+                count++;
+                min = 10;
+            }
+            int modulus = 10;
+            while (min <= max) {
+                int mask  = modulus*10;
+                if (min < mask) {
+                    count += rrCount(min, Math.min(max, mask-1), modulus);
+                    min = mask;
+                }
+                modulus = mask;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Appends to {@code sb} the regex alternatives that together match {@code min}-{@code max},
+     * each preceded by "|" unless {@code written} is 0 and it is the first.
+     * This method handles arbitrary ranges, including empty ({@code min}>{@code max})
+     * ranges and values < 0.  Appending alternatives for several ranges to one group
+     * lets callers build a composite regex without intermediate strings or lists.
+     * @param sb       the builder to append to.
+     * @param written  the number of alternatives already appended to the group.
+     * @param min      the lower end of the range.
+     * @param max      the upper end of the range.
+     * @return {@code written} plus the number of alternatives appended.
+     */
+    static int alternatives(StringBuilder sb, int written, int min, int max) {
+        if (min <= max) {
+            // deal with negatives, splitting off min through -1 (or max, whichever is less)
+            if (min < 0) {
+                separate(sb, written++);
+                sb.append('-');
+                append(sb, Math.max(1, -max), -min);
+                min = 0;
+            }
+            // deal with 0-9, splitting off single digit patterns
+            if (min < 10 && min <= max) {
+                separate(sb, written++);
+                digits(sb, min, max);
+                min = 10;
+            }
+            // now deal with multi-digit cases
+            int modulus = 10;
+            int digits = 2;
+            while (min <= max) {
+                int mask  = modulus*10;
+                if (min < mask) {
+                    int max9 = Math.min(max, mask-1);
+                    written = rr(sb, written, min, max9, digits, modulus);
+                    min = mask;
+                }
+                modulus = mask;
+                digits++;
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Private constructor.
+     */
+    private RangePattern() {}
+}
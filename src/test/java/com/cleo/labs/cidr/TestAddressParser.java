@@ -0,0 +1,124 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestAddressParser {
+
+    private static final Pattern ANY = CidrPattern.compile("*.*.*.*");
+
+    private void testParse(String input) {
+        long expected = AddressParser.parse(input);
+        assertEquals(input, ANY.matcher(input).matches(), expected >= 0);
+        String padded = "xx"+input+"yy";
+        byte[] bytes = padded.getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals(input, expected, AddressParser.parse(padded, 2, input.length()));
+        assertEquals(input, expected, AddressParser.parse(bytes, 2, input.length()));
+        assertEquals(input, expected, AddressParser.parse(ByteBuffer.wrap(bytes), 2, input.length()));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+        direct.put(bytes).position(2).limit(2+input.length());
+        assertEquals(input, expected, AddressParser.parse(direct));
+        assertEquals(2, direct.position());
+    }
+
+    @Test
+    public void testValid() {
+        String[] inputs = {"0.0.0.0", "255.255.255.255", "10.1.2.3", "192.168.100.200", "1.10.100.249"};
+        for (String input : inputs) {
+            testParse(input);
+        }
+        assertEquals(0x0A010203L, AddressParser.parse("10.1.2.3"));
+        assertEquals(0xFFFFFFFFL, AddressParser.parse("255.255.255.255"));
+        assertEquals("192.168.100.200", AddressParser.format((int) AddressParser.parse("192.168.100.200")));
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] inputs = {"", "1.2.3", "1.2.3.4.5", "01.2.3.4", "1.2.3.00", "256.1.1.1", "1.2.3.4 ",
+                "1..3.4", "1.2.3.", ".1.2.3", "1.2.3.1000", "a.b.c.d", "1.2.3.4/32", "1.2.3.é",
+                "1000.2.3.4", "1.2.3.255x"};
+        for (String input : inputs) {
+            testParse(input);
+            assertEquals(input, AddressParser.INVALID, AddressParser.parse(input));
+        }
+    }
+
+    @Test
+    public void testInetAddress() throws UnknownHostException {
+        assertEquals(0xC0A80121L, AddressParser.parse(InetAddress.getByName("192.168.1.33")));
+        assertEquals(0xFFFEFD80L, AddressParser.parse(InetAddress.getByName("255.254.253.128")));
+        assertEquals(AddressParser.INVALID, AddressParser.parse(InetAddress.getByName("::2")));
+        assertTrue(CidrPattern.compileMatcher("192.168/16").matches(InetAddress.getByName("192.168.1.33")));
+    }
+
+    @Test
+    public void testValid6() throws UnknownHostException {
+        String[] inputs = {"::", "::1", "1::", "2001:db8::", "2001:DB8:0:0:8:800:200C:417A", "fe80::1:2",
+                "ff02::2", "64:ff9b::192.0.2.33", "1:2:3:4:5:6:7:8", "1:2:3:4:5:6:1.2.3.4",
+                "0:0:0:0:0:0:0:0", "1::8", "::2:3:4:5:6:7:8", "1:2:3:4:5:6:7::", "abcd:ef01::2345:6789"};
+        long[] address = new long[2];
+        long[] expected = new long[2];
+        for (String input : inputs) {
+            assertTrue(input, AddressParser.parse6(input, address));
+            assertTrue(input, AddressParser.parse6(InetAddress.getByName(input), expected));
+            assertArrayEquals(input, expected, address);
+            String padded = "x"+input+"yy";
+            assertTrue(input, AddressParser.parse6(padded, 1, input.length(), address));
+            assertArrayEquals(input, expected, address);
+        }
+        // InetAddress turns mapped addresses into IPv4 addresses
+        assertTrue(AddressParser.parse6("::ffff:10.1.2.3", address));
+        assertEquals(0, address[0]);
+        assertEquals(0xffff0a010203L, address[1]);
+        AddressParser.parse6("2001:db8::ff00:42:8329", address);
+        assertEquals(0x20010db800000000L, address[0]);
+        assertEquals(0x0000ff0000428329L, address[1]);
+        assertEquals(AddressParser.INVALID, AddressParser.parse(InetAddress.getByName("::1")));
+        assertFalse(AddressParser.parse6(InetAddress.getByName("10.1.2.3"), address));
+    }
+
+    @Test
+    public void testInvalid6() {
+        String[] inputs = {"", ":", ":::", "1", "1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9", "1::2::3", ":1::",
+                "1:", "::1:", "12345::", "g::", "1:2:3:4:5:6:7:1.2.3.4", "::1.2.3", "::1.2.3.4:5",
+                "::256.1.1.1", "::01.2.3.4", "1.2.3.4", "::1 ", " ::1", "::1%eth0", "1:2:3:4:5:6:7:8::",
+                "::1:2:3:4:5:6:7:8", "2001:db8::/32"};
+        long[] address = {17, 23};
+        for (String input : inputs) {
+            assertFalse(input, AddressParser.parse6(input, address));
+            assertArrayEquals(input, new long[] {17, 23}, address);
+        }
+    }
+
+    @Test
+    public void testFormat6() throws UnknownHostException {
+        assertEquals("::", AddressParser.format6(0, 0));
+        assertEquals("::1", AddressParser.format6(0, 1));
+        assertEquals("2001:db8::ff00:42:8329", AddressParser.format6(0x20010db800000000L, 0x0000ff0000428329L));
+        assertEquals("2001:db8:0:1:1:1:1:1", AddressParser.format6(0x20010db800000001L, 0x0001000100010001L));
+        assertEquals("2001:0:0:1::1", AddressParser.format6(0x2001000000000001L, 0x0000000000000001L));
+        Random random = new Random(29);
+        long[] address = new long[2];
+        long[] expected = new long[2];
+        for (int i=0; i<10000; i++) {
+            // sparse groups, so that runs of zeroes are common
+            long high = random.nextLong() & random.nextLong() & random.nextLong() & 0x0001000100010001L*random.nextInt(0x10000);
+            long low = random.nextLong() & random.nextLong() & random.nextLong();
+            String formatted = AddressParser.format6(high, low);
+            assertTrue(formatted, AddressParser.parse6(formatted, address));
+            assertEquals(formatted, high, address[0]);
+            assertEquals(formatted, low, address[1]);
+            assertTrue(AddressParser.parse6(InetAddress.getByName(formatted), expected));
+            assertArrayEquals(formatted, expected, address);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class TestBytecodeMatcher {
+
+    private void testSame(String cidrs, CidrMatcher generated) {
+        IntervalMatcher expected = CidrPattern.compileMatcher(cidrs);
+        Random random = new Random(cidrs.hashCode());
+        int[] edges = {0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0x0A000000, 0x09FFFFFF, 0x0AFFFFFF, 0x0B000000};
+        for (int address : edges) {
+            assertEquals(cidrs+" matching "+AddressParser.format(address), expected.matches(address), generated.matches(address));
+        }
+        for (int i=0; i<20000; i++) {
+            int address = random.nextInt();
+            String ip = AddressParser.format(address);
+            assertEquals(cidrs+" matching "+ip, expected.matches(address), generated.matches(address));
+            assertEquals(cidrs+" matching "+ip, expected.matches(address), generated.matches(ip));
+            assertEquals(cidrs+" matching "+ip, expected.matches(address), generated.matches("["+ip+"]", 1, ip.length()));
+            byte[] bytes = ip.getBytes(StandardCharsets.US_ASCII);
+            assertEquals(cidrs+" matching "+ip, expected.matches(address), generated.matches(bytes, 0, bytes.length));
+        }
+    }
+
+    /**
+     * Returns a list of {@code size} random blocks of /8 to /32, also used by {@link TestDirectTable}.
+     */
+    static String random(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<size; i++) {
+            int bits = 8 + random.nextInt(25);
+            sb.append(i==0 ? "" : ",").append(AddressParser.format(random.nextInt() & (int) (0xFFFFFFFFL << (32-bits))))
+              .append('/').append(bits);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testMatching() {
+        String[] lists = {"10/8", "10.1.2.3", "0/1,128/1", "0.0.0.0-0.0.0.5", "255.255.255.250-255.255.255.255",
+                "10/8,192.168/16,1.2.3.4-1.2.4.5", "*.18.23/24", random(100, 1), random(1000, 2), random(3000, 3)};
+        for (String list : lists) {
+            CidrMatcher matcher = BytecodeMatcher.compile(list);
+            assertTrue(list, BytecodeMatcher.isGenerated(matcher));
+            testSame(list, matcher);
+        }
+    }
+
+    @Test
+    public void testClassLoader() {
+        String list = random(500, 4);
+        CidrMatcher matcher = BytecodeMatcher.compile(CidrList.parse(list).merged(), false);
+        assertTrue(BytecodeMatcher.isGenerated(matcher));
+        testSame(list, matcher);
+    }
+
+    @Test
+    public void testMalformed() {
+        CidrMatcher matcher = BytecodeMatcher.compile("0/1,128/1");
+        assertTrue(matcher.matches("1.2.3.4"));
+        for (String input : new String[] {"", "1.2.3", "01.2.3.4", "256.1.1.1", "1.2.3.4.5", "a.b.c.d"}) {
+            assertFalse(input, matcher.matches(input));
+        }
+    }
+
+    @Test
+    public void testFallback() {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<=BytecodeMatcher.MAX_INTERVALS; i++) {
+            sb.append(i==0 ? "" : ",").append(AddressParser.format(0x0A000000 + 2*i));
+        }
+        String list = sb.toString();
+        CidrMatcher matcher = BytecodeMatcher.compile(list);
+        assertFalse(BytecodeMatcher.isGenerated(matcher));
+        assertTrue(matcher instanceof IntervalMatcher);
+    }
+
+    @Test
+    public void testErrors() {
+        try {
+            BytecodeMatcher.compile("1.2.3.4-1.1.3.4");
+            fail("exception expected");
+        } catch (PatternSyntaxException e) {
+            assertEquals("Range must be in order", e.getDescription());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestCachedMatcher {
+
+    private static final String CIDRS = "10/8, 192.168/16, 1.2.3.4-1.2.4.5, *.18.23/24, 172.16/12";
+
+    @Test
+    public void testDecisions() {
+        IntervalMatcher expected = CidrPattern.compileMatcher(CIDRS);
+        Pattern regex = CidrPattern.compile(CIDRS);
+        CachedMatcher[] caches = {CachedMatcher.of(regex), CachedMatcher.of(regex, 64, 1),
+                CachedMatcher.of(expected, 1, 2), CachedMatcher.of(BytecodeMatcher.compile(CIDRS), 100, 2)};
+        assertEquals(4096, caches[0].capacity());
+        assertEquals(2, caches[0].ways());
+        assertEquals(64, caches[1].capacity());
+        assertEquals(8, caches[2].capacity());
+        assertEquals(128, caches[3].capacity());
+        Random random = new Random(41);
+        int[] hot = new int[200];
+        for (int i=0; i<hot.length; i++) {
+            hot[i] = i%2==0 ? random.nextInt() : 0x0A000000 | random.nextInt(0x1000);
+        }
+        for (int i=0; i<50000; i++) {
+            int address = random.nextInt(4)==0 ? random.nextInt() : hot[random.nextInt(hot.length)];
+            for (CachedMatcher cache : caches) {
+                assertEquals(AddressParser.format(address), expected.matches(address), cache.matches(address));
+            }
+        }
+        assertTrue(caches[0].matches("10.1.2.3"));
+        assertFalse(caches[0].matches("10.1.2.03"));
+    }
+
+    @Test
+    public void testStats() {
+        CachedMatcher cache = CachedMatcher.of(CidrPattern.compileMatcher(CIDRS));
+        cache.setRecordStats(true);
+        for (int i=0; i<10; i++) {
+            for (int address=0; address<100; address++) {
+                cache.matches(address);
+            }
+        }
+        CachedMatcher.Stats stats = cache.stats();
+        assertEquals(100, stats.misses());
+        assertEquals(900, stats.hits());
+        assertEquals(0.9, stats.hitRate(), 1e-9);
+        assertEquals("hits=900 misses=100 invalidations=0", stats.toString());
+        cache.clear();
+        assertEquals(0, cache.stats().hits());
+        cache.matches(1);
+        assertEquals(1, cache.stats().misses());
+    }
+
+    @Test
+    public void testCollisions() {
+        // a direct-mapped cache of 4 slots holds at most 4 addresses, but never answers wrongly
+        CachedMatcher cache = CachedMatcher.of(CidrPattern.compileMatcher("0.0.0.0-0.0.0.99"), 4, 1);
+        cache.setRecordStats(true);
+        for (int i=0; i<3; i++) {
+            for (int address=0; address<200; address++) {
+                assertEquals(address < 100, cache.matches(address));
+            }
+        }
+        assertTrue(cache.stats().misses() > 500);
+    }
+
+    @Test
+    public void testInvalidation() {
+        DynamicCidrSet set = new DynamicCidrSet("10/8");
+        CachedMatcher cache = CachedMatcher.of(set, 256, 2);
+        cache.setRecordStats(true);
+        int address = 0xC0A80101; // 192.168.1.1
+        assertFalse(cache.matches(address));
+        assertFalse(cache.matches(address));
+        set.add("192.168/16");
+        assertTrue(cache.matches(address));
+        assertTrue(cache.matches(address));
+        set.remove("192.168.1/24");
+        assertFalse(cache.matches(address));
+        CachedMatcher.Stats stats = cache.stats();
+        assertEquals(2, stats.invalidations());
+        assertEquals(2, stats.hits());
+        assertEquals(3, stats.misses());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        DynamicCidrSet set = new DynamicCidrSet("10/8");
+        CachedMatcher cache = CachedMatcher.of(set, 64, 2);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        AtomicInteger wrong = new AtomicInteger();
+        try {
+            Future<?>[] readers = new Future<?>[3];
+            for (int r=0; r<readers.length; r++) {
+                int seed = r;
+                readers[r] = pool.submit(() -> {
+                    Random random = new Random(seed);
+                    for (int i=0; i<200000; i++) {
+                        // 10/8 is always in the set and 11/8 never is
+                        int address = (random.nextBoolean() ? 0x0A000000 : 0x0B000000) | random.nextInt(512);
+                        if (cache.matches(address) != (address >>> 24 == 10)) {
+                            wrong.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            for (int i=0; i<200; i++) {
+                set.add("12."+i+"/16");
+            }
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        assertEquals(0, wrong.get());
+        assertTrue(cache.matches(0x0C640000)); // 12.100.0.0
+    }
+}
@@ -0,0 +1,68 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestCidrAutomaton {
+
+    private void testSame(String cidrs) {
+        Pattern pattern = CidrPattern.compile(cidrs);
+        IntervalMatcher matcher = CidrPattern.compileMatcher(cidrs);
+        CidrAutomaton automaton = CidrAutomaton.compile(cidrs);
+        Random random = new Random(cidrs.hashCode());
+        for (int i=0; i<20000; i++) {
+            int address = i%2==0 ? random.nextInt() : random.nextInt(0x1000000) | 0x0A000000;
+            String ip = AddressParser.format(address);
+            assertEquals(cidrs+" matching "+ip, matcher.matches(address), automaton.matches(address));
+            assertEquals(cidrs+" matching "+ip, matcher.matches(address), automaton.matches(ip));
+        }
+        String[] odd = {"", "1", "10.", "10.1.2", "10.1.2.3.", "010.1.2.3", "10.01.2.3", "10.1.2.256",
+                "10.1.2.3 ", "10..2.3", "1.18.23.0", "1.18.23.00", "10.1.2.1000", "10.1.2.é"};
+        for (String input : odd) {
+            assertEquals(cidrs+" matching "+input, pattern.matcher(input).matches(), automaton.matches(input));
+        }
+    }
+
+    @Test
+    public void testSameAsPattern() {
+        testSame("10/8");
+        testSame("*.*.*.*");
+        testSame("10.1.2.3,192.168.9.10");
+        testSame("*.18.23/24");
+        testSame("1.2.3.4-1.2.4.5,10.0.0.0/25,10.0.0.128/25");
+        testSame("192.168.0/24, 10/8, 128/1");
+        testSame("10.*.5.*,10.1.0.0-10.1.3.7,10.1.2.99");
+    }
+
+    @Test
+    public void testMinimal() {
+        // every address is four octets of 0-255: one state per digit position
+        // and digit-count class plus the dead state
+        CidrAutomaton any = CidrAutomaton.compile("*.*.*.*");
+        CidrAutomaton half = CidrAutomaton.compile("0/1,128/1");
+        assertEquals(any.states(), half.states());
+    }
+
+    @Test
+    public void testCursor() {
+        CidrAutomaton automaton = CidrAutomaton.compile("192.168/16");
+        byte[] bytes = "192.168.100.200".getBytes(StandardCharsets.US_ASCII);
+        for (int split=0; split<=bytes.length; split++) {
+            CidrAutomaton.Cursor cursor = automaton.cursor();
+            cursor.feed(bytes, 0, split).feed(ByteBuffer.wrap(bytes, split, bytes.length-split));
+            assertTrue(cursor.matches());
+        }
+        CidrAutomaton.Cursor cursor = automaton.cursor().feed("192.16").feed("9");
+        assertTrue(cursor.failed());
+        assertFalse(cursor.reset().feed("192.168.1").matches());
+        assertTrue(cursor.feed(".1").matches());
+        assertFalse(cursor.failed());
+    }
+
+}
@@ -0,0 +1,81 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCidrFile {
+
+    private static final String LIST = "10/8, 10.1/16, 192.168/16, 1.2.3.4-1.2.4.5, *.18.23/24";
+
+    @Test
+    public void testFile() throws IOException {
+        Path file = Files.createTempFile("cidr", ".bin");
+        try {
+            long size = CidrFile.write(file, LIST, null);
+            assertEquals(Files.size(file), size);
+            CidrFile compiled = CidrFile.map(file);
+            assertTrue(compiled.hasValues());
+            IntervalMatcher expected = CidrPattern.compileMatcher(LIST);
+            Random random = new Random(14);
+            for (int i=0; i<50000; i++) {
+                int address = i%2==0 ? random.nextInt() : 0x0A000000 | random.nextInt(0x20000);
+                assertEquals(AddressParser.format(address), expected.matches(address), compiled.matches(address));
+                assertEquals(AddressParser.format(address), expected.indexOf(address), compiled.value(address, -1));
+            }
+            assertEquals(0, compiled.value(0x0A010203, -1)); // 10/8 wins over 10.1/16
+            assertEquals(-1, compiled.value(0x01122A17, -1)); // 1.18.42.23 hits nothing
+            assertEquals(4, compiled.value(0x2A121717, -1));  // 42.18.23.23 hits *.18.23/24
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testValues() throws IOException {
+        CidrFile merged = CidrFile.wrap(CidrFile.compile(LIST, new int[0]), true);
+        assertFalse(merged.hasValues());
+        assertEquals(CidrPattern.compileMatcher(LIST).size(), merged.size());
+        try {
+            merged.value(0x0A000000, -1);
+            fail("exception expected");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        // equal values of neighbouring entries are coalesced
+        CidrFile scored = CidrFile.wrap(CidrFile.compile("10.0.0.0/9, 10.128/9, 11/8", new int[] {7, 7, 9}), true);
+        assertEquals(2, scored.size());
+        assertEquals(7, scored.value(0x0A800001, 0));
+        assertEquals(9, scored.value(0x0B000000, 0));
+        assertEquals(0, scored.value(0x0C000000, 0));
+    }
+
+    private void testCorrupt(ByteBuffer buffer, String message) {
+        try {
+            CidrFile.wrap(buffer, true);
+            fail("exception expected");
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testCorrupt() {
+        ByteBuffer good = CidrFile.compile(LIST, null);
+        ByteBuffer bad = ByteBuffer.allocate(good.capacity());
+        bad.put(good.duplicate()).put(0, (byte) 'X');
+        testCorrupt(bad, "not a compiled CIDR file");
+        bad.put(0, (byte) 'C').putShort(4, (short) 2);
+        testCorrupt(bad, "unsupported compiled CIDR file version 2");
+        bad.putShort(4, (short) CidrFile.VERSION).put(20, (byte) (bad.get(20)+1));
+        testCorrupt(bad, "compiled CIDR file checksum mismatch");
+        testCorrupt((ByteBuffer) ByteBuffer.allocate(good.capacity()-4).put((ByteBuffer) good.duplicate().limit(good.capacity()-4)),
+                "compiled CIDR file is truncated or corrupt");
+    }
+}
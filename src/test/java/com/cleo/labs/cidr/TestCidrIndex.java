@@ -0,0 +1,91 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class TestCidrIndex {
+
+    @Test
+    public void testLookup() {
+        Map<String, String> lists = new LinkedHashMap<>();
+        lists.put("a", "10/8, 192.168/16");
+        lists.put("b", "10.1/16");
+        lists.put("c", "0/1");
+        lists.put("d", "10.1.2.3");
+        CidrIndex index = CidrIndex.compile(lists);
+        assertEquals(4, index.lists());
+        assertArrayEquals(new int[] {0, 1, 2, 3}, index.lookup("10.1.2.3"));
+        assertArrayEquals(new int[] {0, 1, 2}, index.lookup("10.1.2.4"));
+        assertArrayEquals(new int[] {0, 2}, index.lookup("10.2.0.0"));
+        assertArrayEquals(new int[] {2}, index.lookup("0.0.0.0"));
+        assertArrayEquals(new int[] {0}, index.lookup("192.168.1.1"));
+        assertArrayEquals(new int[0], index.lookup("255.255.255.255"));
+        assertArrayEquals(new int[0], index.lookup("not an address"));
+        assertEquals(Arrays.asList("a", "b", "c"), index.names(0x0A010204));
+        assertTrue(index.contains(0x0A010203, 3));
+        assertFalse(index.contains(0x0A010204, 3));
+        assertEquals("d", index.name(3));
+        assertEquals(1, index.id("b"));
+        assertEquals(-1, index.id("e"));
+        // 0-9.x, 10.0, 10.1.0.0-10.1.2.2, 10.1.2.3, 10.1.2.4-10.1.255.255, 10.2-10.255, 11-127.x,
+        // 128-192.167.x, 192.168, rest
+        assertEquals(10, index.intervals());
+    }
+
+    @Test
+    public void testSharedPostings() {
+        Map<String, String> lists = new LinkedHashMap<>();
+        for (int i=0; i<1000; i++) {
+            lists.put("tenant"+i, "10/8, 172.16/12");
+        }
+        CidrIndex index = CidrIndex.compile(lists);
+        assertEquals(2, index.postings());
+        assertEquals(1000, index.lookup("172.20.1.1").length);
+    }
+
+    @Test(expected=PatternSyntaxException.class)
+    public void testError() {
+        Map<String, String> lists = new LinkedHashMap<>();
+        lists.put("bad", "10/8, 256/8");
+        CidrIndex.compile(lists);
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(41);
+        Map<String, CidrSet> sets = new LinkedHashMap<>();
+        List<CidrSet> expected = new ArrayList<>();
+        for (int i=0; i<200; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int j=0; j<1+random.nextInt(10); j++) {
+                int bits = 4+random.nextInt(20);
+                sb.append(j==0 ? "" : ",").append(AddressParser.format(random.nextInt() & 0x0FFFFFFF & -1 << (32-bits)))
+                  .append('/').append(bits);
+            }
+            CidrSet set = CidrSet.of(sb.toString());
+            sets.put("list"+i, set);
+            expected.add(set);
+        }
+        CidrIndex index = CidrIndex.of(sets);
+        for (int k=0; k<20000; k++) {
+            int address = random.nextInt() & 0x0FFFFFFF;
+            List<Integer> ids = new ArrayList<>();
+            for (int i=0; i<expected.size(); i++) {
+                if (expected.get(i).matches(address)) {
+                    ids.add(i);
+                }
+            }
+            int[] found = index.lookup(address);
+            assertEquals(AddressParser.format(address), ids.toString(), Arrays.toString(found));
+        }
+    }
+}
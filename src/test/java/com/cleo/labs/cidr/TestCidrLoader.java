@@ -0,0 +1,134 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestCidrLoader {
+
+    private static final String FILE = "# allowlist\n"+
+                                       "10/8\n"+
+                                       "\n"+
+                                       "  192.168/16 , 1.2.3.4-1.2.4.5 # office\n"+
+                                       "256.1/16, *.18.23/24\n"+
+                                       "10.1.2.3-10.1.2.2,,\t172.16/12\n";
+
+    @Test
+    public void testLoad() throws IOException {
+        CidrLoader.Result result = CidrLoader.load(new StringReader(FILE));
+        CidrList list = result.list();
+        assertEquals(5, list.size());
+        String[] entries = {"10/8", "192.168/16", "1.2.3.4-1.2.4.5", "*.18.23/24", "172.16/12"};
+        int[] lines = {2, 4, 4, 5, 6};
+        for (int i=0; i<entries.length; i++) {
+            assertEquals(entries[i], list.entry(i));
+            assertEquals(lines[i], list.line(i));
+        }
+        List<CidrLoader.LoadError> errors = result.errors();
+        assertTrue(result.hasErrors());
+        assertEquals(3, errors.size());
+        assertEquals(5, errors.get(0).line());
+        assertEquals(1, errors.get(0).column());
+        assertEquals("256.1/16", errors.get(0).text());
+        assertEquals("Not a CIDR Pattern", errors.get(0).description());
+        assertEquals(6, errors.get(1).line());
+        assertEquals(9, errors.get(1).column());
+        assertEquals("Range must be in order", errors.get(1).description());
+        assertEquals(19, errors.get(2).column());
+        assertEquals("Empty CIDR Pattern", errors.get(2).description());
+        assertEquals("line 6, column 9: Range must be in order [10.1.2.3-10.1.2.2]", errors.get(1).toString());
+    }
+
+    @Test
+    public void testEngines() throws IOException {
+        String cidrs = "10/8, 192.168/16, 1.2.3.4-1.2.4.5, *.18.23/24, 172.16/12";
+        CidrList list = CidrLoader.load(new ByteArrayInputStream(FILE.getBytes(StandardCharsets.UTF_8))).list();
+        IntervalMatcher expected = CidrPattern.compileMatcher(cidrs);
+        Pattern regex = CidrPattern.compile(list);
+        Pattern factored = CidrPattern.compileFactored(list);
+        CidrMatcher[] engines = {CidrPattern.compileMatcher(list), CidrAutomaton.compile(list),
+                BytecodeMatcher.compile(list), DirectTable.compile(list, 20, false),
+                CidrFile.wrap(CidrFile.compile(list, null), true), InstrumentedMatcher.compile(list),
+                new DynamicCidrSet(list)};
+        assertEquals(CidrPattern.compile(cidrs).pattern(), regex.pattern());
+        Random random = new Random(17);
+        for (int i=0; i<20000; i++) {
+            int address = i%2==0 ? random.nextInt() : 0x0A000000 | random.nextInt(0x20000);
+            String ip = AddressParser.format(address);
+            boolean matches = expected.matches(address);
+            assertEquals(ip, matches, regex.matcher(ip).matches());
+            assertEquals(ip, matches, factored.matcher(ip).matches());
+            for (CidrMatcher engine : engines) {
+                assertEquals(ip+" "+engine.getClass().getSimpleName(), matches, engine.matches(address));
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        CidrLoader.Result result = CidrLoader.load(new StringReader("# nothing here\n\n"));
+        assertFalse(result.hasErrors());
+        CidrList list = result.list();
+        assertEquals(0, list.size());
+        assertFalse(CidrPattern.compile(list).matcher("").matches());
+        assertFalse(CidrPattern.compileFactored(list).matcher("").matches());
+        assertFalse(CidrPattern.compileMatcher(list).matches("10.1.2.3"));
+        assertFalse(CidrAutomaton.compile(list).matches("10.1.2.3"));
+        assertFalse(BytecodeMatcher.compile(list).matches("10.1.2.3"));
+    }
+
+    @Test
+    public void testTrailingCommas() throws IOException {
+        CidrLoader.Result result = CidrLoader.load(new StringReader("10/8,\n192.168/16 , , # comment\n, \n1.2.3.4,,5.6.7.8,\n"));
+        assertEquals(1, result.errors().size());
+        assertEquals(4, result.errors().get(0).line());
+        assertEquals(9, result.errors().get(0).column());
+        assertEquals("Empty CIDR Pattern", result.errors().get(0).description());
+        CidrList list = result.list();
+        assertEquals(4, list.size());
+        assertEquals("5.6.7.8", list.entry(3));
+        assertEquals(2, CidrList.parse("10/8, 192.168/16 , ,").size());
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        // several chunks, so the results of parallel tasks are stitched back together
+        Random random = new Random(23);
+        StringBuilder file = new StringBuilder();
+        StringBuilder cidrs = new StringBuilder();
+        int n = 3*CidrLoader.CHUNK_LINES + 17;
+        for (int i=0; i<n; i++) {
+            String cidr = AddressParser.format(random.nextInt() & 0xFFFFFF00)+"/"+(24+random.nextInt(9));
+            if (i%1000 == 999) {
+                file.append("bad ").append(i).append('\n');
+            } else if (i%7 == 0) {
+                file.append('#').append(cidr).append('\n');
+            } else {
+                file.append(cidr).append('\n');
+                cidrs.append(cidrs.length()==0 ? "" : ",").append(cidr);
+            }
+        }
+        CidrLoader.Result result = CidrLoader.load(new StringReader(file.toString()));
+        CidrList expected = CidrList.parse(cidrs.toString());
+        CidrList list = result.list();
+        assertEquals(expected.size(), list.size());
+        for (int i=0; i<list.size(); i++) {
+            assertEquals(expected.entry(i), list.entry(i));
+            assertArrayEquals(expected.merged(i), list.merged(i));
+        }
+        assertArrayEquals(expected.merged(), list.merged());
+        assertEquals(n/1000, result.errors().size());
+        for (CidrLoader.LoadError error : result.errors()) {
+            assertEquals(0, error.line() % 1000);
+            assertEquals("bad "+(error.line()-1), error.text());
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCidrMap {
+
+    @Test
+    public void testLongestPrefix() {
+        CidrMap<String> map = new CidrMap<>();
+        map.put("10/8", "ten");
+        map.put("10.1/16", "ten-one");
+        map.put("10.1.2.3", "host");
+        map.put("0.0.0.0/1", "low");
+        assertEquals("ten", map.get("10.2.3.4"));
+        assertEquals("ten-one", map.get("10.1.3.4"));
+        assertEquals("host", map.get("10.1.2.3"));
+        assertEquals("low", map.get("11.0.0.0"));
+        assertNull(map.get("128.0.0.0"));
+        assertNull(map.get("10.1.2.03"));
+        assertTrue(map.containsKey("127.255.255.255"));
+        assertFalse(map.containsKey(0x80000000));
+        assertEquals(4, map.size());
+        assertEquals("ten", map.put(0x0A000000, 8, "TEN"));
+        assertEquals("TEN", map.get("10.2.3.4"));
+        assertEquals(4, map.size());
+    }
+
+    @Test
+    public void testDecomposition() {
+        CidrMap<Integer> map = new CidrMap<>();
+        map.put("1.2.3.4-1.2.3.9", 1);
+        map.put("*.18.23/24", 2);
+        List<String> blocks = new ArrayList<>();
+        for (CidrMap.Entry<Integer> entry : map) {
+            if (entry.value()==1) {
+                blocks.add(entry.toString());
+            }
+        }
+        assertEquals("[1.2.3.4/30, 1.2.3.8/31]", blocks.toString());
+        assertEquals(258, map.size());
+        assertEquals(Integer.valueOf(2), map.get("77.18.23.1"));
+    }
+
+    @Test
+    public void testIterationOrder() {
+        CidrMap<Integer> map = new CidrMap<>();
+        String[] cidrs = {"192.168.1.0/24", "10.1.0.0/16", "10.0.0.0/8", "172.16.0.0/12", "10.1.2.3/32"};
+        for (int i=0; i<cidrs.length; i++) {
+            map.put(cidrs[i], i);
+        }
+        map.put(0, 0, -1);
+        List<String> order = new ArrayList<>();
+        for (CidrMap.Entry<Integer> entry : map) {
+            order.add(entry.toString());
+        }
+        assertEquals("[0.0.0.0/0, 10.0.0.0/8, 10.1.0.0/16, 10.1.2.3/32, 172.16.0.0/12, 192.168.1.0/24]", order.toString());
+    }
+
+    @Test
+    public void testSameAsMatcher() {
+        Random random = new Random(3);
+        StringBuilder cidrs = new StringBuilder();
+        CidrMap<Boolean> map = new CidrMap<>();
+        for (int i=0; i<2000; i++) {
+            String cidr = AddressParser.format(random.nextInt())+"/"+(8+random.nextInt(25));
+            map.put(cidr, Boolean.TRUE);
+            cidrs.append(i==0 ? "" : ",").append(cidr);
+        }
+        IntervalMatcher matcher = CidrPattern.compileMatcher(cidrs.toString());
+        for (int i=0; i<100000; i++) {
+            int address = random.nextInt();
+            assertEquals(AddressParser.format(address), matcher.matches(address), map.containsKey(address));
+        }
+    }
+
+}
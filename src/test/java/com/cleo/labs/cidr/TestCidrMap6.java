@@ -0,0 +1,88 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestCidrMap6 {
+
+    @Test
+    public void testLongestPrefix() {
+        CidrMap6<String> map = new CidrMap6<>();
+        map.put("2001:db8::/32", "doc");
+        map.put("2001:db8:1::/48", "site");
+        map.put("2001:db8:1:2::/64", "subnet");
+        map.put("2001:db8:1:2::3", "host");
+        map.put("::/1", "low");
+        assertEquals("doc", map.get("2001:db8:2::1"));
+        assertEquals("site", map.get("2001:db8:1:3::1"));
+        assertEquals("subnet", map.get("2001:db8:1:2::4"));
+        assertEquals("host", map.get("2001:db8:1:2::3"));
+        assertEquals("low", map.get("2001:db9::"));
+        assertNull(map.get("8000::"));
+        assertNull(map.get("2001:db8::g"));
+        assertTrue(map.containsKey("7fff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(map.containsKey(Long.MIN_VALUE, 0));
+        assertEquals(5, map.size());
+        assertEquals("doc", map.put(0x20010db800000000L, 0, 32, "DOC"));
+        assertEquals("DOC", map.get("2001:db8:2::1"));
+        assertEquals(5, map.size());
+        map.put("::/0", "all");
+        assertEquals("all", map.get("ffff::"));
+    }
+
+    @Test
+    public void testDecomposition() {
+        CidrMap6<Integer> map = new CidrMap6<>();
+        map.put("2001:db8::4-2001:db8::9", 1);
+        map.put("::ffff:ffff:ffff:ffff-::1:0:0:0:1", 2);
+        List<String> blocks = new ArrayList<>();
+        for (CidrMap6.Entry<Integer> entry : map) {
+            blocks.add(entry+"="+entry.value());
+        }
+        assertEquals("[::ffff:ffff:ffff:ffff/128=2, 0:0:0:1::/127=2, 2001:db8::4/126=1, 2001:db8::8/127=1]",
+                blocks.toString());
+        assertFalse(map.isEmpty());
+        assertTrue(new CidrMap6<Boolean>().isEmpty());
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(37);
+        CidrMap6<Integer> map = new CidrMap6<>();
+        int n = 500;
+        long[][] blocks = new long[n][];
+        for (int i=0; i<n; i++) {
+            // nested blocks under a few prefixes
+            long high = 0x2001000000000000L | (long) random.nextInt(4) << 32 | random.nextLong() >>> 40 & (random.nextBoolean() ? -1L : 0xFL);
+            long low = random.nextLong();
+            int bits = 16+random.nextInt(113);
+            long highMask = bits >= 64 ? -1L : -1L << (64-bits);
+            long lowMask = bits <= 64 ? 0 : -1L << (128-bits);
+            blocks[i] = new long[] {high & highMask, low & lowMask, bits};
+            map.put(high, low, bits, i);
+        }
+        for (int i=0; i<50000; i++) {
+            long[] block = blocks[random.nextInt(n)];
+            long high = block[0] ^ (random.nextBoolean() ? 0 : random.nextLong() >>> 16+random.nextInt(48));
+            long low = random.nextBoolean() ? block[1] : random.nextLong();
+            Integer expected = null;
+            int longest = -1;
+            for (int j=0; j<n; j++) {
+                int bits = (int) blocks[j][2];
+                long highMask = bits >= 64 ? -1L : -1L << (64-bits);
+                long lowMask = bits <= 64 ? 0 : -1L << (128-bits);
+                if ((high & highMask) == blocks[j][0] && (low & lowMask) == blocks[j][1] && bits >= longest) {
+                    // a later put of the same block replaces the earlier one
+                    expected = j;
+                    longest = bits;
+                }
+            }
+            assertEquals(AddressParser.format6(high, low), expected, map.get(high, low));
+        }
+    }
+}
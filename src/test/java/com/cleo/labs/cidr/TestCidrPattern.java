@@ -2,9 +2,14 @@ package com.cleo.labs.cidr;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.StringReader;
+import java.util.Random;
 import java.util.function.Function;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.junit.Test;
@@ -58,6 +63,9 @@ public class TestCidrPattern {
         testError("1.2.3.4.5", "Not a CIDR Pattern"); // up to four only
         testError("1.2.3-1.2.3.4", "full start address required for address range");
         testError("1.2.3.4-1.1.3.4", "Range must be in order");
+        testError("*.2.3.4-1.2.3.4", "wildcard not allowed in address range");
+        testError("01.2.3.4", "Not a CIDR Pattern");   // no leading zeroes
+        testError("10/0", "Not a CIDR Pattern");       // 1-32 bits only
     }
 
     @Test
@@ -96,4 +104,142 @@ public class TestCidrPattern {
         assertTrue(iterate("1.2.0.0", "1.2.3.3", (s)->!p2.matcher(s).matches()));
     }
 
+    @Test
+    public void testNormalize() {
+        assertEquals("10.0.0.0/24", CidrPattern.normalize("10.0.0.0/25,10.0.0.128/25"));
+        assertEquals("10.0.0.0/8", CidrPattern.normalize("10/8,10.1/16"));
+        assertEquals("10.0.0.0/8,192.168.0.0/16", CidrPattern.normalize("192.168/16, 10/8"));
+        assertEquals("1.2.3.4-1.2.4.5", CidrPattern.normalize("1.2.3.4-1.2.3.200,1.2.3.100-1.2.4.5"));
+        assertEquals("1.2.3.4", CidrPattern.normalize("1.2.3.4-1.2.3.4"));
+        assertEquals("0.0.0.0-255.255.255.255", CidrPattern.normalize("0/1,128/1"));
+        assertEquals("10.0.0.0/8,*.18.23/24", CidrPattern.normalize("*.18.23/24,10/8"));
+        assertEquals("10.0.0.0/8", CidrPattern.normalize("10/8,10.*.1.*"));
+        assertEquals("10.0.0.0/8,11.*.1.*", CidrPattern.normalize("11.*.1.*,10/8,11.*.1.0/24,11.*.1.*"));
+        assertEquals("*.*.1.*", CidrPattern.normalize("10.*.1.*,*.*.1.*"));
+        assertEquals("1.1.0.0/16,10.0.0.0/8", CidrPattern.normalize("10.*.1.*,10/8,1.1/16"));
+        assertEquals("1.1.0.0/16,11.0.0.0/8,*.*.1.*", CidrPattern.normalize("11.*.1.*,11/8,1.1/16,*.*.1.*"));
+        assertEquals(CidrPattern.compile("10/8").pattern(), CidrPattern.compile("10/8,10.*.1.*").pattern());
+        assertEquals(CidrPattern.compile("10.0.0/24").pattern(), CidrPattern.compile("10.0.0.0/25,10.0.0.128/25").pattern());
+        assertEquals(CidrPattern.compile("10/8").pattern(), CidrPattern.compile("10/8,10.1/16").pattern());
+    }
+
+    /**
+     * Compiles {@code *.*.*.5} every way that does not need its 2^24 intervals.
+     * Run in a JVM with a small heap by {@link #testWildcardHeap()}.
+     */
+    public static class Wildcards {
+        public static void main(String[] args) throws Exception {
+            Pattern pattern = CidrPattern.compile("*.*.*.5");
+            if (!pattern.matcher("1.2.3.5").matches() || pattern.matcher("1.2.3.6").matches()
+                    || !CidrPattern.normalize("*.*.*.5").equals("*.*.*.5")
+                    || !CidrPattern.diagnose("10/8, *.*.*.5").matches("10.1.2.3")
+                    || !CidrPattern.compileFactored("*.*.*.5").matcher("1.2.3.5").matches()
+                    || CidrLoader.load(new StringReader("*.*.*.5\n*.*.5.*")).list().size() != 2) {
+                System.exit(1);
+            }
+            try {
+                CidrPattern.compileMatcher("*.*.*.5");
+                System.exit(2);
+            } catch (PatternSyntaxException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testWildcardHeap() throws Exception {
+        String classpath = Stream.of(CidrPattern.class, TestCidrPattern.class)
+                .map(c -> c.getProtectionDomain().getCodeSource().getLocation().getPath())
+                .collect(Collectors.joining(File.pathSeparator));
+        Process process = new ProcessBuilder(System.getProperty("java.home")+"/bin/java", "-Xmx32m",
+                "-cp", classpath, Wildcards.class.getName()).inheritIO().start();
+        assertEquals(0, process.waitFor());
+    }
+
+    @Test
+    public void testWildcardExpansion() {
+        Pattern pattern = CidrPattern.compile("*.*.*.5");
+        assertTrue(pattern.matcher("255.0.17.5").matches());
+        assertFalse(pattern.matcher("255.0.17.50").matches());
+        IntervalMatcher matcher = CidrPattern.compileMatcher("*.*.5.*");
+        assertEquals(CidrList.MAX_EXPANSION, matcher.size());
+        assertTrue(matcher.matches(0x01020503));
+        assertFalse(matcher.matches(0x01020603));
+        try {
+            CidrPattern.compileMatcher("10/8, *.*.*.5");
+            fail("expansion past the limit");
+        } catch (PatternSyntaxException e) {
+            assertEquals("*.*.*.5", e.getPattern());
+            assertEquals(0, e.getIndex());
+            assertEquals("Wildcard expands to 16777216 intervals, more than 65536", e.getDescription());
+        }
+    }
+
+    @Test
+    public void testNormalizedRanges() {
+        assertEquals("1\\.2\\.(?:\\d|[1-9]\\d|1\\d{2}|2(?:[0-4]\\d|5[0-5]))\\.(?:\\d|[1-9]\\d|1\\d{2}|2(?:[0-4]\\d|5[0-5]))",
+                CidrPattern.compile("1.2.0.0-1.2.255.255").pattern());
+        Pattern p1 = CidrPattern.compile("1.2.3.0-1.2.5.255");
+        assertTrue(iterate("1.2.3.0", "1.2.5.255", (s)->p1.matcher(s).matches()));
+        assertTrue(iterate("1.2.2.250", "1.2.2.255", (s)->!p1.matcher(s).matches()));
+        assertTrue(iterate("1.2.6.0", "1.2.6.5", (s)->!p1.matcher(s).matches()));
+        Pattern p2 = CidrPattern.compile("1.2.3.4-1.2.5.255,1.2.6.0-1.2.6.9");
+        assertTrue(iterate("1.2.3.4", "1.2.6.9", (s)->p2.matcher(s).matches()));
+        assertTrue(iterate("1.2.6.10", "1.2.6.20", (s)->!p2.matcher(s).matches()));
+        assertTrue(iterate("1.2.3.0", "1.2.3.3", (s)->!p2.matcher(s).matches()));
+    }
+
+    @Test
+    public void testFactored() {
+        String any = "(?>1\\d{2}|2(?:[0-4]\\d|5[0-5])|[1-9]\\d|\\d)";
+        assertEquals("10\\.(?>1\\.[23]\\."+any+"|2\\."+any+"\\."+any+")",
+                CidrPattern.compileFactored("10.1.2.0/24,10.1.3.0/24,10.2/16").pattern());
+        assertEquals("10\\.[12]\\.5\\.(?>1\\d\\d|[1-9]\\d|[3-9])",
+                CidrPattern.compileFactored("10.1.5.3-10.1.5.199,10.2.5.3-10.2.5.199").pattern());
+        String[] lists = {"10/8", "1.2.3.4-1.2.4.5", "*.18.23/24", "192.168.0/24, 10/8, 128/1",
+                "10.*.5.*", "172.16/12,10.0.0.0/25,10.0.0.128/25,1.2.3.4,1.2.3.40,1.2.3.100-1.2.3.109"};
+        Random random = new Random(5);
+        for (String list : lists) {
+            Pattern factored = CidrPattern.compileFactored(list);
+            IntervalMatcher matcher = CidrPattern.compileMatcher(list);
+            for (int i=0; i<20000; i++) {
+                int address = i%2==0 ? random.nextInt() : random.nextInt(0x1000000) | 0x0A000000;
+                String ip = AddressParser.format(address);
+                assertEquals(list+" matching "+ip, matcher.matches(address), factored.matcher(ip).matches());
+            }
+        }
+    }
+
+    @Test
+    public void testFactoredWildcards() {
+        assertEquals(CidrPattern.compileFactored("10/8, 11/8").pattern(), CidrPattern.compileFactored("10/7, 10.*.5.*").pattern());
+        String[] lists = {"*.*.*.5", "*.*.*.5, 10/8, 5.5.5.0/24", "*.*.*.5, *.*.5.*, 1.2.3.4-1.2.9.9",
+                "*.3.*.7, 3.3.0/16, *.18.23/24, 10.*.5.*"};
+        Random random = new Random(6);
+        for (String list : lists) {
+            Pattern factored = CidrPattern.compileFactored(list);
+            Pattern pattern = CidrPattern.compile(list);
+            for (int i=0; i<20000; i++) {
+                int address = random.nextInt() & (i%2==0 ? 0xFFFFFFFF : 0x0F0F0F0F);
+                String ip = AddressParser.format(address);
+                assertEquals(list+" matching "+ip, pattern.matcher(ip).matches(), factored.matcher(ip).matches());
+            }
+        }
+    }
+
+    @Test
+    public void testFactoredFind() {
+        Pattern unbounded = CidrPattern.compileFactored("10.1.2.3,10.1.2.34");
+        Pattern bounded = CidrPattern.compileFactored("10.1.2.3,10.1.2.34", 0, true);
+        assertTrue(unbounded.matcher("from 110.1.2.3 to").find());
+        assertFalse(bounded.matcher("from 110.1.2.3 to").find());
+        assertFalse(bounded.matcher("from 10.1.2.345 to").find());
+        Matcher m = bounded.matcher("a 10.1.2.34, b 10.1.2.3.");
+        assertTrue(m.find());
+        assertEquals("10.1.2.34", m.group());
+        assertTrue(m.find());
+        assertEquals("10.1.2.3", m.group());
+        assertFalse(m.find());
+    }
+
 }
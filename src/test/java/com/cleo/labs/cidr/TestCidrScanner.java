@@ -0,0 +1,123 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+public class TestCidrScanner {
+
+    private static final String TEXT =
+            "10.1.2.3 - - GET /\n"+
+            "from 110.1.2.3 and 10.1.2.34, to 192.168.1.1.\n"+
+            "version 10.1.2 and 10.1.2.3.4 and 010.1.2.3\n"+
+            "[10.200.0.1]:443 x192.168.0.7y\n";
+
+    private static List<String> scan(CidrScanner scanner, String text) {
+        List<String> found = new ArrayList<>();
+        scanner.scan(ByteBuffer.wrap(text.getBytes(StandardCharsets.US_ASCII)),
+                (offset, address, entry) -> found.add(offset+":"+AddressParser.format(address)+":"+entry));
+        return found;
+    }
+
+    @Test
+    public void testTokens() {
+        CidrScanner scanner = CidrScanner.compile("192.168/16, 10/8");
+        assertEquals("[0:10.1.2.3:1, 38:10.1.2.34:1, 52:192.168.1.1:0, 110:10.200.0.1:1, 127:192.168.0.7:0]",
+                scan(scanner, TEXT).toString());
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        Random random = new Random(7);
+        StringBuilder text = new StringBuilder();
+        for (int i=0; i<5000; i++) {
+            text.append(random.nextInt(3)==0 ? "10." : "11.").append(random.nextInt(256)).append('.')
+                .append(random.nextInt(256)).append('.').append(random.nextInt(256))
+                .append(random.nextBoolean() ? " " : ".\n");
+        }
+        CidrScanner whole = CidrScanner.compile("10/8");
+        List<String> expected = scan(whole, text.toString());
+        assertFalse(expected.isEmpty());
+        Path file = Files.createTempFile("scan", ".log");
+        try {
+            Files.write(file, text.toString().getBytes(StandardCharsets.US_ASCII));
+            for (int chunkSize : new int[] {7, 13, 100, 4096}) {
+                CidrScanner chunked = new CidrScanner(whole.matcher(), chunkSize);
+                try (Stream<CidrScanner.Match> matches = chunked.stream(file)) {
+                    List<String> found = matches.parallel()
+                            .map(m -> m.offset()+":"+AddressParser.format(m.address())+":"+m.entry())
+                            .collect(Collectors.toList());
+                    assertEquals("chunk size "+chunkSize, expected, found);
+                }
+                List<String> found = Collections.synchronizedList(new ArrayList<>());
+                long count = chunked.scan(file, (offset, address, entry) -> found.add(offset+":"+AddressParser.format(address)+":"+entry));
+                assertEquals(expected.size(), count);
+                Collections.sort(found);
+                List<String> sorted = new ArrayList<>(expected);
+                Collections.sort(sorted);
+                assertEquals("chunk size "+chunkSize, sorted, found);
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testLongTokens() throws IOException {
+        // addresses followed by runs of dots longer than the overlap between chunks
+        StringBuilder text = new StringBuilder();
+        for (int dots : new int[] {1, 60, 63, 64, 65, 200, 1000}) {
+            for (int pad=0; pad<7; pad++) {
+                text.append("xxxxxxx".substring(pad)).append("10.1.2.").append(dots & 0xFF);
+                for (int i=0; i<dots; i++) {
+                    text.append('.');
+                }
+                text.append(' ');
+            }
+        }
+        text.append("10.9.9.9..........................................................................");
+        CidrScanner whole = CidrScanner.compile("10/8");
+        List<String> expected = scan(whole, text.toString());
+        assertEquals(50, expected.size());
+        Path file = Files.createTempFile("scan", ".log");
+        try {
+            Files.write(file, text.toString().getBytes(StandardCharsets.US_ASCII));
+            for (int chunkSize : new int[] {5, 16, 29, 64}) {
+                CidrScanner chunked = new CidrScanner(whole.matcher(), chunkSize);
+                try (Stream<CidrScanner.Match> matches = chunked.stream(file)) {
+                    List<String> found = matches
+                            .map(m -> m.offset()+":"+AddressParser.format(m.address())+":"+m.entry())
+                            .collect(Collectors.toList());
+                    assertEquals("chunk size "+chunkSize, expected, found);
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void testEntryIndex() {
+        IntervalMatcher matcher = CidrPattern.compileMatcher("10.1/16, 10/8, 10.1.2.3, 192.168.0.0-192.168.0.9, *.18.23/24");
+        assertEquals(0, matcher.indexOf((int) AddressParser.parse("10.1.2.3")));
+        assertEquals(1, matcher.indexOf((int) AddressParser.parse("10.2.2.3")));
+        assertEquals(3, matcher.indexOf((int) AddressParser.parse("192.168.0.9")));
+        assertEquals(4, matcher.indexOf((int) AddressParser.parse("9.18.23.1")));
+        assertEquals(0, matcher.indexOf((int) AddressParser.parse("10.1.18.23")));
+        assertEquals(-1, matcher.indexOf((int) AddressParser.parse("192.168.0.10")));
+        assertEquals("10.1.2.3", matcher.entry(2));
+    }
+
+}
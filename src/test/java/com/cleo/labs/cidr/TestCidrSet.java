@@ -0,0 +1,85 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+public class TestCidrSet {
+
+    @Test
+    public void testAlgebra() {
+        CidrSet allow = CidrSet.of("10/8, 192.168/16");
+        CidrSet deny = CidrSet.of("10.66/16, 192.168.1.1");
+        CidrSet region = CidrSet.of("10/9, 192.168.0/23");
+        CidrSet policy = allow.subtract(deny).intersect(region);
+        assertEquals("10.0.0.0-10.65.255.255,10.67.0.0-10.127.255.255,192.168.0.0-192.168.1.0,192.168.1.2-192.168.1.255",
+                policy.toString());
+        assertEquals("10.0.0.0/8,192.168.0.0/16", CidrSet.of("10/8,192.168/16").union(CidrSet.of("10.1/16")).toString());
+        assertEquals("10.0.0.0/7", CidrSet.of("10/8").union(CidrSet.of("11/8")).toString());
+        assertEquals("0.0.0.0-9.255.255.255,11.0.0.0-255.255.255.255", CidrSet.of("10/8").complement().toString());
+        assertEquals(CidrSet.ALL, CidrSet.EMPTY.complement());
+        assertEquals(CidrSet.EMPTY, CidrSet.ALL.complement());
+        assertEquals("", CidrSet.EMPTY.toString());
+        assertTrue(allow.contains(policy.intersect(allow)));
+        assertFalse(policy.contains(allow));
+        assertEquals(1L << 32, CidrSet.ALL.addresses());
+        assertEquals(2, CidrSet.of("10/8, 12.1.2.3, 12.1.2.4").size());
+    }
+
+    @Test
+    public void testAgainstMatchers() {
+        Random random = new Random(31);
+        for (int round=0; round<50; round++) {
+            CidrSet a = CidrSet.of(list(random));
+            CidrSet b = CidrSet.of(list(random));
+            CidrSet union = a.union(b);
+            CidrSet intersection = a.intersect(b);
+            CidrSet difference = a.subtract(b);
+            CidrSet complement = a.complement();
+            assertEquals(a, a.union(a).intersect(a));
+            assertEquals(CidrSet.ALL, a.union(complement));
+            assertTrue(a.intersect(complement).isEmpty());
+            assertEquals(difference, a.intersect(b.complement()));
+            for (int i=0; i<2000; i++) {
+                int address = random.nextInt();
+                boolean inA = a.matches(address);
+                boolean inB = b.matches(address);
+                assertEquals(inA || inB, union.matches(address));
+                assertEquals(inA && inB, intersection.matches(address));
+                assertEquals(inA && !inB, difference.matches(address));
+                assertEquals(!inA, complement.matches(address));
+            }
+        }
+    }
+
+    private static String list(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i=0; i<20; i++) {
+            int bits = 1+random.nextInt(12);
+            sb.append(i==0 ? "" : ",").append(AddressParser.format(random.nextInt() & -1 << (32-bits))).append('/').append(bits);
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testConversions() {
+        CidrSet set = CidrSet.of("10.0.0.0-10.0.1.4, 192.168/16, 1.2.3.4");
+        assertEquals("1.2.3.4,10.0.0.0/24,10.0.1.0/30,10.0.1.4,192.168.0.0/16", set.toPrefixString());
+        assertEquals(set, CidrSet.of(set.toPrefixString()));
+        assertEquals(set, CidrSet.of(set.toString()));
+        assertEquals(set, CidrSet.of(CidrSet.ALL.toPrefixString()).intersect(set));
+        assertEquals(CidrSet.ALL, CidrSet.of(CidrSet.ALL.toPrefixString()));
+        Pattern pattern = set.toPattern();
+        CidrMatcher bytecode = BytecodeMatcher.compile(set.toList());
+        Random random = new Random(37);
+        for (int i=0; i<20000; i++) {
+            int address = i%2==0 ? random.nextInt() : 0x0A000000 | random.nextInt(0x400);
+            String ip = AddressParser.format(address);
+            assertEquals(ip, set.matches(address), pattern.matcher(ip).matches());
+            assertEquals(ip, set.matches(address), bytecode.matches(address));
+        }
+    }
+}
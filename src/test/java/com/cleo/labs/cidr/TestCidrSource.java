@@ -0,0 +1,151 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import org.junit.Assume;
+import org.junit.Test;
+import org.junit.runner.JUnitCore;
+import org.junit.runner.Result;
+
+public class TestCidrSource {
+
+    private static String list(int n) {
+        Random random = new Random(44);
+        StringBuilder cidrs = new StringBuilder();
+        for (int i=0; i<n; i++) {
+            cidrs.append(AddressParser.format(random.nextInt())).append('/').append(12+random.nextInt(21)).append('\n');
+        }
+        return cidrs.toString();
+    }
+
+    private static String location(Class<?> c) throws Exception {
+        return new File(c.getProtectionDomain().getCodeSource().getLocation().toURI()).getPath();
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Generates, compiles and loads the class and test for {@code cidrs},
+     * checks it against {@link CidrPattern} and runs the generated test.
+     */
+    private static void check(String cidrs, String className) throws Exception {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        Assume.assumeNotNull(javac);
+        Path dir = Files.createTempDirectory("cidr");
+        try {
+            Path listFile = dir.resolve("list.cidr");
+            Files.write(listFile, cidrs.getBytes(StandardCharsets.UTF_8));
+            CidrLoader.Result loaded = CidrLoader.load(listFile);
+            assertFalse(loaded.errors().toString(), loaded.hasErrors());
+            Path source = CidrSource.write(dir, className,
+                    CidrSource.generate(loaded.list(), className, listFile.getFileName().toString()));
+            Path test = CidrSource.write(dir, className+"Test",
+                    CidrSource.generateTest(className, listFile.toString()));
+            String classpath = location(CidrSource.class)+File.pathSeparator+location(Test.class);
+            assertEquals(0, javac.run(null, null, null, "-nowarn", "-cp", classpath, "-d", dir.toString(),
+                    source.toString(), test.toString()));
+            try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toUri().toURL()}, TestCidrSource.class.getClassLoader())) {
+                Class<?> generated = loader.loadClass(className);
+                Pattern expected = CidrPattern.compile(loaded.list());
+                assertEquals(expected.pattern(), generated.getField("REGEX").get(null));
+                assertEquals(loaded.list().size(), generated.getField("ENTRIES").getInt(null));
+                IntervalMatcher matcher = (IntervalMatcher) generated.getMethod("matcher").invoke(null);
+                assertEquals(loaded.list().merged().length/2, matcher.size());
+                Random random = new Random(45);
+                for (int i=0; i<1000; i++) {
+                    int address = random.nextInt();
+                    assertEquals(expected.matcher(AddressParser.format(address)).matches(), matcher.matches(address));
+                }
+                Result result = JUnitCore.runClasses(loader.loadClass(className+"Test"));
+                assertTrue(result.getFailures().toString(), result.wasSuccessful());
+                assertEquals(1, result.getRunCount());
+            }
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testSmall() throws Exception {
+        check("10/8\n192.168/16\n11.*.3.*\n172.16.0.0-172.31.255.255\n255.255.255.255\n", "com.example.net.Internal");
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        check("", "Empty");
+    }
+
+    @Test
+    public void testLarge() throws Exception {
+        // the regex spans several string chunks
+        String cidrs = list(3000);
+        String source = CidrSource.generate(CidrLoader.load(new StringReader(cidrs)).list(), "Large", "large.cidr");
+        assertTrue(source.split("\\.append\\(\"", -1).length > 4);
+        check(cidrs, "com.example.Large");
+    }
+
+    @Test
+    public void testWriteUnchanged() throws Exception {
+        Path dir = Files.createTempDirectory("cidr");
+        try {
+            String source = CidrSource.generate(CidrList.parse("10/8"), "com.example.Same", "same.cidr");
+            Path file = CidrSource.write(dir, "com.example.Same", source);
+            assertEquals(dir.resolve("com/example/Same.java"), file);
+            FileTime old = FileTime.fromMillis(1000000000000L);
+            Files.setLastModifiedTime(file, old);
+            // the same content leaves the file alone
+            CidrSource.write(dir, "com.example.Same", source);
+            assertEquals(old, Files.getLastModifiedTime(file));
+            // new content is written
+            String changed = CidrSource.generate(CidrList.parse("10/8,11/8"), "com.example.Same", "same.cidr");
+            CidrSource.write(dir, "com.example.Same", changed);
+            assertNotEquals(old, Files.getLastModifiedTime(file));
+            assertEquals(changed, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        } finally {
+            delete(dir);
+        }
+    }
+
+    @Test
+    public void testOf() {
+        IntervalMatcher matcher = IntervalMatcher.of(new int[] {0x0A000000, 0x0AFFFFFF, 0xC0A80000, 0xC0A8FFFF});
+        assertEquals(2, matcher.size());
+        assertTrue(matcher.matches(0x0A010203));
+        assertTrue(matcher.matches(0xC0A80101));
+        assertFalse(matcher.matches(0x0B000000));
+        assertFalse(matcher.matches(0xFFFFFFFF));
+        try {
+            IntervalMatcher.of(new int[] {0xC0A80000, 0xC0A8FFFF, 0x0A000000, 0x0AFFFFFF});
+            fail("unsorted intervals");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            IntervalMatcher.of(new int[] {1});
+            fail("odd length");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TestDirectTable {
+
+    /**
+     * Checks the addresses where the table can go wrong: each interval bound and its
+     * neighbors, where a partial block must tell them apart, and the first and last
+     * address of the stride block holding the bound, where the top-level entry ends.
+     */
+    private void testSame(String cidrs, DirectTable table) {
+        IntervalMatcher expected = CidrPattern.compileMatcher(cidrs);
+        Random random = new Random(cidrs.hashCode());
+        int host = -1 >>> table.stride();
+        for (long bound : CidrList.parse(cidrs).merged()) {
+            int b = (int) bound;
+            int[] addresses = {b-1, b, b+1, b & ~host, (b & ~host)-1, b | host, (b | host)+1,
+                               b & ~host | random.nextInt() & host};
+            for (int address : addresses) {
+                assertEquals(cidrs+" matching "+AddressParser.format(address), expected.matches(address), table.matches(address));
+            }
+        }
+        assertEquals(table.memoryFootprint(), DirectTable.footprint(cidrs, table.stride()));
+    }
+
+    @Test
+    public void testMatching() {
+        String[] lists = {"10/8", "10.1.2.3", "0/1,128/1", "255.255.255.255",
+                "10/8,192.168/16,1.2.3.4-1.2.4.5,1.2.4.100-1.2.4.200,1.2.4.210", "*.18.23/24", TestBytecodeMatcher.random(1000, 1)};
+        for (String list : lists) {
+            for (int stride : new int[] {16, 20, 24}) {
+                testSame(list, DirectTable.compile(list, stride, stride==20));
+            }
+        }
+    }
+
+    @Test
+    public void testFootprint() {
+        DirectTable table = DirectTable.compile("10/8,1.2.3.4-1.2.4.5");
+        assertEquals(16, table.stride());
+        assertFalse(table.isDirect());
+        assertEquals(1, table.blocks()); // 1.2/16 is partial, 10/8 fills whole entries
+        assertEquals(4*65536 + 8192, table.memoryFootprint());
+        DirectTable wide = DirectTable.compile("10/8,1.2.3.4-1.2.4.5", 24, true);
+        assertTrue(wide.isDirect());
+        assertEquals(2, wide.blocks()); // 1.2.3/24 and 1.2.4/24
+        assertEquals(4*(1<<24) + 2*32, wide.memoryFootprint());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testStride() {
+        DirectTable.compile("10/8", 8, false);
+    }
+}
@@ -0,0 +1,136 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class TestDynamicCidrSet {
+
+    @Test
+    public void testAddRemove() {
+        DynamicCidrSet set = new DynamicCidrSet();
+        assertEquals(0, set.version());
+        assertFalse(set.matches("10.1.2.3"));
+        DynamicCidrSet.Snapshot s1 = set.add("10/8");
+        assertEquals(1, s1.version());
+        assertTrue(set.matches("10.1.2.3"));
+        set.add("11/8, 192.168/16");
+        assertEquals("10.0.0.0/7,192.168.0.0/16", set.toString());
+        set.remove("10.1/16");
+        assertEquals("10.0.0.0/16,10.2.0.0-11.255.255.255,192.168.0.0/16", set.toString());
+        assertFalse(set.matches("10.1.2.3"));
+        assertTrue(set.matches("10.2.0.0"));
+        assertTrue(set.matches("10.0.255.255"));
+        assertEquals(3, set.version());
+        // the old snapshot is unchanged
+        assertTrue(s1.matches("10.1.2.3"));
+        assertFalse(s1.matches("11.1.2.3"));
+        assertEquals("10.0.0.0/8", s1.toString());
+    }
+
+    @Test
+    public void testDelta() {
+        DynamicCidrSet set = new DynamicCidrSet("10/8, 1.2.3.4");
+        DynamicCidrSet.Snapshot s = set.applyDelta("10.1/16", "10/8");
+        assertEquals(1, s.version());
+        assertEquals("1.2.3.4,10.1.0.0/16", s.toString());
+        s = set.applyDelta(null, "1.2.3.4");
+        assertEquals("10.1.0.0/16", s.toString());
+        s = set.applyDelta("", "");
+        assertEquals(3, s.version());
+        set.remove("0/1,128/1");
+        assertEquals("", set.toString());
+        assertFalse(set.matches("10.1.0.0"));
+    }
+
+    @Test
+    public void testErrors() {
+        DynamicCidrSet set = new DynamicCidrSet("10/8");
+        try {
+            set.add("10.1.2.3-10.1.2.1");
+            fail("exception expected");
+        } catch (PatternSyntaxException e) {
+            assertEquals("Range must be in order", e.getDescription());
+        }
+        assertEquals(0, set.version());
+    }
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(11);
+        DynamicCidrSet set = new DynamicCidrSet();
+        // model of the low 16 bits of 10.0/16
+        BitSet model = new BitSet();
+        for (int round=0; round<500; round++) {
+            int from = random.nextInt(1 << 16);
+            int to = Math.min(0xFFFF, from + random.nextInt(1 << 10));
+            String cidr = "10.0."+(from>>8)+"."+(from&0xFF)+"-10.0."+(to>>8)+"."+(to&0xFF);
+            if (random.nextInt(3) == 0) {
+                set.remove(cidr);
+                model.clear(from, to+1);
+            } else {
+                set.add(cidr);
+                model.set(from, to+1);
+            }
+        }
+        DynamicCidrSet.Snapshot snapshot = set.snapshot();
+        for (int i=0; i<1<<16; i++) {
+            assertEquals(model.get(i), snapshot.matches(0x0A000000 | i));
+        }
+        assertFalse(snapshot.matches(0x0A010000));
+        assertFalse(snapshot.matches(0x09FFFFFF));
+        assertEquals(CidrPattern.normalize(snapshot.toString()), snapshot.toString());
+    }
+
+    @Test
+    public void testSplice() {
+        Random random = new Random(12);
+        DynamicCidrSet set = new DynamicCidrSet();
+        long[] model = new long[0];
+        for (int round=0; round<2000; round++) {
+            StringBuilder cidrs = new StringBuilder();
+            for (int i=random.nextInt(3); i>=0; i--) {
+                // mostly small blocks, with some at either end of the address range
+                int bits = 8+random.nextInt(25);
+                int address = random.nextInt(8)==0 ? -random.nextInt(2) : random.nextInt();
+                cidrs.append(cidrs.length()==0 ? "" : ",").append(address>>>24).append('.').append(address>>16 & 0xFF)
+                     .append('.').append(address>>8 & 0xFF).append('.').append(address & 0xFF)
+                     .append('/').append(bits);
+            }
+            long[] bounds = CidrList.parse(cidrs.toString()).merged();
+            if (random.nextInt(3) == 0) {
+                set.remove(cidrs.toString());
+                model = Intervals.subtract(model, bounds);
+            } else {
+                set.add(cidrs.toString());
+                model = Intervals.union(model, bounds);
+            }
+            assertEquals(new IntervalMatcher(model).entry(0), set.toString());
+        }
+    }
+
+    @Test
+    public void testConcurrent() throws InterruptedException {
+        DynamicCidrSet set = new DynamicCidrSet();
+        Thread[] writers = new Thread[4];
+        for (int t=0; t<writers.length; t++) {
+            int octet = t;
+            writers[t] = new Thread(() -> {
+                for (int i=0; i<100; i++) {
+                    set.add(octet+"."+i+"/16");
+                }
+            });
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        assertEquals(400, set.version());
+        assertEquals("0.0.0.0-0.99.255.255,1.0.0.0-1.99.255.255,2.0.0.0-2.99.255.255,3.0.0.0-3.99.255.255",
+                     set.toString());
+    }
+}
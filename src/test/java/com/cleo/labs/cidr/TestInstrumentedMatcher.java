@@ -0,0 +1,72 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TestInstrumentedMatcher {
+
+    @Test
+    public void testCounts() {
+        InstrumentedMatcher matcher = new InstrumentedMatcher(CidrPattern.compileMatcher("10/8, 10.1/16, 192.168/16, 1.2.3.4"), 1);
+        List<String> matched = new ArrayList<>();
+        matcher.setListener((address, entry) -> matched.add(AddressParser.format(address)+" "+entry));
+        assertTrue(matcher.matches("10.1.2.3"));
+        assertTrue(matcher.matches("10.2.2.3"));
+        assertTrue(matcher.matches("192.168.0.1"));
+        assertFalse(matcher.matches("11.0.0.1"));
+        assertFalse(matcher.matches("not an address")); // never reaches the lookup
+        assertEquals(2, matcher.indexOf(0xC0A80101));
+        InstrumentedMatcher.Snapshot snapshot = matcher.snapshot();
+        assertEquals(4, snapshot.entries());
+        assertEquals(2, snapshot.hits(0));
+        assertEquals(0, snapshot.hits(1));
+        assertEquals(2, snapshot.hits(2));
+        assertEquals(4, snapshot.hits());
+        assertEquals(1, snapshot.misses());
+        assertEquals(5, snapshot.samples());
+        assertTrue(snapshot.percentile(0.99) > 0);
+        assertArrayEquals(new int[] {1, 3}, snapshot.unused());
+        assertEquals("[10.1.2.3 0, 10.2.2.3 0, 192.168.0.1 2, 192.168.1.1 2]", matched.toString());
+
+        matcher.setListener(null);
+        assertEquals(4, matcher.reset().hits());
+        assertEquals(0, matcher.snapshot().hits());
+        assertEquals(0, matcher.snapshot().samples());
+        matcher.matches(0x01020304);
+        assertEquals(1, matcher.snapshot().hits(3));
+        assertEquals(4, matched.size());
+    }
+
+    @Test
+    public void testSampling() throws InterruptedException {
+        InstrumentedMatcher never = new InstrumentedMatcher(CidrPattern.compileMatcher("10/8"), 0);
+        InstrumentedMatcher sampled = new InstrumentedMatcher(CidrPattern.compileMatcher("10/8"), 16);
+        Thread[] threads = new Thread[4];
+        for (int t=0; t<threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i=0; i<100000; i++) {
+                    never.matches(0x0A000000 + i);
+                    sampled.matches(i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(400000, never.snapshot().hits(0));
+        assertEquals(0, never.snapshot().samples());
+        assertEquals(400000, sampled.snapshot().misses());
+        long samples = sampled.snapshot().samples();
+        assertTrue(String.valueOf(samples), samples > 400000/16/2 && samples < 400000/16*2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testSampleRate() {
+        new InstrumentedMatcher(CidrPattern.compileMatcher("10/8"), 10);
+    }
+}
@@ -0,0 +1,149 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Random;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class TestIntervalMatcher {
+
+    private static String ip(long address) {
+        return String.format("%d.%d.%d.%d", address>>24 & 0xFF, address>>16 & 0xFF, address>>8 & 0xFF, address & 0xFF);
+    }
+
+    private void testSame(String cidrs, String...inputs) {
+        Pattern pattern = CidrPattern.compile(cidrs);
+        IntervalMatcher matcher = CidrPattern.compileMatcher(cidrs);
+        for (String input : inputs) {
+            assertEquals(cidrs+" matching "+input, pattern.matcher(input).matches(), matcher.matches(input));
+        }
+        Random random = new Random(cidrs.hashCode());
+        for (int i=0; i<20000; i++) {
+            int address = random.nextInt();
+            String input = ip(address & 0xFFFFFFFFL);
+            assertEquals(cidrs+" matching "+input, pattern.matcher(input).matches(), matcher.matches(address));
+            assertEquals(cidrs+" matching "+input, pattern.matcher(input).matches(), matcher.matches(input));
+        }
+    }
+
+    @Test
+    public void testSameAsPattern() {
+        String[] edges = {"0.0.0.0", "255.255.255.255", "10.0.0.0", "9.255.255.255", "11.0.0.0",
+                "10.1.2.3", "10.255.255.255", "192.168.0.33", "1.18.23.44", "2.18.24.0",
+                "1.2.3.4", "1.2.4.5", "1.2.4.6", "1.2.3.3", "128.0.0.0", "127.255.255.255"};
+        testSame("10/8", edges);
+        testSame("10.1.2.3,192.168.9.10", edges);
+        testSame("10.1.2.*", edges);
+        testSame("*.18.23/24", edges);
+        testSame("1.2.3.4-1.2.4.5", edges);
+        testSame("192.168.0/24, 10/8, 128/1", edges);
+        testSame("*.*.*.*", edges);
+        testSame("0.0.0.0,255.255.255.255", edges);
+        testSame("172.16/12,10.0.0.0/25,10.0.0.128/25", edges);
+        testSame("10.*.5.*", edges);
+    }
+
+    @Test
+    public void testMalformed() {
+        IntervalMatcher matcher = CidrPattern.compileMatcher("*.*.*.*");
+        String[] bad = {"", "1.2.3", "1.2.3.4.5", "01.2.3.4", "1.2.3.04", "256.1.1.1", "1.2.3.4 ",
+                " 1.2.3.4", "1..3.4", "1.2.3.", ".1.2.3", "1.2.3.1000", "a.b.c.d", "1.2.3.4/32"};
+        for (String input : bad) {
+            assertFalse(input, matcher.matches(input));
+        }
+        assertTrue(matcher.matches("0.0.0.0"));
+        assertTrue(matcher.matches("255.255.255.255"));
+    }
+
+    @Test
+    public void testMergeLarge() {
+        // enough intervals for the radix sort, across the sign bit and with shared starts
+        Random random = new Random(12);
+        long[] bounds = new long[2*(4*Intervals.RADIX_THRESHOLD)];
+        for (int i=0; i<bounds.length; i+=2) {
+            long from = i%10==0 && i > 0 ? bounds[i-2] : random.nextInt() & 0xFFFFFFFFL;
+            bounds[i] = from;
+            bounds[i+1] = Math.min(0xFFFFFFFFL, from + random.nextInt(1 << random.nextInt(28)));
+        }
+        // merged in chunks small enough for Arrays.sort, then joined
+        long[] expected = new long[0];
+        for (int i=0; i<bounds.length/2; i+=Intervals.RADIX_THRESHOLD/2) {
+            expected = Intervals.union(expected, Intervals.merge(bounds, i, i+Intervals.RADIX_THRESHOLD/2));
+        }
+        assertArrayEquals(expected, Intervals.merge(bounds));
+    }
+
+    @Test
+    public void testMerged() {
+        assertEquals(1, CidrPattern.compileMatcher("10.0.0.0/25,10.0.0.128/25").size());
+        assertEquals(1, CidrPattern.compileMatcher("10/8,10.1/16").size());
+        assertEquals(2, CidrPattern.compileMatcher("10/8,12/8").size());
+        assertEquals(256, CidrPattern.compileMatcher("*.18.23/24").size());
+    }
+
+    @Test
+    public void testErrors() {
+        String[] inputs = {"not even numbers", "10", "256/8", "1.2.3.4.5", "1.2.3-1.2.3.4",
+                "1.2.3.4-1.1.3.4", "1.2.3.5-1.2.3.4", ",", "10/8,,12/8"};
+        for (String input : inputs) {
+            String expected = null;
+            try {
+                CidrPattern.compile(input);
+            } catch (PatternSyntaxException e) {
+                expected = e.getDescription();
+            }
+            assertNotNull(input, expected);
+            try {
+                CidrPattern.compileMatcher(input);
+                fail("exception expected for "+input);
+            } catch (PatternSyntaxException e) {
+                assertEquals(input, expected, e.getDescription());
+            }
+        }
+    }
+
+    private void testBatch(IntervalMatcher matcher, int[] addresses) {
+        BitSet out = new BitSet();
+        BatchResult result = matcher.matchAll(addresses, out);
+        long expected = 0;
+        for (int i=0; i<addresses.length; i++) {
+            assertEquals(ip(addresses[i] & 0xFFFFFFFFL), matcher.matches(addresses[i]), out.get(i));
+            expected += matcher.matches(addresses[i]) ? 1 : 0;
+        }
+        assertEquals(addresses.length, result.addresses());
+        assertEquals(expected, result.matches());
+        assertEquals(expected, out.cardinality());
+        assertEquals(expected, matcher.count(addresses));
+        assertEquals(expected, matcher.filter(Arrays.stream(addresses).parallel()).count());
+    }
+
+    @Test
+    public void testBatch() {
+        Random random = new Random(9);
+        IntervalMatcher matcher = CidrPattern.compileMatcher("10/8,192.168/16,1.2.3.4-1.2.4.5,128/2,255.255.255.255");
+        int[] addresses = new int[3*IntervalMatcher.BATCH_SIZE+17];
+        for (int i=0; i<addresses.length; i++) {
+            addresses[i] = random.nextInt();
+        }
+        addresses[5] = 0xFFFFFFFF;
+        addresses[6] = 0x0A000000;
+        addresses[7] = 0x09FFFFFF;
+        testBatch(matcher, new int[0]);
+        testBatch(matcher, Arrays.copyOf(addresses, 100));
+        testBatch(matcher, addresses);
+        int[] sorted = addresses.clone();
+        Arrays.sort(sorted); // signed order: not sorted as addresses
+        testBatch(matcher, sorted);
+        for (int i=0; i<sorted.length; i++) {
+            sorted[i] ^= Integer.MIN_VALUE;
+        }
+        testBatch(matcher, sorted);
+        testBatch(new IntervalMatcher(new long[0]), addresses);
+    }
+
+}
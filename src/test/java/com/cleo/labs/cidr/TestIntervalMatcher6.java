@@ -0,0 +1,215 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class TestIntervalMatcher6 {
+
+    @Test
+    public void testMatches() throws UnknownHostException {
+        IntervalMatcher6 matcher = IntervalMatcher6.compile("2001:db8::/32, fc00::/7, ::1, 2001:db9::5-2001:db9::1:4");
+        assertEquals(4, matcher.entries());
+        assertEquals("fc00::/7", matcher.entry(1));
+        assertEquals(4, matcher.size());
+        assertTrue(matcher.matches("2001:db8::"));
+        assertTrue(matcher.matches("2001:db8:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertFalse(matcher.matches("2001:db7:ffff:ffff:ffff:ffff:ffff:ffff"));
+        assertTrue(matcher.matches("fdff::1"));
+        assertFalse(matcher.matches("fe00::"));
+        assertTrue(matcher.matches("::1"));
+        assertFalse(matcher.matches("::2"));
+        assertFalse(matcher.matches("::"));
+        assertTrue(matcher.matches("2001:db9::5"));
+        assertTrue(matcher.matches("2001:db9::ff"));
+        assertTrue(matcher.matches("2001:db9::1:4"));
+        assertFalse(matcher.matches("2001:db9::4"));
+        assertFalse(matcher.matches("2001:db9::1:5"));
+        assertFalse(matcher.matches("10.1.2.3"));
+        assertTrue(matcher.matches(InetAddress.getByName("2001:db8::1")));
+        assertFalse(matcher.matches(InetAddress.getByName("10.1.2.3")));
+        assertTrue(IntervalMatcher6.compile("::/0").matches("ffff::ffff"));
+        assertTrue(IntervalMatcher6.compile("::-ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff").matches("::"));
+    }
+
+    @Test
+    public void testMerge() {
+        // adjacent blocks across the 64-bit boundary and a host address inside a block
+        IntervalMatcher6 matcher = IntervalMatcher6.compile("2001:db8:0:0::/64, 2001:db8:0:1::/64, 2001:db8::17/128, "+
+                "2001:db8:0:2::-2001:db8:0:2:ffff:ffff:ffff:ffff");
+        assertEquals(1, matcher.size());
+        assertTrue(matcher.matches("2001:db8:0:2:ffff:ffff:ffff:ffff"));
+        assertFalse(matcher.matches("2001:db8:0:3::"));
+        // host bits are ignored
+        assertEquals(1, IntervalMatcher6.compile("2001:db8::1/32, 2001:db8::/32").size());
+    }
+
+    @Test
+    public void testIndexOf() {
+        IntervalMatcher6 matcher = IntervalMatcher6.compile("2001:db8:1::/48, 2001:db8::/32, ::1, 2001:db8:1:2::/64, "+
+                "::-::1, ffff::/16, ffff:ffff:ffff:ffff:ffff:ffff:ffff:fff0-ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff");
+        long[] address = new long[2];
+        assertTrue(AddressParser.parse6("2001:db8:1:2::3", address));
+        assertEquals(0, matcher.indexOf(address[0], address[1]));
+        assertTrue(AddressParser.parse6("2001:db8:2::", address));
+        assertEquals(1, matcher.indexOf(address[0], address[1]));
+        assertTrue(AddressParser.parse6("2001:db8:0:ffff:ffff:ffff:ffff:ffff", address));
+        assertEquals(1, matcher.indexOf(address[0], address[1]));
+        assertEquals(2, matcher.indexOf(0, 1));
+        assertEquals(4, matcher.indexOf(0, 0));
+        assertEquals(-1, matcher.indexOf(0, 2));
+        assertEquals(5, matcher.indexOf(-1L, -1L));
+        assertEquals(-1, matcher.indexOf(0xfffe_ffff_ffff_ffffL, -1L));
+    }
+
+    @Test
+    public void testMatchAll() {
+        IntervalMatcher6 matcher = IntervalMatcher6.compile("2001:db8::/32, fc00::/7, ::1, 2001:db9::5-2001:db9::1:4");
+        Random random = new Random(32);
+        int n = 3*IntervalMatcher6.BATCH_SIZE+17;
+        long[] addresses = new long[2*n];
+        for (int i=0; i<n; i++) {
+            switch (random.nextInt(3)) {
+            case 0:
+                addresses[2*i] = 0x20010db8_00000000L | random.nextInt(3);
+                break;
+            case 1:
+                addresses[2*i] = 0x20010db9_00000000L;
+                break;
+            default:
+                addresses[2*i] = random.nextLong();
+                break;
+            }
+            addresses[2*i+1] = random.nextInt(0x20000);
+        }
+        BitSet out = new BitSet();
+        BatchResult result = matcher.matchAll(addresses, out);
+        assertEquals(n, result.addresses());
+        assertEquals(out.cardinality(), result.matches());
+        assertEquals(result.matches(), matcher.count(addresses));
+        for (int i=0; i<n; i++) {
+            assertEquals(String.valueOf(i), matcher.matches(addresses[2*i], addresses[2*i+1]), out.get(i));
+        }
+        assertTrue(result.matches() > 0 && result.matches() < n);
+        // sorted input is merged in one pass
+        Integer[] order = new Integer[n];
+        for (int i=0; i<n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Intervals6.compare(addresses[2*a], addresses[2*a+1], addresses[2*b], addresses[2*b+1]));
+        long[] sorted = new long[2*n];
+        for (int i=0; i<n; i++) {
+            sorted[2*i] = addresses[2*order[i]];
+            sorted[2*i+1] = addresses[2*order[i]+1];
+        }
+        BitSet sortedOut = new BitSet();
+        assertEquals(result.matches(), matcher.matchAll(sorted, sortedOut).matches());
+        for (int i=0; i<n; i++) {
+            assertEquals(String.valueOf(i), out.get(order[i]), sortedOut.get(i));
+        }
+        assertEquals(0, IntervalMatcher6.compile("::1").count(new long[0]));
+    }
+
+    @Test
+    public void testFilter() throws UnknownHostException {
+        IntervalMatcher6 matcher = IntervalMatcher6.compile("2001:db8::/32");
+        List<InetAddress> addresses = Arrays.asList(InetAddress.getByName("2001:db8::1"),
+                InetAddress.getByName("10.1.2.3"), InetAddress.getByName("2001:db9::1"), InetAddress.getByName("2001:db8::2"));
+        assertEquals(Arrays.asList(addresses.get(0), addresses.get(3)),
+                matcher.filter(addresses.stream()).collect(Collectors.toList()));
+    }
+
+    private void testError(String cidrs, String description, int index) {
+        try {
+            IntervalMatcher6.compile(cidrs);
+            fail(cidrs);
+        } catch (PatternSyntaxException e) {
+            assertEquals(cidrs, description, e.getDescription());
+            assertEquals(cidrs, index, e.getIndex());
+        }
+    }
+
+    @Test
+    public void testErrors() {
+        testError("", "Not a CIDR Pattern", 0);
+        testError("2001:db8::/129", "Not a CIDR Pattern", 11);
+        testError("2001:db8::/032", "Not a CIDR Pattern", 11);
+        testError("2001:db8::/", "Not a CIDR Pattern", 11);
+        testError("2001:db8::/3x", "Not a CIDR Pattern", 12);
+        testError("2001:db8:::/32", "Not a CIDR Pattern", 0);
+        testError("10/8", "Not a CIDR Pattern", 0);
+        testError("::2-::1", "Range must be in order", 3);
+        testError("::1-::x", "Not a CIDR Pattern", 4);
+        testError("::1-::2/64", "Not a CIDR Pattern", 4);
+    }
+
+    @Test
+    public void testIPv4Only() {
+        try {
+            CidrPattern.compile("10/8, 2001:db8::/32");
+            fail();
+        } catch (PatternSyntaxException e) {
+            assertEquals("IPv6 address in IPv4 CIDR Pattern (see CidrList6)", e.getDescription());
+            assertEquals(4, e.getIndex());
+        }
+    }
+
+    @Test
+    public void testRandom() {
+        // blocks under a few short prefixes, so that lookups often land near a bound
+        Random random = new Random(31);
+        long[][] blocks = new long[200][];
+        StringBuilder cidrs = new StringBuilder();
+        for (int i=0; i<blocks.length; i++) {
+            long high = (long) random.nextInt(4) << 60 | random.nextLong() >>> 4 & (random.nextBoolean() ? -1L : 0xFFFFL);
+            long low = random.nextLong();
+            int bits = 1+random.nextInt(128);
+            long highMask = bits >= 64 ? -1L : -1L << (64-bits);
+            long lowMask = bits <= 64 ? 0 : -1L << (128-bits);
+            blocks[i] = new long[] {high & highMask, low & lowMask, high | ~highMask, low | ~lowMask};
+            cidrs.append(i==0 ? "" : ",").append(AddressParser.format6(high, low)).append('/').append(bits);
+        }
+        IntervalMatcher6 matcher = IntervalMatcher6.compile(cidrs.toString());
+        for (int i=0; i<100000; i++) {
+            long[] block = blocks[random.nextInt(blocks.length)];
+            long high;
+            long low;
+            switch (random.nextInt(4)) {
+            case 0:
+                high = block[0];
+                low = block[1] - (random.nextBoolean() ? 1 : 0);
+                break;
+            case 1:
+                high = block[2];
+                low = block[3] + (random.nextBoolean() ? 1 : 0);
+                break;
+            case 2:
+                high = block[0] ^ random.nextLong() >>> random.nextInt(64);
+                low = random.nextLong();
+                break;
+            default:
+                high = random.nextLong();
+                low = random.nextLong();
+                break;
+            }
+            int expected = -1;
+            for (int j=0; j<blocks.length && expected < 0; j++) {
+                long[] b = blocks[j];
+                if (Intervals6.compare(b[0], b[1], high, low) <= 0 && Intervals6.compare(high, low, b[2], b[3]) <= 0) {
+                    expected = j;
+                }
+            }
+            assertEquals(AddressParser.format6(high, low), expected >= 0, matcher.matches(high, low));
+            assertEquals(AddressParser.format6(high, low), expected, matcher.indexOf(high, low));
+        }
+    }
+}
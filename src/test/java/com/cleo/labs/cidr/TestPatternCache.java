@@ -0,0 +1,108 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class TestPatternCache {
+
+    @Test
+    public void testHit() {
+        PatternCache cache = new PatternCache(8);
+        cache.setRecordStats(true);
+        Pattern p = cache.get("10/8", 0);
+        assertSame(p, cache.get("10/8", 0));
+        assertNotSame(p, cache.get("10/8", Pattern.CASE_INSENSITIVE));
+        assertEquals(CidrPattern.generate("10/8", 0).pattern(), p.pattern());
+        assertEquals(1, cache.stats().hits());
+        assertEquals(2, cache.stats().misses());
+        assertEquals(1.0/3, cache.stats().hitRate(), 1e-9);
+    }
+
+    @Test
+    public void testNormalized() {
+        PatternCache cache = new PatternCache(8);
+        Pattern p = cache.get("10/8", 0);
+        assertSame(p, cache.get("10/8,10.1/16", 0));
+        assertSame(p, cache.get("10.0.0.0/8", 0));
+        assertEquals(3, cache.size()); // "10/8", "10/8,10.1/16" and "10.0.0.0/8"
+    }
+
+    @Test
+    public void testEviction() {
+        PatternCache cache = new PatternCache(2);
+        cache.setRecordStats(true);
+        Pattern p1 = cache.get("1.2.3.4", 0);
+        cache.get("1.2.3.5", 0);
+        assertSame(p1, cache.get("1.2.3.4", 0)); // second chance for 1.2.3.4
+        cache.get("1.2.3.6", 0);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.stats().evictions());
+        assertSame(p1, cache.get("1.2.3.4", 0));
+        cache.setMaximumSize(1);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testDisabled() {
+        PatternCache cache = new PatternCache(0);
+        Pattern p = cache.get("10/8", 0);
+        assertNotSame(p, cache.get("10/8", 0));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testErrors() {
+        PatternCache cache = new PatternCache(8);
+        for (int i=0; i<2; i++) {
+            try {
+                cache.get("1.2.3.4-1.1.3.4", 0);
+                fail("exception expected");
+            } catch (PatternSyntaxException e) {
+                assertEquals("Range must be in order", e.getDescription());
+            }
+        }
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testConcurrent() throws Exception {
+        PatternCache cache = new PatternCache(16);
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int t=0; t<4; t++) {
+                workers.add(pool.submit(() -> {
+                    for (int i=0; i<2000; i++) {
+                        String cidr = "10."+(i%40)+"/16";
+                        assertTrue(cache.get(cidr, 0).matcher("10."+(i%40)+".1.2").matches());
+                    }
+                }));
+            }
+            // rethrows a failed assertion from the worker on this thread
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        cache.get("192.168/16", 0);
+        assertTrue(cache.size() <= 16);
+    }
+
+    @Test
+    public void testCidrPattern() {
+        assertSame(CidrPattern.compile("172.16/12"), CidrPattern.compile("172.16/12"));
+        assertTrue(CidrPattern.matches("172.16/12", "172.31.0.1"));
+    }
+}
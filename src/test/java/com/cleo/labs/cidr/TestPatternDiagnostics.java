@@ -0,0 +1,93 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Random;
+import java.util.regex.PatternSyntaxException;
+
+import org.junit.Test;
+
+public class TestPatternDiagnostics {
+
+    static String list(int n) {
+        Random random = new Random(43);
+        StringBuilder cidrs = new StringBuilder();
+        for (int i=0; i<n; i++) {
+            cidrs.append(i==0 ? "" : ",").append(AddressParser.format(random.nextInt())).append('/').append(16+random.nextInt(17));
+        }
+        return cidrs.toString();
+    }
+
+    @Test
+    public void testShape() {
+        PatternDiagnostics diagnostics = CidrPattern.diagnose("10/8, 192.168/16");
+        // (?:10\.(?:\d|[1-9]\d|1\d{2}|2(?:[0-4]\d|5[0-5]))\.(?:...)\.(?:...)|192\.168\.(?:...)\.(?:...))
+        String regex = diagnostics.pattern().pattern();
+        assertEquals(CidrPattern.compile("10/8, 192.168/16").pattern(), regex);
+        assertEquals(2, diagnostics.entries());
+        assertEquals(regex.length(), diagnostics.length());
+        assertEquals(1+5*2, diagnostics.groups());
+        assertEquals(3, diagnostics.depth());
+        assertEquals(1+5*4, diagnostics.alternatives());
+        assertFalse(diagnostics.fallback());
+        assertNull(diagnostics.matcher());
+        assertTrue(diagnostics.matches("192.168.3.4"));
+        assertTrue(diagnostics.compileNanos() > 0);
+        assertTrue(diagnostics.toString().startsWith("2 entries, "+regex.length()+" chars, 11 groups, depth 3"));
+        PatternDiagnostics empty = CidrPattern.diagnose(load("").list());
+        assertEquals(4, empty.length());
+        assertFalse(empty.matches("10.1.2.3"));
+    }
+
+    static CidrLoader.Result load(String cidrs) {
+        try {
+            return CidrLoader.load(new StringReader(cidrs.replace(',', '\n')));
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    @Test
+    public void testBudget() {
+        CidrList list = load(list(2000)).list();
+        int full = CidrPattern.diagnose(list).length();
+        try {
+            CidrPattern.diagnose(list, 0, 10000, false);
+            fail();
+        } catch (PatternSyntaxException e) {
+            assertEquals("Regex exceeds budget of 10000 characters", e.getDescription());
+        }
+        PatternDiagnostics fallback = CidrPattern.diagnose(list, 0, 10000, true);
+        assertTrue(fallback.fallback());
+        assertNull(fallback.pattern());
+        assertEquals(0, fallback.compileNanos());
+        // generation stopped at the first alternative past the budget
+        assertTrue(fallback.length() > 10000 && fallback.length() < 10500);
+        IntervalMatcher expected = CidrPattern.compileMatcher(list);
+        Random random = new Random(47);
+        for (int i=0; i<10000; i++) {
+            String ip = AddressParser.format(random.nextInt());
+            assertEquals(ip, expected.matches(ip), fallback.matches(ip));
+        }
+        assertFalse(CidrPattern.diagnose(list, 0, full, false).fallback());
+        assertTrue(CidrPattern.diagnose(list, 0, full-1, true).fallback());
+    }
+
+    @Test
+    public void testFallbackExpansion() {
+        CidrList list = CidrList.parse("*.*.*.5, 10/8");
+        // the regex needs no expansion
+        assertFalse(CidrPattern.diagnose(list).fallback());
+        try {
+            CidrPattern.diagnose(list, 0, 20, true);
+            fail();
+        } catch (PatternSyntaxException e) {
+            assertEquals("Wildcard expands to 16777216 intervals, more than 65536", e.getDescription());
+            assertEquals(0, e.getIndex());
+        }
+        // a list the matcher can hold still falls back
+        assertTrue(CidrPattern.diagnose(CidrList.parse("*.*.5.5, 10/8"), 0, 20, true).fallback());
+    }
+}
@@ -0,0 +1,40 @@
+package com.cleo.labs.cidr;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+// apart from TestPatternDiagnostics so that the no-jfr profile can leave it out
+public class TestPatternEvent {
+
+    @Test
+    public void testEvents() throws IOException {
+        Path file = Files.createTempFile("cidr", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.cleo.labs.cidr.PatternCompile");
+            recording.start();
+            CidrPattern.diagnose("10/8, 192.168/16");
+            CidrPattern.diagnose(TestPatternDiagnostics.load(TestPatternDiagnostics.list(500)).list(), 0, 1000, true);
+            recording.stop();
+            recording.dump(file);
+            List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            assertEquals(2, events.size());
+            assertEquals(2, events.get(0).getInt("entries"));
+            assertFalse(events.get(0).getBoolean("fallback"));
+            assertEquals(500, events.get(1).getInt("entries"));
+            assertTrue(events.get(1).getBoolean("fallback"));
+            assertTrue(events.get(1).getInt("length") > 1000);
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -41,4 +41,45 @@ public class TestRangePattern {
         }
     }
 
+    @Test
+    public void testMultiDigitSlop() {
+        assertEquals("(?:1(?:2[89]|[3-9]\\d)|2(?:[0-4]\\d|5[0-5]))", RangePattern.pattern(128, 255));
+        int[] bounds = {0, 1, 9, 10, 11, 19, 20, 28, 99, 100, 101, 128, 199, 200, 255, 999, 1000, 1234};
+        for (int min : bounds) {
+            for (int max : bounds) {
+                Pattern range = RangePattern.compile(min, max);
+                for (int v = 0; v <= 1300; v++) {
+                    assertEquals(min+"-"+max+" matching "+v, v >= min && v <= max, range.matcher(String.valueOf(v)).matches());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testOctetTable() {
+        for (int min = 0; min < 256; min++) {
+            for (int max = min; max < 256; max++) {
+                StringBuilder sb = new StringBuilder();
+                RangePattern.append(sb, min, max);
+                assertEquals(sb.toString(), RangePattern.octet(min, max));
+                assertEquals(RangePattern.count(min, max), RangePattern.alternatives(new StringBuilder(), 0, min, max));
+            }
+        }
+        Pattern octet = Pattern.compile(RangePattern.octet(37, 201));
+        for (int v = 0; v < 256; v++) {
+            assertEquals(v >= 37 && v <= 201, octet.matcher(String.valueOf(v)).matches());
+        }
+    }
+
+    @Test
+    public void testAlternatives() {
+        StringBuilder sb = new StringBuilder("(?:");
+        int written = RangePattern.alternatives(sb, 0, 5, 12);
+        written = RangePattern.alternatives(sb, written, 20, 19);
+        written = RangePattern.alternatives(sb, written, 250, 255);
+        sb.append(')');
+        assertEquals(3, written);
+        assertEquals("(?:[5-9]|1[0-2]|25[0-5])", sb.toString());
+    }
+
 }